@@ -0,0 +1,77 @@
+package jasmine.thim.algorithms;
+
+import jasmine.thim.data.Parameters;
+import jasmine.thim.model.THIMFixtures;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import microsim.data.MultiKeyCoefficientMap;
+
+import org.apache.commons.collections4.keyvalue.MultiKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LifetimeEarningsHealthSearch#incrementValue() on the histogram loaded from input/LavgYLavgHForCompKeys.xls, which is called
+ * once for every Sim that dies after recordDataAfterYear.  The lifetime averages are drawn uniformly from randomly chosen
+ * cells, so every cell of the histogram is hit in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LifetimeEarningsHealthSearchBenchmark {
+
+	private static final int NUMBER_OF_SAMPLES = 1 << 12;
+
+	private MultiKeyCoefficientMap histogram;
+
+	private double[] earnings = new double[NUMBER_OF_SAMPLES];
+
+	private double[] health = new double[NUMBER_OF_SAMPLES];
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMFixtures.loadParameters();
+		histogram = Parameters.getLifetimeEarningsHealthHistogram();
+
+		Object[] cells = histogram.keySet().toArray();
+		for(Object cell : cells) {
+			histogram.put((MultiKey) cell, 0.);
+		}
+
+		Random random = new Random(THIMFixtures.RANDOM_SEED);
+		for(int i = 0; i < NUMBER_OF_SAMPLES; i++) {
+			MultiKey cell = (MultiKey) cells[random.nextInt(cells.length)];
+			int earningsFrom = (Integer) cell.getKey(0);
+			int earningsTo = (Integer) cell.getKey(1);
+			double healthFrom = ((Number) cell.getKey(2)).doubleValue();
+			double healthTo = ((Number) cell.getKey(3)).doubleValue();
+			earnings[i] = earningsFrom + random.nextDouble() * (earningsTo - earningsFrom);			//In [earningsFrom, earningsTo)
+			health[i] = healthTo - random.nextDouble() * (healthTo - healthFrom);						//In (healthFrom, healthTo]
+		}
+	}
+
+	@Benchmark
+	public MultiKeyCoefficientMap incrementValue() {
+		int i = next;
+		next = (i + 1) & (NUMBER_OF_SAMPLES - 1);
+		LifetimeEarningsHealthSearch.incrementValue(histogram, earnings[i], health[i]);
+		return histogram;
+	}
+
+}
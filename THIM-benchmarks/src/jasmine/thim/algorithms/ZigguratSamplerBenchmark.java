@@ -0,0 +1,63 @@
+package jasmine.thim.algorithms;
+
+import jasmine.thim.data.Parameters;
+import jasmine.thim.model.THIMFixtures;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import microsim.engine.SimulationEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The normal and exponential draws of the Sims, with and without THIMModel#zigguratSampling, from the engine's random
+ * number generator as in the EventQueue engine mode.  See ZigguratSamplerTest in THIM for the statistical tests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ZigguratSamplerBenchmark {
+
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMFixtures.loadParameters();
+		random = SimulationEngine.getRnd();
+	}
+
+	@Benchmark
+	public double coltNormal() {			//Sim#updateIncome() and Sim.calculateYearsInEducation()
+		return Parameters.getStandardNormal().nextDouble();
+	}
+
+	@Benchmark
+	public double zigguratNormal() {
+		return ZigguratSampler.nextGaussian(random);
+	}
+
+	@Benchmark
+	public double logExponential() {		//Sim#considerBirth() and Sim#considerDeath()
+		return -Math.log(random.nextDouble());
+	}
+
+	@Benchmark
+	public double zigguratExponential() {
+		return ZigguratSampler.nextExponential(random);
+	}
+
+}
@@ -0,0 +1,58 @@
+package jasmine.thim.data;
+
+import jasmine.thim.model.THIMFixtures;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import microsim.engine.SimulationEngine;
+import microsim.statistics.regression.RegressionUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The RegressionUtils draws made by Sims, on the distributions extracted from the input files by Parameters and with the
+ * engine's random number generator, as in Sim.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegressionSamplingBenchmark {
+
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMFixtures.loadParameters();
+		random = SimulationEngine.getRnd();
+	}
+
+	@Benchmark
+	public double healthDelta() {			//Sim#updateHealth(), once per Sim per year
+		return RegressionUtils.eventPiecewiseConstant(Parameters.getHealthDeltaEvents(), Parameters.getHealthDeltaProbs(), random);
+	}
+
+	@Benchmark
+	public double incomeBase() {			//Sim#calculateIncomeBase(), once per newborn Sim
+		return RegressionUtils.eventPiecewiseConstant(Parameters.getIncomeBaseDistEvents(), Parameters.getIncomeBaseDistProbs(), random);
+	}
+
+	@Benchmark
+	public Integer initialAge() {			//Sim#drawAge(), once per Sim of the initial population
+		return RegressionUtils.event(Parameters.getInitialPopAgeDistEvents(), Parameters.getInitialPopAgeDistProbs(), random);
+	}
+
+}
@@ -0,0 +1,166 @@
+package jasmine.thim.experiment;
+
+import jasmine.thim.model.Sim;
+import jasmine.thim.model.THIMModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import microsim.engine.AbstractSimulationCollectorManager;
+import microsim.engine.SimulationManager;
+import microsim.event.EventListener;
+import microsim.event.Order;
+import microsim.event.SingleTargetEvent;
+
+/**
+ * Measures a headless THIM run for THIMScalingHarness.  Just before the model's Stop event, it writes a single-row .csv
+ * report (header and values) and terminates the JVM, as each configuration is run in its own JVM.
+ */
+public class THIMScalingCollector extends AbstractSimulationCollectorManager implements EventListener {
+
+	private final File reportFile;
+
+	private final long baselineHeapBytes;		//Heap in use after garbage collection, before the model was built
+
+	private final long baselineGcCount;
+
+	private final long baselineGcTime;
+
+	public THIMScalingCollector(SimulationManager manager, File reportFile, long baselineHeapBytes) {
+		super(manager);
+		this.reportFile = reportFile;
+		this.baselineHeapBytes = baselineHeapBytes;
+		baselineGcCount = getGcCount();			//Taken after the baseline heap measurement, so the forced collection is not counted
+		baselineGcTime = getGcTime();
+	}
+
+	public void buildObjects() {
+	}
+
+	public void buildSchedule() {
+		getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.Report), ((THIMModel) getManager()).getEndYear(), Order.AFTER_ALL.getOrdering()-1);		//Just before the model's Stop event, which would otherwise reset the engine
+	}
+
+	public enum Processes {
+		Report,
+	}
+
+	public void onEvent(Enum<?> type) {
+		switch ((Processes) type) {
+		case Report:
+			try {
+				writeReport();
+			} catch (IOException e) {
+				System.out.println("Error writing scaling report to " + reportFile.getAbsolutePath());
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.exit(0);
+			break;
+		}
+	}
+
+	private void writeReport() throws IOException {
+		THIMModel model = (THIMModel) getManager();
+		long runTime = System.currentTimeMillis() - model.getElapsedTime();			//elapsedTime is reset at the start of the simulation by the model's ResetTimer event
+		long gcCount = getGcCount() - baselineGcCount;		//Measured before the heap is collected below
+		long gcTime = getGcTime() - baselineGcTime;
+		int finalPopulationSize = model.getSims().size();
+		long bytesPerAgent = (getUsedHeapAfterGc() - baselineHeapBytes) / Math.max(1, finalPopulationSize);
+		double runSeconds = Math.max(1, runTime) / 1000.;
+
+		List<String> names = getReportColumnNames();
+		List<Object> values = new ArrayList<Object>(names.size());
+		values.add(model.getStartingPopulationSize());
+		values.add(model.getEndYear());
+		values.add(model.getTimeToCompleteBuild());
+		values.add(runTime);
+		values.add(model.getEndYear() / runSeconds);
+		long totalEvents = 0;
+		for(long count : model.getSimEventCounts()) {
+			totalEvents += count;
+		}
+		values.add(totalEvents / runSeconds);
+		for(Sim.Processes process : Sim.Processes.values()) {
+			values.add(model.getSimEventCounts()[process.ordinal()] / runSeconds);
+		}
+		values.add(finalPopulationSize);
+		values.add(bytesPerAgent);
+		values.add(gcCount);
+		values.add(gcTime);
+		values.add(Runtime.getRuntime().maxMemory() / (1024 * 1024));
+
+		File directory = reportFile.getAbsoluteFile().getParentFile();
+		if(directory != null) {
+			directory.mkdirs();
+		}
+		PrintWriter writer = new PrintWriter(reportFile, "UTF-8");
+		try {
+			writer.println(join(names));
+			writer.println(join(values));
+		} finally {
+			writer.close();
+		}
+	}
+
+	//Columns of the report.  Those after events_per_sec are one per Sim.Processes type, so a new process adds a column.
+	public static List<String> getReportColumnNames() {
+		List<String> names = new ArrayList<String>();
+		names.add("population_size");
+		names.add("years");
+		names.add("build_time_ms");
+		names.add("run_time_ms");
+		names.add("simulated_years_per_sec");
+		names.add("events_per_sec");
+		for(Sim.Processes process : Sim.Processes.values()) {
+			names.add("events_per_sec_" + process.name());
+		}
+		names.add("final_population_size");
+		names.add("bytes_per_agent");
+		names.add("gc_collections");
+		names.add("gc_pause_ms");
+		names.add("max_heap_mb");
+		return names;
+	}
+
+	private static String join(List<?> values) {
+		StringBuilder line = new StringBuilder();
+		for(Object value : values) {
+			if(line.length() > 0) {
+				line.append(',');
+			}
+			line.append(value);
+		}
+		return line.toString();
+	}
+
+	public static long getUsedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {		//A single request is not guaranteed to collect everything that is unreachable
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());		//-1 if undefined for this collector
+		}
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+}
@@ -0,0 +1,222 @@
+package jasmine.thim.experiment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless scaling harness.  Runs THIM for every combination of population size and number of years, each in a fresh JVM
+ * (see THIMScalingStart), collects the measurements into a single .csv report and, if a baseline report is given, compares
+ * the two and exits with status 1 when a metric is worse than the baseline by more than the tolerance.
+ *
+ * Must be run from the THIM project directory, e.g.
+ * java -cp ../THIM-benchmarks/target/benchmarks.jar jasmine.thim.experiment.THIMScalingHarness -p 10000,100000 -y 20 -b ../THIM-benchmarks/baseline/scaling_baseline.csv
+ */
+public class THIMScalingHarness {
+
+	private static String populationSizes = "10000,100000,1000000,10000000";
+
+	private static String yearCounts = "20";
+
+	private static int randomSeed = 0;
+
+	private static File reportFile = new File("output", "scaling_report.csv");
+
+	private static File baselineFile = null;
+
+	private static double tolerance = 0.1;			//Relative change beyond which a metric is reported as a regression
+
+	private static String jvmArgs = "";			//Passed to each child JVM, e.g. "-Xmx32g" for the larger populations
+
+	private static String engineMode = "EventQueue";		//Engine mode of every run, see THIMModel
+
+	private static String batchYearlyEvents = "false";		//Only used by the Annual engine mode
+
+	private static String parallelBuild = "false";
+
+	//Metrics compared with the baseline, and whether a larger value is better
+	private static final String[] comparedMetrics = {"simulated_years_per_sec", "events_per_sec", "build_time_ms", "bytes_per_agent", "gc_pause_ms"};
+	private static final boolean[] largerIsBetter = {true, true, false, false, false};
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		for (int i = 0; i < args.length; i++) {
+			try {
+				if (args[i].equals("-p")){
+					populationSizes = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-y")){
+					yearCounts = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-s")){
+					randomSeed = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-o")){
+					reportFile = new File(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-b")){
+					baselineFile = new File(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-t")){
+					tolerance = Double.parseDouble(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-j")){
+					jvmArgs = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-e")){
+					engineMode = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-batch")){
+					batchYearlyEvents = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-parallelBuild")){
+					parallelBuild = args[i + 1];
+					i++;
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Argument " + args[i + 1] + " must be a number.");
+				System.exit(1);
+			}
+		}
+
+		List<String> header = null;
+		List<List<String>> rows = new ArrayList<List<String>>();
+		File runFile = File.createTempFile("thim_scaling_run", ".csv");
+		runFile.deleteOnExit();
+
+		for(String years : yearCounts.split(",")) {
+			for(String populationSize : populationSizes.split(",")) {
+				System.out.println("Running THIM with population size " + populationSize.trim() + " for " + years.trim() + " years");
+				runFile.delete();
+				int exitValue = runChild(populationSize.trim(), years.trim(), runFile);
+				if(exitValue != 0 || !runFile.isFile()) {
+					System.err.println("Run with population size " + populationSize.trim() + " for " + years.trim() + " years failed with exit value " + exitValue);
+					System.exit(1);
+				}
+				List<List<String>> run = readCsv(runFile);
+				header = run.get(0);
+				rows.add(run.get(1));
+			}
+		}
+
+		writeCsv(reportFile, header, rows);
+		System.out.println("Scaling report written to " + reportFile.getAbsolutePath());
+
+		if(baselineFile != null) {
+			int regressions = compareWithBaseline(header, rows, readCsv(baselineFile));
+			if(regressions > 0) {
+				System.out.println(regressions + " metric(s) regressed by more than " + (tolerance * 100.) + "% against " + baselineFile.getPath());
+				System.exit(1);
+			}
+			System.out.println("No regressions against " + baselineFile.getPath());
+		}
+	}
+
+	private static int runChild(String populationSize, String years, File runFile) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		if(!jvmArgs.trim().isEmpty()) {
+			command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+		}
+		command.add(THIMScalingStart.class.getName());
+		command.addAll(Arrays.asList("-p", populationSize, "-y", years, "-s", Integer.toString(randomSeed), "-o", runFile.getAbsolutePath(), "-e", engineMode, "-batch", batchYearlyEvents, "-parallelBuild", parallelBuild));
+
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		return process.waitFor();
+	}
+
+	//Prints every compared metric of every configuration present in both reports, and returns the number of regressions
+	private static int compareWithBaseline(List<String> header, List<List<String>> rows, List<List<String>> baseline) {
+		Map<String, List<String>> baselineRows = new LinkedHashMap<String, List<String>>();
+		List<String> baselineHeader = baseline.get(0);
+		for(List<String> row : baseline.subList(1, baseline.size())) {
+			baselineRows.put(getConfiguration(baselineHeader, row), row);
+		}
+
+		int regressions = 0;
+		for(List<String> row : rows) {
+			String configuration = getConfiguration(header, row);
+			List<String> baselineRow = baselineRows.get(configuration);
+			if(baselineRow == null) {
+				System.out.println(configuration + ": not in baseline");
+				continue;
+			}
+			for(int m = 0; m < comparedMetrics.length; m++) {
+				int column = header.indexOf(comparedMetrics[m]);
+				int baselineColumn = baselineHeader.indexOf(comparedMetrics[m]);
+				if(column < 0 || baselineColumn < 0) {
+					continue;
+				}
+				double value = Double.parseDouble(row.get(column));
+				double baselineValue = Double.parseDouble(baselineRow.get(baselineColumn));
+				double relativeChange = baselineValue != 0. ? (value - baselineValue) / Math.abs(baselineValue) : 0.;
+				boolean regression = largerIsBetter[m] ? relativeChange < -tolerance : relativeChange > tolerance;
+				if(regression) {
+					regressions++;
+				}
+				System.out.println(String.format("%s: %s %s -> %s (%+.1f%%)%s", configuration, comparedMetrics[m], baselineRow.get(baselineColumn), row.get(column), relativeChange * 100., regression ? " REGRESSION" : ""));
+			}
+		}
+		return regressions;
+	}
+
+	private static String getConfiguration(List<String> header, List<String> row) {
+		return "population_size=" + row.get(header.indexOf("population_size")) + ", years=" + row.get(header.indexOf("years"));
+	}
+
+	private static List<List<String>> readCsv(File file) throws IOException {
+		List<List<String>> lines = new ArrayList<List<String>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.trim().isEmpty()) {
+					lines.add(Arrays.asList(line.trim().split(",")));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if(lines.size() < 2) {
+			throw new IOException(file.getPath() + " does not contain a header and at least one row");
+		}
+		return lines;
+	}
+
+	private static void writeCsv(File file, List<String> header, List<List<String>> rows) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if(directory != null) {
+			directory.mkdirs();
+		}
+		PrintWriter writer = new PrintWriter(file, "UTF-8");
+		try {
+			writer.println(String.join(",", header));
+			for(List<String> row : rows) {
+				writer.println(String.join(",", row));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+package jasmine.thim.experiment;
+
+import jasmine.thim.model.THIMModel;
+import jasmine.thim.model.enums.EngineMode;
+
+import java.io.File;
+import java.util.Arrays;
+
+import microsim.engine.ExperimentBuilder;
+import microsim.engine.SimulationEngine;
+
+/**
+ * Runs a single headless configuration for THIMScalingHarness, without the database, GUI or output tables, and writes the
+ * measurements to the file given by '-o'.  Like THIMStart, it must be run from the THIM project directory.
+ */
+public class THIMScalingStart implements ExperimentBuilder {
+
+	private static int populationSize = 10000;
+
+	private static int years = 20;
+
+	private static int randomSeed = 0;
+
+	private static File reportFile = new File("output", "scaling_run.csv");
+
+	private static EngineMode engineMode = EngineMode.EventQueue;
+
+	private static boolean batchYearlyEvents = false;
+
+	private static boolean parallelBuild = false;
+
+	public static void main(String[] args) {
+
+		for (int i = 0; i < args.length; i++) {
+			try {
+				if (args[i].equals("-p")){
+					populationSize = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-y")){
+					years = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-s")){
+					randomSeed = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-o")){
+					reportFile = new File(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-e")){
+					engineMode = EngineMode.valueOf(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-batch")){
+					batchYearlyEvents = Boolean.parseBoolean(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-parallelBuild")){
+					parallelBuild = Boolean.parseBoolean(args[i + 1]);
+					i++;
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Argument " + args[i + 1] + " must be an integer.");
+				System.exit(1);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Argument " + args[i + 1] + " must be one of " + Arrays.toString(EngineMode.values()) + ".");
+				System.exit(1);
+			}
+		}
+
+		SimulationEngine engine = SimulationEngine.getInstance();
+		engine.setTurnOffDatabaseConnection(true);
+		engine.setExperimentBuilder(new THIMScalingStart());
+		engine.setup();
+		engine.startSimulation();
+
+	}
+
+	public void buildExperiment(SimulationEngine engine) {
+		THIMModel model = new THIMModel();
+		model.setMicrosimShellUse(false);
+		model.setStartingPopulationSize(populationSize);
+		model.setEndYear(years);
+		model.setFixRandomSeed(true);
+		model.setRandomSeedIfFixed(randomSeed);
+		model.setEngineMode(engineMode);
+		model.setBatchYearlyEvents(batchYearlyEvents);
+		model.setParallelBuild(parallelBuild);
+
+		long baselineHeapBytes = THIMScalingCollector.getUsedHeapAfterGc();		//Before the model is built, so that only the population and its schedule are attributed to agents
+		engine.addSimulationManager(model);
+
+		THIMScalingCollector collector = new THIMScalingCollector(model, reportFile, baselineHeapBytes);
+		engine.addSimulationManager(collector);
+	}
+
+}
@@ -0,0 +1,55 @@
+package jasmine.thim.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * THIMModel#buildObjects(), i.e. loading the input files, generating the initial population, linking children to parents
+ * and scheduling the initial events.  Each build is a single shot, as it is only ever run once per simulation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BuildObjectsBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int populationSize;
+
+	@Param({"false", "true"})
+	public boolean parallelBuild;
+
+	private THIMModel model;
+
+	@Setup(Level.Trial)
+	public void setUpModel() {
+		model = THIMFixtures.getModel(populationSize);
+		model.setParallelBuild(parallelBuild);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpBuild() {
+		THIMFixtures.resetEngine();		//Drops the previous population's events, so each build starts from an empty schedule
+	}
+
+	@Benchmark
+	public THIMModel buildObjects() {
+		model.buildObjects();
+		return model;
+	}
+
+}
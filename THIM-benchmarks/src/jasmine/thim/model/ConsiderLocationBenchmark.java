@@ -0,0 +1,77 @@
+package jasmine.thim.model;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sim#considerLocation() for one working Sim against a city of numberOfNbhds neighbourhoods.
+ *
+ * The Sim's own nbhd and all the other nbhds are given an average income of 1/1000 of the Sim's income and no working residents.
+ * The propensity to move is then 1, every other nbhd has space and none is strictly better, so each call scans and compares
+ * the full list of nbhds without actually moving the Sim.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConsiderLocationBenchmark {
+
+	private static final int POPULATION_SIZE = 10000;
+
+	@Param({"10", "100", "1000", "10000"})
+	public int numberOfNbhds;
+
+	private Sim sim;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMModel model = THIMFixtures.buildModel(POPULATION_SIZE);		//The population is only needed for the city-wide number of working Sims used in the occupancy test
+
+		for(Sim candidate : model.getSims()) {
+			if(candidate.getAge() > candidate.getYearsInEducation() && candidate.getIncome() > 0.) {
+				sim = candidate;
+				break;
+			}
+		}
+		if(sim == null) {
+			throw new IllegalStateException("No working Sim found in the initial population of " + POPULATION_SIZE);
+		}
+
+		double avgNbhdIncome = sim.getIncome() / 1000.;
+		Nbhd ownNbhd = sim.getNbhd();
+		ownNbhd.setAvgNbhdAdultIncome(avgNbhdIncome);
+
+		List<Nbhd> nbhds = model.getNbhds();
+		nbhds.clear();
+		nbhds.add(ownNbhd);
+		sim.setNbhdId(0);		//Sims look their nbhd up by index, so the Sim's own nbhd is moved to the start of the list
+		for(int i = 1; i < numberOfNbhds; i++) {
+			Nbhd nbhd = new Nbhd((long)ownNbhd.getKey().getId() + i);		//Ids only need to differ from the Sim's own nbhd, which is compared by identity
+			nbhd.setAvgNbhdAdultIncome(avgNbhdIncome);
+			nbhd.setNumWorkingResidents(0);
+			nbhds.add(nbhd);
+		}
+	}
+
+	@Benchmark
+	public Nbhd considerLocation() {
+		sim.considerLocation();
+		return sim.getNbhd();
+	}
+
+}
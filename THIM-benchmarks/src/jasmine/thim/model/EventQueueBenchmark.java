@@ -0,0 +1,135 @@
+package jasmine.thim.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import microsim.event.EventListener;
+import microsim.event.EventQueue;
+import microsim.event.Order;
+import microsim.event.SingleTargetEvent;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw throughput of the JAS-mine event queue for the THIM event mix, without any model logic.  One operation is one
+ * simulated year.
+ *
+ * Each agent has a yearly event repeated on its birthday, like Sim.Processes.YearlyEvents.  On that event it may schedule
+ * a Death, or a ConsiderBirth that is followed by a GiveBirth and, for the newborn, a StopFollowingParent.  These one-off
+ * events are created per use and scheduled with the same orderings as in Sim.  On Death the yearly event is unscheduled
+ * and the agent is replaced by a newborn, so the size of the schedule stays stationary as it does in THIM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class EventQueueBenchmark implements EventListener {
+
+	//Roughly the stationary rates of the THIM population with the default parameters
+	private static final double DEATH_RATE = 1. / 70.;
+	private static final double BIRTH_RATE = 1. / 70.;
+	private static final double YEARS_IN_EDUCATION = 12.;
+
+	@Param({"10000", "100000", "1000000"})
+	public int numberOfAgents;
+
+	private EventQueue eventQueue;
+
+	private Random random;
+
+	private boolean yearEnded;
+
+	private EventCounter counter;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class EventCounter {
+
+		public long events;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			events = 0;
+		}
+
+	}
+
+	private class Agent implements EventListener {
+
+		private final SingleTargetEvent yearlyEvents = new SingleTargetEvent(this, Sim.Processes.YearlyEvents);
+
+		public void onEvent(Enum<?> type) {
+			counter.events++;
+			double time = eventQueue.getTime();
+			switch ((Sim.Processes) type) {
+			case YearlyEvents:
+				if(random.nextDouble() < DEATH_RATE) {
+					eventQueue.scheduleOnce(new SingleTargetEvent(this, Sim.Processes.Death), time + random.nextDouble(), 9);
+				}
+				else if(random.nextDouble() < BIRTH_RATE) {
+					eventQueue.scheduleOnce(new SingleTargetEvent(this, Sim.Processes.ConsiderBirth), time + random.nextDouble(), 1);
+				}
+				break;
+			case ConsiderBirth:
+				eventQueue.scheduleOnce(new SingleTargetEvent(this, Sim.Processes.GiveBirth), time + random.nextDouble(), 10);
+				break;
+			case GiveBirth:
+				eventQueue.scheduleOnce(new SingleTargetEvent(this, Sim.Processes.StopFollowingParent), time + YEARS_IN_EDUCATION, Order.BEFORE_ALL.getOrdering());
+				break;
+			case StopFollowingParent:
+				break;
+			case Death:
+				eventQueue.unschedule(yearlyEvents);
+				eventQueue.scheduleRepeat(yearlyEvents, time + 1., -1, 1.);
+				break;
+			}
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		eventQueue = new EventQueue();
+		random = new Random(THIMFixtures.RANDOM_SEED);
+		counter = new EventCounter();		//Replaced by JMH's instance on the first invocation; this one only counts the warm-up year below
+		for(int i = 0; i < numberOfAgents; i++) {
+			Agent agent = new Agent();
+			eventQueue.scheduleRepeat(agent.yearlyEvents, random.nextDouble(), -1, 1.);
+		}
+		eventQueue.scheduleRepeat(new SingleTargetEvent(this, THIMModel.Processes.UpdateStatistics), 1., Order.AFTER_ALL.getOrdering(), 1.);
+		runYear();			//The first year fills the schedule with the one-off events
+	}
+
+	public void onEvent(Enum<?> type) {
+		yearEnded = true;
+	}
+
+	private void runYear() {
+		yearEnded = false;
+		while(!yearEnded) {
+			eventQueue.step();
+		}
+	}
+
+	@Benchmark
+	public EventQueue simulateYear(EventCounter eventCounter) {
+		counter = eventCounter;
+		runYear();
+		return eventQueue;
+	}
+
+}
@@ -0,0 +1,68 @@
+package jasmine.thim.model;
+
+import jasmine.thim.data.Parameters;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math.ArgumentOutsideDomainException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The propensity to move of Sim#considerLocation() for 1024 income differences spread over all three pieces of the
+ * function, from the spline of Parameters and from CompiledParameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PropensityToMoveBenchmark {
+
+	private static final int NUMBER_OF_DIFFERENCES = 1024;
+
+	private double[] incomeDifferences;
+
+	private CompiledParameters parameters;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMFixtures.loadParameters();
+		parameters = new CompiledParameters(THIMFixtures.getModel(1));
+		Random random = new Random(THIMFixtures.RANDOM_SEED);
+		incomeDifferences = new double[NUMBER_OF_DIFFERENCES];
+		for(int i = 0; i < NUMBER_OF_DIFFERENCES; i++) {
+			incomeDifferences[i] = random.nextDouble() * 2. * Parameters.getMovePropIncDiff();
+		}
+	}
+
+	@Benchmark
+	public double spline() throws ArgumentOutsideDomainException {
+		double sum = 0.;
+		for(double incomeDifference : incomeDifferences) {
+			sum += Parameters.getPropensityToMoveFunction().value(incomeDifference);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double compiled() {
+		double sum = 0.;
+		for(double incomeDifference : incomeDifferences) {
+			sum += parameters.getPropensityToMove(incomeDifference);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,45 @@
+package jasmine.thim.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Statistics#updateStatistics() over the initial population, which is the pass made at the start of every simulated year.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StatisticsBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int populationSize;
+
+	private Statistics stats;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stats = THIMFixtures.buildModel(populationSize).getStats();
+	}
+
+	@Benchmark
+	public Statistics updateStatistics() {
+		stats.updateStatistics();
+		return stats;
+	}
+
+}
@@ -0,0 +1,67 @@
+package jasmine.thim.model;
+
+import java.io.File;
+
+import jasmine.thim.data.Parameters;
+import jasmine.thim.model.enums.CityType;
+import jasmine.thim.model.enums.IncomeBaseGiniCoefficient;
+import microsim.engine.SimulationEngine;
+
+/**
+ * Builds benchmark fixtures from the real input/*.xls files.  The input paths are relative,
+ * so the benchmarks must be launched with the THIM project directory as the working directory.
+ */
+public class THIMFixtures {
+
+	public static final int RANDOM_SEED = 0;
+
+	private THIMFixtures() {
+	}
+
+	public static void checkInputFiles() {
+		File cityParameters = new File("input", "city_parameters.xls");
+		if(!cityParameters.isFile()) {
+			throw new IllegalStateException("Cannot find " + cityParameters.getAbsolutePath() + ".  The benchmarks load the "
+					+ "real input/*.xls files, so they must be run from the THIM project directory.");
+		}
+	}
+
+	public static void loadParameters() {
+		checkInputFiles();
+		SimulationEngine.getRnd().setSeed(RANDOM_SEED);
+		Parameters.loadExternalParameters(CityType.U, IncomeBaseGiniCoefficient.Gini_0_570);
+	}
+
+	//Returns the model registered with the engine, creating it on first use.  The GUI defaults are kept apart from the population size and the seed.
+	public static THIMModel getModel(int populationSize) {
+		checkInputFiles();
+		SimulationEngine engine = SimulationEngine.getInstance();
+		engine.setTurnOffDatabaseConnection(true);
+		THIMModel model = (THIMModel) engine.getManager(THIMModel.class.getCanonicalName());
+		if(model == null) {
+			model = new THIMModel();
+			engine.addSimulationManager(model);
+		}
+		model.setStartingPopulationSize(populationSize);
+		model.setFixRandomSeed(true);
+		model.setRandomSeedIfFixed(RANDOM_SEED);
+		return model;
+	}
+
+	//Clears the engine's event queue and the id counters, so that repeated builds in one JVM produce the same population (nbhd ids must also start at 0, as they index the model's list of nbhds).
+	public static void resetEngine() {
+		SimulationEngine.getInstance().getEventQueue().clear();
+		Sim.simIdCounter = 0;
+		Nbhd.nbhdIdCounter = 0;
+	}
+
+	//A fully built population with its initial events scheduled and the statistics calculated, as at the start of the simulation.
+	public static THIMModel buildModel(int populationSize) {
+		THIMModel model = getModel(populationSize);
+		resetEngine();
+		model.buildObjects();
+		model.getStats().updateStatistics();
+		return model;
+	}
+
+}
@@ -0,0 +1,90 @@
+package jasmine.thim.model;
+
+import jasmine.thim.data.Parameters;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The income and health kernels of YearlyEventsBatch over numberOfSims Sims, on arrays filled with values in the ranges
+ * of a running model.  The income kernel reads 48 bytes and writes 16 bytes per Sim, and the health kernel reads 36 bytes
+ * and writes 16 bytes, so the time per Sim can be compared with the memory bandwidth of the machine.  A batch of the
+ * model holds YearlyEventsBatch.CAPACITY Sims; the larger sizes no longer fit in the caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class YearlyEventsBatchBenchmark {
+
+	@Param({"1024", "1048576"})
+	public int numberOfSims;
+
+	private int[] ages;
+	private int[] yearsInEducation;
+	private double[] incomeBases;
+	private double[] incomeProfiles;
+	private double[] normals;
+	private double[] incomes;
+	private double[] cumulativeIncomes;
+	private double[] healthDeltas;
+	private double[] logIncomeRatios;
+	private double[] healthIndices;
+	private double[] cumulativeHealthIndices;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		THIMFixtures.loadParameters();
+		Random random = new Random(THIMFixtures.RANDOM_SEED);
+		ages = new int[numberOfSims];
+		yearsInEducation = new int[numberOfSims];
+		incomeBases = new double[numberOfSims];
+		incomeProfiles = new double[numberOfSims];
+		normals = new double[numberOfSims];
+		incomes = new double[numberOfSims];
+		cumulativeIncomes = new double[numberOfSims];
+		healthDeltas = new double[numberOfSims];
+		logIncomeRatios = new double[numberOfSims];
+		healthIndices = new double[numberOfSims];
+		cumulativeHealthIndices = new double[numberOfSims];
+		for(int i = 0; i < numberOfSims; i++) {
+			ages[i] = 1 + random.nextInt(Parameters.getMaxAge() - 1);
+			yearsInEducation[i] = 10 + random.nextInt(11);
+			incomeBases[i] = Math.exp(random.nextGaussian());
+			incomeProfiles[i] = Parameters.getAgeIncomeProfile()[ages[i]];
+			normals[i] = random.nextGaussian();
+			incomes[i] = incomeBases[i];
+			healthDeltas[i] = random.nextGaussian() * 0.01;
+			logIncomeRatios[i] = random.nextGaussian() * 0.5;
+			healthIndices[i] = random.nextDouble();
+		}
+	}
+
+	@Benchmark
+	public double[] updateIncome() {
+		YearlyEventsBatch.updateIncome(numberOfSims, ages, yearsInEducation, incomeBases, incomeProfiles, normals, Parameters.getYSigma(), incomes, cumulativeIncomes);
+		return cumulativeIncomes;
+	}
+
+	@Benchmark
+	public double[] updateHealth() {
+		YearlyEventsBatch.updateHealth(numberOfSims, ages, healthDeltas, logIncomeRatios, Parameters.getHIncParm(), Parameters.getMaxAge(), 0., 1., healthIndices, cumulativeHealthIndices);
+		return cumulativeHealthIndices;
+	}
+
+}
@@ -0,0 +1,50 @@
+package jasmine.thim.algorithms;
+
+/**
+ *
+ * Table-driven natural logarithm, for the per-Sim arithmetic of the FastLogDomain math mode (see THIMModel#mathMode).
+ * The mantissa is reduced to a small interval around one of 64 table points, where a short polynomial gives the rest,
+ * so there is no call into the runtime library.  For normal positive arguments the error is below one ulp of the result
+ * plus 1e-15 (see FastLogTest); other arguments (zero, negative, subnormal, infinite or NaN)
+ * fall back to Math.log.  There is no fast exp, as Math.exp is a HotSpot intrinsic that a table-driven exp does not beat.
+ *
+ */
+public class FastLog {
+
+	private static final int TABLE_BITS = 6;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+	//ln(2) split so that exponent * LN2_HI is exact (as in fdlibm)
+	private static final double LN2_HI = 6.93147180369123816490e-01;
+	private static final double LN2_LO = 1.90821492927058770002e-10;
+
+	private static final double[] logCentres = new double[TABLE_SIZE];		//1 + (j + 0.5)/64, the centres of the intervals of the mantissa
+	private static final double[] inverseLogCentres = new double[TABLE_SIZE];
+	private static final double[] logOfLogCentres = new double[TABLE_SIZE];
+
+	static {
+		for(int j = 0; j < TABLE_SIZE; j++) {
+			logCentres[j] = 1. + (j + 0.5) / TABLE_SIZE;
+			inverseLogCentres[j] = 1. / logCentres[j];
+			logOfLogCentres[j] = Math.log(logCentres[j]);
+		}
+	}
+
+	private FastLog() {
+	}
+
+	public static double log(double x) {
+		if(!(x >= Double.MIN_NORMAL) || x == Double.POSITIVE_INFINITY) {		//Zero, negative, subnormal, infinite or NaN
+			return Math.log(x);
+		}
+		long bits = Double.doubleToRawLongBits(x);
+		int exponent = (int)(bits >>> 52) - 1023;
+		long mantissaBits = bits & 0x000FFFFFFFFFFFFFL;
+		int j = (int)(mantissaBits >>> (52 - TABLE_BITS));
+		double mantissa = Double.longBitsToDouble(mantissaBits | 0x3FF0000000000000L);		//In [1, 2)
+		double t = (mantissa - logCentres[j]) * inverseLogCentres[j];		//|t| <= 1/128
+		double log1pT = t * (1. - t * (0.5 - t * (1./3. - t * (0.25 - t * (0.2 - t * (1./6.))))));
+		return (exponent * LN2_HI + logOfLogCentres[j]) + (log1pT + exponent * LN2_LO);
+	}
+
+}
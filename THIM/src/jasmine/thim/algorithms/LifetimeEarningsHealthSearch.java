@@ -6,7 +6,11 @@ import org.apache.commons.collections4.map.MultiKeyMap;
 
 public class LifetimeEarningsHealthSearch {
 
-	public static void incrementValue(MultiKeyMap map, double earnings, double health) {		
+	public static void incrementValue(MultiKeyMap map, double earnings, double health) {
+		incrementValue(map, earnings, health, 1);
+	}
+
+	public static void incrementValue(MultiKeyMap map, double earnings, double health, int increment) {		//The increment is the number of persons the Sim represents
 		for (MapIterator iterator = map.mapIterator(); iterator.hasNext();) {
 			iterator.next();
 			MultiKey mk = (MultiKey) iterator.getKey();
@@ -17,7 +21,7 @@ public class LifetimeEarningsHealthSearch {
 			
 			if ((earnings >= earningsFrom) && (earnings < earningsTo) && (health > healthFrom) && (health <= healthTo)) {		//N.B. Sims must have a strictly positive lifetimeAverageHealth as they are initialised with a positive healthIndex (Sims whose health is updated to healthIndex = 0 should die at the next time-step).  Hence the inequalities on the healthFrom and healthTo. 
 				int previousValue = ((Number) map.get(mk)).intValue();
-				map.put(mk, previousValue + 1);			//Increment histogram
+				map.put(mk, previousValue + increment);			//Increment histogram
 				return;
 			}
 		}
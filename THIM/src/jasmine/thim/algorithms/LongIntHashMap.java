@@ -0,0 +1,92 @@
+package jasmine.thim.algorithms;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Map from long keys to int values in two primitive arrays, with open addressing and linear probing, so that an
+ * entry takes 12 bytes (at most 24 with the headroom of the tables) rather than a HashMap entry and two boxed
+ * numbers.  Long.MIN_VALUE marks an empty place, so it cannot be a key.  Entries cannot be removed.
+ *
+ */
+public class LongIntHashMap {
+
+	private static final long emptyKey = Long.MIN_VALUE;
+
+	private long[] keys;
+
+	private int[] values;
+
+	private int size = 0;
+
+	private int mask;
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) Math.min(1 << 30, expectedSize * 4L / 3L)) - 1) << 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, emptyKey);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	//Returns false (leaving the map unchanged) if the key is already in the map
+	public boolean putIfAbsent(long key, int value) {
+		if(key == emptyKey) {
+			throw new IllegalArgumentException("Long.MIN_VALUE cannot be a key");
+		}
+		int place = indexOf(key);
+		while(keys[place] != emptyKey) {
+			if(keys[place] == key) {
+				return false;
+			}
+			place = (place + 1) & mask;
+		}
+		keys[place] = key;
+		values[place] = value;
+		if(++size > (keys.length >> 2) * 3) {		//At most three quarters full
+			grow();
+		}
+		return true;
+	}
+
+	//Returns the value of the key, or missingValue if the key is not in the map
+	public int get(long key, int missingValue) {
+		int place = indexOf(key);
+		while(keys[place] != emptyKey) {
+			if(keys[place] == key) {
+				return values[place];
+			}
+			place = (place + 1) & mask;
+		}
+		return missingValue;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int indexOf(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;			//Fibonacci hashing, so consecutive ids are spread over the table
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length << 1];
+		Arrays.fill(keys, emptyKey);
+		values = new int[keys.length];
+		mask = keys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != emptyKey) {
+				int place = indexOf(oldKeys[i]);
+				while(keys[place] != emptyKey) {
+					place = (place + 1) & mask;
+				}
+				keys[place] = oldKeys[i];
+				values[place] = oldValues[i];
+			}
+		}
+	}
+
+}
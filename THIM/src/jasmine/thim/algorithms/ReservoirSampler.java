@@ -0,0 +1,178 @@
+package jasmine.thim.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+public class ReservoirSampler<T> {
+
+	private final boolean panelConsistent;
+	
+	private final Random random;
+	
+	private final ToLongFunction<? super T> idOf;
+	
+	private final ArrayList<T> sample = new ArrayList<T>();
+	
+	private long[] sampleIds = new long[16];		//In panel-consistent mode, the id of each member of the sample when it was drawn
+	
+	private double[] inclusionProbabilities = new double[16];		//Of each member of the sample, see getInclusionProbability()
+	
+	/**
+	 * 
+	 * Draws simple random samples without replacement from a population in a single pass, using the skipping 
+	 * reservoir algorithm (Li, 1994, 'Reservoir-sampling algorithms of time complexity O(n(1 + log(N/n)))'), so 
+	 * that the number of random draws grows with the sample size rather than with the population size.
+	 * 
+	 * @param panelConsistent - if true, members of the previous sample that are still retained are kept in the 
+	 * next sample, and only the places left by members that have dropped out (e.g. died) are refilled from the 
+	 * rest of the population.  If false, a new independent sample is drawn each time.
+	 * @param random - the random number generator used for sampling.  Use a generator that is separate from the 
+	 * one driving the simulation, so that sampling does not change the simulated outcomes.
+	 * @param idOf - the unique id of a member of the population (other than Long.MIN_VALUE).  Panel membership is 
+	 * keyed by id rather than by object, as objects can be reused for new members of the population (see 
+	 * SimFactory), and a member whose id has changed since it was drawn is dropped from the panel.  Only used in 
+	 * panel-consistent mode.
+	 * 
+	 */
+	public ReservoirSampler(boolean panelConsistent, Random random, ToLongFunction<? super T> idOf) {
+		this.panelConsistent = panelConsistent;
+		this.random = random;
+		this.idOf = idOf;
+	}
+	
+	/**
+	 * 
+	 * @param population - the population to sample from 
+	 * @param sampleSize - the required sample size.  If larger than the population, the whole population is returned.
+	 * @param isRetained - in panel-consistent mode, the test of whether a member of the previous sample can stay in 
+	 * the sample (members that are still retained must also still be part of the population).  Members whose id has 
+	 * changed are not retained whatever the test.
+	 * @return the sample.  The list is reused by the next call, and the inclusion probability of each member is
+	 * given by getInclusionProbability().
+	 * 
+	 */
+	public List<T> sample(Collection<? extends T> population, int sampleSize, Predicate<? super T> isRetained) {
+		
+		sampleSize = Math.min(sampleSize, population.size());
+		LongIntHashMap panelIds = null;
+		if(panelConsistent) {
+			for(int i = sample.size() - 1; i >= 0; i--) {
+				T member = sample.get(i);
+				if(idOf.applyAsLong(member) != sampleIds[i] || !isRetained.test(member)) {		//An object reused for a new member has a new id
+					removeAt(i);
+				}
+			}
+			if(sample.size() > sampleSize) {				//The target size can shrink with the population (when sampling a fixed fraction), so drop randomly chosen members
+				double keptFraction = sampleSize / (double) sample.size();
+				while(sample.size() > sampleSize) {
+					removeAt(random.nextInt(sample.size()));
+				}
+				for(int i = 0; i < sample.size(); i++) {
+					inclusionProbabilities[i] *= keptFraction;
+				}
+			}
+			if(!sample.isEmpty() && sample.size() < sampleSize) {
+				panelIds = new LongIntHashMap(sample.size());
+				for(int i = 0; i < sample.size(); i++) {
+					panelIds.putIfAbsent(sampleIds[i], i);
+				}
+			}
+		}
+		else {
+			sample.clear();
+		}
+		
+		int numberToDraw = sampleSize - sample.size();
+		if(numberToDraw > 0) {
+			drawIntoReservoir(population, numberToDraw, panelIds);
+		}
+		return sample;
+	}
+	
+	//panelIds are the ids of the members kept from the previous sample, or null if there are none
+	private void drawIntoReservoir(Collection<? extends T> population, int numberToDraw, LongIntHashMap panelIds) {
+		
+		int base = sample.size();
+		int filled = 0;
+		int candidates = 0;
+		double w = 0.;
+		long skip = 0;
+		for(T candidate : population) {
+			if(panelIds != null && panelIds.get(idOf.applyAsLong(candidate), -1) >= 0) {		//Already in the panel
+				continue;
+			}
+			candidates++;
+			if(filled < numberToDraw) {
+				add(candidate);
+				filled++;
+				if(filled == numberToDraw) {
+					w = Math.exp(Math.log(random.nextDouble()) / numberToDraw);
+					skip = nextSkip(w);
+				}
+			}
+			else if(skip > 0) {
+				skip--;
+			}
+			else {
+				int replaced = base + random.nextInt(numberToDraw);
+				if(panelConsistent) {
+					sampleIds[replaced] = idOf.applyAsLong(candidate);
+				}
+				sample.set(replaced, candidate);
+				w *= Math.exp(Math.log(random.nextDouble()) / numberToDraw);
+				skip = nextSkip(w);
+			}
+		}
+		for(int i = base; i < base + filled; i++) {			//Each of the candidates had the same chance of being drawn
+			inclusionProbabilities[i] = filled / (double) candidates;
+		}
+	}
+	
+	private long nextSkip(double w) {
+		double u = 1. - random.nextDouble();		//In (0, 1] to avoid log(0)
+		double logOneMinusW = Math.log1p(-w);
+		if(logOneMinusW == 0.) {			//w too small to ever accept another candidate
+			return Long.MAX_VALUE;
+		}
+		return (long)Math.floor(Math.log(u) / logOneMinusW);
+	}
+	
+	/**
+	 * 
+	 * @param index - of a member of the last sample returned by sample()
+	 * @return the probability with which the member was included in the sample, whose inverse is its sampling weight.  
+	 * In a simple random sample of n from N, this is n/N for every member.  In panel-consistent mode, a member that 
+	 * tops up the sample, drawn with n-k others from the N-k of the population not kept from the previous sample, has 
+	 * (n-k)/(N-k), and a member kept from the previous sample keeps the probability of its original draw (reduced 
+	 * by any random trimming of the sample since).
+	 * 
+	 */
+	public double getInclusionProbability(int index) {
+		return inclusionProbabilities[index];
+	}
+	
+	private void add(T candidate) {
+		if(sample.size() == inclusionProbabilities.length) {
+			sampleIds = Arrays.copyOf(sampleIds, sample.size() << 1);
+			inclusionProbabilities = Arrays.copyOf(inclusionProbabilities, sample.size() << 1);
+		}
+		if(panelConsistent) {
+			sampleIds[sample.size()] = idOf.applyAsLong(candidate);
+		}
+		sample.add(candidate);
+	}
+	
+	private void removeAt(int index) {				//Order of the sample does not matter, so move the last element into the gap
+		int last = sample.size() - 1;
+		sample.set(index, sample.get(last));
+		sampleIds[index] = sampleIds[last];
+		inclusionProbabilities[index] = inclusionProbabilities[last];
+		sample.remove(last);
+	}
+	
+}
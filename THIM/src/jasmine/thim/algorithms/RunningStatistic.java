@@ -0,0 +1,78 @@
+package jasmine.thim.algorithms;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+
+public class RunningStatistic {
+
+	private long count = 0;
+
+	private double mean = 0.;
+
+	private double sumOfSquaredDeviations = 0.;		//From the current mean
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 *
+	 * Mean and variance of a sequence of values, updated one value at a time with Welford's algorithm, so that
+	 * the values need not be kept and the variance does not suffer from the cancellation of the textbook formula.
+	 *
+	 */
+	public RunningStatistic() {
+	}
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		sumOfSquaredDeviations += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getMin() {			//Infinite until a value has been added
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getVariance() {			//The sample variance, NaN for fewer than two values
+		return count > 1 ? sumOfSquaredDeviations / (count - 1) : Double.NaN;
+	}
+
+	public double getStandardError() {
+		return Math.sqrt(getVariance() / count);
+	}
+
+	/**
+	 *
+	 * @param confidenceLevel - e.g. 0.95
+	 * @return the half-width of the Student-t confidence interval for the mean, or infinity for fewer than two values
+	 *
+	 */
+	public double getConfidenceIntervalHalfWidth(double confidenceLevel) {
+		if(count < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		try {
+			double t = new TDistributionImpl(count - 1).inverseCumulativeProbability(0.5 + confidenceLevel / 2.);
+			return t * getStandardError();
+		} catch (MathException e) {
+			throw new IllegalStateException("Failed to evaluate the t distribution with " + (count - 1) + " degrees of freedom", e);
+		}
+	}
+
+}
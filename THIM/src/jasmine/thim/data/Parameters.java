@@ -305,6 +305,14 @@ public class Parameters {
 		return MBetaIncNear;
 	}
 
+	public static double getStayPropIncDiff() {
+		return StayPropIncDiff;
+	}
+
+	public static double getMovePropIncDiff() {
+		return MovePropIncDiff;
+	}
+
 	public static Normal getStandardNormal() {
 		return standardNormal;
 	}
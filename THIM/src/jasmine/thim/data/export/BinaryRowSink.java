@@ -0,0 +1,66 @@
+package jasmine.thim.data.export;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 
+ * Writes rows as fixed-width big-endian binary records (see java.io.DataOutput).  The file starts with a 
+ * header holding the magic number, the format version, the table name, and the name and ColumnType ordinal 
+ * of each column, after which the rows follow without separators.
+ *
+ */
+public class BinaryRowSink implements RowSink {
+
+	public static final int magicNumber = 0x5448494D;		//"THIM" in ASCII
+	
+	public static final int formatVersion = 1;
+	
+	private final File file;
+	
+	private DataOutputStream output;
+	
+	public BinaryRowSink(File file) {
+		this.file = file;
+	}
+	
+	public void open(String tableName, String[] columnNames, ColumnType[] columnTypes) throws IOException {
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		output.writeInt(magicNumber);
+		output.writeInt(formatVersion);
+		output.writeUTF(tableName);
+		output.writeInt(columnNames.length);
+		for(int column = 0; column < columnNames.length; column++) {
+			output.writeUTF(columnNames[column]);
+			output.writeByte(columnTypes[column].ordinal());
+		}
+	}
+
+	public void beginRow() {}
+
+	public void writeInt(int value) throws IOException {
+		output.writeInt(value);
+	}
+
+	public void writeLong(long value) throws IOException {
+		output.writeLong(value);
+	}
+
+	public void writeDouble(double value) throws IOException {
+		output.writeDouble(value);
+	}
+
+	public void endRow() {}
+
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	public void close() throws IOException {
+		output.close();
+	}
+	
+}
@@ -0,0 +1,107 @@
+package jasmine.thim.data.export;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * Reads the rows of a file written by BinaryRowSink.  Each row is read whole into a reusable buffer, from which
+ * the fields are decoded at the fixed offsets of their columns.
+ *
+ */
+public class BinaryRowSource implements RowSource {
+
+	private final File file;
+
+	private DataInputStream input;
+
+	private String[] columnNames;
+
+	private ColumnType[] columnTypes;
+
+	private int[] offsets;			//Of each column in a row
+
+	private byte[] row;
+
+	private ByteBuffer rowBuffer;		//Big-endian, as written by java.io.DataOutput
+
+	public BinaryRowSource(File file) {
+		this.file = file;
+	}
+
+	public void open() throws IOException {
+		input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		if(input.readInt() != BinaryRowSink.magicNumber) {
+			throw new IOException(file + " is not a THIM binary file");
+		}
+		int version = input.readInt();
+		if(version != BinaryRowSink.formatVersion) {
+			throw new IOException(file + " has format version " + version + ", but version " + BinaryRowSink.formatVersion + " is supported");
+		}
+		input.readUTF();			//The table name
+		int numberOfColumns = input.readInt();
+		columnNames = new String[numberOfColumns];
+		columnTypes = new ColumnType[numberOfColumns];
+		offsets = new int[numberOfColumns];
+		int rowBytes = 0;
+		for(int column = 0; column < numberOfColumns; column++) {
+			columnNames[column] = input.readUTF();
+			columnTypes[column] = ColumnType.values()[input.readByte()];
+			offsets[column] = rowBytes;
+			rowBytes += columnTypes[column] == ColumnType.INT ? 4 : 8;
+		}
+		row = new byte[rowBytes];
+		rowBuffer = ByteBuffer.wrap(row);
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public boolean nextRow() throws IOException {
+		int length = 0;
+		while(length < row.length) {
+			int bytesRead = input.read(row, length, row.length - length);
+			if(bytesRead < 0) {
+				if(length == 0) {
+					return false;
+				}
+				throw new EOFException(file + " ends part way through a row");
+			}
+			length += bytesRead;
+		}
+		return true;
+	}
+
+	public long getLong(int column) {
+		switch(columnTypes[column]) {
+		case INT:
+			return rowBuffer.getInt(offsets[column]);
+		case LONG:
+			return rowBuffer.getLong(offsets[column]);
+		default:
+			return (long) rowBuffer.getDouble(offsets[column]);
+		}
+	}
+
+	public double getDouble(int column) {
+		switch(columnTypes[column]) {
+		case INT:
+			return rowBuffer.getInt(offsets[column]);
+		case LONG:
+			return rowBuffer.getLong(offsets[column]);
+		default:
+			return rowBuffer.getDouble(offsets[column]);
+		}
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+
+}
@@ -0,0 +1,7 @@
+package jasmine.thim.data.export;
+
+public enum ColumnType {
+	INT,
+	LONG,
+	DOUBLE,
+}
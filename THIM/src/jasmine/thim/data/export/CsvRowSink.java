@@ -0,0 +1,252 @@
+package jasmine.thim.data.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * 
+ * Writes rows as comma-separated values.  Numbers are formatted directly into a reusable character buffer, in the
+ * same plain / scientific notation as Double.toString(), so that no Strings are created per field.  Every double is
+ * written with enough digits to parse back to the same double: 15 or 16 significant digits where these are shown to
+ * round trip exactly (the digits, as an integer of at most 2^53, times or divided by a power of ten of at most 10^22
+ * are both exact doubles, so the one rounding of the product or quotient is the correctly rounded value of the
+ * digits), and otherwise the digits of Double.toString(), which allocates.
+ *
+ */
+public class CsvRowSink implements RowSink {
+
+	private static final int minSignificantDigits = 15;
+	
+	private static final int maxSignificantDigits = 16;
+	
+	private static final long maxExactMantissa = 1L << 53;
+	
+	private static final double[] powersOfTen = new double[23];			//Exact as doubles
+	
+	private static final long[] longPowersOfTen = new long[maxSignificantDigits + 1];
+	static {
+		powersOfTen[0] = 1.;
+		for(int i = 1; i < powersOfTen.length; i++) {
+			powersOfTen[i] = powersOfTen[i - 1] * 10.;
+		}
+		longPowersOfTen[0] = 1L;
+		for(int i = 1; i < longPowersOfTen.length; i++) {
+			longPowersOfTen[i] = longPowersOfTen[i - 1] * 10L;
+		}
+	}
+	
+	private final char delimiter = ',';
+	
+	private final char newLine = '\n';
+	
+	private final File file;
+	
+	private Writer writer;
+	
+	private final char[] buffer = new char[1 << 16];
+	
+	private final char[] digits = new char[20];
+	
+	private int position;
+	
+	private int decimalExponent;		//Of the first of the digits found by findDigits()
+	
+	private boolean firstField;
+	
+	public CsvRowSink(File file) {
+		this.file = file;
+	}
+	
+	public void open(String tableName, String[] columnNames, ColumnType[] columnTypes) throws IOException {
+		writer = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+		for(int column = 0; column < columnNames.length; column++) {
+			if(column > 0) {
+				writer.write(delimiter);
+			}
+			writer.write(columnNames[column]);
+		}
+		writer.write(newLine);
+	}
+
+	public void beginRow() throws IOException {
+		if(position > buffer.length - 1024) {			//Leaves plenty of room for the widest row exported
+			flushBuffer();
+		}
+		firstField = true;
+	}
+
+	public void writeInt(int value) {
+		writeLong(value);
+	}
+
+	public void writeLong(long value) {
+		appendDelimiter();
+		if(value < 0) {
+			buffer[position++] = '-';
+			if(value == Long.MIN_VALUE) {
+				appendAscii("9223372036854775808");
+				return;
+			}
+			value = -value;
+		}
+		int numDigits = 0;
+		do {
+			digits[numDigits++] = (char)('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		while(numDigits > 0) {
+			buffer[position++] = digits[--numDigits];
+		}
+	}
+
+	public void writeDouble(double value) {
+		appendDelimiter();
+		if(Double.isNaN(value)) {
+			appendAscii("NaN");
+			return;
+		}
+		if(value < 0. || (value == 0. && 1. / value < 0.)) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		if(Double.isInfinite(value)) {
+			appendAscii("Infinity");
+			return;
+		}
+		if(value == 0.) {
+			appendAscii("0.0");
+			return;
+		}
+
+		if(!findDigits(value, minSignificantDigits) && !findDigits(value, maxSignificantDigits)) {
+			appendChars(Double.toString(value));
+			return;
+		}
+		int numDigits = maxSignificantDigits;
+		while(numDigits > 1 && digits[numDigits - 1] == '0') {			//Dropping trailing zeros
+			numDigits--;
+		}
+		int exponent = decimalExponent;
+		
+		if(exponent >= -3 && exponent < 7) {		//Plain notation, as used by Double.toString() for 10^-3 <= |value| < 10^7
+			if(exponent >= 0) {
+				for(int i = 0; i <= exponent; i++) {
+					buffer[position++] = i < numDigits ? digits[i] : '0';
+				}
+				buffer[position++] = '.';
+				if(numDigits > exponent + 1) {
+					for(int i = exponent + 1; i < numDigits; i++) {
+						buffer[position++] = digits[i];
+					}
+				}
+				else buffer[position++] = '0';
+			}
+			else {
+				buffer[position++] = '0';
+				buffer[position++] = '.';
+				for(int i = -1; i > exponent; i--) {
+					buffer[position++] = '0';
+				}
+				for(int i = 0; i < numDigits; i++) {
+					buffer[position++] = digits[i];
+				}
+			}
+		}
+		else {						//Scientific notation
+			buffer[position++] = digits[0];
+			buffer[position++] = '.';
+			if(numDigits > 1) {
+				for(int i = 1; i < numDigits; i++) {
+					buffer[position++] = digits[i];
+				}
+			}
+			else buffer[position++] = '0';
+			buffer[position++] = 'E';
+			if(exponent < 0) {
+				buffer[position++] = '-';
+				exponent = -exponent;
+			}
+			if(exponent >= 100) {
+				buffer[position++] = (char)('0' + exponent / 100);
+			}
+			if(exponent >= 10) {
+				buffer[position++] = (char)('0' + (exponent / 10) % 10);
+			}
+			buffer[position++] = (char)('0' + exponent % 10);
+		}
+	}
+
+	//Finds numberOfDigits significant digits of value (positive and finite) into digits (followed by zeros up to maxSignificantDigits) and decimalExponent, returning whether they are shown to parse back to value
+	private boolean findDigits(double value, int numberOfDigits) {
+		int exponent = (int)Math.floor(Math.log10(value));
+		for(int attempt = 0; attempt < 2; attempt++) {			//Math.log10 can be out by one close to powers of ten, and rounding can carry into an extra digit
+			int shift = numberOfDigits - 1 - exponent;
+			if(shift >= powersOfTen.length || -shift >= powersOfTen.length) {
+				return false;
+			}
+			long mantissa = Math.round(shift >= 0 ? value * powersOfTen[shift] : value / powersOfTen[-shift]);
+			if(mantissa >= longPowersOfTen[numberOfDigits]) {
+				exponent++;
+			}
+			else if(mantissa < longPowersOfTen[numberOfDigits - 1]) {
+				exponent--;
+			}
+			else {
+				if(mantissa > maxExactMantissa || (shift >= 0 ? mantissa / powersOfTen[shift] : mantissa * powersOfTen[-shift]) != value) {
+					return false;
+				}
+				for(int i = maxSignificantDigits - 1; i >= numberOfDigits; i--) {
+					digits[i] = '0';
+				}
+				for(int i = numberOfDigits - 1; i >= 0; i--) {
+					digits[i] = (char)('0' + (mantissa % 10));
+					mantissa /= 10;
+				}
+				decimalExponent = exponent;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void endRow() {
+		buffer[position++] = newLine;
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		writer.flush();
+	}
+
+	public void close() throws IOException {
+		flush();
+		writer.close();
+	}
+	
+	private void flushBuffer() throws IOException {
+		writer.write(buffer, 0, position);
+		position = 0;
+	}
+
+	private void appendDelimiter() {
+		if(firstField) {
+			firstField = false;
+		}
+		else buffer[position++] = delimiter;
+	}
+	
+	private void appendAscii(String text) {			//Only called with String literals, so no allocation
+		for(int i = 0; i < text.length(); i++) {
+			buffer[position++] = text.charAt(i);
+		}
+	}
+	
+	private void appendChars(String text) {
+		text.getChars(0, text.length(), buffer, position);
+		position += text.length();
+	}
+	
+}
@@ -0,0 +1,259 @@
+package jasmine.thim.data.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ *
+ * Reads the rows of a comma-separated values file with a header line of column names, such as those written by
+ * CsvRowSink.  Lines are scanned in a reusable character buffer, and the fields are parsed from it where they lie,
+ * so that no Strings are created per field.  A double with at most 15 significant digits and a decimal exponent
+ * of at most 22 (which covers those written by CsvRowSink, other than very small or large values) is the product
+ * or quotient of two doubles that are exact, so is correctly rounded without going through Double.parseDouble().
+ *
+ */
+public class CsvRowSource implements RowSource {
+
+	private static final int maxFastDigits = 15;
+
+	private static final double[] powersOfTen = new double[23];			//Exact as doubles
+	static {
+		powersOfTen[0] = 1.;
+		for(int i = 1; i < powersOfTen.length; i++) {
+			powersOfTen[i] = powersOfTen[i - 1] * 10.;
+		}
+	}
+
+	private final char delimiter = ',';
+
+	private final char newLine = '\n';
+
+	private final File file;
+
+	private Reader reader;
+
+	private char[] buffer = new char[1 << 16];
+
+	private int position;			//Start of the next line in the buffer
+
+	private int limit;				//End of the characters read into the buffer
+
+	private boolean endOfFile;
+
+	private long lineNumber = 0;
+
+	private int[] fieldStarts = new int[16];
+
+	private int[] fieldEnds = new int[16];
+
+	private String[] columnNames;
+
+	public CsvRowSource(File file) {
+		this.file = file;
+	}
+
+	public void open() throws IOException {
+		reader = new InputStreamReader(new FileInputStream(file), "US-ASCII");
+		int numberOfFields = scanLine();
+		if(numberOfFields < 0) {
+			throw new IOException(file + " is empty");
+		}
+		columnNames = new String[numberOfFields];
+		for(int column = 0; column < numberOfFields; column++) {
+			columnNames[column] = new String(buffer, fieldStarts[column], fieldEnds[column] - fieldStarts[column]).trim();
+		}
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public boolean nextRow() throws IOException {
+		int numberOfFields;
+		do {
+			numberOfFields = scanLine();
+			if(numberOfFields < 0) {
+				return false;
+			}
+		} while(numberOfFields == 1 && fieldStarts[0] == fieldEnds[0]);		//Blank lines are skipped
+		if(numberOfFields != columnNames.length) {
+			throw new IOException("Line " + lineNumber + " of " + file + " has " + numberOfFields + " fields, but the header has " + columnNames.length);
+		}
+		return true;
+	}
+
+	//Finds the fields of the next line, which lie in the buffer until the next call, returning the number of fields or -1 at the end of the file
+	private int scanLine() throws IOException {
+		int end = position;
+		while(true) {
+			while(end < limit && buffer[end] != newLine) {
+				end++;
+			}
+			if(end < limit || (endOfFile && end > position)) {
+				break;
+			}
+			if(endOfFile) {
+				return -1;
+			}
+			end -= position;
+			fill();
+			end += position;
+		}
+		lineNumber++;
+		int lineEnd = end > position && buffer[end - 1] == '\r' ? end - 1 : end;
+		int numberOfFields = 0;
+		int start = position;
+		for(int i = position; i <= lineEnd; i++) {
+			if(i == lineEnd || buffer[i] == delimiter) {
+				if(numberOfFields == fieldStarts.length) {
+					fieldStarts = Arrays.copyOf(fieldStarts, numberOfFields << 1);
+					fieldEnds = Arrays.copyOf(fieldEnds, numberOfFields << 1);
+				}
+				fieldStarts[numberOfFields] = start;
+				fieldEnds[numberOfFields] = i;
+				numberOfFields++;
+				start = i + 1;
+			}
+		}
+		position = end < limit ? end + 1 : end;
+		return numberOfFields;
+	}
+
+	//Moves the start of the current line to the start of the buffer, growing it if the line fills it, and reads more characters after it
+	private void fill() throws IOException {
+		int length = limit - position;
+		if(position == 0 && length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length << 1);
+		}
+		else System.arraycopy(buffer, position, buffer, 0, length);
+		position = 0;
+		limit = length;
+		int charsRead = reader.read(buffer, limit, buffer.length - limit);
+		if(charsRead < 0) {
+			endOfFile = true;
+		}
+		else limit += charsRead;
+	}
+
+	public long getLong(int column) throws IOException {
+		int i = fieldStarts[column];
+		int end = fieldEnds[column];
+		boolean negative = i < end && buffer[i] == '-';
+		if(negative || (i < end && buffer[i] == '+')) {
+			i++;
+		}
+		if(i == end || end - i > 18) {
+			return parseLongSlowly(column);
+		}
+		long value = 0;
+		for(; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9) {
+				return parseLongSlowly(column);
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	public double getDouble(int column) throws IOException {
+		int i = fieldStarts[column];
+		int end = fieldEnds[column];
+		boolean negative = i < end && buffer[i] == '-';
+		if(negative || (i < end && buffer[i] == '+')) {
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;				//Significant digits in the mantissa
+		int exponent = 0;
+		boolean anyDigits = false;
+		boolean point = false;
+		for(; i < end; i++) {
+			char c = buffer[i];
+			if(c >= '0' && c <= '9') {
+				anyDigits = true;
+				if(mantissa != 0 || c != '0') {
+					if(++digits > maxFastDigits) {
+						return parseDoubleSlowly(column);
+					}
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if(point) {
+					exponent--;
+				}
+			}
+			else if(c == '.' && !point) {
+				point = true;
+			}
+			else break;
+		}
+		if(!anyDigits) {
+			return parseDoubleSlowly(column);		//Including NaN and Infinity
+		}
+		if(i < end) {
+			if(buffer[i] != 'E' && buffer[i] != 'e') {
+				return parseDoubleSlowly(column);
+			}
+			i++;
+			boolean negativeExponent = i < end && buffer[i] == '-';
+			if(negativeExponent || (i < end && buffer[i] == '+')) {
+				i++;
+			}
+			if(i == end || end - i > 3) {
+				return parseDoubleSlowly(column);
+			}
+			int exponentDigits = 0;
+			for(; i < end; i++) {
+				int digit = buffer[i] - '0';
+				if(digit < 0 || digit > 9) {
+					return parseDoubleSlowly(column);
+				}
+				exponentDigits = exponentDigits * 10 + digit;
+			}
+			exponent += negativeExponent ? -exponentDigits : exponentDigits;
+		}
+		double value;
+		if(mantissa == 0) {
+			value = 0.;
+		}
+		else if(exponent >= 0 && exponent < powersOfTen.length) {
+			value = mantissa * powersOfTen[exponent];
+		}
+		else if(exponent < 0 && -exponent < powersOfTen.length) {
+			value = mantissa / powersOfTen[-exponent];
+		}
+		else return parseDoubleSlowly(column);
+		return negative ? -value : value;
+	}
+
+	private long parseLongSlowly(int column) throws IOException {
+		String field = getField(column);
+		try {
+			return Long.parseLong(field);
+		} catch (NumberFormatException e) {
+			throw new IOException("Field " + columnNames[column] + " of line " + lineNumber + " of " + file + " is not an integer: " + field);
+		}
+	}
+
+	private double parseDoubleSlowly(int column) throws IOException {
+		String field = getField(column);
+		try {
+			return Double.parseDouble(field);
+		} catch (NumberFormatException e) {
+			throw new IOException("Field " + columnNames[column] + " of line " + lineNumber + " of " + file + " is not a number: " + field);
+		}
+	}
+
+	private String getField(int column) {
+		return new String(buffer, fieldStarts[column], fieldEnds[column] - fieldStarts[column]).trim();
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,22 @@
+package jasmine.thim.data.export;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Writes the exported fields of an entity straight from its access methods into a RowSink, so that 
+ * snapshots do not rely on reflective field access.  The column names and types describe the fields in 
+ * the order that they are written by encode().
+ *
+ */
+public interface EntityCodec<T> {
+
+	String getTableName();
+	
+	String[] getColumnNames();
+	
+	ColumnType[] getColumnTypes();
+	
+	void encode(T entity, RowSink sink) throws IOException;
+	
+}
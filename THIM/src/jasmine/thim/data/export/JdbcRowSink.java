@@ -0,0 +1,184 @@
+package jasmine.thim.data.export;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 
+ * Inserts rows into a database table through a single reused PreparedStatement, executing the inserts in 
+ * batches.  The table is created if it does not already exist.  If it does, its columns must be those of the 
+ * rows, in the same order, so that rows appended by a later run (told apart by their run column, see 
+ * SnapshotExporter) are not written into the wrong columns of a table created by an earlier version.
+ *
+ */
+public class JdbcRowSink implements RowSink {
+
+	private final Connection connection;
+	
+	private final int batchSize;
+	
+	private PreparedStatement insert;
+	
+	private int parameterIndex;
+	
+	private int rowsInBatch;
+	
+	public JdbcRowSink(Connection connection, int batchSize) {
+		this.connection = connection;
+		this.batchSize = batchSize;
+	}
+	
+	public void open(String tableName, String[] columnNames, ColumnType[] columnTypes) throws IOException {
+		StringBuilder create = new StringBuilder("CREATE TABLE " + tableName + " (");
+		StringBuilder insertSql = new StringBuilder("INSERT INTO " + tableName + " (");
+		StringBuilder values = new StringBuilder(" VALUES (");
+		for(int column = 0; column < columnNames.length; column++) {
+			if(column > 0) {
+				create.append(", ");
+				insertSql.append(", ");
+				values.append(", ");
+			}
+			create.append(columnNames[column]).append(' ').append(sqlType(columnTypes[column]));
+			insertSql.append(columnNames[column]);
+			values.append('?');
+		}
+		create.append(')');
+		insertSql.append(')').append(values).append(')');
+		
+		try {
+			List<String> existingColumns = getExistingColumns(tableName);
+			if(existingColumns.isEmpty()) {
+				Statement statement = connection.createStatement();
+				statement.execute(create.toString());
+				statement.close();
+			}
+			else if(!hasColumns(existingColumns, columnNames)) {
+				throw new IOException("Table " + tableName + " already exists with the columns " + existingColumns + ", rather than " + Arrays.toString(columnNames) 
+						+ ".  Export to a new database, or drop the table");
+			}
+			insert = connection.prepareStatement(insertSql.toString());
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void beginRow() {
+		parameterIndex = 1;
+	}
+
+	public void writeInt(int value) throws IOException {
+		try {
+			insert.setInt(parameterIndex++, value);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeLong(long value) throws IOException {
+		try {
+			insert.setLong(parameterIndex++, value);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeDouble(double value) throws IOException {
+		try {
+			insert.setDouble(parameterIndex++, value);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void endRow() throws IOException {
+		try {
+			insert.addBatch();
+			rowsInBatch++;
+			if(rowsInBatch >= batchSize) {
+				insert.executeBatch();
+				rowsInBatch = 0;
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void flush() throws IOException {
+		try {
+			if(rowsInBatch > 0) {
+				insert.executeBatch();
+				rowsInBatch = 0;
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		flush();
+		try {
+			insert.close();
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	//The columns of the table in order, or none if there is no such table.  Unquoted names may be stored in upper or lower case, depending on the database.
+	private List<String> getExistingColumns(String tableName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		List<String> columns = new ArrayList<String>();
+		for(String name : new String[] {tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+			ResultSet resultSet = metaData.getColumns(null, null, name, null);		//Ordered by schema, then position
+			String schema = null;
+			while(resultSet.next()) {
+				if(schema == null) {
+					schema = String.valueOf(resultSet.getString("TABLE_SCHEM"));
+				}
+				else if(!schema.equals(String.valueOf(resultSet.getString("TABLE_SCHEM")))) {
+					break;
+				}
+				columns.add(resultSet.getString("COLUMN_NAME"));
+			}
+			resultSet.close();
+			if(!columns.isEmpty()) {
+				break;
+			}
+		}
+		return columns;
+	}
+	
+	private static boolean hasColumns(List<String> existingColumns, String[] columnNames) {
+		if(existingColumns.size() != columnNames.length) {
+			return false;
+		}
+		for(int column = 0; column < columnNames.length; column++) {
+			if(!existingColumns.get(column).equalsIgnoreCase(columnNames[column])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static String sqlType(ColumnType columnType) {
+		switch (columnType) {
+		case INT:
+			return "INTEGER";
+		case LONG:
+			return "BIGINT";
+		case DOUBLE:
+			return "DOUBLE";
+		default:
+			throw new IllegalArgumentException("Unsupported column type " + columnType.name() + " in JdbcRowSink#sqlType");
+		}
+	}
+	
+}
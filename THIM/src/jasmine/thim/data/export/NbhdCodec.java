@@ -0,0 +1,58 @@
+package jasmine.thim.data.export;
+
+import jasmine.thim.model.Nbhd;
+
+import java.io.IOException;
+
+public class NbhdCodec implements EntityCodec<Nbhd> {
+
+	//Accessor table - one entry per persisted field of Nbhd, in the order they are written by encode()
+	private static final String[] columnNames = {
+		"id_nbhd",
+		"number_of_workers",
+		"average_adult_income",
+		"occupancy_factor",
+		"average_education",
+		"average_health",
+		"adult_count",
+		"child_count",
+		"average_age",
+	};
+	
+	private static final ColumnType[] columnTypes = {
+		ColumnType.LONG,
+		ColumnType.INT,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.INT,
+		ColumnType.INT,
+		ColumnType.DOUBLE,
+	};
+	
+	public String getTableName() {
+		return "Nbhd";
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public ColumnType[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	public void encode(Nbhd nbhd, RowSink sink) throws IOException {
+		sink.writeLong(nbhd.getKey().getId());
+		sink.writeInt(nbhd.getNumWorkingResidents());
+		sink.writeDouble(nbhd.getAvgNbhdAdultIncome());
+		sink.writeDouble(nbhd.getNbhdOccupancyFactor());
+		sink.writeDouble(nbhd.getAvgNbhdEducation());
+		sink.writeDouble(nbhd.getAvgNbhdHealthIndex());
+		sink.writeInt(nbhd.getNumAdultResidents());
+		sink.writeInt(nbhd.getNumChildResidents());
+		sink.writeDouble(nbhd.getAvgNbhdAge());
+	}
+	
+}
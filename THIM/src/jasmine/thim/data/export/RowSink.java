@@ -0,0 +1,29 @@
+package jasmine.thim.data.export;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Destination for rows written by an EntityCodec.  Implementations must not allocate per row or per field 
+ * once open() has been called, so that exporting large populations does not create garbage.
+ *
+ */
+public interface RowSink {
+
+	void open(String tableName, String[] columnNames, ColumnType[] columnTypes) throws IOException;
+	
+	void beginRow() throws IOException;
+	
+	void writeInt(int value) throws IOException;
+	
+	void writeLong(long value) throws IOException;
+	
+	void writeDouble(double value) throws IOException;
+	
+	void endRow() throws IOException;
+	
+	void flush() throws IOException;
+	
+	void close() throws IOException;
+	
+}
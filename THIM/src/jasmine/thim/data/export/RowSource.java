@@ -0,0 +1,26 @@
+package jasmine.thim.data.export;
+
+import java.io.IOException;
+
+/**
+ *
+ * Source of rows written by a RowSink, read one row at a time.  The fields of the current row are read by column
+ * index, converting between the numeric column types.  Implementations must not allocate per row or per field once
+ * open() has been called, so that loading large populations does not create garbage.
+ *
+ */
+public interface RowSource {
+
+	void open() throws IOException;
+
+	String[] getColumnNames();			//Once open
+
+	boolean nextRow() throws IOException;			//Moves to the next row, returning false at the end of the rows
+
+	long getLong(int column) throws IOException;
+
+	double getDouble(int column) throws IOException;
+
+	void close() throws IOException;
+
+}
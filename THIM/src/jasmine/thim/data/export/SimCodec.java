@@ -0,0 +1,65 @@
+package jasmine.thim.data.export;
+
+import jasmine.thim.model.Sim;
+
+import java.io.IOException;
+
+public class SimCodec implements EntityCodec<Sim> {
+
+	//Accessor table - one entry per persisted field of Sim, in the order they are written by encode()
+	private static final String[] columnNames = {
+		"id_sim",
+		"age",
+		"years_in_education",
+		"income",
+		"health_index",
+		"cumulative_lifetime_earnings",
+		"cumulative_health_index",
+		"neighbourhood_id",
+		"birth_timestamp",			//With income_base and parent_id, so that a snapshot can be loaded as the initial population of a run (see InitialPopulationLoader)
+		"income_base",
+		"parent_id",
+	};
+	
+	private static final ColumnType[] columnTypes = {
+		ColumnType.LONG,
+		ColumnType.INT,
+		ColumnType.INT,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.INT,
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.LONG,
+	};
+	
+	public String getTableName() {
+		return "Sim";
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public ColumnType[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	public void encode(Sim sim, RowSink sink) throws IOException {
+		sink.writeLong(sim.getId());
+		sink.writeInt(sim.getAge());
+		sink.writeInt(sim.getYearsInEducation());
+		sink.writeDouble(sim.getIncome());
+		sink.writeDouble(sim.getHealthIndex());
+		sink.writeDouble(sim.getCumulativeIncome());
+		sink.writeDouble(sim.getCumulativeHealthIndex());
+		sink.writeInt(sim.getNbhdId());
+		sink.writeDouble(sim.getBirthTimestamp());
+		sink.writeDouble(sim.getIncomeBase());
+		Sim parent = sim.getParent();
+		sink.writeLong(parent != null ? parent.getId() : -1L);
+	}
+	
+}
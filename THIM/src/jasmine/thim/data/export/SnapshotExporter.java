@@ -0,0 +1,102 @@
+package jasmine.thim.data.export;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 
+ * Exports snapshots of a collection of entities (or of a single entity) to one or more RowSinks through the 
+ * entity's codec.  Each row is prefixed with the run it comes from and the simulation time of the snapshot, so 
+ * that the snapshots of several runs exported to one database table can be told apart.  If the exporter is created 
+ * with sampling weights, each row ends with the sampling weight of the exported entity, so that snapshots of a 
+ * sample of the entities can be scaled back up to the whole population.
+ *
+ */
+public class SnapshotExporter<T> {
+
+	private final EntityCodec<T> codec;
+	
+	private final Collection<? extends T> entities;
+	
+	private final RowSink[] sinks;
+	
+	private final boolean samplingWeights;
+	
+	private final long run;
+	
+	public SnapshotExporter(EntityCodec<T> codec, Collection<? extends T> entities, long run, RowSink... sinks) throws IOException {
+		this(codec, entities, false, run, sinks);
+	}
+	
+	public SnapshotExporter(EntityCodec<T> codec, Collection<? extends T> entities, boolean samplingWeights, long run, RowSink... sinks) throws IOException {
+		this.codec = codec;
+		this.entities = entities;
+		this.sinks = sinks;
+		this.samplingWeights = samplingWeights;
+		this.run = run;
+		
+		int numCodecColumns = codec.getColumnNames().length;
+		String[] columnNames = new String[numCodecColumns + (samplingWeights ? 3 : 2)];
+		ColumnType[] columnTypes = new ColumnType[columnNames.length];
+		columnNames[0] = "run";
+		columnTypes[0] = ColumnType.LONG;
+		columnNames[1] = "time";
+		columnTypes[1] = ColumnType.DOUBLE;
+		System.arraycopy(codec.getColumnNames(), 0, columnNames, 2, numCodecColumns);
+		System.arraycopy(codec.getColumnTypes(), 0, columnTypes, 2, numCodecColumns);
+		if(samplingWeights) {
+			columnNames[numCodecColumns + 2] = "sampling_weight";
+			columnTypes[numCodecColumns + 2] = ColumnType.DOUBLE;
+		}
+		for(RowSink sink : sinks) {
+			sink.open(codec.getTableName(), columnNames, columnTypes);
+		}
+	}
+	
+	public SnapshotExporter(EntityCodec<T> codec, T entity, long run, RowSink... sinks) throws IOException {
+		this(codec, Collections.singletonList(entity), run, sinks);
+	}
+	
+	public void export(double time) throws IOException {
+		for(T entity : entities) {
+			exportRow(time, entity, 1.);
+		}
+		flush();
+	}
+	
+	//Exports a sample of the entities, where samplingWeights[i] is the sampling weight (the number of entities it represents) of the i-th member of the sample
+	public void export(double time, List<? extends T> sample, double[] samplingWeights) throws IOException {
+		for(int i = 0; i < sample.size(); i++) {
+			exportRow(time, sample.get(i), samplingWeights[i]);
+		}
+		flush();
+	}
+	
+	private void exportRow(double time, T entity, double samplingWeight) throws IOException {
+		for(RowSink sink : sinks) {
+			sink.beginRow();
+			sink.writeLong(run);
+			sink.writeDouble(time);
+			codec.encode(entity, sink);
+			if(samplingWeights) {
+				sink.writeDouble(samplingWeight);
+			}
+			sink.endRow();
+		}
+	}
+	
+	private void flush() throws IOException {
+		for(RowSink sink : sinks) {
+			sink.flush();
+		}
+	}
+	
+	public void close() throws IOException {
+		for(RowSink sink : sinks) {
+			sink.close();
+		}
+	}
+	
+}
@@ -0,0 +1,49 @@
+package jasmine.thim.data.export;
+
+import jasmine.thim.model.Statistics;
+
+import java.io.IOException;
+
+public class StatisticsCodec implements EntityCodec<Statistics> {
+
+	//Accessor table - one entry per persisted field of Statistics, in the order they are written by encode()
+	private static final String[] columnNames = {
+		"avg_adult_income",
+		"avg_health_index",
+		"number_of_workers",
+		"number_of_adults",
+		"number_of_children",
+		"avg_years_in_education",
+	};
+	
+	private static final ColumnType[] columnTypes = {
+		ColumnType.DOUBLE,
+		ColumnType.DOUBLE,
+		ColumnType.INT,
+		ColumnType.INT,
+		ColumnType.INT,
+		ColumnType.DOUBLE,
+	};
+	
+	public String getTableName() {
+		return "Statistics";
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public ColumnType[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	public void encode(Statistics stats, RowSink sink) throws IOException {
+		sink.writeDouble(stats.getAvgAdultIncome());
+		sink.writeDouble(stats.getAvgHealth());
+		sink.writeInt(stats.getNumWorkingSims());
+		sink.writeInt(stats.getNumberOfAdultSims());
+		sink.writeInt(stats.getNumberOfChildSims());
+		sink.writeDouble(stats.getAvgYearsInEducation());
+	}
+	
+}
@@ -0,0 +1,79 @@
+package jasmine.thim.distributed;
+
+import jasmine.thim.model.WorkerExchange;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * 
+ * A worker's connection to THIMCoordinator.  The worker introduces itself with its index, then each year sends its
+ * statistics sums and its emigrants for every worker, and receives the totals and its immigrants from every worker.
+ *
+ */
+public class SocketWorkerExchange implements WorkerExchange {
+
+	private final int workerIndex;
+
+	private final int numberOfWorkers;
+
+	private final Socket socket;
+
+	private final DataInputStream in;
+
+	private final DataOutputStream out;
+
+	public SocketWorkerExchange(String host, int port, int workerIndex, int numberOfWorkers) throws IOException {
+		this.workerIndex = workerIndex;
+		this.numberOfWorkers = numberOfWorkers;
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);			//Messages are sent once a year and the worker waits for the reply
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(workerIndex);
+		out.flush();
+	}
+
+	public int getWorkerIndex() {
+		return workerIndex;
+	}
+
+	public int getNumberOfWorkers() {
+		return numberOfWorkers;
+	}
+
+	public byte[][] exchange(double[] sums, byte[][] emigrants) throws IOException {
+		out.writeInt(sums.length);
+		for(double sum : sums) {
+			out.writeDouble(sum);
+		}
+		for(int worker = 0; worker < numberOfWorkers; worker++) {
+			out.writeInt(emigrants[worker].length);
+			out.write(emigrants[worker]);
+		}
+		out.flush();
+
+		int length = in.readInt();
+		if(length != sums.length) {
+			throw new IOException("Coordinator returned " + length + " sums, expected " + sums.length);
+		}
+		for(int i = 0; i < length; i++) {
+			sums[i] = in.readDouble();
+		}
+		byte[][] immigrants = new byte[numberOfWorkers][];
+		for(int worker = 0; worker < numberOfWorkers; worker++) {
+			immigrants[worker] = new byte[in.readInt()];
+			in.readFully(immigrants[worker]);
+		}
+		return immigrants;
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+
+}
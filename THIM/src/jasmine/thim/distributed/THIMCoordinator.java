@@ -0,0 +1,120 @@
+package jasmine.thim.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 
+ * Drives the yearly barrier of a distributed run.  Each year, it waits for every worker's statistics sums and
+ * emigrants (see SocketWorkerExchange), adds up the sums in worker order, so that every worker derives exactly the
+ * same statistics, and forwards the emigrants to the workers that own their new nbhds.  The statistics of the initial
+ * population, which each worker builds for its own nbhds only, are added up in the same way, as year 0, and so are the
+ * sums behind the output tables in a last round after the final year.
+ *
+ */
+public class THIMCoordinator {
+
+	private final static Logger log = Logger.getLogger(THIMCoordinator.class);
+
+	private final ServerSocket serverSocket;
+
+	private final int numberOfWorkers;
+
+	private long migrationBytes;			//In the last round
+
+	public THIMCoordinator(ServerSocket serverSocket, int numberOfWorkers) {
+		this.serverSocket = serverSocket;
+		this.numberOfWorkers = numberOfWorkers;
+	}
+
+	public void run(int years) throws IOException {
+
+		Socket[] sockets = new Socket[numberOfWorkers];
+		DataInputStream[] ins = new DataInputStream[numberOfWorkers];
+		DataOutputStream[] outs = new DataOutputStream[numberOfWorkers];
+		try {
+			for(int i = 0; i < numberOfWorkers; i++) {			//Workers connect in any order, and are identified by the index they send first
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int worker = in.readInt();
+				if(worker < 0 || worker >= numberOfWorkers || sockets[worker] != null) {
+					socket.close();
+					throw new IOException("Unexpected worker index " + worker);
+				}
+				sockets[worker] = socket;
+				ins[worker] = in;
+				outs[worker] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+			log.info("All " + numberOfWorkers + " workers connected.");
+			System.out.println("All " + numberOfWorkers + " workers connected.");
+
+			for(int year = 0; year <= years; year++) {
+				long startTime = System.currentTimeMillis();
+				double[] sums = exchange(ins, outs);
+				int populationSize = (int) sums[0];			//The population size is the first of the sums
+				String summary = "Year " + year + ": population size " + populationSize + ", " + migrationBytes + " bytes of migrants, barrier took " + (System.currentTimeMillis() - startTime) + "ms.";
+				log.info(summary);
+				System.out.println(summary);
+				if(populationSize == 0) {
+					return;				//Workers pause their engines when there are no more Sims
+				}
+			}
+
+			exchange(ins, outs);			//The output table sums, which the workers send just before they finish
+			log.info("Output table sums reduced.");
+			System.out.println("Output table sums reduced.");
+		} finally {
+			for(Socket socket : sockets) {
+				if(socket != null) {
+					socket.close();
+				}
+			}
+		}
+	}
+
+	//Reads the sums and emigrants of every worker, then sends each worker the sums added up in worker order and the emigrants to it
+	private double[] exchange(DataInputStream[] ins, DataOutputStream[] outs) throws IOException {
+		double[] sums = null;
+		byte[][][] emigrants = new byte[numberOfWorkers][numberOfWorkers][];		//By source, then destination worker
+		migrationBytes = 0;
+		for(int source = 0; source < numberOfWorkers; source++) {
+			int length = ins[source].readInt();
+			if(sums == null) {
+				sums = new double[length];
+			}
+			else if(length != sums.length) {
+				throw new IOException("Worker " + source + " sent " + length + " sums, expected " + sums.length);
+			}
+			for(int i = 0; i < length; i++) {
+				sums[i] += ins[source].readDouble();
+			}
+			for(int destination = 0; destination < numberOfWorkers; destination++) {
+				emigrants[source][destination] = new byte[ins[source].readInt()];
+				ins[source].readFully(emigrants[source][destination]);
+				migrationBytes += emigrants[source][destination].length;
+			}
+		}
+
+		for(int destination = 0; destination < numberOfWorkers; destination++) {
+			outs[destination].writeInt(sums.length);
+			for(double sum : sums) {
+				outs[destination].writeDouble(sum);
+			}
+			for(int source = 0; source < numberOfWorkers; source++) {
+				outs[destination].writeInt(emigrants[source][destination].length);
+				outs[destination].write(emigrants[source][destination]);
+			}
+			outs[destination].flush();
+		}
+		return sums;
+	}
+
+}
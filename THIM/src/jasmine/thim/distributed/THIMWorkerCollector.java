@@ -0,0 +1,72 @@
+package jasmine.thim.distributed;
+
+import jasmine.thim.experiment.THIMCollector;
+import jasmine.thim.model.THIMModel;
+
+import java.io.IOException;
+
+import microsim.engine.AbstractSimulationCollectorManager;
+import microsim.engine.SimulationManager;
+import microsim.event.EventListener;
+import microsim.event.Order;
+import microsim.event.SingleTargetEvent;
+
+/**
+ * 
+ * Records the output tables of a worker of a distributed run, as THIMCollector does, and ends the worker just before
+ * the model's Stop event (which would otherwise reset the engine).  At the end, the sums behind the output tables are
+ * added up over the workers, and worker 0 writes the tables with THIMCollector, for the whole population.  The worker
+ * then reports the Sims that it holds and closes its connection to the coordinator.
+ *
+ */
+public class THIMWorkerCollector extends AbstractSimulationCollectorManager implements EventListener {
+
+	public THIMWorkerCollector(SimulationManager manager) {
+		super(manager);
+	}
+
+	public void buildObjects() {
+	}
+
+	public void buildSchedule() {
+		THIMModel model = (THIMModel) getManager();
+		getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.ResetOutputStatistics), model.getRecordDataAfterYear(), Order.BEFORE_ALL.getOrdering());
+		getEngine().getEventQueue().scheduleRepeat(new SingleTargetEvent(this, Processes.IncrementAverages), model.getRecordDataAfterYear(), -1, 1.);		//The statistics that are incremented are derived from the sums of all workers, so are the same on every worker
+		getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.Finish), model.getEndYear(), Order.AFTER_ALL.getOrdering()-1);
+	}
+
+	public enum Processes {
+		ResetOutputStatistics,
+		IncrementAverages,
+		Finish,
+	}
+
+	public void onEvent(Enum<?> type) {
+		THIMModel model = (THIMModel) getManager();
+		switch ((Processes) type) {
+		case ResetOutputStatistics:
+			model.getStats().resetStatisticsForOutputTables();
+			break;
+
+		case IncrementAverages:
+			model.getStats().incrementCityAndNbhdAverages();
+			break;
+
+		case Finish:
+			model.reduceOutputTableSums();
+			if(model.getWorkerExchange().getWorkerIndex() == 0) {
+				new THIMCollector(model).produceOutputTables();
+			}
+			long runTime = System.currentTimeMillis() - model.getElapsedTime();
+			System.out.println("Worker " + model.getWorkerExchange().getWorkerIndex() + " finished with " + model.getSims().size() + " Sims.  Time taken to run simulation is " + runTime + "ms.");
+			try {
+				model.getWorkerExchange().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			System.exit(0);
+			break;
+		}
+	}
+
+}
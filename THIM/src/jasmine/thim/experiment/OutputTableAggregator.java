@@ -0,0 +1,235 @@
+package jasmine.thim.experiment;
+
+import jasmine.thim.algorithms.RunningStatistic;
+import jasmine.thim.model.Statistics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import microsim.data.MultiKeyCoefficientMap;
+
+import org.apache.commons.collections4.keyvalue.MultiKey;
+
+/**
+ * Merges the output tables of the runs of THIMMultiRun (see THIMCollector#produceTables()) as each run finishes, so
+ * that the replications need not be combined from hundreds of files afterwards.  Every cell of every table keeps a
+ * RunningStatistic, so memory grows with the size of the tables, not the number of runs.  The merged tables have the
+ * same rows as those of a single run, and for each value column the mean, standard deviation, confidence interval,
+ * min, max and the number of runs with a value (empty age bins have none).  Cells of the lifetime income and health
+ * histogram that a run does not fill count as zero for that run.
+ */
+public class OutputTableAggregator {
+
+	private static final String newLine = "\n";
+	private static final String delimiter = ",";
+
+	private final double confidenceLevel;
+
+	private final Table avgs = new Table("Avgs", "", false, "Average education", "Average income", "Average health", "Adult Population", "Child Population");
+	private final Table deathsByAge = new Table("DeathsByAge", "Age", false, "Deaths during interval", "Average Age at Death");
+	private final Table healthByAge = new Table("HavgByAge", "Age", false, "mean health", "Count");
+	private final Table incomeByAge = new Table("YavgByAge", "Age", false, "mean income", "Count");
+	private final Table lifetimeIncomeAndHealth = new Table("LavgYLavgH", "AvgLY,AvgLH", true, "Count");
+	private final Table nbhdAvgs = new Table("NbhdAvgs", "Neighbourhood indicators,Selected Neighbourhood Ranks", false, "Ranks Value");
+
+	private int runs = 0;
+
+	public OutputTableAggregator(double confidenceLevel) {
+		this.confidenceLevel = confidenceLevel;
+	}
+
+	//Called once a run has calculated the statistics of its output tables
+	public void add(Statistics stats, double ageBinInterval) {
+		runs++;
+
+		avgs.add("", stats.getLongRunAvgYearsInEducation(), stats.getLongRunAvgAdultIncome(), stats.getLongRunAvgHealth(), stats.getLongRunAvgAdultPopulation(), stats.getLongRunAvgChildPopulation());
+
+		int[] numSimsAgeAtDeath = stats.getNumSimsAgeAtDeath();
+		double[] averageAgeAtDeath = stats.getAverageAgeAtDeath();
+		int[] numSimsByAge = stats.getNumSimsByAge();
+		double[] averageHealthByAge = stats.getAverageHealthByAge();
+		double[] averageIncomeByAge = stats.getAverageIncomeByAge();
+		for(int bin = 0; bin < numSimsAgeAtDeath.length; bin++) {
+			deathsByAge.add(getBinLabel(ageBinInterval, bin), numSimsAgeAtDeath[bin], averageAgeAtDeath[bin]);
+		}
+		for(int bin = 0; bin < numSimsByAge.length; bin++) {
+			healthByAge.add(getBinLabel(ageBinInterval, bin), averageHealthByAge[bin], numSimsByAge[bin]);
+			incomeByAge.add(getBinLabel(ageBinInterval, bin), averageIncomeByAge[bin], numSimsByAge[bin]);
+		}
+
+		MultiKeyCoefficientMap histogram = stats.getLifetimeIncomeLifetimeHealthHistogram();
+		for(Object key : histogram.keySet()) {
+			MultiKey mk = (MultiKey) key;
+			lifetimeIncomeAndHealth.add("[" + mk.getKey(0) + ";" + mk.getKey(1) + "[" + delimiter + "[" + mk.getKey(2) + ";" + mk.getKey(3) + "[", ((Number) histogram.get(mk)).doubleValue());
+		}
+		lifetimeIncomeAndHealth.fillMissingCells();
+
+		addRanks("Occupancy factor", stats.getLongRunAvgNbhdOccupancyFactor());
+		addRanks("Normalized average education", stats.getNormalisedAvgNbhdEducation());
+		addRanks("Average education", stats.getLongRunAvgNbhdEducation());
+		addRanks("Normalized average income", stats.getNormalisedAvgNbhdAdultIncome());
+		addRanks("Average income", stats.getLongRunAvgNbhdAdultIncome());
+		addRanks("Normalized average health", stats.getNormalisedAvgNbhdHealthIndex());
+		addRanks("Average health", stats.getLongRunAvgNbhdHealthIndex());
+		addRanks("Adult count", stats.getLongRunAvgNumberOfAdultsInNbhd());
+		addRanks("Child count", stats.getLongRunAvgNumberOfChildrenInNbhd());
+		addRanks("Average Age", stats.getLongRunAvgNbhdAge());
+	}
+
+	//Writes the merged tables, named as those of a single run with 'Merged' before the table name
+	public void write(File directory, String filenamePrefix) throws IOException {
+		for(Table table : new Table[]{avgs, deathsByAge, healthByAge, incomeByAge, lifetimeIncomeAndHealth, nbhdAvgs}) {
+			table.write(findFileWithIncrementedIndex(directory, filenamePrefix + "Merged" + table.name + "_"));
+		}
+		System.out.println("Merged the output tables of " + runs + " runs into " + directory + File.separator + filenamePrefix + "Merged*.csv");
+	}
+
+	public int getRuns() {
+		return runs;
+	}
+
+	private void addRanks(String nbhdIndicator, double[] values) {		//As in the NbhdAvgs table, the values are merged by rank, not by nbhd
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for(int index = 0; index < sorted.length; index++) {
+			String rank = "Rank=" + (index+1) + (index == 0 ? " (Min)" : (index == sorted.length-1 ? " (Max)" : ""));
+			nbhdAvgs.add(nbhdIndicator + delimiter + rank, sorted[index]);
+		}
+	}
+
+	private static String getBinLabel(double binInterval, int bin) {		//As in ExportBinTable
+		return "[" + (binInterval * bin) + ";" + (binInterval * (bin+1)) + "[";
+	}
+
+	private static File findFileWithIncrementedIndex(File directory, String filename) {
+		int version = 1;
+		File f = new File(directory + File.separator + filename + version + ".csv");
+		while (f.exists()) {
+			version++;
+			f = new File(directory + File.separator + filename + version + ".csv");
+		}
+		return f;
+	}
+
+	private class Table {
+
+		private final String name;
+
+		private final String labelHeader;			//Of the columns that identify a row, empty if the table has a single row
+
+		private final String[] valueHeaders;
+
+		private final boolean missingIsZero;		//Whether the rows are histogram cells that only appear in runs that fill them
+
+		private final LinkedHashMap<String, RunningStatistic[]> rows = new LinkedHashMap<String, RunningStatistic[]>();
+
+		private Table(String name, String labelHeader, boolean missingIsZero, String... valueHeaders) {
+			this.name = name;
+			this.labelHeader = labelHeader;
+			this.missingIsZero = missingIsZero;
+			this.valueHeaders = valueHeaders;
+		}
+
+		private void add(String label, double... values) {
+			RunningStatistic[] row = rows.get(label);
+			if(row == null) {
+				row = new RunningStatistic[valueHeaders.length];
+				for(int column = 0; column < row.length; column++) {
+					row[column] = new RunningStatistic();
+					if(missingIsZero) {
+						for(int run = 1; run < runs; run++) {		//The cell was empty in the earlier runs
+							row[column].add(0.);
+						}
+					}
+				}
+				rows.put(label, row);
+			}
+			for(int column = 0; column < values.length; column++) {
+				if(!Double.isNaN(values[column])) {				//Averages over empty bins are NaN
+					row[column].add(values[column]);
+				}
+			}
+		}
+
+		private void fillMissingCells() {			//Called after all the cells of a run have been added
+			for(RunningStatistic[] row : rows.values()) {
+				for(RunningStatistic cell : row) {
+					if(cell.getCount() < runs) {
+						cell.add(0.);
+					}
+				}
+			}
+		}
+
+		private void write(File file) throws IOException {
+			FileWriter fileWriter = new FileWriter(file);
+			try {
+				StringBuilder header = new StringBuilder(labelHeader);
+				for(String valueHeader : valueHeaders) {
+					if(header.length() > 0) {
+						header.append(delimiter);
+					}
+					header.append(valueHeader).append(" mean").append(delimiter).append(valueHeader).append(" sd").append(delimiter)
+						.append(valueHeader).append(" CI lower").append(delimiter).append(valueHeader).append(" CI upper").append(delimiter)
+						.append(valueHeader).append(" min").append(delimiter).append(valueHeader).append(" max").append(delimiter).append(valueHeader).append(" runs");
+				}
+				fileWriter.append(header.toString());
+				fileWriter.append(newLine);
+
+				List<String> labels = new ArrayList<String>(rows.keySet());
+				if(missingIsZero) {
+					Collections.sort(labels, lowerBoundOrder);		//Cells first filled in later runs are at the end of the map
+				}
+				for(String label : labels) {
+					StringBuilder line = new StringBuilder(label);
+					for(RunningStatistic cell : rows.get(label)) {
+						if(line.length() > 0) {
+							line.append(delimiter);
+						}
+						if(cell.getCount() == 0) {
+							line.append(delimiter).append(delimiter).append(delimiter).append(delimiter).append(delimiter).append(delimiter).append(0);
+							continue;
+						}
+						double halfWidth = cell.getConfidenceIntervalHalfWidth(confidenceLevel);
+						line.append(cell.getMean()).append(delimiter).append(Math.sqrt(cell.getVariance())).append(delimiter)
+							.append(cell.getMean() - halfWidth).append(delimiter).append(cell.getMean() + halfWidth).append(delimiter)
+							.append(cell.getMin()).append(delimiter).append(cell.getMax()).append(delimiter).append(cell.getCount());
+					}
+					fileWriter.append(line.toString());
+					fileWriter.append(newLine);
+				}
+			} finally {
+				fileWriter.flush();
+				fileWriter.close();
+			}
+		}
+	}
+
+	//Orders labels of the form '[a;b[,[c;d[' by a, then c, as THIMCollector orders the lifetime income and health histogram
+	private static final Comparator<String> lowerBoundOrder = new Comparator<String>() {
+		public int compare(String label1, String label2) {
+			String[] intervals1 = label1.split(delimiter);
+			String[] intervals2 = label2.split(delimiter);
+			for(int i = 0; i < Math.min(intervals1.length, intervals2.length); i++) {
+				int comparison = Double.compare(getLowerBound(intervals1[i]), getLowerBound(intervals2[i]));
+				if(comparison != 0) {
+					return comparison;
+				}
+			}
+			return 0;
+		}
+
+		private double getLowerBound(String interval) {
+			return Double.parseDouble(interval.substring(1, interval.indexOf(';')));
+		}
+	};
+
+}
@@ -0,0 +1,151 @@
+package jasmine.thim.experiment;
+
+import jasmine.thim.algorithms.RunningStatistic;
+import jasmine.thim.model.Statistics;
+import jasmine.thim.model.THIMModel;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decides when THIMMultiRun has done enough replications: after each replication, the running mean and variance of
+ * the chosen outputs are updated, and the runs stop once the confidence interval of every output with a target is
+ * no wider than its target half-width.  When the scenarios of a replication use common random numbers, the targets
+ * apply to the differences between each scenario and the first, which is what the pairing makes precise.  The
+ * half-widths after every replication are written to a stopping trace.
+ */
+public class SequentialStopping {
+
+	public enum Output {
+		longRunAvgHealth,
+		longRunAvgAdultIncome,
+		lifeExpectancy,
+		nbhdAdultIncomeP10,			//Quantiles over the nbhds of the normalised long-run nbhd adult income, as in the NbhdAvgs table
+		nbhdAdultIncomeP50,
+		nbhdAdultIncomeP90,
+	}
+
+	private final Map<Output, Double> targets;		//Confidence interval half-widths
+
+	private final double confidenceLevel;
+
+	private final int minReplications;
+
+	private final int numberOfScenarios;
+
+	private final boolean paired;
+
+	private final RunningStatistic[][] statistics;		//By scenario and output.  If paired, scenarios after the first hold the differences from the first.
+
+	private final double[] firstScenarioOutputs = new double[Output.values().length];		//Of the current replication
+
+	private final PrintWriter trace;
+
+	private int replications = 0;
+
+	public SequentialStopping(Map<Output, Double> targets, double confidenceLevel, int minReplications, int numberOfScenarios, boolean paired, File traceFile) throws IOException {
+		this.targets = targets;
+		this.confidenceLevel = confidenceLevel;
+		this.minReplications = Math.max(2, minReplications);		//The variance needs at least two
+		this.numberOfScenarios = numberOfScenarios;
+		this.paired = paired && numberOfScenarios > 1;
+		statistics = new RunningStatistic[numberOfScenarios][Output.values().length];
+		for(RunningStatistic[] scenarioStatistics : statistics) {
+			for(int o = 0; o < scenarioStatistics.length; o++) {
+				scenarioStatistics[o] = new RunningStatistic();
+			}
+		}
+		trace = new PrintWriter(new FileWriter(traceFile));
+		StringBuilder header = new StringBuilder("replications");
+		for(int s = getFirstTargetScenario(); s < numberOfScenarios; s++) {
+			for(Output output : targets.keySet()) {
+				String name = (this.paired ? "difference" : "scenario") + s + "_" + output;
+				header.append(",").append(name).append("_mean,").append(name).append("_half_width");
+			}
+		}
+		trace.println(header.append(",targets_met"));
+	}
+
+	public void record(int scenario, THIMModel model) {		//Called once the run of the scenario has finished
+		double[] outputs = getOutputs(model);
+		for(int o = 0; o < outputs.length; o++) {
+			if(paired && scenario == 0) {
+				firstScenarioOutputs[o] = outputs[o];
+			}
+			statistics[scenario][o].add(paired && scenario > 0 ? outputs[o] - firstScenarioOutputs[o] : outputs[o]);
+		}
+	}
+
+	//Called once every scenario of a replication has been recorded.  Returns whether every target has been met.
+	public boolean endReplication() {
+		replications++;
+		boolean met = replications >= minReplications;
+		StringBuilder line = new StringBuilder(Integer.toString(replications));
+		for(int s = getFirstTargetScenario(); s < numberOfScenarios; s++) {
+			for(Map.Entry<Output, Double> target : targets.entrySet()) {
+				RunningStatistic statistic = statistics[s][target.getKey().ordinal()];
+				double halfWidth = statistic.getConfidenceIntervalHalfWidth(confidenceLevel);
+				met &= halfWidth <= target.getValue();
+				line.append(",").append(statistic.getMean()).append(",").append(halfWidth);
+			}
+		}
+		trace.println(line.append(",").append(met));
+		trace.flush();
+		System.out.println("After " + replications + " replications: " + line);
+		return met;
+	}
+
+	public void close() {
+		trace.close();
+	}
+
+	public int getReplications() {
+		return replications;
+	}
+
+	private int getFirstTargetScenario() {		//If paired, the first scenario is only the reference for the differences
+		return paired ? 1 : 0;
+	}
+
+	private static double[] getOutputs(THIMModel model) {
+		Statistics stats = model.getStats();
+		double[] outputs = new double[Output.values().length];
+		outputs[Output.longRunAvgHealth.ordinal()] = stats.getLongRunAvgHealth();
+		outputs[Output.longRunAvgAdultIncome.ordinal()] = stats.getLongRunAvgAdultIncome();
+		outputs[Output.lifeExpectancy.ordinal()] = stats.getLongRunLifeExpectancy();
+		double[] nbhdAdultIncome = stats.getNormalisedAvgNbhdAdultIncome().clone();
+		Arrays.sort(nbhdAdultIncome);
+		outputs[Output.nbhdAdultIncomeP10.ordinal()] = getQuantile(nbhdAdultIncome, 0.1);
+		outputs[Output.nbhdAdultIncomeP50.ordinal()] = getQuantile(nbhdAdultIncome, 0.5);
+		outputs[Output.nbhdAdultIncomeP90.ordinal()] = getQuantile(nbhdAdultIncome, 0.9);
+		return outputs;
+	}
+
+	private static double getQuantile(double[] sortedValues, double probability) {		//Linear interpolation between order statistics
+		double position = probability * (sortedValues.length - 1);
+		int below = (int) position;
+		if(below + 1 >= sortedValues.length) {
+			return sortedValues[sortedValues.length - 1];
+		}
+		return sortedValues[below] + (position - below) * (sortedValues[below + 1] - sortedValues[below]);
+	}
+
+	//Parses targets of the form 'lifeExpectancy=0.1,longRunAvgHealth=0.002'
+	public static Map<Output, Double> parseTargets(String targets) {
+		Map<Output, Double> parsed = new EnumMap<Output, Double>(Output.class);
+		for(String target : targets.split(",")) {
+			String[] parts = target.split("=");
+			if(parts.length != 2) {
+				throw new IllegalArgumentException("Target " + target + " is not of the form output=halfWidth");
+			}
+			parsed.put(Output.valueOf(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+		}
+		return parsed;
+	}
+
+}
@@ -0,0 +1,151 @@
+package jasmine.thim.experiment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Compares two state digest files written by THIMModel with writeStateDigest set (see StateDigest), and reports the
+ * first year and field in which the runs diverge.  The Sim digests must match exactly.  The aggregate statistics are
+ * compared with the relative tolerance given by '-t' (0 by default), as engines that sum the Sims in a different order
+ * can differ in the last bits.  Exits with status 1 if the runs diverge.
+ *
+ * Either run can be a distributed one, given as the digest files of all its workers separated by the path separator
+ * (':', or ';' on Windows).  Their population sizes and Sim digests are added up to those of the whole population,
+ * and their aggregate statistics, which are derived from the sums of all workers, must be the same.
+ *
+ * Usage: StateDigestComparator [-t tolerance] referenceDigest.csv[:workerDigest.csv...] otherDigest.csv[:workerDigest.csv...]
+ */
+public class StateDigestComparator {
+
+	private static final int FIRST_SIM_DIGEST_COLUMN = 2;		//Columns before this are the year and population size
+
+	private static final int FIRST_AGGREGATE_COLUMN = 7;		//Columns before this are the year, population size and Sim digests
+
+	public static void main(String[] args) throws IOException {
+
+		double tolerance = 0.;
+		String[] files = new String[2];
+		int numberOfFiles = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t")){
+				try {
+					tolerance = Double.parseDouble(args[i + 1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Argument " + args[i + 1] + " must be a number.");
+					System.exit(1);
+				}
+				i++;
+			}
+			else if (numberOfFiles < 2) {
+				files[numberOfFiles++] = args[i];
+			}
+		}
+		if(numberOfFiles < 2) {
+			System.err.println("Usage: StateDigestComparator [-t tolerance] referenceDigest.csv[" + File.pathSeparator + "workerDigest.csv...] otherDigest.csv[" + File.pathSeparator + "workerDigest.csv...]");
+			System.exit(1);
+		}
+
+		DigestReader reference = new DigestReader(files[0]);
+		DigestReader other = new DigestReader(files[1]);
+		try {
+			String[] header = reference.readHeader();
+			other.readHeader();
+			int years = 0;
+			String[] referenceValues;
+			String[] otherValues;
+			while((referenceValues = reference.readValues()) != null & (otherValues = other.readValues()) != null) {
+				for(int column = 0; column < header.length; column++) {
+					if(!matches(referenceValues[column], otherValues[column], column >= FIRST_AGGREGATE_COLUMN ? tolerance : -1.)) {
+						System.out.println("Runs diverge in year " + referenceValues[0] + ", field " + header[column] + ": " + referenceValues[column] + " in " + files[0] + ", " + otherValues[column] + " in " + files[1]);
+						System.exit(1);
+					}
+				}
+				years++;
+			}
+			if(referenceValues != null || otherValues != null) {
+				System.out.println("Runs agree for " + years + " years, then " + (referenceValues == null ? files[0] : files[1]) + " ends");
+				System.exit(1);
+			}
+			System.out.println("Runs agree for all " + years + " years");
+		} finally {
+			reference.close();
+			other.close();
+		}
+	}
+
+	//Exact comparison if tolerance is negative, otherwise within the relative tolerance
+	private static boolean matches(String reference, String other, double tolerance) {
+		if(reference.equals(other)) {
+			return true;
+		}
+		if(tolerance < 0.) {
+			return false;
+		}
+		double referenceValue = Double.parseDouble(reference);
+		double otherValue = Double.parseDouble(other);
+		return Math.abs(referenceValue - otherValue) <= tolerance * Math.max(Math.abs(referenceValue), Math.abs(otherValue));
+	}
+
+	//Reads the digest files of a run line by line, adding up the lines of the workers of a distributed run
+	private static class DigestReader {
+
+		private final String[] files;
+
+		private final BufferedReader[] readers;
+
+		private DigestReader(String files) throws IOException {
+			this.files = files.split(File.pathSeparator);
+			readers = new BufferedReader[this.files.length];
+			for(int i = 0; i < readers.length; i++) {
+				readers[i] = new BufferedReader(new FileReader(this.files[i]));
+			}
+		}
+
+		private String[] readHeader() throws IOException {
+			String[] header = null;
+			for(BufferedReader reader : readers) {
+				header = reader.readLine().split(",");
+			}
+			return header;
+		}
+
+		//The values of the next year, or null at the end of the files
+		private String[] readValues() throws IOException {
+			String line = readers[0].readLine();
+			String[] values = line == null ? null : line.split(",");
+			for(int i = 1; i < readers.length; i++) {
+				line = readers[i].readLine();
+				if((line == null) != (values == null)) {
+					throw new IOException("The digest files " + files[0] + " and " + files[i] + " of the workers of a run end in different years");
+				}
+				if(line == null) {
+					continue;
+				}
+				String[] workerValues = line.split(",");
+				if(!workerValues[0].equals(values[0])) {
+					throw new IOException("Year " + workerValues[0] + " in " + files[i] + " does not match year " + values[0] + " in " + files[0]);
+				}
+				values[1] = String.valueOf(Integer.parseInt(values[1]) + Integer.parseInt(workerValues[1]));
+				for(int column = FIRST_SIM_DIGEST_COLUMN; column < FIRST_AGGREGATE_COLUMN; column++) {		//Modulo 2^64, as they are written
+					values[column] = String.format("%016x", Long.parseUnsignedLong(values[column], 16) + Long.parseUnsignedLong(workerValues[column], 16));
+				}
+				for(int column = FIRST_AGGREGATE_COLUMN; column < values.length; column++) {
+					if(!workerValues[column].equals(values[column])) {
+						throw new IOException("Aggregate " + column + " in year " + values[0] + " is " + workerValues[column] + " in " + files[i] + ", but " + values[column] + " in " + files[0]);
+					}
+				}
+			}
+			return values;
+		}
+
+		private void close() throws IOException {
+			for(BufferedReader reader : readers) {
+				reader.close();
+			}
+		}
+
+	}
+
+}
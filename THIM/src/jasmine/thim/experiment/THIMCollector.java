@@ -1,24 +1,44 @@
 package jasmine.thim.experiment;
 
 import microsim.annotation.GUIparameter;
-import microsim.data.DataExport;
 import microsim.data.MultiKeyCoefficientMap;
+import microsim.data.db.DatabaseUtils;
 import microsim.engine.AbstractSimulationCollectorManager;
+import microsim.engine.SimulationEngine;
 import microsim.engine.SimulationManager;
 import microsim.event.EventListener;
 import microsim.event.Order;
 import microsim.event.SingleTargetEvent;
 import jasmine.thim.algorithms.ExportBinTable;
+import jasmine.thim.algorithms.ReservoirSampler;
+import jasmine.thim.data.export.BinaryRowSink;
+import jasmine.thim.data.export.CsvRowSink;
+import jasmine.thim.data.export.JdbcRowSink;
+import jasmine.thim.data.export.NbhdCodec;
+import jasmine.thim.data.export.RowSink;
+import jasmine.thim.data.export.SimCodec;
+import jasmine.thim.data.export.SnapshotExporter;
+import jasmine.thim.data.export.StatisticsCodec;
+import jasmine.thim.model.Nbhd;
+import jasmine.thim.model.Sim;
+import jasmine.thim.model.Statistics;
 import jasmine.thim.model.THIMModel;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.lang3.ArrayUtils;
@@ -47,6 +67,9 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	@GUIparameter(description="Export snapshots to .csv files")
 	private boolean exportToCSV = false;
 
+	@GUIparameter(description="Export snapshots to binary (.bin) files")
+	private boolean exportToBinary = false;
+
 	@GUIparameter(description="persists the individual sim data in the database")
 	private boolean saveSimData = false;
 	
@@ -62,12 +85,33 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	@GUIparameter(description="number of years between snapshots")
 	private Integer numYearsBetweenDatabaseSnapshots = 1;
 	
+	@GUIparameter(description="number of sims to sample in each sim snapshot (0 to export all sims)")
+	private Integer simSnapshotSampleSize = 0;
+	
+	@GUIparameter(description="fraction of sims to sample in each sim snapshot (used if sample size is 0; 0 or 1 to export all sims)")
+	private Double simSnapshotSampleFraction = 0.;
+	
+	@GUIparameter(description="keep sampled sims in the snapshot sample until they die (panel), topping up the sample with new sims")
+	private boolean panelConsistentSampling = true;
+	
 //	@GUIparameter(description="number of quantiles for nbhd table")
 //	private Integer numQuantilesForNbhdTable = 7;		//Attempt to capture a range of quantiles as in the ModGen ad-hoc nbhd rank numbers...
 	
-	DataExport simsOutput;
-	DataExport nbhdsOutput;
-	DataExport statsOutput;
+	private String exportDatabaseUrl = null;		//Snapshots exported to the database are inserted through JDBC into this database, or into the output database of the JAS-mine experiment if null
+	
+	private int exportDatabaseBatchSize = 10000;
+	
+	SnapshotExporter<Sim> simsOutput;
+	SnapshotExporter<Nbhd> nbhdsOutput;
+	SnapshotExporter<Statistics> statsOutput;
+	
+	ReservoirSampler<Sim> simSampler;
+	
+	private double[] samplingWeights = new double[0];		//Of the sims in the last sample, reused by the next
+	
+	private static long numberOfRunsBuilt = 0;		//Over the experiment, counting every run of a multi-run
+	
+	private long run;				//Written in every snapshot row, so the rows of the runs of a multi-run exported to the same database can be told apart
 	
 	public THIMCollector(SimulationManager manager) {
 		super(manager);
@@ -84,20 +128,60 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	/////////////////////////////////////////////////////////
 
 	public void buildObjects() {
+		run = ++numberOfRunsBuilt;
 		if(!THIMStart.isShowGui() && THIMStart.isUseDatabase()) {
 			saveSimData = true;
 			saveNbhdData = true;
 			saveCityData = true;
 		}
-		if(saveSimData) {
-			simsOutput = new DataExport(((THIMModel) getManager()).getSims(), exportToDatabase, exportToCSV);	
+		if(!(exportToCSV || exportToBinary || exportToDatabase)) {		//No sinks to export snapshots to
+			saveSimData = false;
+			saveNbhdData = false;
+			saveCityData = false;
 		}
-		if(saveNbhdData) {
-			nbhdsOutput = new DataExport(((THIMModel) getManager()).getNbhds(), exportToDatabase, exportToCSV);	
+		try {
+			//Snapshots are written through codecs that read the entity fields directly (no reflection), so that exporting does not allocate per row.
+			if(saveSimData) {
+				simsOutput = new SnapshotExporter<Sim>(new SimCodec(), ((THIMModel) getManager()).getSims(), isSamplingSims(), run, createSnapshotSinks("Sim"));
+				if(isSamplingSims()) {
+					simSampler = new ReservoirSampler<Sim>(panelConsistentSampling, createSamplingRandom(), simId);
+				}
+			}
+			if(saveNbhdData) {
+				nbhdsOutput = new SnapshotExporter<Nbhd>(new NbhdCodec(), ((THIMModel) getManager()).getNbhds(), run, createSnapshotSinks("Nbhd"));
+			}
+			if(saveCityData) {
+				statsOutput = new SnapshotExporter<Statistics>(new StatisticsCodec(), ((THIMModel) getManager()).getStats(), run, createSnapshotSinks("Statistics"));
+			}
+		} catch (IOException e) {
+			System.out.println("Error creating snapshot exports in THIMCollector#buildObjects, so no snapshots will be exported");
+			e.printStackTrace();
+			abandonSnapshots();
+		} catch (SQLException e) {
+			System.out.println("Error connecting to snapshot export database " + getExportDatabaseConnectionUrl() + " in THIMCollector#buildObjects, so no snapshots will be exported");
+			e.printStackTrace();
+			abandonSnapshots();
+		}
+	}
+	
+	//Closes the exports created before one failed, and turns the snapshots off, so that DumpInfo is not scheduled for exports that do not exist
+	private void abandonSnapshots() {
+		for(SnapshotExporter<?> output : new SnapshotExporter<?>[] {simsOutput, nbhdsOutput, statsOutput}) {
+			if(output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
-		if(saveCityData) {
-			statsOutput = new DataExport(((THIMModel) getManager()).getStats(), exportToDatabase, exportToCSV);	
-		}		
+		simsOutput = null;
+		nbhdsOutput = null;
+		statsOutput = null;
+		simSampler = null;
+		saveSimData = false;
+		saveNbhdData = false;
+		saveCityData = false;
 	}
 	
 	public void buildSchedule() {
@@ -107,6 +191,8 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 
 //			//Dump data to database at the (scheduled) end of the simulation
 //			getEngine().getEventList().schedule(new SingleTargetEvent(this, Processes.DumpInfo), ((THIMModel) getManager()).getEndYear(), Order.BEFORE_ALL.getOrdering()+1, 0.);
+
+			getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.CloseSnapshots), ((THIMModel) getManager()).getEndYear(), Order.AFTER_ALL.getOrdering()-1);		//Close export files and database connection just before terminating simulation
 		}
 		
 		if(produceOutputTables) {
@@ -123,6 +209,7 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	
 	public enum Processes {
 		DumpInfo,
+		CloseSnapshots,
 		ResetOutputStatistics,
 		IncrementAverages,
 		ProduceOutputTables
@@ -132,14 +219,40 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 		switch ((Processes) type) {
 				
 		case DumpInfo:
-			if (saveSimData) {
-				simsOutput.export();
+			try {
+				double time = SimulationEngine.getInstance().getTime();
+				if (saveSimData) {
+					if(isSamplingSims()) {
+						exportSimSample(time);
+					}
+					else simsOutput.export(time);
+				}
+				if(saveNbhdData) {
+					nbhdsOutput.export(time);
+				}
+				if (saveCityData) {
+					statsOutput.export(time);
+				}
+			} catch (IOException e) {
+				System.out.println("Error exporting snapshot in THIMCollector#onEvent(DumpInfo)");
+				e.printStackTrace();
 			}
-			if(saveNbhdData) {
-				nbhdsOutput.export();
-			}
-			if (saveCityData) {
-				statsOutput.export();
+			break;
+			
+		case CloseSnapshots:
+			try {
+				if (saveSimData) {
+					simsOutput.close();
+				}
+				if(saveNbhdData) {
+					nbhdsOutput.close();
+				}
+				if (saveCityData) {
+					statsOutput.close();
+				}
+			} catch (IOException e) {
+				System.out.println("Error closing snapshot exports in THIMCollector#onEvent(CloseSnapshots)");
+				e.printStackTrace();
 			}
 			break;
 
@@ -152,18 +265,67 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 			break;
 			
 		case ProduceOutputTables:
-			calculateOutputStatistics();		//Calculate statistics to put in output tables
-			produceTables();						//Create .csv files and export output statistics to them
+			produceOutputTables();
 			break;
 			
 		}
 	}
 	
 	
+	//////////////////////////////////////////////////////////
+	// Sampled sim snapshots
+	//////////////////////////////////////////////////////////
+	
+	private boolean isSamplingSims() {
+		return simSnapshotSampleSize > 0 || (simSnapshotSampleFraction > 0. && simSnapshotSampleFraction < 1.);
+	}
+	
+	private Random createSamplingRandom() {			//Sampling must not draw from SimulationEngine.getRnd(), as that would change the simulated outcomes
+		THIMModel model = (THIMModel) getManager();
+		if(model.getFixRandomSeed()) {
+			return new Random(model.getRandomSeedIfFixed() + 1L);
+		}
+		else return new Random();
+	}
+	
+	private void exportSimSample(double time) throws IOException {
+		Collection<Sim> sims = ((THIMModel) getManager()).getSims();
+		int sampleSize = simSnapshotSampleSize > 0 ? simSnapshotSampleSize : (int)Math.round(simSnapshotSampleFraction * sims.size());
+		List<Sim> sample = simSampler.sample(sims, sampleSize, simIsAlive);
+		if(!sample.isEmpty()) {
+			//Each sampled sim represents the inverse of its inclusion probability in sims.  In a panel sample this differs between the members kept from earlier samples and those topping it up.
+			if(samplingWeights.length < sample.size()) {
+				samplingWeights = new double[sample.size()];
+			}
+			for(int i = 0; i < sample.size(); i++) {
+				samplingWeights[i] = 1. / simSampler.getInclusionProbability(i);
+			}
+			simsOutput.export(time, sample, samplingWeights);
+		}
+	}
+	
+	private static final Predicate<Sim> simIsAlive = new Predicate<Sim>() {
+		public boolean test(Sim sim) {
+			return !sim.isDead();
+		}
+	};
+	
+	private static final ToLongFunction<Sim> simId = new ToLongFunction<Sim>() {		//Panel members are tracked by id, as the object of a dead Sim is reused for a newborn
+		public long applyAsLong(Sim sim) {
+			return sim.getId();
+		}
+	};
+	
+	
 	//////////////////////////////////////////////////////////
 	// Methods to create output tables
 	//////////////////////////////////////////////////////////
 		
+	public void produceOutputTables() {			//Also used by THIMWorkerCollector, for the output tables of a distributed run
+		calculateOutputStatistics();		//Calculate statistics to put in output tables
+		produceTables();						//Create .csv files and export output statistics to them
+	}
+	
 	private void calculateOutputStatistics() {			//Calculate required statistics to then be exported to .csv
 		((THIMModel) getManager()).getStats().calculateStatisticsByAgeBins();
 
@@ -173,12 +335,7 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	
 	private void produceTables() {		//Export to the necessary data to .csv files in the working directory
 		
-		File directory = new File("JASmine_THIM_Results");
-		if (!directory.exists()) {
-			if (!directory.mkdir()) {
-				System.out.println("Failed to create directory");
-			}
-		}
+		File directory = getOutputDirectory();
 	
 		/* Produce Avgs table
 		 * Average income, average health, adult population, child population, yearly data (time-)averaged 
@@ -425,16 +582,7 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 	private FileWriter createFileWithIncrementedIndex(File directory, String filename, String header) {
 
 		FileWriter fileWriter = null; 
-    	String newFilename = null;
-    	int version = 1;
-    	File f = new File(directory + File.separator + filename + version + ".csv");
-    	while (f.exists())
-    	{
-    		version++;
-    	    newFilename= filename + version;
-    	    f = new File(directory + File.separator + newFilename + ".csv");
-    	        
-    	} 
+    	File f = findFileWithIncrementedIndex(directory, filename, ".csv");
     	
     	try {
 			f.createNewFile();
@@ -450,6 +598,50 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
     	        	    	
         return fileWriter;
 	}
+	
+	//Returns the first file of the form filename + index + extension that does not already exist.
+	private File findFileWithIncrementedIndex(File directory, String filename, String extension) {
+    	int version = 1;
+    	File f = new File(directory + File.separator + filename + version + extension);
+    	while (f.exists())
+    	{
+    		version++;
+    	    f = new File(directory + File.separator + filename + version + extension);
+    	} 
+    	return f;
+	}
+	
+	private File getOutputDirectory() {
+		File directory = new File("JASmine_THIM_Results");
+		if (!directory.exists()) {
+			if (!directory.mkdir()) {
+				System.out.println("Failed to create directory");
+			}
+		}
+		return directory;
+	}
+	
+	private RowSink[] createSnapshotSinks(String name) throws SQLException {
+		ArrayList<RowSink> sinks = new ArrayList<RowSink>();
+		String filename = filenameStructure + name + "_";
+		if(exportToCSV) {
+			sinks.add(new CsvRowSink(findFileWithIncrementedIndex(getOutputDirectory(), filename, ".csv")));
+		}
+		if(exportToBinary) {
+			sinks.add(new BinaryRowSink(findFileWithIncrementedIndex(getOutputDirectory(), filename, ".bin")));
+		}
+		if(exportToDatabase) {
+			sinks.add(new JdbcRowSink(DriverManager.getConnection(getExportDatabaseConnectionUrl(), "sa", ""), exportDatabaseBatchSize));
+		}
+		return sinks.toArray(new RowSink[sinks.size()]);
+	}
+	
+	private String getExportDatabaseConnectionUrl() {
+		if(exportDatabaseUrl != null) {
+			return exportDatabaseUrl;
+		}
+		return "jdbc:h2:file:" + DatabaseUtils.databaseOutputUrl;		//The (H2) output database of the experiment, in its output folder
+	}
 
 
 	//////////////////////////////////////////////////////////
@@ -480,6 +672,22 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 		this.exportToCSV = exportToCSV;
 	}
 
+	public boolean isExportToBinary() {
+		return exportToBinary;
+	}
+
+	public void setExportToBinary(boolean exportToBinary) {
+		this.exportToBinary = exportToBinary;
+	}
+
+	public String getExportDatabaseUrl() {
+		return exportDatabaseUrl;
+	}
+
+	public void setExportDatabaseUrl(String exportDatabaseUrl) {
+		this.exportDatabaseUrl = exportDatabaseUrl;
+	}
+
 	public boolean isSaveSimData() {
 		return saveSimData;
 	}
@@ -520,6 +728,30 @@ public class THIMCollector extends AbstractSimulationCollectorManager implements
 		this.numYearsBetweenDatabaseSnapshots = numYearsBetweenDatabaseSnapshots;
 	}
 
+	public Integer getSimSnapshotSampleSize() {
+		return simSnapshotSampleSize;
+	}
+
+	public void setSimSnapshotSampleSize(Integer simSnapshotSampleSize) {
+		this.simSnapshotSampleSize = simSnapshotSampleSize;
+	}
+
+	public Double getSimSnapshotSampleFraction() {
+		return simSnapshotSampleFraction;
+	}
+
+	public void setSimSnapshotSampleFraction(Double simSnapshotSampleFraction) {
+		this.simSnapshotSampleFraction = simSnapshotSampleFraction;
+	}
+
+	public boolean isPanelConsistentSampling() {
+		return panelConsistentSampling;
+	}
+
+	public void setPanelConsistentSampling(boolean panelConsistentSampling) {
+		this.panelConsistentSampling = panelConsistentSampling;
+	}
+
 //	public Integer getNumQuantilesForNbhdTable() {
 //		return numQuantilesForNbhdTable;
 //	}
@@ -0,0 +1,175 @@
+package jasmine.thim.experiment;
+
+import jasmine.thim.distributed.SocketWorkerExchange;
+import jasmine.thim.distributed.THIMCoordinator;
+import jasmine.thim.distributed.THIMWorkerCollector;
+import jasmine.thim.model.THIMModel;
+import jasmine.thim.model.enums.EngineMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import microsim.engine.ExperimentBuilder;
+import microsim.engine.SimulationEngine;
+
+/**
+ * Runs THIM distributed over several local worker JVMs, connected to a coordinator over loopback sockets.  Each
+ * worker builds and simulates the Sims of a contiguous range of the shards of the Sharded engine mode (or the Annual mode, with '-a'), so that
+ * together they hold the population of a parallel build in a single process (see InitialPopulationBuilder).  Once a year, the workers exchange
+ * their statistics sums through the coordinator and hand over the Sims that moved to nbhds of other workers.
+ * 
+ * Without '-w', this process is the coordinator and launches the '-n' workers itself.  Like THIMStart, it must be run
+ * from the THIM project directory, and runs headless without the database.  Worker 0 writes the output tables of the
+ * whole population (see THIMWorkerCollector).
+ */
+public class THIMDistributedStart implements ExperimentBuilder {
+
+	private static int numberOfWorkers = 2;
+
+	private static int workerIndex = -1;			//-1 for the coordinator
+
+	private static int port;
+
+	private static int populationSize = 50000;
+
+	private static int years = 500;
+
+	private static int randomSeed = 0;
+
+	private static int numberOfShards = -1;			//Defaults to one per available processor on each worker
+
+	private static String workerJvmArgs = "";
+
+	private static EngineMode engineMode = EngineMode.Sharded;
+
+	private final SocketWorkerExchange exchange;
+
+	private THIMDistributedStart(SocketWorkerExchange exchange) {
+		this.exchange = exchange;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		for (int i = 0; i < args.length; i++) {
+			try {
+				if (args[i].equals("-n")){
+					numberOfWorkers = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-w")){
+					workerIndex = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-port")){
+					port = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-p")){
+					populationSize = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-y")){
+					years = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-s")){
+					randomSeed = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-k")){
+					numberOfShards = Integer.parseInt(args[i + 1]);
+					i++;
+				}
+				else if (args[i].equals("-j")){
+					workerJvmArgs = args[i + 1];
+					i++;
+				}
+				else if (args[i].equals("-a")){
+					engineMode = EngineMode.Annual;
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Argument " + args[i + 1] + " must be an integer.");
+				System.exit(1);
+			}
+		}
+		if(numberOfShards < 0) {
+			numberOfShards = numberOfWorkers * Runtime.getRuntime().availableProcessors();
+		}
+
+		if(workerIndex < 0) {
+			System.exit(runCoordinator());
+		}
+
+		SocketWorkerExchange exchange = new SocketWorkerExchange(InetAddress.getLoopbackAddress().getHostAddress(), port, workerIndex, numberOfWorkers);
+		SimulationEngine engine = SimulationEngine.getInstance();
+		engine.setTurnOffDatabaseConnection(true);
+		engine.setExperimentBuilder(new THIMDistributedStart(exchange));
+		engine.setup();
+		engine.startSimulation();
+
+	}
+
+	private static int runCoordinator() throws IOException, InterruptedException {
+		ServerSocket serverSocket = new ServerSocket(0, numberOfWorkers, InetAddress.getLoopbackAddress());
+		List<Process> workers = new ArrayList<Process>(numberOfWorkers);
+		try {
+			for(int worker = 0; worker < numberOfWorkers; worker++) {
+				List<String> command = new ArrayList<String>();
+				command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+				if(!workerJvmArgs.trim().isEmpty()) {
+					command.addAll(Arrays.asList(workerJvmArgs.trim().split("\\s+")));
+				}
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(THIMDistributedStart.class.getName());
+				command.addAll(Arrays.asList("-w", Integer.toString(worker), "-n", Integer.toString(numberOfWorkers),
+						"-port", Integer.toString(serverSocket.getLocalPort()), "-p", Integer.toString(populationSize),
+						"-y", Integer.toString(years), "-s", Integer.toString(randomSeed), "-k", Integer.toString(numberOfShards)));
+				if(engineMode == EngineMode.Annual) {
+					command.add("-a");
+				}
+				workers.add(new ProcessBuilder(command).inheritIO().start());
+			}
+
+			new THIMCoordinator(serverSocket, numberOfWorkers).run(years);
+		} finally {
+			serverSocket.close();
+		}
+
+		int exitCode = 0;
+		for(int worker = 0; worker < numberOfWorkers; worker++) {
+			Process process = workers.get(worker);
+			if(!process.waitFor(60, TimeUnit.SECONDS)) {			//A worker whose population has died out pauses its engine rather than exiting
+				process.destroy();
+			}
+			int workerExitCode = process.waitFor();
+			if(workerExitCode != 0) {
+				System.err.println("Worker " + worker + " failed with exit code " + workerExitCode);
+				exitCode = 1;
+			}
+		}
+		return exitCode;
+	}
+
+	public void buildExperiment(SimulationEngine engine) {
+		THIMModel model = new THIMModel();
+		model.setMicrosimShellUse(false);
+		model.setStartingPopulationSize(populationSize);
+		model.setEndYear(years);
+		model.setFixRandomSeed(true);			//Every worker draws its own nbhds' Sims from the streams of the same seed
+		model.setRandomSeedIfFixed(randomSeed);
+		model.setEngineMode(engineMode);
+		model.setNumberOfShards(numberOfShards);
+		model.setWorkerExchange(exchange);
+		engine.addSimulationManager(model);
+
+		engine.addSimulationManager(new THIMWorkerCollector(model));
+	}
+
+}
@@ -1,30 +1,88 @@
 package jasmine.thim.experiment;
 
 import jasmine.thim.model.THIMModel;
+import jasmine.thim.model.enums.CityType;
+import jasmine.thim.model.enums.IncomeBaseGiniCoefficient;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
 import microsim.engine.MultiRun;
 import microsim.engine.SimulationEngine;
 import microsim.gui.shell.MultiRunFrame;
 
+/**
+ * Runs the model repeatedly with a new random seed for each run, for '-n' replications (12 by default).  Scenarios to
+ * compare can be given as lists of city types ('-c', e.g. 'C,U') and income base Gini coefficients ('-gini'), in which
+ * case every replication runs each combination in turn.  With '-crn', the scenarios of a replication share the same seed
+ * and use common random numbers (see THIMModel#commonRandomNumbers), so that the differences between them need far fewer
+ * replications to detect.
+ * 
+ * Given confidence interval targets with '-target' (e.g. 'lifeExpectancy=0.1,longRunAvgHealth=0.002', see
+ * SequentialStopping.Output), replications continue only until every target is met, with '-n' as a cap on the number of
+ * replications (100 by default with targets).  Runs only stop at the end of a replication, so every scenario has the same
+ * number of runs.  The confidence level is set with '-ci' (0.95 by default) and the minimum number of replications with
+ * '-minReplications'.
+ * 
+ * The output tables of the runs are merged as they finish (see OutputTableAggregator) into one set of tables per scenario,
+ * with confidence intervals at the same level, unless '-aggregate false' is given.
+ * 
+ * With '-w', every Sim represents that many persons (see THIMModel#representationWeight), so comparing the merged
+ * tables of runs with and without a weight measures the error the weight introduces.
+ */
 public class THIMMultiRun extends MultiRun {
 
 	public static boolean executeWithGui = true;
 
-	private static int maxNumberOfRuns = 12;
+	private static int maxNumberOfReplications = 12;		//Each of which runs every scenario
+
+	private static final int defaultMaxNumberOfReplicationsWithTargets = 100;
+
+	private static boolean maxNumberOfReplicationsGiven = false;
+
+	private static CityType[] cityTypes = null;			//The model's default if null
+
+	private static IncomeBaseGiniCoefficient[] incomeBaseGiniCoefficients = null;		//The model's default if null
+
+	private static boolean commonRandomNumbers = false;
+
+	private static Map<SequentialStopping.Output, Double> targets = null;		//Fixed number of runs if null
+
+	private static double confidenceLevel = 0.95;
+
+	private static int minReplications = 3;
+
+	private static boolean aggregateOutputTables = true;
+
+	private static int representationWeight = 1;
+
+	private SequentialStopping stopping = null;
+
+	private OutputTableAggregator[] aggregators = null;		//By scenario
+
+	private THIMModel model;			//Of the current run
+
+	private THIMCollector collector;
 
 	private Long counter = 1L;
 	
 	private Integer randomSeed = 1;
 	
+	private int scenario = 0;			//Index of the combination of city type and Gini coefficient of the current run
+
+	private int replications = 0;		//Completed
+	
 	public static void main(String[] args) {
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-n")){
 				
 				try {
-					maxNumberOfRuns = Integer.parseInt(args[i + 1]);
+					maxNumberOfReplications = Integer.parseInt(args[i + 1]);
 			    } catch (NumberFormatException e) {
-			        System.err.println("Argument " + args[i + 1] + " must be an integer reflecting the maximum number of runs.");
+			        System.err.println("Argument " + args[i + 1] + " must be an integer reflecting the maximum number of replications.");
 			        System.exit(1);
 			    }
+				maxNumberOfReplicationsGiven = true;
 				
 				i++;
 			}
@@ -32,50 +90,181 @@ public class THIMMultiRun extends MultiRun {
 				executeWithGui = Boolean.parseBoolean(args[i + 1]);
 				i++;
 			}
+			else if (args[i].equals("-c")){
+				String[] names = args[i + 1].split(",");
+				cityTypes = new CityType[names.length];
+				for(int c = 0; c < names.length; c++) {
+					cityTypes[c] = CityType.valueOf(names[c].trim());
+				}
+				i++;
+			}
+			else if (args[i].equals("-gini")){
+				String[] names = args[i + 1].split(",");
+				incomeBaseGiniCoefficients = new IncomeBaseGiniCoefficient[names.length];
+				for(int g = 0; g < names.length; g++) {
+					incomeBaseGiniCoefficients[g] = IncomeBaseGiniCoefficient.valueOf(names[g].trim());
+				}
+				i++;
+			}
+			else if (args[i].equals("-crn")){
+				commonRandomNumbers = true;
+			}
+			else if (args[i].equals("-target")){
+				targets = SequentialStopping.parseTargets(args[i + 1]);
+				i++;
+			}
+			else if (args[i].equals("-ci")){
+				confidenceLevel = Double.parseDouble(args[i + 1]);
+				i++;
+			}
+			else if (args[i].equals("-minReplications")){
+				minReplications = Integer.parseInt(args[i + 1]);
+				i++;
+			}
+			else if (args[i].equals("-w")){
+				representationWeight = Integer.parseInt(args[i + 1]);
+				i++;
+			}
+			else if (args[i].equals("-aggregate")){
+				aggregateOutputTables = Boolean.parseBoolean(args[i + 1]);
+				i++;
+			}
 		}
 		
 		SimulationEngine engine = SimulationEngine.getInstance();
 		
 		THIMMultiRun experimentBuilder = new THIMMultiRun();
+		if(targets != null) {
+			if(!maxNumberOfReplicationsGiven) {
+				maxNumberOfReplications = defaultMaxNumberOfReplicationsWithTargets;
+				System.out.println("Warning: no cap on the number of replications given with '-n', so stopping after at most " + maxNumberOfReplications + " replications if the targets are not met");
+			}
+			File directory = new File("JASmine_THIM_Results");
+			directory.mkdirs();
+			try {
+				experimentBuilder.stopping = new SequentialStopping(targets, confidenceLevel, minReplications, getNumberOfScenarios(), commonRandomNumbers, new File(directory, "MultiRunStoppingTrace.csv"));
+			} catch (IOException e) {
+				System.err.println("Failed to create the stopping trace: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if(aggregateOutputTables) {
+			experimentBuilder.aggregators = new OutputTableAggregator[getNumberOfScenarios()];
+			for(int s = 0; s < experimentBuilder.aggregators.length; s++) {
+				experimentBuilder.aggregators[s] = new OutputTableAggregator(confidenceLevel);
+			}
+		}
 		engine.setExperimentBuilder(experimentBuilder);					//This replaces the above line... but does it work?
 		engine.setup();													//Do we need this?  Worked fine without it...
 
 		if (executeWithGui)
-			new MultiRunFrame(experimentBuilder, "THIM MultiRun", maxNumberOfRuns);
+			new MultiRunFrame(experimentBuilder, "THIM MultiRun", maxNumberOfReplications * getNumberOfScenarios());		//The frame counts runs
 		else
 			experimentBuilder.start();
 	}
 
 	@Override
 	public void buildExperiment(SimulationEngine engine) {
-		THIMModel model = new THIMModel();
+		model = new THIMModel();
 		
 		model.setMicrosimShellUse(false);
 		model.setFixRandomSeed(true);
 		model.setRandomSeedIfFixed(randomSeed);
+		model.setCommonRandomNumbers(commonRandomNumbers);
+		model.setRepresentationWeight(representationWeight);
+		if(cityTypes != null) {
+			model.setCityType(cityTypes[scenario % cityTypes.length]);
+		}
+		if(incomeBaseGiniCoefficients != null) {
+			model.setIncomeBaseGiniCoeff(incomeBaseGiniCoefficients[scenario / getNumberOfCityTypes()]);
+		}
 		
 		engine.addSimulationManager(model);
 		
-		THIMCollector collector = new THIMCollector(model);
+		collector = new THIMCollector(model);
 		engine.addSimulationManager(collector);
 		
 	}
 	
 	@Override
 	public boolean nextModel() {
-		randomSeed++;
+		boolean targetsMet = false;
+		if(stopping != null && !collector.getProduceOutputTables()) {		//The statistics of the targets are only updated with the output tables
+			System.err.println("The confidence interval targets given with '-target' need the output tables, which are turned off, so stopping after " + maxNumberOfReplications + " replications");
+			stopping.close();
+			stopping = null;
+		}
+		if(stopping != null) {
+			stopping.record(scenario, model);
+		}
+		if(aggregators != null && collector.getProduceOutputTables()) {
+			aggregators[scenario].add(model.getStats(), model.getAgeBinInterval());
+		}
+		scenario++;
+		if(scenario == getNumberOfScenarios()) {
+			scenario = 0;
+			randomSeed++;
+			replications++;
+			if(stopping != null) {
+				targetsMet = stopping.endReplication();
+			}
+		}
+		else if(!commonRandomNumbers) {
+			randomSeed++;			//Independent runs for each scenario
+		}
 		
 		counter++;
 
-		if(counter <= maxNumberOfRuns) {
+		if(!targetsMet && (scenario != 0 || replications < maxNumberOfReplications)) {		//The cap only applies between replications
 			return true;
 		}
-		else return false;
+		else {
+			if(stopping != null) {
+				System.out.println((targetsMet ? "All confidence interval targets met after " : "Stopped at the cap of " + maxNumberOfReplications + " replications, before all targets were met, after ") + stopping.getReplications() + " replications");
+				stopping.close();
+			}
+			if(aggregators != null) {
+				writeMergedOutputTables();
+			}
+			return false;
+		}
 	}
 
 	@Override
 	public String setupRunLabel() {
+		if(getNumberOfScenarios() > 1) {
+			return "Run " + counter.toString() + " (" + (cityTypes != null ? cityTypes[scenario % cityTypes.length] + " " : "")
+					+ (incomeBaseGiniCoefficients != null ? incomeBaseGiniCoefficients[scenario / getNumberOfCityTypes()] + " " : "") + "seed " + randomSeed + ")";
+		}
 		return "Run " + counter.toString();
 	}
 
+	private void writeMergedOutputTables() {
+		File directory = new File("JASmine_THIM_Results");
+		directory.mkdirs();
+		for(int s = 0; s < aggregators.length; s++) {
+			if(aggregators[s].getRuns() == 0) {
+				continue;
+			}
+			String prefix = "pop" + model.getStartingPopulationSize() + "_" + (representationWeight > 1 ? "w" + representationWeight + "_" : "");
+			if(getNumberOfScenarios() > 1) {
+				prefix += (cityTypes != null ? cityTypes[s % cityTypes.length] + "_" : "") + (incomeBaseGiniCoefficients != null ? incomeBaseGiniCoefficients[s / getNumberOfCityTypes()] + "_" : "");
+			}
+			try {
+				aggregators[s].write(directory, prefix);
+			} catch (IOException e) {
+				System.out.println("Error writing the merged output tables in THIMMultiRun#writeMergedOutputTables");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static int getNumberOfCityTypes() {
+		return cityTypes != null ? cityTypes.length : 1;
+	}
+
+	private static int getNumberOfScenarios() {
+		return getNumberOfCityTypes() * (incomeBaseGiniCoefficients != null ? incomeBaseGiniCoefficients.length : 1);
+	}
+
 }
@@ -9,12 +9,9 @@ import microsim.event.EventGroup;
 import microsim.event.Order;
 import microsim.gui.GuiUtils;
 import microsim.gui.plot.TimeSeriesSimulationPlotter;
-import microsim.statistics.CrossSection;
 import microsim.statistics.IDoubleSource;
 import microsim.statistics.IIntSource;
-import microsim.statistics.functions.MeanArrayFunction;
 import microsim.statistics.functions.MultiTraceFunction;
-import jasmine.thim.model.Sim;
 import jasmine.thim.model.THIMModel;
 
 import org.apache.log4j.Logger;
@@ -28,7 +25,7 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 	@GUIparameter(description="Toggle to turn off Observer for increased execution speed")
 	private boolean observerOn = true;				//Observer contains methods to plot to GUI and persist extra data to the Statistics database that is not actually required to run the simultation processes, e.g. city-wide average years in education using the fMeanEducation field below. 
 	
-	@GUIparameter
+	@GUIparameter(description="Number of years between chart updates (rounded to whole years, as the charted statistics are only updated once a year)")
 	private Double displayFrequency = 1.;
 
 	private TimeSeriesSimulationPlotter agePlotter;
@@ -47,20 +44,20 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 	public void buildObjects() {
 		if(observerOn) {
 
-			final THIMModel model = (THIMModel) collector.getManager();
-
 			//Non-essential for Sim Processes, but possibly interesting for analysis////////////////////
 
 			MultiTraceFunction.Integer fTracePopSize = new MultiTraceFunction.Integer(this, THIMObserver.Variables.populationSize);	
 			MultiTraceFunction.Double fTraceLifeExpectancy = new MultiTraceFunction.Double(this, THIMObserver.Variables.lifeExpectancy);
 			MultiTraceFunction.Double fAvgAdultIncome = new MultiTraceFunction.Double(this, THIMObserver.Variables.avgAdultIncome);
 			
-			CrossSection.Integer educationCS = new CrossSection.Integer(model.getSims(), Sim.Variables.yearsInEducation);
-			CrossSection.Integer ageCS = new CrossSection.Integer(model.getSims(), Sim.Variables.age);		//TODO: Currently used in Observer charts, but replace with avgAgeWhenSimsDie (and avgCumulativeHealthyYears)
+			//Population means are read from the yearly aggregates computed in Statistics#updateStatistics(), rather than from cross-sections that iterate through all the sims again on every chart update
+			MultiTraceFunction.Double fMeanAge = new MultiTraceFunction.Double(this, THIMObserver.Variables.meanAge);		//TODO: Currently used in Observer charts, but replace with avgAgeWhenSimsDie (and avgCumulativeHealthyYears)
+			MultiTraceFunction.Double fMeanEducation = new MultiTraceFunction.Double(this, THIMObserver.Variables.meanYearsInEducation);
+			MultiTraceFunction.Double fMeanHealth = new MultiTraceFunction.Double(this, THIMObserver.Variables.meanHealthIndex);
 			
 			agePlotter = new TimeSeriesSimulationPlotter("Mean Age, Life Expectancy & Years In Education", "years");
-			agePlotter.addSeries("mean age", new MeanArrayFunction(ageCS));
-			agePlotter.addSeries("years in education", new MeanArrayFunction(educationCS));
+			agePlotter.addSeries("mean age", fMeanAge);
+			agePlotter.addSeries("years in education", fMeanEducation);
 			agePlotter.addSeries("life expectancy", fTraceLifeExpectancy);			
 			GuiUtils.addWindow(agePlotter, 250, 90, 500, 500);
 
@@ -70,7 +67,7 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 			GuiUtils.addWindow(incomePlotter, 750, 90, 500, 500);
 
 			healthPlotter = new TimeSeriesSimulationPlotter("Mean Health Index", "index");
-			healthPlotter.addSeries("health index", new MeanArrayFunction(new CrossSection.Double(model.getSims(), Sim.Variables.healthIndex)));
+			healthPlotter.addSeries("health index", fMeanHealth);
 			GuiUtils.addWindow(healthPlotter, 1250, 90, 500, 500);
 
 			log.debug("Observer objects created");
@@ -86,7 +83,8 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 			eventGroup.addEvent(agePlotter, CommonEventType.Update);
 			eventGroup.addEvent(incomePlotter, CommonEventType.Update);
 			eventGroup.addEvent(healthPlotter, CommonEventType.Update);
-			getEngine().getEventQueue().scheduleRepeat(eventGroup, 0., Order.AFTER_ALL.getOrdering()-1, displayFrequency);
+			double yearsBetweenUpdates = Math.max(1., Math.rint(displayFrequency));		//Statistics only change once a year, so updating the charts more often would just redraw the same values
+			getEngine().getEventQueue().scheduleRepeat(eventGroup, 0., Order.AFTER_ALL.getOrdering()-1, yearsBetweenUpdates);
 
 			log.debug("Observer schedule created");
 
@@ -102,6 +100,9 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 		populationSize,
 		lifeExpectancy,
 		avgAdultIncome,
+		meanAge,
+		meanYearsInEducation,
+		meanHealthIndex,
 	}
 	
 	public int getIntValue(Enum<?> variableID) {
@@ -121,6 +122,12 @@ public class THIMObserver extends AbstractSimulationObserverManager implements I
 			return ((THIMModel) collector.getManager()).getStats().getLifeExpectancyAndReset();
 		case avgAdultIncome:
 			return ((THIMModel) collector.getManager()).getStats().getAvgAdultIncome();
+		case meanAge:
+			return ((THIMModel) collector.getManager()).getStats().getAvgAge();
+		case meanYearsInEducation:
+			return ((THIMModel) collector.getManager()).getStats().getAvgYearsInEducation();
+		case meanHealthIndex:
+			return ((THIMModel) collector.getManager()).getStats().getAvgHealth();
 		default:
 			throw new IllegalArgumentException("Unsupported variable " + variableID.name() + " in THIMCollector#getDoubleValue");
 		}
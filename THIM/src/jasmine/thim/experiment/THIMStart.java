@@ -14,6 +14,10 @@ public class THIMStart implements ExperimentBuilder {
 	private static boolean showMicrosimShellGui = true;
 	
 	private static boolean useDatabase = true;
+	
+	//Empty to generate the initial population.  Can override this either using the GUI, 
+	//or if running in the command prompt by using the command '-i' followed by the file to load the initial population from.
+	private static String initialPopulationFile = "";
 		
 	public static void main(String[] args) {
 		
@@ -39,6 +43,11 @@ public class THIMStart implements ExperimentBuilder {
 				useDatabase = Boolean.parseBoolean(args[i + 1]);
 				i++;
 			}
+			else if (args[i].equals("-i")){
+				
+				initialPopulationFile = args[i + 1];
+				i++;
+			}
 
 		}
 		
@@ -89,4 +98,8 @@ public class THIMStart implements ExperimentBuilder {
 		return useDatabase;
 	}
 
+	public static String getInitialPopulationFile() {
+		return initialPopulationFile;
+	}
+
 }	
\ No newline at end of file
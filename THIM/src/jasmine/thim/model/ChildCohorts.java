@@ -0,0 +1,368 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.ZigguratSampler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import microsim.statistics.regression.RegressionUtils;
+
+/**
+ *
+ * The children of the nbhds of one context in the hybrid mode (see THIMModel#hybridChildCohorts), held as counts
+ * rather than as Sims.  Until they finish their education, children have no income, do not give birth (as
+ * maxYearsOfEducation <= minAgeToReproduce) and only interact with the rest of the population through the city
+ * average health in their mortality hazard.  Their health and mortality therefore only depend on their age and
+ * health, so children born in the same nbhd and year form a cohort with a histogram of health (and of cumulative
+ * health and birthTimestamp), updated once a year at the start of the year.  Health does not depend on
+ * yearsInEducation, so each cohort only splits its counts and incomeBase histograms by yearsInEducation.  In the
+ * year a group of the cohort finishes its education, its children are promoted to Sims, with their health,
+ * incomeBase and birthTimestamp drawn from the histograms, just before their birthday at which they would have
+ * stopped following their parent.
+ *
+ * Parents keep the birth year and yearsInEducation of their children in a cohort, so that when they move nbhd, a
+ * child is moved with them to the cohort of the new nbhd, unless it is deemed to have died (with the probability
+ * of the deaths in its group so far).  The results are statistically equivalent to simulating the children as
+ * Sims rather than identical: each child's health is only known to within its histogram bin, children who die
+ * are removed at the start of the year in which they die, and the children of the initial population remain Sims.
+ *
+ */
+public class ChildCohorts {
+
+	private static final int HEALTH_BINS = 64;			//Of equal width between the min and max health index, plus one for children at the max health index, which newborns start with
+
+	private static final int INCOME_BASE_BINS = 32;		//Of equal width in log(incomeBase)
+
+	private static final int BIRTH_TIMESTAMP_BINS = 12;
+
+	private final THIMModel model;
+
+	private final CompiledParameters parameters;
+
+	private final SimContext context;
+
+	private final CommonRandomNumbers commonRandomNumbers;		//Only when using common random numbers
+
+	private final Map<Long, Cohort> cohorts = new LinkedHashMap<Long, Cohort>();		//By nbhdId and birth year, see getKey()
+
+	public ChildCohorts(THIMModel model, SimContext context) {
+		this.model = model;
+		parameters = model.getCompiledParameters();
+		this.context = context;
+		commonRandomNumbers = model.getCommonRandomNumbers() ? new CommonRandomNumbers() : null;
+	}
+
+	//Adds a newborn of the parent, who has just given birth, to the cohort of the parent's nbhd
+	protected void addNewborn(Sim parent, int yearsInEducation, double incomeBase) {
+		double time = context.getTime();
+		int birthYear = (int) Math.floor(time);
+		Cohort cohort = getCohort(parent.getNbhdId(), birthYear);
+		cohort.add(HEALTH_BINS, parameters.getMaxHealthIndex(), getBirthTimestampBin(time - birthYear), yearsInEducation, getIncomeBaseBin(incomeBase));
+		parent.addCohortChild(birthYear, yearsInEducation);
+	}
+
+	//Moves the children following the parent from the cohorts of its old nbhd to those of its new nbhd, in target (this, unless the new nbhd is in another shard)
+	protected void moveChildren(Sim parent, int fromNbhdId, int toNbhdId, ChildCohorts target) {
+		Random random = context.getRandom();
+		int year = (int) Math.floor(context.getTime());
+		int numberFollowing = 0;
+		for(int c = 0; c < parent.getNumberOfCohortChildren(); c++) {
+			int child = parent.getCohortChild(c);
+			int birthYear = child >>> 7;
+			int yearsInEducation = child & 0x7f;
+			if(birthYear + yearsInEducation <= year) {
+				continue;			//Promoted, so no longer following the parent
+			}
+			Cohort from = cohorts.get(getKey(fromNbhdId, birthYear));
+			Group group = from != null ? from.groups[yearsInEducation] : null;
+			if(group == null || group.size == 0 || random.nextDouble() * (group.size + group.deaths) >= group.size) {
+				continue;			//Deemed to have died
+			}
+			from.transferOne(yearsInEducation, target.getCohort(toNbhdId, birthYear), random);
+			if(from.size == 0) {
+				cohorts.remove(getKey(fromNbhdId, birthYear));
+			}
+			parent.setCohortChild(numberFollowing++, child);
+		}
+		parent.setNumberOfCohortChildren(numberFollowing);
+	}
+
+	//Called at the start of each year, once the statistics have been updated.  Promotes the groups finishing their education this year to Sims, and applies the birthdays of the other children.
+	protected void advance(double time) {
+		int year = (int) Math.floor(time);
+		Iterator<Cohort> iterator = cohorts.values().iterator();
+		while(iterator.hasNext()) {
+			Cohort cohort = iterator.next();
+			int age = year - cohort.birthYear;
+			if(age < 1) {
+				continue;				//Born this year
+			}
+			Random random = startRandomStream(cohort, Sim.RandomStreams.Initialisation, year);
+			if(age < cohort.groups.length && cohort.groups[age] != null && cohort.groups[age].size > 0) {
+				promote(cohort, age, random);
+			}
+			if(cohort.size > 0) {
+				startRandomStream(cohort, Sim.RandomStreams.Health, year);
+				cohort.celebrateBirthdays(age, year, random);
+			}
+			if(cohort.size == 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	//Adds the children to the sums of Statistics#accumulateStatistics(), with their ages at the start of the year
+	protected void accumulate(Statistics stats, int year) {
+		double healthBinWidth = getHealthBinWidth();
+		for(Cohort cohort : cohorts.values()) {
+			double sumOfHealth = 0.;
+			for(int bin = 0; bin <= HEALTH_BINS; bin++) {
+				if(cohort.healthCounts[bin] > 0) {
+					double health = bin == HEALTH_BINS ? parameters.getMaxHealthIndex() : parameters.getMinHealthIndex() + (bin + 0.5) * healthBinWidth;
+					sumOfHealth += cohort.healthCounts[bin] * health;
+				}
+			}
+			int age = Math.max(0, year - 1 - cohort.birthYear);
+			for(int yearsInEducation = 0; yearsInEducation < cohort.groups.length; yearsInEducation++) {
+				Group group = cohort.groups[yearsInEducation];
+				if(group != null && group.size > 0) {
+					stats.addChildren(cohort.nbhdId, age, yearsInEducation, group.size, sumOfHealth * group.size / cohort.size);
+				}
+			}
+		}
+	}
+
+	public int size() {			//The number of children over all cohorts
+		int size = 0;
+		for(Cohort cohort : cohorts.values()) {
+			size += cohort.size;
+		}
+		return size;
+	}
+
+	public int getNumberOfCohorts() {
+		return cohorts.size();
+	}
+
+	private void promote(Cohort cohort, int yearsInEducation, Random random) {
+		Group group = cohort.groups[yearsInEducation];
+		long cohortKey = getStreamKey(cohort);
+		for(int i = 0; group.size > 0; i++) {
+			int incomeBaseBin = group.removeIncomeBase(random);
+			int birthTimestampBin = cohort.removeBirthTimestamp(random);
+			int healthBin = sample(cohort.healthCounts, cohort.size, random);
+			double cumulativeHealthIndex = cohort.removeHealth(healthBin);
+			cohort.size--;
+			double birthTimestamp = (birthTimestampBin + random.nextDouble()) / BIRTH_TIMESTAMP_BINS;
+			Sim.promote(context, CommonRandomNumbers.getInitialStreamKey(cohortKey + yearsInEducation, i), cohort.nbhdId, cohort.birthYear, birthTimestamp,
+					yearsInEducation, getIncomeBase(incomeBaseBin, random), getHealth(healthBin, random), cumulativeHealthIndex);
+		}
+	}
+
+	private Random startRandomStream(Cohort cohort, Sim.RandomStreams stream, int year) {
+		if(commonRandomNumbers != null) {
+			commonRandomNumbers.start(getStreamKey(cohort), stream, year);
+			return commonRandomNumbers.getRandom();
+		}
+		return context.getRandom();
+	}
+
+	private long getStreamKey(Cohort cohort) {			//Cohorts are matched between scenarios by their nbhd and birth year
+		return CommonRandomNumbers.getInitialStreamKey(model.getRunSeed(), getKey(cohort.nbhdId, cohort.birthYear));
+	}
+
+	private Cohort getCohort(int nbhdId, int birthYear) {
+		long key = getKey(nbhdId, birthYear);
+		Cohort cohort = cohorts.get(key);
+		if(cohort == null) {
+			cohort = new Cohort(nbhdId, birthYear);
+			cohorts.put(key, cohort);
+		}
+		return cohort;
+	}
+
+	private static long getKey(int nbhdId, int birthYear) {
+		return ((long) nbhdId << 32) | (birthYear & 0xffffffffL);
+	}
+
+	private double getHealthBinWidth() {
+		return (parameters.getMaxHealthIndex() - parameters.getMinHealthIndex()) / HEALTH_BINS;
+	}
+
+	private int getHealthBin(double health) {
+		if(health >= parameters.getMaxHealthIndex()) {
+			return HEALTH_BINS;
+		}
+		return Math.max(0, Math.min(HEALTH_BINS - 1, (int)((health - parameters.getMinHealthIndex()) / getHealthBinWidth())));
+	}
+
+	private double getHealth(int bin, Random random) {		//Uniformly distributed within the bin
+		if(bin == HEALTH_BINS) {
+			return parameters.getMaxHealthIndex();
+		}
+		return parameters.getMinHealthIndex() + (bin + random.nextDouble()) * getHealthBinWidth();
+	}
+
+	private int getIncomeBaseBin(double incomeBase) {
+		double logMin = Math.log(parameters.getMinBaseIncome());
+		double width = (Math.log(parameters.getMaxBaseIncome()) - logMin) / INCOME_BASE_BINS;
+		return Math.max(0, Math.min(INCOME_BASE_BINS - 1, (int)((Math.log(incomeBase) - logMin) / width)));
+	}
+
+	private double getIncomeBase(int bin, Random random) {		//Uniformly distributed in log(incomeBase) within the bin
+		double logMin = Math.log(parameters.getMinBaseIncome());
+		double width = (Math.log(parameters.getMaxBaseIncome()) - logMin) / INCOME_BASE_BINS;
+		return Math.exp(logMin + (bin + random.nextDouble()) * width);
+	}
+
+	private static int getBirthTimestampBin(double birthTimestamp) {
+		return Math.min(BIRTH_TIMESTAMP_BINS - 1, (int)(birthTimestamp * BIRTH_TIMESTAMP_BINS));
+	}
+
+	private static int sample(int[] counts, int total, Random random) {		//A bin drawn with probability proportional to its count
+		int draw = random.nextInt(total);
+		int bin = 0;
+		while(draw >= counts[bin]) {
+			draw -= counts[bin];
+			bin++;
+		}
+		return bin;
+	}
+
+	//The children born in one nbhd and year
+	private class Cohort {
+
+		private final int nbhdId;
+
+		private final int birthYear;
+
+		private int size = 0;
+
+		private int[] healthCounts = new int[HEALTH_BINS + 1];
+
+		private double[] cumulativeHealthIndices = new double[HEALTH_BINS + 1];		//Sums over the children in each health bin
+
+		private final int[] birthTimestampCounts = new int[BIRTH_TIMESTAMP_BINS];
+
+		private final Group[] groups = new Group[parameters.getMaxYearsOfEducation() + 1];		//By yearsInEducation
+
+		private Cohort(int nbhdId, int birthYear) {
+			this.nbhdId = nbhdId;
+			this.birthYear = birthYear;
+		}
+
+		private void add(int healthBin, double cumulativeHealthIndex, int birthTimestampBin, int yearsInEducation, int incomeBaseBin) {
+			size++;
+			healthCounts[healthBin]++;
+			cumulativeHealthIndices[healthBin] += cumulativeHealthIndex;
+			birthTimestampCounts[birthTimestampBin]++;
+			if(groups[yearsInEducation] == null) {
+				groups[yearsInEducation] = new Group();
+			}
+			groups[yearsInEducation].size++;
+			groups[yearsInEducation].incomeBaseCounts[incomeBaseBin]++;
+		}
+
+		private double removeHealth(int healthBin) {		//Returns the (average) cumulative health index of the child removed
+			double cumulativeHealthIndex = cumulativeHealthIndices[healthBin] / healthCounts[healthBin];
+			cumulativeHealthIndices[healthBin] -= cumulativeHealthIndex;
+			healthCounts[healthBin]--;
+			return cumulativeHealthIndex;
+		}
+
+		private int removeBirthTimestamp(Random random) {
+			int bin = sample(birthTimestampCounts, size, random);
+			birthTimestampCounts[bin]--;
+			return bin;
+		}
+
+		private void transferOne(int yearsInEducation, Cohort target, Random random) {
+			int incomeBaseBin = groups[yearsInEducation].removeIncomeBase(random);
+			int healthBin = sample(healthCounts, size, random);
+			double cumulativeHealthIndex = removeHealth(healthBin);
+			int birthTimestampBin = removeBirthTimestamp(random);
+			size--;
+			target.add(healthBin, cumulativeHealthIndex, birthTimestampBin, yearsInEducation, incomeBaseBin);
+		}
+
+		//Every child turns age this year: updates their health as Sim#updateHealth() does for a child without income, and draws whether they die before their next birthday as Sim#considerDeath() does
+		private void celebrateBirthdays(int age, int year, Random random) {
+			int[] newHealthCounts = new int[HEALTH_BINS + 1];
+			double[] newCumulativeHealthIndices = new double[HEALTH_BINS + 1];
+			double avgHealth = model.getStats().getAvgHealth();
+			double mortalityHazardForAge = parameters.getAvgMortalityHazards()[age];
+			double ageFactor = age / (double)parameters.getMaxAge();
+			for(int bin = 0; bin <= HEALTH_BINS; bin++) {
+				int count = healthCounts[bin];
+				if(count == 0) {
+					continue;
+				}
+				double cumulativeHealthIndex = cumulativeHealthIndices[bin] / count;
+				for(int i = 0; i < count; i++) {
+					double healthIndex = getHealth(bin, random) + RegressionUtils.eventPiecewiseConstant(parameters.getHealthDeltaEvents(), parameters.getHealthDeltaProbs(), random) * ageFactor;
+					healthIndex = Math.max(parameters.getMinHealthIndex(), Math.min(parameters.getMaxHealthIndex(), healthIndex));
+					double timeUntilDeath = Double.MAX_VALUE;
+					if(healthIndex <= 0.) {
+						timeUntilDeath = 0.;
+					}
+					else if(Double.isInfinite(mortalityHazardForAge)) {
+						timeUntilDeath = 0.;
+					}
+					else if(mortalityHazardForAge > 0.) {
+						double mortalityHazard = mortalityHazardForAge * (parameters.isLogDomain() ? Math.exp(Sim.getLogEffect(parameters.getMBetaH(), model.getStats().getLogAvgHealth() - Sim.logOf(healthIndex)))
+								: Math.pow(avgHealth / healthIndex, parameters.getMBetaH()));
+						timeUntilDeath = (model.getZigguratSampling() ? ZigguratSampler.nextExponential(random) : -Math.log(random.nextDouble())) / mortalityHazard;
+					}
+					if(timeUntilDeath < 1.) {
+						die(age, year, cumulativeHealthIndex + healthIndex - healthIndex * (1. - timeUntilDeath), timeUntilDeath, random);
+					}
+					else {
+						int newBin = getHealthBin(healthIndex);
+						newHealthCounts[newBin]++;
+						newCumulativeHealthIndices[newBin] += cumulativeHealthIndex + healthIndex;
+					}
+				}
+			}
+			healthCounts = newHealthCounts;
+			cumulativeHealthIndices = newCumulativeHealthIndices;
+		}
+
+		private void die(int age, int year, double cumulativeHealthIndex, double timeUntilDeath, Random random) {
+			double birthTimestamp = (removeBirthTimestamp(random) + random.nextDouble()) / BIRTH_TIMESTAMP_BINS;
+			int draw = random.nextInt(size);		//The group of the child, drawn in proportion to the group sizes
+			size--;
+			for(Group group : groups) {
+				if(group == null) {
+					continue;
+				}
+				if(draw < group.size) {
+					group.removeIncomeBase(random);
+					group.deaths++;
+					break;
+				}
+				draw -= group.size;
+			}
+			model.getStats().recordStatisticsAtDeath(year + birthTimestamp + timeUntilDeath, cumulativeHealthIndex, 0., age + timeUntilDeath);
+		}
+	}
+
+	//The children of a cohort with the same yearsInEducation
+	private static class Group {
+
+		private int size = 0;
+
+		private int deaths = 0;
+
+		private final int[] incomeBaseCounts = new int[INCOME_BASE_BINS];
+
+		private int removeIncomeBase(Random random) {
+			int bin = sample(incomeBaseCounts, size, random);
+			incomeBaseCounts[bin]--;
+			size--;
+			return bin;
+		}
+	}
+
+}
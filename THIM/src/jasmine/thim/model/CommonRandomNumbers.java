@@ -0,0 +1,77 @@
+package jasmine.thim.model;
+
+import java.util.Random;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ *
+ * Random numbers for common-random-number comparisons between scenarios (see THIMModel#commonRandomNumbers).  Instead
+ * of one sequence shared by all Sims, each draw comes from a stream keyed by the Sim, what the draw is for (see
+ * Sim.RandomStreams) and the time.  A Sim therefore draws the same numbers for the same purpose in two scenarios run
+ * with the same seed, however differently the rest of the population has evolved, so much of the noise cancels out of
+ * the differences between the scenarios.
+ *
+ * The streams are counter-based (SplitMix64), so starting one costs a few multiplications and allocates nothing.  Each
+ * context has its own instance, as the streams are not thread-safe.
+ *
+ */
+public class CommonRandomNumbers {
+
+	private final StreamRandom random = new StreamRandom();
+
+	private final Normal standardNormal = new Normal(0., 1., new MersenneTwister(0)) {		//The engine is not used
+		@Override
+		public double nextDouble() {
+			return random.nextGaussian();
+		}
+	};
+
+	protected void start(long streamKey, Sim.RandomStreams stream, double time) {
+		random.setSeed(mix(streamKey + mix(stream.ordinal() + 1L)) ^ Double.doubleToLongBits(time));
+	}
+
+	public Random getRandom() {
+		return random;
+	}
+
+	public Normal getStandardNormal() {
+		return standardNormal;
+	}
+
+	//Sims of the initial population are matched between scenarios by id, and newborns by their parent and time of birth
+	protected static long getInitialStreamKey(long seed, long simId) {
+		return mix(mix(seed) + simId);
+	}
+
+	protected static long getNewbornStreamKey(long parentStreamKey, double timeOfBirth) {
+		return mix(parentStreamKey ^ mix(Double.doubleToLongBits(timeOfBirth)));
+	}
+
+	private static long mix(long z) {		//The finaliser of SplitMix64
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static class StreamRandom extends Random {
+
+		private static final long serialVersionUID = 1L;
+
+		private long state;
+
+		@Override
+		public synchronized void setSeed(long seed) {
+			super.setSeed(seed);		//Also clears the cached second Gaussian
+			state = seed;
+		}
+
+		@Override
+		protected int next(int bits) {
+			state += 0x9e3779b97f4a7c15L;
+			return (int)(mix(state) >>> (64 - bits));
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package jasmine.thim.model;
+
+import jasmine.thim.data.Parameters;
+import jasmine.thim.model.enums.MathMode;
+
+/**
+ *
+ * The parameters read by the Sim processes, compiled when the model is built (once THIMModel#checkParameters has passed)
+ * into final primitive fields and flat tables.  The model parameters from the GUI are boxed fields of THIMModel, unboxed
+ * on every call of their getters, and the propensity to move is a PolynomialSplineFunction, whose value() searches the
+ * knots and may throw a checked exception.  The Sims read from a CompiledParameters instead, so a process reads plain
+ * fields that the JIT compiler can hoist out of loops.
+ *
+ * The values are copied, so the model parameters must not be changed once the model is built (the GUI does not allow it).
+ *
+ */
+public final class CompiledParameters {
+
+	//Model parameters from the GUI
+	private final int minAgeToReproduce;
+	private final int maxAgeToReproduce;
+	private final int minYearsOfEducation;
+	private final int maxYearsOfEducation;
+	private final int minAgeForIncomeEffect;		//minAgeToReproduce - ageBand, as avgAdultIncomeNearAge is not defined for younger ages
+	private final double minBaseIncome;
+	private final double maxBaseIncome;
+	private final double minHealthIndex;
+	private final double maxHealthIndex;
+	private final double maxOccupancyFactor;
+	private final boolean logDomain;			//mathMode is not Exact
+	private final boolean fastLog;				//mathMode is FastLogDomain
+
+	//City parameters and tables loaded by Parameters
+	private final int maxAge;
+	private final int simulatedNeighborhoods;
+	private final double eMean;
+	private final double eSigma;
+	private final double eBetaIncPar;
+	private final double eBetaIncNbhd;
+	private final double yBetaEduc;
+	private final double yBetaIncPar;
+	private final double yBetaIncNbhd;
+	private final double ySigma;
+	private final double hIncParm;
+	private final double mBetaH;
+	private final double mBetaIncNear;
+	private final double stayPropIncDiff;
+	private final double propensityToMoveSlope;		//Slope of the propensity to move between StayPropIncDiff and MovePropIncDiff, as calculated by the LinearInterpolator of Parameters
+	private final double[] ageIncomeProfile;		//Indexed by age
+	private final double[] avgMortalityHazards;		//Indexed by age
+	private final double[] healthDeltaEvents;
+	private final double[] healthDeltaProbs;
+	private final double[] incomeBaseDistEvents;
+	private final double[] incomeBaseDistProbs;
+
+	CompiledParameters(THIMModel model) {
+		minAgeToReproduce = model.getMinAgeToReproduce();
+		maxAgeToReproduce = model.getMaxAgeToReproduce();
+		minYearsOfEducation = model.getMinYearsOfEducation();
+		maxYearsOfEducation = model.getMaxYearsOfEducation();
+		minAgeForIncomeEffect = model.getMinAgeToReproduce() - model.getAgeBand();
+		minBaseIncome = model.getMinBaseIncome();
+		maxBaseIncome = model.getMaxBaseIncome();
+		minHealthIndex = model.getMinHealthIndex();
+		maxHealthIndex = model.getMaxHealthIndex();
+		maxOccupancyFactor = model.getMaxOccupancyFactor();
+		logDomain = model.getMathMode() != MathMode.Exact;
+		fastLog = model.getMathMode() == MathMode.FastLogDomain;
+
+		maxAge = Parameters.getMaxAge();
+		simulatedNeighborhoods = Parameters.getSimulatedNeighborhoods();
+		eMean = Parameters.getEMean();
+		eSigma = Parameters.getESigma();
+		eBetaIncPar = Parameters.getEBetaIncPar();
+		eBetaIncNbhd = Parameters.getEBetaIncNbhd();
+		yBetaEduc = Parameters.getYBetaEduc();
+		yBetaIncPar = Parameters.getYBetaIncPar();
+		yBetaIncNbhd = Parameters.getYBetaIncNbhd();
+		ySigma = Parameters.getYSigma();
+		hIncParm = Parameters.getHIncParm();
+		mBetaH = Parameters.getMBetaH();
+		mBetaIncNear = Parameters.getMBetaIncNear();
+		stayPropIncDiff = Parameters.getStayPropIncDiff();
+		propensityToMoveSlope = 1. / (Parameters.getMovePropIncDiff() - Parameters.getStayPropIncDiff());
+		ageIncomeProfile = Parameters.getAgeIncomeProfile().clone();
+		avgMortalityHazards = Parameters.getAvgMortalityHazards().clone();
+		healthDeltaEvents = Parameters.getHealthDeltaEvents().clone();
+		healthDeltaProbs = Parameters.getHealthDeltaProbs().clone();
+		incomeBaseDistEvents = Parameters.getIncomeBaseDistEvents().clone();
+		incomeBaseDistProbs = Parameters.getIncomeBaseDistProbs().clone();
+	}
+
+	//Parameters#getPropensityToMoveFunction without the search of the knots: 0 up to StayPropIncDiff, rising linearly to 1
+	//at MovePropIncDiff and 1 beyond.  Between the two it is the same number as the spline, and the clamps are selects
+	//rather than branches; just below MovePropIncDiff, where rounding can take the spline a little over 1, it returns 1,
+	//which makes no difference to the Bernoulli draw it is used for.
+	public double getPropensityToMove(double incomeDifference) {
+		return Math.min(1., Math.max(0., (incomeDifference - stayPropIncDiff) * propensityToMoveSlope));
+	}
+
+
+	//////////////////////////////////////////////////////////////
+	// Access methods
+	//////////////////////////////////////////////////////////////
+
+	public int getMinAgeToReproduce() {
+		return minAgeToReproduce;
+	}
+
+	public int getMaxAgeToReproduce() {
+		return maxAgeToReproduce;
+	}
+
+	public int getMinYearsOfEducation() {
+		return minYearsOfEducation;
+	}
+
+	public int getMaxYearsOfEducation() {
+		return maxYearsOfEducation;
+	}
+
+	public int getMinAgeForIncomeEffect() {
+		return minAgeForIncomeEffect;
+	}
+
+	public double getMinBaseIncome() {
+		return minBaseIncome;
+	}
+
+	public double getMaxBaseIncome() {
+		return maxBaseIncome;
+	}
+
+	public double getMinHealthIndex() {
+		return minHealthIndex;
+	}
+
+	public double getMaxHealthIndex() {
+		return maxHealthIndex;
+	}
+
+	public double getMaxOccupancyFactor() {
+		return maxOccupancyFactor;
+	}
+
+	public boolean isLogDomain() {
+		return logDomain;
+	}
+
+	public boolean isFastLog() {
+		return fastLog;
+	}
+
+	public int getMaxAge() {
+		return maxAge;
+	}
+
+	public int getSimulatedNeighborhoods() {
+		return simulatedNeighborhoods;
+	}
+
+	public double getEMean() {
+		return eMean;
+	}
+
+	public double getESigma() {
+		return eSigma;
+	}
+
+	public double getEBetaIncPar() {
+		return eBetaIncPar;
+	}
+
+	public double getEBetaIncNbhd() {
+		return eBetaIncNbhd;
+	}
+
+	public double getYBetaEduc() {
+		return yBetaEduc;
+	}
+
+	public double getYBetaIncPar() {
+		return yBetaIncPar;
+	}
+
+	public double getYBetaIncNbhd() {
+		return yBetaIncNbhd;
+	}
+
+	public double getYSigma() {
+		return ySigma;
+	}
+
+	public double getHIncParm() {
+		return hIncParm;
+	}
+
+	public double getMBetaH() {
+		return mBetaH;
+	}
+
+	public double getMBetaIncNear() {
+		return mBetaIncNear;
+	}
+
+	public double[] getAgeIncomeProfile() {
+		return ageIncomeProfile;
+	}
+
+	public double[] getAvgMortalityHazards() {
+		return avgMortalityHazards;
+	}
+
+	public double[] getHealthDeltaEvents() {
+		return healthDeltaEvents;
+	}
+
+	public double[] getHealthDeltaProbs() {
+		return healthDeltaProbs;
+	}
+
+	public double[] getIncomeBaseDistEvents() {
+		return incomeBaseDistEvents;
+	}
+
+	public double[] getIncomeBaseDistProbs() {
+		return incomeBaseDistProbs;
+	}
+
+}
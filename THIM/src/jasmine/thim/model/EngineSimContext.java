@@ -0,0 +1,168 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.ZigguratSampler;
+import jasmine.thim.data.Parameters;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import microsim.engine.SimulationEngine;
+import microsim.event.Event;
+import microsim.statistics.regression.RegressionUtils;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ * 
+ * The single context of the EventQueue engine mode, backed by the JAS-mine engine's event queue and random number
+ * generator.  Sims are simulated exactly as before contexts were introduced.
+ *
+ */
+public class EngineSimContext implements SimContext {
+
+	private final THIMModel model;
+
+	private final SimPopulation population;
+
+	private final CommonRandomNumbers commonRandomNumbers;		//Only when using common random numbers
+
+	private final ChildCohorts childCohorts;		//Only in the hybrid mode
+
+	private final Normal zigguratNormal;		//Only when using ziggurat sampling, drawing from getRandom()
+
+	private SimEvent[] freeEvents = new SimEvent[64];		//Events that have fired or been unscheduled, reused by the next events scheduled, so that in steady state scheduling allocates nothing
+
+	private int numberOfFreeEvents = 0;
+
+	private final SimFactory simFactory = new SimFactory(this);
+
+	public EngineSimContext(THIMModel model, SimPopulation population) {
+		this.model = model;
+		this.population = population;
+		commonRandomNumbers = model.getCommonRandomNumbers() ? new CommonRandomNumbers() : null;
+		childCohorts = model.getHybridChildCohorts() ? new ChildCohorts(model, this) : null;
+		zigguratNormal = model.getZigguratSampling() ? new Normal(0., 1., new MersenneTwister(0)) {		//The engine is not used
+			@Override
+			public double nextDouble() {
+				return ZigguratSampler.nextGaussian(EngineSimContext.this.getRandom());
+			}
+		} : null;
+	}
+
+	public double getTime() {
+		return SimulationEngine.getInstance().getTime();
+	}
+
+	public void scheduleOnce(Sim sim, Sim.Processes process, double time, int ordering) {
+		sim.addReference();
+		model.getEngine().getEventQueue().scheduleOnce(obtainEvent(sim, process), time, ordering);
+	}
+
+	public void scheduleYearly(Sim sim, double time) {
+		SimEvent yearlyEvents = obtainEvent(sim, Sim.Processes.YearlyEvents);
+		sim.setYearlyEvents(yearlyEvents);				//Kept by the Sim to allow unscheduling when it dies
+		sim.addReference();
+		model.getEngine().getEventQueue().scheduleRepeat(yearlyEvents, time, -1, 1.);
+	}
+
+	public void unscheduleYearly(Sim sim) {
+		SimEvent yearlyEvents = (SimEvent) sim.getYearlyEvents();
+		model.getEngine().getEventQueue().unschedule(yearlyEvents);
+		sim.setYearlyEvents(null);
+		releaseEvent(yearlyEvents);
+		if(sim.removeReference()) {
+			simFactory.release(sim);
+		}
+	}
+
+	private SimEvent obtainEvent(Sim sim, Sim.Processes process) {
+		SimEvent event = numberOfFreeEvents > 0 ? freeEvents[--numberOfFreeEvents] : new SimEvent();
+		event.sim = sim;
+		event.process = process;
+		return event;
+	}
+
+	private void releaseEvent(SimEvent event) {
+		event.sim = null;				//So that the pool does not keep dead Sims reachable
+		if(numberOfFreeEvents == freeEvents.length) {
+			freeEvents = Arrays.copyOf(freeEvents, numberOfFreeEvents << 1);
+		}
+		freeEvents[numberOfFreeEvents++] = event;
+	}
+
+	//A SingleTargetEvent whose target and process can be changed, so that it can be reused.  A one-off event returns
+	//itself to the pool once it has fired, as the JAS-mine event queue no longer references it; a yearly event is
+	//returned when it is unscheduled.  Either way, the Sim is then released to the SimFactory if it is dead and no other
+	//event references it.
+	private class SimEvent extends Event {
+
+		private Sim sim;
+
+		private Sim.Processes process;
+
+		@Override
+		public void fireEvent() {
+			Sim target = sim;
+			target.onEvent(process);
+			if(process != Sim.Processes.YearlyEvents) {
+				releaseEvent(this);
+				if(target.removeReference()) {
+					simFactory.release(target);
+				}
+			}
+		}
+
+	}
+
+	public Random getRandom() {
+		return commonRandomNumbers != null ? commonRandomNumbers.getRandom() : SimulationEngine.getRnd();
+	}
+
+	public Normal getStandardNormal() {
+		if(zigguratNormal != null) {
+			return zigguratNormal;
+		}
+		return commonRandomNumbers != null ? commonRandomNumbers.getStandardNormal() : Parameters.getStandardNormal();
+	}
+
+	public double nextExponential() {
+		return zigguratNormal != null ? ZigguratSampler.nextExponential(getRandom()) : -Math.log(getRandom().nextDouble());
+	}
+
+	public boolean event(double probability) {
+		return commonRandomNumbers != null ? commonRandomNumbers.getRandom().nextDouble() < probability : RegressionUtils.event(probability);
+	}
+
+	public void startRandomStream(Sim sim, Sim.RandomStreams stream) {
+		if(commonRandomNumbers != null) {
+			commonRandomNumbers.start(sim.getRandomStreamKey(), stream, getTime());
+		}
+	}
+
+	public void startRandomStream(long streamKey, Sim.RandomStreams stream) {
+		if(commonRandomNumbers != null) {
+			commonRandomNumbers.start(streamKey, stream, getTime());
+		}
+	}
+
+	public long nextSimId() {
+		return ++Sim.simIdCounter;
+	}
+
+	public SimPopulation getPopulation() {
+		return population;
+	}
+
+	public SimFactory getSimFactory() {
+		return simFactory;
+	}
+
+	public void recordDeath(double cumulativeHealthIndex, double cumulativeIncome, double ageAtDeath) {
+		model.getStats().recordStatisticsAtDeath(cumulativeHealthIndex, cumulativeIncome, ageAtDeath);
+	}
+
+	public ChildCohorts getChildCohorts() {
+		return childCohorts;
+	}
+
+}
@@ -0,0 +1,126 @@
+package jasmine.thim.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Transient;
+
+/**
+ *
+ * A Sim holding its numeric state in its own fields, in the default SimStorage.Heap mode.
+ *
+ */
+@Entity
+public class HeapSim extends Sim {
+
+	private int age;		
+	
+	@Transient
+	private double birthTimestamp;				//The day of the year, as a fraction, that the Sim was born on.
+	
+	@Column(name="years_in_education")
+	private int yearsInEducation;		//Number of years the sim spends in education
+	
+	@Transient
+	private double incomeBase;		//A unit-less positive real number, acts as a factor to derive 
+									//income	
+	private double income;		//Income ($)
+	
+	@Column(name="health_index")
+	private double healthIndex;		//Health index initiated with perfect health
+	
+	@Column(name="cumulative_lifetime_earnings")
+	private double cumulativeIncome;
+	
+	@Column(name="cumulative_health_index")
+	private double cumulativeHealthIndex;
+	
+	@Column(name="neighbourhood_id")
+	private int nbhdId;			//Index of the Sim's nbhd in THIMModel.nbhds.  The nbhd itself is looked up from the model rather than referenced by every Sim.
+	
+	@Transient
+	private int yearOfNextYearlyEvents;		//Only used by the Annual engine mode
+
+	protected HeapSim() {		//Only to be called by SimFactory
+		super();
+	}
+
+	@Override
+	protected void initialiseState() {
+		age = 0;
+		yearsInEducation = 0;
+		nbhdId = 0;
+		yearOfNextYearlyEvents = 0;
+		birthTimestamp = 0.;
+		incomeBase = 0.;
+		income = 0.;
+		healthIndex = 0.;
+		cumulativeIncome = 0.;
+		cumulativeHealthIndex = 0.;
+	}
+
+	@Override
+	protected void releaseRecord() {
+	}
+
+	public int getYearsInEducation() {
+		return yearsInEducation;
+	}
+	protected void setYearsInEducation(int yearsInEducation) {
+		this.yearsInEducation = yearsInEducation;
+	}
+	public double getIncome() {
+		return income;
+	}
+	protected void putIncome(double income) {
+		this.income = income;
+	}
+	public double getIncomeBase() {
+		return incomeBase;
+	}
+	protected void setIncomeBase(double incomeBase) {
+		this.incomeBase = incomeBase;
+	}
+	public int getAge() {
+		return age;
+	}
+	protected void setAge(int age) {
+		this.age = age;
+	}
+	public double getBirthTimestamp() {
+		return birthTimestamp;
+	}
+	public void setBirthTimestamp(double birthTimestamp) {
+		this.birthTimestamp = birthTimestamp;
+	}
+	public int getNbhdId() {
+		return nbhdId;
+	}
+	public void setNbhdId(int nbhdId) {
+		this.nbhdId = nbhdId;
+	}
+	protected int getYearOfNextYearlyEvents() {
+		return yearOfNextYearlyEvents;
+	}
+	protected void setYearOfNextYearlyEvents(int year) {
+		yearOfNextYearlyEvents = year;
+	}
+	public double getHealthIndex() {
+		return healthIndex;
+	}
+	protected void setHealthIndex(double healthIndex) {
+		this.healthIndex = healthIndex;
+	}
+	public double getCumulativeIncome() {
+		return cumulativeIncome;
+	}
+	protected void setCumulativeIncome(double cumulativeIncome) {
+		this.cumulativeIncome = cumulativeIncome;
+	}
+	public double getCumulativeHealthIndex() {
+		return cumulativeHealthIndex;
+	}
+	protected void setCumulativeHealthIndex(double cumulativeHealthIndex) {
+		this.cumulativeHealthIndex = cumulativeHealthIndex;
+	}
+
+}
@@ -0,0 +1,210 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.ZigguratSampler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import microsim.engine.SimulationEngine;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ *
+ * Builds the initial population for THIMModel#buildObjects(), and links the Sims still in education to parents in
+ * their nbhd.  With THIMModel#parallelBuild, the properties of the Sims are drawn in parallel, in chunks of the
+ * consecutive ids of each nbhd (every numberOfNbhds-th id, see Sim#drawInitialNbhdId()) with their own random number
+ * generators, seeded from streams split off the run seed in nbhd and chunk order, and the parents are drawn with a
+ * generator of each nbhd, so the population only depends on the seed and not on the number of threads.  The Sims are
+ * then added to their populations and their events scheduled in that order, while later chunks are still being drawn.
+ * Otherwise every Sim draws from its context in id order, as in earlier versions.  With common random numbers, each
+ * Sim draws its properties from its own streams either way, so both builds give the same Sims.
+ *
+ * A worker of a distributed run always builds in parallel, and only draws the chunks and parents of its own nbhds
+ * (splitting off the streams of the others without drawing from them), so the union of the workers' populations is
+ * the population of a parallel build in a single process.
+ *
+ * The candidate parents are sorted by nbhd and age into a single array of population slots, so the candidates for a
+ * child are a contiguous range of it (the parents aged minAgeToReproduce to maxAgeToReproduce years older than the
+ * child), instead of each candidate being copied into a list for every age of child it could have.
+ *
+ */
+public class InitialPopulationBuilder {
+
+	private static final int CHUNK_SIZE = 1 << 16;		//Sims drawn by each task of the parallel build
+
+	private final THIMModel model;
+
+	private final CompiledParameters parameters;
+
+	protected InitialPopulationBuilder(THIMModel model) {
+		this.model = model;
+		this.parameters = model.getCompiledParameters();
+	}
+
+	protected void build(int numberOfAgents, boolean parallel) {
+		Random[] randomOfNbhd = new Random[parameters.getSimulatedNeighborhoods()];			//For drawing the parents
+		if(parallel) {
+			SplittableRandom seeds = new SplittableRandom(model.getRunSeed());
+			buildInParallel(numberOfAgents, seeds);
+			for(int nbhdId = 0; nbhdId < randomOfNbhd.length; nbhdId++) {
+				randomOfNbhd[nbhdId] = new Random(seeds.nextLong());			//Every nbhd's, so that a worker's own nbhds get the same seeds as in a single process
+			}
+		}
+		else {
+			if(model.getWorkerExchange() != null) {
+				throw new IllegalStateException("A worker of a distributed run must build its nbhds in parallel");
+			}
+			for(int i=0; i < numberOfAgents; i++) {
+				Sim initialSim = SimFactory.newInitialSim(++Sim.simIdCounter);
+				initialSim.configureInitialSimPropertiesAndSchedule();			//Birth'day's (birthTimestamps) are randomly uniformly distributed across year
+				initialSim.getContext().getPopulation().add(initialSim);
+			}
+			Arrays.fill(randomOfNbhd, SimulationEngine.getRnd());
+		}
+		linkChildrenToParents(randomOfNbhd);
+	}
+
+	private void buildInParallel(int numberOfAgents, SplittableRandom seeds) {
+		final long firstId = Sim.simIdCounter + 1;
+		final long endId = firstId + numberOfAgents;
+		final int numberOfNbhds = parameters.getSimulatedNeighborhoods();
+		final double time = model.getContext(0).getTime();			//For the common random number streams, as in the serial build
+		List<Callable<Sim[]>> tasks = new ArrayList<Callable<Sim[]>>();
+		for(int nbhdId = 0; nbhdId < numberOfNbhds; nbhdId++) {
+			long nbhdFirstId = firstId + Math.floorMod(nbhdId - firstId, (long)numberOfNbhds);
+			long nbhdSize = nbhdFirstId < endId ? (endId - 1 - nbhdFirstId) / numberOfNbhds + 1 : 0;
+			boolean isLocal = model.isLocalNbhd(nbhdId);
+			for(long c = 0; c * CHUNK_SIZE < nbhdSize; c++) {
+				final long chunkFirstId = nbhdFirstId + c * CHUNK_SIZE * numberOfNbhds;
+				final int chunkSize = (int)Math.min(CHUNK_SIZE, nbhdSize - c * CHUNK_SIZE);
+				final SplittableRandom chunkSeeds = seeds.split();			//Split in chunk order on this thread, so the streams do not depend on the order the chunks are drawn in, nor on which chunks are drawn
+				if(isLocal) {
+					tasks.add(new Callable<Sim[]>() {
+						public Sim[] call() {
+							return drawChunk(chunkFirstId, numberOfNbhds, chunkSize, chunkSeeds, time);
+						}
+					});
+				}
+			}
+		}
+		int numberOfChunks = tasks.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfChunks, Runtime.getRuntime().availableProcessors())), new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "THIM build");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Sim[]>> chunks = new ArrayList<Future<Sim[]>>(numberOfChunks);
+			for(Callable<Sim[]> task : tasks) {
+				chunks.add(executor.submit(task));
+			}
+			for(int c = 0; c < numberOfChunks; c++) {
+				Sim[] sims = chunks.get(c).get();
+				chunks.set(c, null);
+				for(Sim initialSim : sims) {
+					initialSim.scheduleInitialSimEvents();
+					initialSim.getContext().getPopulation().add(initialSim);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building the initial population", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to build the initial population", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		Sim.simIdCounter += numberOfAgents;
+	}
+
+	//Creates the size Sims with ids firstId, firstId + idStep, ... (all in the same nbhd) and draws their properties, as Sim#configureInitialSimPropertiesAndSchedule() does, without scheduling them
+	private Sim[] drawChunk(long firstId, int idStep, int size, SplittableRandom seeds, double time) {
+		CommonRandomNumbers commonRandomNumbers = model.getCommonRandomNumbers() ? new CommonRandomNumbers() : null;
+		final Random random = commonRandomNumbers != null ? commonRandomNumbers.getRandom() : new Random(seeds.nextLong());
+		Normal standardNormal;
+		if(model.getZigguratSampling()) {
+			standardNormal = new Normal(0., 1., new MersenneTwister(0)) {		//The engine is not used
+				@Override
+				public double nextDouble() {
+					return ZigguratSampler.nextGaussian(random);
+				}
+			};
+		}
+		else standardNormal = commonRandomNumbers != null ? commonRandomNumbers.getStandardNormal() : new Normal(0., 1., new MersenneTwister((int) seeds.nextLong()));
+
+		Sim[] sims = new Sim[size];
+		for(int i = 0; i < size; i++) {
+			Sim sim = SimFactory.newInitialSim(firstId + (long)i * idStep);
+			sim.drawInitialNbhdId();
+			if(commonRandomNumbers != null) {
+				commonRandomNumbers.start(sim.getRandomStreamKey(), Sim.RandomStreams.Initialisation, time);
+			}
+			sim.drawInitialProperties(random, standardNormal);
+			sims[i] = sim;
+		}
+		return sims;
+	}
+
+	//Establish parent-child links - there are two differences from example suggested in THIM paper:
+	//1) Allows for parent to have more than one child born in same year (just like in the simulation - so no inconsistency!)
+	//2) It is possible (though unlikely for sizable populations) that there is no potential parent in the same nbhd of an appropriate age for the child.  In this case, we assume the parent has already died and the child is an orphan - which is possible during the simulation, though precluded in the model initialisation implementation suggested in the THIM paper.
+	//The THIM paper specifies to find parents for all sims aged < minAgeToReproduce, however only Sims still in education look for a parent here, as the only impact child-parent links have is to force the child to move when the parent moves, and the links are broken when the child finishes education.
+	private void linkChildrenToParents(Random[] randomOfNbhd) {
+		int minAgeToReproduce = parameters.getMinAgeToReproduce();
+		int maxAgeToReproduce = parameters.getMaxAgeToReproduce();
+		int maxParentAge = maxAgeToReproduce + parameters.getMaxYearsOfEducation() - 1;		//If maxAgeToReproduce = 40 and maxYearsOfEducation = 20, then maxParentAge = 59 (at age 60, the child-parent link should have been broken as child has broken the links when they finish education at some age up to maxYearsOfEducation)
+		int numberOfParentAges = maxParentAge + 1 - minAgeToReproduce;
+
+		//Counting sort of the candidate parents by nbhdId * numberOfParentAges + age - minAgeToReproduce, whose candidates are parentSlots[start[key]] to parentSlots[start[key + 1] - 1]
+		int[] start = new int[parameters.getSimulatedNeighborhoods() * numberOfParentAges + 1];
+		for(Sim sim : model.getSims()) {
+			if(isCandidateParent(sim, minAgeToReproduce, maxParentAge)) {
+				start[sim.getNbhdId() * numberOfParentAges + sim.getAge() - minAgeToReproduce + 1]++;
+			}
+		}
+		for(int key = 1; key < start.length; key++) {
+			start[key] += start[key - 1];
+		}
+		int[] parentSlots = new int[start[start.length - 1]];
+		int[] next = start.clone();
+		for(Sim sim : model.getSims()) {
+			if(isCandidateParent(sim, minAgeToReproduce, maxParentAge)) {
+				parentSlots[next[sim.getNbhdId() * numberOfParentAges + sim.getAge() - minAgeToReproduce]++] = sim.getSlot();
+			}
+		}
+		next = null;
+
+		for(Sim child : model.getSims()) {
+			int childAge = child.getAge();
+			if(childAge < child.getYearsInEducation()) {		//Then childAge < maxYearsOfEducation, so parents up to maxAgeToReproduce years older are at most maxParentAge
+				int nbhdId = child.getNbhdId();
+				int from = start[nbhdId * numberOfParentAges + childAge];		//Parents aged childAge + minAgeToReproduce
+				int to = start[nbhdId * numberOfParentAges + childAge + maxAgeToReproduce + 1 - minAgeToReproduce];		//Up to childAge + maxAgeToReproduce
+				if(to > from) {			//Otherwise the child is an orphan
+					Sim parent = model.getContext(nbhdId).getPopulation().get(parentSlots[from + randomOfNbhd[nbhdId].nextInt(to - from)]);		//Uniformly over the potential parents in the same nbhd as the child and of an appropriate age (i.e. minAgeToReproduce <= parent age - child age <= maxAgeToReproduce)
+					child.setParent(parent);
+					parent.addChild(child);
+				}
+			}
+		}
+	}
+
+	//A candidate parent - note that it is possible for a parent to have child-parent links up to (and including) the age of maxYearsOfEducation + maxAgeToReproduce - 1, as the sim could be at maxAgeToReproduce when they give birth to a Sim whose yearsInEducation = maxYearsOfEducation
+	private static boolean isCandidateParent(Sim sim, int minAgeToReproduce, int maxParentAge) {
+		int age = sim.getAge();
+		return age >= sim.getYearsInEducation() && age >= minAgeToReproduce && age <= maxParentAge;
+	}
+
+}
@@ -0,0 +1,197 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.LongIntHashMap;
+import jasmine.thim.data.export.BinaryRowSource;
+import jasmine.thim.data.export.CsvRowSource;
+import jasmine.thim.data.export.RowSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ *
+ * Loads the initial population for THIMModel#buildObjects() from a file (see THIMModel#initialPopulationFile), in place
+ * of InitialPopulationBuilder.  The file is either a .csv file with a header line of column names, or a binary file in
+ * the format of BinaryRowSink, such as the Sim snapshots exported by THIMCollector.  Its columns are found by name, in
+ * any order, and other columns are ignored:
+ *
+ * id_sim, neighbourhood_id, age, birth_timestamp, years_in_education, income_base, income and health_index are required.
+ * parent_id (negative for none) links a Sim still in education to its parent, which must be in the same nbhd.
+ * cumulative_lifetime_earnings and cumulative_health_index are estimated as for a generated Sim if absent.
+ * If there is a time column, as in snapshots, only the rows of the first snapshot in the file are loaded.
+ *
+ * The rows are streamed: each Sim is created, added to its population and scheduled as its row is read, and the only
+ * other state kept is an index from id to population slot, and the ids of the parents of the Sims in education, in
+ * primitive arrays.  The parents are linked once all the Sims are loaded, as a parent may come after its child.
+ *
+ * A worker of a distributed run reads every row, but only loads the Sims of its own nbhds.
+ *
+ */
+public class InitialPopulationLoader {
+
+	private final THIMModel model;
+
+	private final CompiledParameters parameters;
+
+	private LongIntHashMap slotOfId;
+
+	private long[] parentIds = new long[1024];		//Of the Sims in education with a parent, with their nbhds and slots below
+
+	private int[] childNbhdIds = new int[1024];
+
+	private int[] childSlots = new int[1024];
+
+	private int numberOfChildren = 0;
+
+	protected InitialPopulationLoader(THIMModel model) {
+		this.model = model;
+		this.parameters = model.getCompiledParameters();
+	}
+
+	//Returns the number of Sims loaded
+	protected int load(File file, int expectedNumberOfSims) throws IOException {
+		RowSource source = file.getName().toLowerCase().endsWith(".csv") ? new CsvRowSource(file) : new BinaryRowSource(file);
+		source.open();
+		int numberOfSims = 0;			//Loaded by this process
+		int numberOfRows = 0;
+		try {
+			String[] columnNames = source.getColumnNames();
+			int idColumn = getRequiredColumn(columnNames, "id_sim", file);
+			int nbhdIdColumn = getRequiredColumn(columnNames, "neighbourhood_id", file);
+			int ageColumn = getRequiredColumn(columnNames, "age", file);
+			int birthTimestampColumn = getRequiredColumn(columnNames, "birth_timestamp", file);
+			int yearsInEducationColumn = getRequiredColumn(columnNames, "years_in_education", file);
+			int incomeBaseColumn = getRequiredColumn(columnNames, "income_base", file);
+			int incomeColumn = getRequiredColumn(columnNames, "income", file);
+			int healthIndexColumn = getRequiredColumn(columnNames, "health_index", file);
+			int parentIdColumn = getColumn(columnNames, "parent_id");
+			int cumulativeIncomeColumn = getColumn(columnNames, "cumulative_lifetime_earnings");
+			int cumulativeHealthIndexColumn = getColumn(columnNames, "cumulative_health_index");
+			int timeColumn = getColumn(columnNames, "time");
+
+			slotOfId = new LongIntHashMap(expectedNumberOfSims);
+			double snapshotTime = Double.NaN;
+			long maxId = Sim.simIdCounter;
+			while(source.nextRow()) {
+				if(timeColumn >= 0) {
+					double time = source.getDouble(timeColumn);
+					if(numberOfRows == 0) {
+						snapshotTime = time;
+					}
+					else if(time != snapshotTime) {
+						break;
+					}
+				}
+				long id = source.getLong(idColumn);
+				int nbhdId = (int) source.getLong(nbhdIdColumn);
+				int age = (int) source.getLong(ageColumn);
+				double birthTimestamp = source.getDouble(birthTimestampColumn);
+				int yearsInEducation = (int) source.getLong(yearsInEducationColumn);
+				double income = source.getDouble(incomeColumn);
+				if(id <= 0) {
+					throw new IllegalArgumentException("Sim id " + id + " in " + file + " is not positive");
+				}
+				if(nbhdId < 0 || nbhdId >= parameters.getSimulatedNeighborhoods()) {
+					throw new IllegalArgumentException("Sim " + id + " in " + file + " is in nbhd " + nbhdId + ", but there are " + parameters.getSimulatedNeighborhoods() + " nbhds");
+				}
+				if(age < 0 || age > parameters.getMaxAge()) {
+					throw new IllegalArgumentException("Sim " + id + " in " + file + " has age " + age + ", outside 0 to " + parameters.getMaxAge());
+				}
+				if(!(birthTimestamp >= 0. && birthTimestamp < 1.)) {
+					throw new IllegalArgumentException("Sim " + id + " in " + file + " has birth timestamp " + birthTimestamp + ", outside [0, 1)");
+				}
+				if(age >= yearsInEducation && !(income > 0.)) {
+					throw new IllegalArgumentException("Sim " + id + " in " + file + " has finished education, but its income is not positive");
+				}
+
+				numberOfRows++;
+				maxId = Math.max(maxId, id);
+				if(!model.isLocalNbhd(nbhdId)) {
+					continue;			//Loaded by the worker that owns the nbhd
+				}
+
+				SimContext context = model.getContext(nbhdId);
+				Sim sim = context.getSimFactory().newSim(id);
+				sim.setInitialProperties(nbhdId, age, birthTimestamp, yearsInEducation, source.getDouble(incomeBaseColumn), income,
+						cumulativeIncomeColumn >= 0 ? source.getDouble(cumulativeIncomeColumn) : Double.NaN,
+						source.getDouble(healthIndexColumn),
+						cumulativeHealthIndexColumn >= 0 ? source.getDouble(cumulativeHealthIndexColumn) : Double.NaN);
+				sim.scheduleInitialSimEvents();
+				if(!context.getPopulation().add(sim)) {
+					throw new RuntimeException("Model failed to add loaded sim " + id + " to the set of sims");
+				}
+				if(!slotOfId.putIfAbsent(id, sim.getSlot())) {
+					throw new IllegalArgumentException("Sim id " + id + " appears more than once in " + file);
+				}
+				if(parentIdColumn >= 0 && age < yearsInEducation) {			//As in InitialPopulationBuilder, only Sims in education follow a parent
+					long parentId = source.getLong(parentIdColumn);
+					if(parentId > 0) {
+						addChild(parentId, nbhdId, sim.getSlot());
+					}
+				}
+				numberOfSims++;
+			}
+			Sim.simIdCounter = maxId;			//So the ids of newborns follow the loaded ids
+		} finally {
+			source.close();
+		}
+
+		int orphans = linkChildrenToParents();
+		if(orphans > 0) {
+			System.out.println(orphans + " Sims in education in " + file + " have a parent that was not loaded or is in another nbhd, so are orphans");
+		}
+		slotOfId = null;
+		return numberOfSims;
+	}
+
+	private void addChild(long parentId, int nbhdId, int slot) {
+		if(numberOfChildren == parentIds.length) {
+			parentIds = Arrays.copyOf(parentIds, numberOfChildren << 1);
+			childNbhdIds = Arrays.copyOf(childNbhdIds, numberOfChildren << 1);
+			childSlots = Arrays.copyOf(childSlots, numberOfChildren << 1);
+		}
+		parentIds[numberOfChildren] = parentId;
+		childNbhdIds[numberOfChildren] = nbhdId;
+		childSlots[numberOfChildren] = slot;
+		numberOfChildren++;
+	}
+
+	//Returns the number of children whose parent was not found
+	private int linkChildrenToParents() {
+		int orphans = 0;
+		for(int i = 0; i < numberOfChildren; i++) {
+			SimPopulation population = model.getContext(childNbhdIds[i]).getPopulation();
+			int parentSlot = slotOfId.get(parentIds[i], -1);
+			Sim parent = parentSlot >= 0 && parentSlot < population.getSlotLimit() ? population.get(parentSlot) : null;		//The slot is in the parent's own population, which may be that of another nbhd
+			if(parent != null && parent.getId() == parentIds[i] && parent.getNbhdId() == childNbhdIds[i]) {
+				Sim child = population.get(childSlots[i]);
+				child.setParent(parent);
+				parent.addChild(child);
+			}
+			else orphans++;
+		}
+		parentIds = null;
+		childNbhdIds = null;
+		childSlots = null;
+		return orphans;
+	}
+
+	private static int getColumn(String[] columnNames, String name) {
+		for(int column = 0; column < columnNames.length; column++) {
+			if(columnNames[column].equals(name)) {
+				return column;
+			}
+		}
+		return -1;
+	}
+
+	private static int getRequiredColumn(String[] columnNames, String name, File file) {
+		int column = getColumn(columnNames, name);
+		if(column < 0) {
+			throw new IllegalArgumentException(file + " has no " + name + " column");
+		}
+		return column;
+	}
+
+}
@@ -24,6 +24,9 @@ public class Nbhd {
 	@Transient
 	private double nbhdAdultIncomeRelativeToCityAvg;	
 	
+	@Transient
+	private double logNbhdAdultIncomeRelativeToCityAvg;		//Set with nbhdAdultIncomeRelativeToCityAvg, for the log-domain math modes
+	
 	//For output tables
 	@Column(name="occupancy_factor")
 	private double nbhdOccupancyFactor;
@@ -88,6 +91,11 @@ public class Nbhd {
 	public void setNbhdAdultIncomeRelativeToCityAvg(
 			double nbhdAdultIncomeRelativeToCityAvg) {
 		this.nbhdAdultIncomeRelativeToCityAvg = nbhdAdultIncomeRelativeToCityAvg;
+		this.logNbhdAdultIncomeRelativeToCityAvg = Math.log(nbhdAdultIncomeRelativeToCityAvg);
+	}
+
+	public double getLogNbhdAdultIncomeRelativeToCityAvg() {
+		return logNbhdAdultIncomeRelativeToCityAvg;
 	}
 
 	public double getNbhdOccupancyFactor() {
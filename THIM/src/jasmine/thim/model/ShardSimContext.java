@@ -0,0 +1,403 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.ZigguratSampler;
+import jasmine.thim.data.Parameters;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import microsim.engine.SimulationEngine;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+/**
+ *
+ * A shard of nbhds in the Sharded engine mode, with its own Sims, event queue and random number generators, so
+ * that shards can be simulated in parallel between the yearly UpdateStatistics events.  Within a year, Sims only
+ * read the aggregates calculated at the start of the year, so the only interactions between shards are deaths,
+ * which are recorded in the shared statistics, and moves to nbhds of other shards.  Both are buffered and applied
+ * by THIMModel at the end of the year, in shard order, so results only depend on the seed and number of shards.
+ *
+ * In the Annual engine mode, the yearly events of the Sims are not put in the queue.  Instead, each year is
+ * simulated by a sweep over the population that processes the yearly events of every Sim due that year, so the
+ * queue only holds the (far fewer) one-off events, such as births and deaths.  Each Sim's own events are still
+ * processed in time order, as a Sim's yearly events are brought forward whenever one of its one-off events would
+ * otherwise come first.  Between different Sims, the order of the yearly events relative to the one-off events is
+ * relaxed, which only matters where Sims interact within the year (a parent moving nbhd with the children
+ * following it), so the results are statistically equivalent to the other engine modes rather than identical.
+ *
+ */
+public class ShardSimContext implements SimContext {
+
+	private final THIMModel model;
+
+	private final int shardIndex;
+
+	private final int numberOfShards;
+
+	private final SimPopulation population;
+
+	private final SimEventQueue queue;
+
+	private final boolean timeStepped;			//Whether yearly events are processed in a sweep over the population (the Annual engine mode)
+
+	private Random random;
+
+	private Normal standardNormal;
+
+	private final CommonRandomNumbers commonRandomNumbers;		//Only when using common random numbers, in which case random and standardNormal are not used
+
+	private final ChildCohorts childCohorts;		//Only in the hybrid mode
+
+	private final Normal zigguratNormal;		//Only when using ziggurat sampling, drawing from getRandom()
+
+	private final YearlyEventsBatch yearlyEventsBatch;		//Only in the Annual engine mode, when batching yearly events
+
+	private double time;
+
+	private long firstNewbornId;
+
+	private long numberOfNewborns = 0;
+
+	private final long[] eventCounts = new long[Sim.Processes.values().length];
+
+	//Mailbox of moves to nbhds of other shards, applied at the end of the year
+	private final List<Sim> migrants = new ArrayList<Sim>();
+
+	private final List<Nbhd> migrantDestinations = new ArrayList<Nbhd>();
+
+	private final SimFactory simFactory = new SimFactory(this);
+
+	//Deaths since the end of last year, as (time, cumulativeHealthIndex, cumulativeIncome, ageAtDeath)
+	private double[] deaths = new double[4 * 64];
+
+	private int numberOfDeaths = 0;
+
+	public ShardSimContext(THIMModel model, int shardIndex, int numberOfShards, SimPopulation population, int initialQueueCapacity, boolean timeStepped) {
+		this.model = model;
+		this.shardIndex = shardIndex;
+		this.numberOfShards = numberOfShards;
+		this.population = population;
+		this.timeStepped = timeStepped;
+		commonRandomNumbers = model.getCommonRandomNumbers() ? new CommonRandomNumbers() : null;
+		childCohorts = model.getHybridChildCohorts() ? new ChildCohorts(model, this) : null;
+		zigguratNormal = model.getZigguratSampling() ? new Normal(0., 1., new MersenneTwister(0)) {		//The engine is not used
+			@Override
+			public double nextDouble() {
+				return ZigguratSampler.nextGaussian(ShardSimContext.this.getRandom());
+			}
+		} : null;
+		yearlyEventsBatch = timeStepped && model.getBatchYearlyEvents() ? new YearlyEventsBatch(this) : null;
+		queue = new SimEventQueue(initialQueueCapacity);
+		random = SimulationEngine.getRnd();				//While the initial population is built, so that it is the same as in the EventQueue engine mode
+		standardNormal = Parameters.getStandardNormal();
+	}
+
+	//Called once the initial population has been built, before the shards are run in parallel
+	protected void startParallelRun(long seed) {
+		random = new Random(seed);
+		standardNormal = new Normal(0., 1., new MersenneTwister((int) seed));
+		firstNewbornId = Sim.simIdCounter + 1;
+	}
+
+	protected void runUntil(double endTime) {			//Fires all events before endTime
+		if(timeStepped) {
+			runYear(endTime);
+			return;
+		}
+		while(!queue.isEmpty() && queue.peekTime() < endTime) {
+			Sim sim = queue.peekSim();
+			Sim.Processes process = queue.peekProcess();
+			time = queue.peekTime();
+			queue.removeFirst();
+			if(process == Sim.Processes.YearlyEvents) {
+				if(sim.isDead()) {
+					if(sim.removeReference()) {
+						simFactory.release(sim);
+					}
+					continue;					//Yearly events are not removed from the queue when a Sim dies, but dropped here
+				}
+				queue.add(sim, process, time + 1., -1);
+			}
+			eventCounts[process.ordinal()]++;
+			sim.fire(process);
+			if(process != Sim.Processes.YearlyEvents && sim.removeReference()) {
+				simFactory.release(sim);
+			}
+		}
+	}
+
+	//The Annual engine mode: fires the one-off events before endTime, then the yearly events of the Sims not yet processed this year, then the one-off events these have scheduled
+	private void runYear(double endTime) {
+		fireOneOffEvents(endTime);
+		for(int slot = 0; slot < population.getSlotLimit(); slot++) {		//Newborns can take slots on either side of the sweep, but are not due until next year
+			Sim sim = population.get(slot);
+			if(sim != null && isYearlyEventsDue(sim, endTime)) {
+				if(yearlyEventsBatch != null) {
+					addToBatch(sim);
+				}
+				else fireYearlyEvents(sim);
+			}
+		}
+		if(yearlyEventsBatch != null) {
+			yearlyEventsBatch.process(model);
+		}
+		fireOneOffEvents(endTime);
+	}
+
+	private void fireOneOffEvents(double endTime) {
+		while(!queue.isEmpty() && queue.peekTime() < endTime) {
+			Sim sim = queue.peekSim();
+			Sim.Processes process = queue.peekProcess();
+			double eventTime = queue.peekTime();
+			int ordering = queue.peekOrdering();
+			queue.removeFirst();
+			if(!sim.isDead() && isYearlyEventsDue(sim, endTime)) {
+				double yearlyEventsTime = getTimeOfYearlyEvents(sim);
+				if(yearlyEventsTime < eventTime || (yearlyEventsTime == eventTime && -1 < ordering)) {		//The Sim's yearly events come first, and may schedule events before this one
+					fireYearlyEvents(sim);
+					queue.add(sim, process, eventTime, ordering);
+					continue;
+				}
+			}
+			time = eventTime;
+			eventCounts[process.ordinal()]++;
+			sim.fire(process);
+			if(sim.removeReference()) {
+				simFactory.release(sim);
+			}
+		}
+	}
+
+	private void fireYearlyEvents(Sim sim) {
+		time = getTimeOfYearlyEvents(sim);
+		sim.setYearOfNextYearlyEvents(sim.getYearOfNextYearlyEvents() + 1);
+		eventCounts[Sim.Processes.YearlyEvents.ordinal()]++;
+		sim.fire(Sim.Processes.YearlyEvents);
+	}
+
+	private void addToBatch(Sim sim) {		//The Sims of a batch cannot affect each other's yearly events, as considerDeath only schedules deaths and moves only change nbhds
+		double yearlyEventsTime = getTimeOfYearlyEvents(sim);
+		sim.setYearOfNextYearlyEvents(sim.getYearOfNextYearlyEvents() + 1);
+		eventCounts[Sim.Processes.YearlyEvents.ordinal()]++;
+		if(yearlyEventsBatch.add(sim, yearlyEventsTime)) {
+			yearlyEventsBatch.process(model);
+		}
+	}
+
+	private static boolean isYearlyEventsDue(Sim sim, double endTime) {
+		return getTimeOfYearlyEvents(sim) < endTime;
+	}
+
+	private static double getTimeOfYearlyEvents(Sim sim) {
+		return sim.getYearOfNextYearlyEvents() + sim.getBirthTimestamp();
+	}
+
+	protected void flushDeaths(Statistics stats) {
+		for(int i = 0; i < numberOfDeaths; i++) {
+			stats.recordStatisticsAtDeath(deaths[4*i], deaths[4*i + 1], deaths[4*i + 2], deaths[4*i + 3]);
+		}
+		numberOfDeaths = 0;
+	}
+
+	protected void flushEventCounts(long[] simEventCounts) {
+		for(int i = 0; i < eventCounts.length; i++) {
+			simEventCounts[i] += eventCounts[i];
+			eventCounts[i] = 0;
+		}
+	}
+
+	//Moves the Sims in the mailbox (with the children following them) to their new shards, and returns whether any Sim left this shard
+	protected boolean applyMigrations() {
+		boolean anyMigrants = false;
+		for(int i = 0; i < migrants.size(); i++) {
+			Sim sim = migrants.get(i);
+			if(!sim.isDead() && model.getContext(sim.getNbhdId()) == this) {		//Otherwise died later in the year, or has already moved
+				Nbhd destination = migrantDestinations.get(i);
+				ShardSimContext target = (ShardSimContext) model.getContext((int) destination.getKey().getId());
+				sim.stopFollowingParent();			//Slot links cannot span shards.  Sims that can move have normally already stopped following their parent.
+				if(childCohorts != null && sim.getNumberOfCohortChildren() > 0) {
+					childCohorts.moveChildren(sim, sim.getNbhdId(), (int) destination.getKey().getId(), target.getChildCohorts());
+				}
+				sim.migrate(population, target.getPopulation(), destination);
+				anyMigrants = true;
+			}
+			if(sim.removeReference()) {
+				simFactory.release(sim);
+			}
+		}
+		migrants.clear();
+		migrantDestinations.clear();
+		return anyMigrants;
+	}
+
+	//In distributed runs, a shard owned by another worker only holds the Sims that moved to it at the end of this year.  Writes them with their events, and empties the shard.
+	protected void writeEmigrants(DataOutput out) throws IOException {
+		out.writeInt(shardIndex);
+		out.writeInt(population.size());
+		for(Sim sim : population) {
+			out.writeInt(sim.getSlot());
+			sim.writeState(out);
+		}
+		int numberOfEvents = 0;
+		for(int i = 0; i < queue.size(); i++) {
+			if(queue.getSim(i).getSlot() >= 0) {
+				numberOfEvents++;
+			}
+		}
+		out.writeInt(numberOfEvents);
+		for(int i = 0; i < queue.size(); i++) {
+			Sim sim = queue.getSim(i);
+			if(sim.getSlot() >= 0) {
+				out.writeInt(sim.getSlot());
+				out.writeByte(queue.getProcess(i).ordinal());
+				out.writeDouble(queue.getTime(i));
+				out.writeInt(queue.getOrdering(i));
+			}
+		}
+		clear();
+	}
+
+	//Reads Sims written by writeEmigrants() of another worker (after the shard index, which has already been read), adding them and their events to this shard
+	protected void readImmigrants(DataInput in) throws IOException {
+		int numberOfSims = in.readInt();
+		Map<Integer, Sim> simsBySlot = new HashMap<Integer, Sim>(2 * numberOfSims);		//By slot in the writing worker
+		for(int i = 0; i < numberOfSims; i++) {
+			int slotInWriter = in.readInt();
+			Sim sim = Sim.readState(in);
+			population.add(sim);
+			simsBySlot.put(slotInWriter, sim);
+		}
+		for(Sim sim : simsBySlot.values()) {
+			sim.remapSlots(simsBySlot);
+		}
+		Sim.Processes[] processes = Sim.Processes.values();
+		int numberOfEvents = in.readInt();
+		for(int i = 0; i < numberOfEvents; i++) {
+			Sim sim = simsBySlot.get(in.readInt());
+			Sim.Processes process = processes[in.readByte()];
+			double eventTime = in.readDouble();
+			sim.addReference();
+			queue.add(sim, process, eventTime, in.readInt());
+		}
+	}
+
+	protected void clear() {		//Drops the Sims and events of the shard, once they have been written to the worker that owns it
+		for(Sim sim : population) {
+			sim.releaseRecord();
+		}
+		population.clear();
+		queue.clear();
+		migrants.clear();
+		migrantDestinations.clear();
+		numberOfDeaths = 0;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	protected void setTime(double time) {		//Only to be called by YearlyEventsBatch, as it fires the yearly events of each Sim
+		this.time = time;
+	}
+
+	public void scheduleOnce(Sim sim, Sim.Processes process, double time, int ordering) {
+		sim.addReference();
+		queue.add(sim, process, time, ordering);
+	}
+
+	public void scheduleYearly(Sim sim, double time) {
+		if(timeStepped) {
+			sim.setYearOfNextYearlyEvents((int) Math.floor(time));		//The time within the year is the Sim's birthTimestamp
+		}
+		else {
+			sim.addReference();
+			queue.add(sim, Sim.Processes.YearlyEvents, time, -1);
+		}
+	}
+
+	public void unscheduleYearly(Sim sim) {
+		//Nothing to do, as runUntil() drops the yearly events of dead Sims, and the sweep of the Annual engine mode only sees living Sims
+	}
+
+	public Random getRandom() {
+		return commonRandomNumbers != null ? commonRandomNumbers.getRandom() : random;
+	}
+
+	public Normal getStandardNormal() {
+		if(zigguratNormal != null) {
+			return zigguratNormal;
+		}
+		return commonRandomNumbers != null ? commonRandomNumbers.getStandardNormal() : standardNormal;
+	}
+
+	public double nextExponential() {
+		return zigguratNormal != null ? ZigguratSampler.nextExponential(getRandom()) : -Math.log(getRandom().nextDouble());
+	}
+
+	public boolean event(double probability) {
+		return getRandom().nextDouble() < probability;
+	}
+
+	public void startRandomStream(Sim sim, Sim.RandomStreams stream) {
+		if(commonRandomNumbers != null) {
+			commonRandomNumbers.start(sim.getRandomStreamKey(), stream, time);
+		}
+	}
+
+	public void startRandomStream(long streamKey, Sim.RandomStreams stream) {
+		if(commonRandomNumbers != null) {
+			commonRandomNumbers.start(streamKey, stream, time);
+		}
+	}
+
+	public long nextSimId() {			//Interleaved between shards, so that ids are unique and do not depend on thread timing
+		return firstNewbornId + shardIndex + numberOfShards * (numberOfNewborns++);
+	}
+
+	public SimPopulation getPopulation() {
+		return population;
+	}
+
+	public void recordDeath(double cumulativeHealthIndex, double cumulativeIncome, double ageAtDeath) {
+		if(4 * (numberOfDeaths + 1) > deaths.length) {
+			deaths = Arrays.copyOf(deaths, deaths.length << 1);
+		}
+		int i = 4 * numberOfDeaths++;
+		deaths[i] = time;
+		deaths[i + 1] = cumulativeHealthIndex;
+		deaths[i + 2] = cumulativeIncome;
+		deaths[i + 3] = ageAtDeath;
+	}
+
+	//Moves the Sim and the children following it to a nbhd of another shard at the end of the year, see applyMigrations()
+	protected void addMigrant(Sim sim, Nbhd newNbhd) {
+		sim.addReference();					//Until applyMigrations(), in case the Sim dies first
+		migrants.add(sim);
+		migrantDestinations.add(newNbhd);
+	}
+
+	public ChildCohorts getChildCohorts() {
+		return childCohorts;
+	}
+
+	public SimFactory getSimFactory() {
+		return simFactory;
+	}
+
+	public SimEventQueue getQueue() {
+		return queue;
+	}
+
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+}
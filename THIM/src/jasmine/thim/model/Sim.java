@@ -1,80 +1,84 @@
 package jasmine.thim.model;
 
-import microsim.data.db.PanelEntityKey;
-import microsim.engine.SimulationEngine;
 import microsim.event.Event;
 import microsim.event.EventListener;
 import microsim.event.Order;
-import microsim.event.SingleTargetEvent;
 import microsim.statistics.IDoubleSource;
 import microsim.statistics.IIntSource;
 import microsim.statistics.regression.RegressionUtils;
+import jasmine.thim.algorithms.FastLog;
 import jasmine.thim.data.Parameters;
+import cern.jet.random.Normal;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
-import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Transient;
 
-import org.apache.commons.math.ArgumentOutsideDomainException;
-
 
 @Entity
-public class Sim implements EventListener, IDoubleSource, IIntSource {
+public abstract class Sim implements EventListener, IDoubleSource, IIntSource {
 	
 	public static long simIdCounter = 0;
 	
-	@Transient
-	private THIMModel model;
+	private static THIMModel model;			//Shared by all Sims rather than referenced by each one, set when the model builds its population
 	
-	@Id
-	private PanelEntityKey key;
+	private static CompiledParameters parameters;		//The model's CompiledParameters, which the processes read instead of the boxed parameters of the model
 	
-	private int age;		
+	@Id
+	private long id;
 	
 	@Transient
-	private double birthTimestamp;				//The day of the year (0 to 364) that the Sim was born on.
+	private int slot = -1;			//Index of the Sim in the population of its context (see getContext()), or -1 when the Sim is not (or no longer) in the population
 	
-	@Column(name="years_in_education")
-	private int yearsInEducation;		//Number of years the sim spends in education
+	//The numeric state of the Sim (age, income, health etc.) is read and written through the abstract accessors below, and held in the fields of a HeapSim in the
+	//default SimStorage.Heap mode, or in the SimStore record of a StoredSim in the OffHeap and MemoryMapped modes.  SimFactory#create() picks the class.
 	
 	@Transient
-	private double incomeBase;		//A unit-less positive real number, acts as a factor to derive 
-									//income	
-	private double income;		//Income ($)
-	
-	@Column(name="health_index")
-	private double healthIndex;		//Health index initiated with perfect health
-	
-	@Column(name="cumulative_lifetime_earnings")
-	private double cumulativeIncome;
+	private int parentSlot = -1;		//Slot of the parent followed by this Sim, or -1 if the Sim has stopped following its parent or the parent has died
+
+//	@Column(name="parent_id")
+//	private long parentId;			//Only need, if wanting to persist the identity of the parent to the database  
+
+	@Transient
+	private long randomStreamKey;		//Identifies the Sim's random number streams when using common random numbers, see CommonRandomNumbers
+
+	//The children following this Sim form a doubly-linked list through their sibling slots, so that a child unlinks itself (in stopFollowingParent()) without a search or any allocation
+	@Transient
+	private int firstChildSlot = -1;
 	
-	@Column(name="cumulative_health_index")
-	private double cumulativeHealthIndex;
+	@Transient
+	private int nextSiblingSlot = -1;		//Next and previous children of the parent followed by this Sim, or -1
 	
 	@Transient
-	private Nbhd nbhd;
+	private int previousSiblingSlot = -1;
 	
-	@Column(name="neighbourhood_id")
-	private int nbhdId;			//Necessary to have in addition to a pointer to the nbhd, so that the sim's nbhd can be identified in the database 
-		
 	@Transient
-	private Sim parent;
+	private int numberOfChildren;
 
-//	@Column(name="parent_id")
-//	private long parentId;			//Only need, if wanting to persist the identity of the parent to the database  
+	@Transient
+	private int[] cohortChildren;		//Children following this Sim that are held in ChildCohorts (in the hybrid mode), as birthYear << 7 | yearsInEducation.  Only the first numberOfCohortChildren elements are in use.
 
 	@Transient
-	private List<Sim> childSims; 
+	private int numberOfCohortChildren;
 
 	@Transient
 	private boolean isDead;
+
+	@Transient
+	private int references;		//Events scheduled for the Sim and moves pending in its context, so that once dead, the object is only reused by its SimFactory when nothing can reach it
+
+	@Transient
+	private double logIncome;		//log(income), cached when the income is set in the log-domain math modes (see THIMModel#mathMode)
 	
-	//To allow unscheduling of sim's repeated events when the sim dies 
+	//To allow unscheduling of sim's repeated events when the sim dies (only in the EventQueue engine mode)
 	@Transient
 	private Event simYearlyEvents;
 	
@@ -101,9 +105,25 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 		YearlyEvents,
 	}
 
+	//What the random numbers are drawn for, so that with common random numbers, each purpose has its own stream (see CommonRandomNumbers)
+	public enum RandomStreams {
+		Initialisation,
+		Newborn,
+		Income,
+		Health,
+		Mortality,
+		Location,
+		Fertility,
+	}
+
 //	@Override
 	public void onEvent(Enum<?> type) {
-		switch ((Processes) type) {
+		model.countSimEvent((Processes) type);
+		fire((Processes) type);
+	}
+
+	protected void fire(Processes process) {		//Called directly by the event queue of a shard in the Sharded engine mode
+		switch (process) {
 		
 		case YearlyEvents:
 			ageing();
@@ -152,9 +172,9 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 		switch ((Variables) variableID) {
 		
 		case income:
-			return income;
+			return getIncome();
 		case healthIndex:
-			return healthIndex;
+			return getHealthIndex();
 
 		default:
 			throw new IllegalArgumentException("Unsupported variable " + variableID.name() + " in Sim#getDoubleValue");
@@ -167,9 +187,9 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 		switch ((Variables) variableID) {
 
 		case age:
-			return age;
+			return getAge();
 		case yearsInEducation:
-			return yearsInEducation;
+			return getYearsInEducation();
 
 		default:
 			throw new IllegalArgumentException("Unsupported variable " + variableID.name() + " in Sim#getIntValue");
@@ -182,62 +202,78 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 	////////////////////////////////////////////////////////////
 	
 
-	//Default constructor called at start of simulation
-	public Sim() {
+	//Sims are created by SimFactory, as a HeapSim or a StoredSim
+	protected Sim() {
 		super();
 	}
-	
-	//Constructor used for creating initial population
-	public Sim(long idNumber) {
-		this();
-		key = new PanelEntityKey();
-		key.setId(simIdCounter);
-		
-		income = 0.;		//This will be updated when the Sim's age is greater than yearsInEducation
-		cumulativeIncome = 0.;
+
+	//Also resets a dead Sim reused by a SimFactory.  The array of cohort children is kept, to be reused.
+	protected void initialise(long idNumber) {
+		id = idNumber;
+		initialiseState();
+		randomStreamKey = CommonRandomNumbers.getInitialStreamKey(model.getRunSeed(), idNumber);
+		parentSlot = -1;
+		firstChildSlot = -1;
+		nextSiblingSlot = -1;
+		previousSiblingSlot = -1;
+		numberOfChildren = 0;
+		numberOfCohortChildren = 0;
+		logIncome = 0.;
+		simYearlyEvents = null;
 		
-		childSims = new LinkedList<Sim>();
+		setIncome(0.);		//This will be updated when the Sim's age is greater than yearsInEducation
+		setCumulativeIncome(0.);
 		
 		isDead = false;
-		
-		model
-		= (THIMModel) SimulationEngine.getInstance().getManager(THIMModel.class.getCanonicalName());
-
-		simYearlyEvents = new SingleTargetEvent(this, Processes.YearlyEvents);
-//			simConsiderBirth = new SingleTargetEvent(this, Processes.ConsiderBirth);
-//			simGiveBirth = new SingleTargetEvent(this, Processes.GiveBirth);
-//			simStopFollowingParent = new SingleTargetEvent(this, Processes.StopFollowingParent);			
-
-
 	}
 
-	//Constructor called when a Sim gives birth to create newborn Sim.
-	public Sim( Sim parent ) {
-		this((Sim.simIdCounter)++);
+	//Initialises a newborn of the parent (see SimFactory#newborn()), given the parent's context (which the newborn shares)
+	protected void initialiseNewborn(Sim parent, SimContext context) {
 		
-		this.parent = parent;
+		//Set new sim's nbhd to that of the parent first, as it determines the context that the Sim draws random numbers from and is scheduled in.
+		this.setNbhdId(parent.getNbhdId());
 		
-		age = 0;			//Newborn
-		double currentTime = SimulationEngine.getInstance().getTime();
-		birthTimestamp = currentTime - (long)currentTime;		//Don't actually need it to run the simulation		
+		this.parentSlot = parent.getSlot();
+		randomStreamKey = CommonRandomNumbers.getNewbornStreamKey(parent.randomStreamKey, context.getTime());
+		context.startRandomStream(this, RandomStreams.Newborn);
+		
+		setAge(0);			//Newborn
+		double currentTime = context.getTime();
+		setBirthTimestamp(currentTime - (long)currentTime);		//Don't actually need it to run the simulation		
 				
-		healthIndex = model.getMaxHealthIndex();	//Newborns have maximum healthIndex (= 1 in THIM paper)
-		cumulativeHealthIndex = healthIndex;
+		setHealthIndex(parameters.getMaxHealthIndex());	//Newborns have maximum healthIndex (= 1 in THIM paper)
+		setCumulativeHealthIndex(getHealthIndex());
 		
 		//Use information from parent to establish education, incomeBase and nbhd
 		//Set yearsInEducation here
-		yearsInEducation = calculateYearsInEducation(parent);
+		int yearsInEducation = calculateYearsInEducation(parent, context);
+		setYearsInEducation(yearsInEducation);
 		
 		//Set incomeBase here
-		incomeBase = calculateIncomeBase(yearsInEducation, parent);			//Needs yearsInEducation to have already been calculated (i.e. call calculateYearsInEducation(parent) first!)
-
-		//Set new sim's nbhd to that of the parent.
-		this.nbhd = parent.getNbhd();					
-		this.setNbhdId((int) nbhd.getKey().getId());
+		setIncomeBase(calculateIncomeBase(yearsInEducation, parent, context));			//Needs yearsInEducation to have already been calculated (i.e. call calculateYearsInEducation(parent) first!)
 
 		scheduleNewBornSimEvents();				//Schedule future events where the date is known at birth (e.g. when the Sim becomes fertile and calls considerBirth for the first time, when the sim finishes education etc. 
 
 	}
+
+	//Creates the Sim for a child promoted from ChildCohorts in the year it finishes its education, just before its birthday at which it would stop following its parent
+	protected static Sim promote(SimContext context, long randomStreamKey, int nbhdId, int birthYear, double birthTimestamp, int yearsInEducation, double incomeBase, double healthIndex, double cumulativeHealthIndex) {
+		Sim sim = context.getSimFactory().newSim(context.nextSimId());
+		sim.randomStreamKey = randomStreamKey;
+		sim.setNbhdId(nbhdId);
+		sim.setAge(yearsInEducation - 1);
+		sim.setBirthTimestamp(birthTimestamp);
+		sim.setYearsInEducation(yearsInEducation);
+		sim.setIncomeBase(incomeBase);
+		sim.setHealthIndex(healthIndex);
+		sim.setCumulativeHealthIndex(cumulativeHealthIndex);
+		if(!context.getPopulation().add(sim)) {
+			throw new RuntimeException("Model failed to add promoted sim " + sim.getId() + " to the set of sims");
+		}
+		context.scheduleYearly(sim, birthYear + yearsInEducation + birthTimestamp);
+		context.scheduleOnce(sim, Processes.ConsiderBirth, birthYear + birthTimestamp + parameters.getMinAgeToReproduce(), 1);		//As scheduled for a newborn Sim
+		return sim;
+	}
 	
 	
 	////////////////////////////////////////////////////////////
@@ -246,27 +282,32 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 
 	public void scheduleInitialSimEvents() {		//For initial sim population
 
-		model.getEngine().getEventQueue().scheduleRepeat(simYearlyEvents, birthTimestamp, -1, 1.);			//Events that are repeated every year
+		SimContext context = getContext();
+		double birthTimestamp = getBirthTimestamp();
+		int age = getAge();
+		context.scheduleYearly(this, birthTimestamp);			//Events that are repeated every year
 		
-		long yearsToFinishEducation = Math.max(1, (yearsInEducation-age)) - 1;    //Has the value of 0 if the same age or already older than yearsInEducation, i.e. have already finished education, but also if less than a year to go until finishing education (e.g. the sim is 14 years old and has 15 years of education - as we are at the start of the new year, the sim will turn 15 during the forthcoming year).
+		long yearsToFinishEducation = Math.max(1, (getYearsInEducation()-age)) - 1;    //Has the value of 0 if the same age or already older than yearsInEducation, i.e. have already finished education, but also if less than a year to go until finishing education (e.g. the sim is 14 years old and has 15 years of education - as we are at the start of the new year, the sim will turn 15 during the forthcoming year).
 //		double timeSimFirstEarnsIncome = SimulationEngine.getInstance().getTime() + birthTimestamp + yearsToFinishEducation;		//On the Sim's birthday, either on the day they finish education, or the first birthday since the start of the simulation if they have already finished education when the simulation starts.
 		double timeSimFirstEarnsIncome = birthTimestamp + (double)yearsToFinishEducation;		//On the Sim's birthday, either on the day they finish education, or the first birthday since the start of the simulation if they have already finished education when the simulation starts.
-		model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.StopFollowingParent), timeSimFirstEarnsIncome, Order.BEFORE_ALL.getOrdering());						
+		context.scheduleOnce(this, Processes.StopFollowingParent, timeSimFirstEarnsIncome, Order.BEFORE_ALL.getOrdering());						
 
 
-		if(age < model.getMaxAgeToReproduce()) {
+		if(age < parameters.getMaxAgeToReproduce()) {
 			//Set to consider calculating waiting time to give birth when the Sim's age reaches the minimum age to reproduce.
 //			double timeSimFirstConsidersBirth = SimulationEngine.getInstance().getTime() + birthTimestamp + Math.max(1, model.getMinAgeToReproduce()-age) - 1;
-			double timeSimFirstConsidersBirth = birthTimestamp + (double)(Math.max(1, model.getMinAgeToReproduce()-age) - 1);
-			model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.ConsiderBirth), timeSimFirstConsidersBirth, 1);		//Again, max(1,) used so that if Sim has age equal to or greater than minAgeToReproduce, considerBirth will be scheduled to occur sometime in the forthcoming year depending on the value of the birthDayOffset.  Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
+			double timeSimFirstConsidersBirth = birthTimestamp + (double)(Math.max(1, parameters.getMinAgeToReproduce()-age) - 1);
+			context.scheduleOnce(this, Processes.ConsiderBirth, timeSimFirstConsidersBirth, 1);		//Again, max(1,) used so that if Sim has age equal to or greater than minAgeToReproduce, considerBirth will be scheduled to occur sometime in the forthcoming year depending on the value of the birthDayOffset.  Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
 		}		
 	}
 	
 	public void scheduleNewBornSimEvents() {		//For newborn sims  
-		model.getEngine().getEventQueue().scheduleRepeat(simYearlyEvents, SimulationEngine.getInstance().getTime() + 1., -1, 1.);			//Events that are repeated every year
-		model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.StopFollowingParent), SimulationEngine.getInstance().getTime() + (double)yearsInEducation, Order.BEFORE_ALL.getOrdering());
-		double timeSimFirstConsidersBirth = SimulationEngine.getInstance().getTime() + (double)model.getMinAgeToReproduce();
-		model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.ConsiderBirth), timeSimFirstConsidersBirth, 1);		//Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
+		SimContext context = getContext();
+		double currentTime = context.getTime();
+		context.scheduleYearly(this, currentTime + 1.);			//Events that are repeated every year
+		context.scheduleOnce(this, Processes.StopFollowingParent, currentTime + (double)getYearsInEducation(), Order.BEFORE_ALL.getOrdering());
+		double timeSimFirstConsidersBirth = currentTime + (double)parameters.getMinAgeToReproduce();
+		context.scheduleOnce(this, Processes.ConsiderBirth, timeSimFirstConsidersBirth, 1);		//Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
 		
 	}
 
@@ -280,64 +321,98 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 		//Similar but not necessarily exactly the same implementation as in ModGen.  
 		//Set by default or sampled from a distribution (and there is no info from parent available 
 		//here.
-		drawAge();				//Returns a random number representing the birthday (if 0, it corresponds to January 1st).
-		drawInitialHealthIndex();
-		drawYearsInEducation();
-		drawIncomeBase();			//Requires yearsInEducation to be set previously, as addSim() needs to know whether to add Sim to adultResidents and workerResidents lists
-		drawInitialNbhdId();		//Requires age to be set previously
-		drawIncome();
+		drawInitialNbhdId();		//First, as it determines the context that the Sim draws random numbers from (it only depends on the id)
+		SimContext context = getContext();
+		context.startRandomStream(this, RandomStreams.Initialisation);
+		drawInitialProperties(context.getRandom(), context.getStandardNormal());
 		
 		scheduleInitialSimEvents();
 		 
 	}
 
-	private void drawInitialNbhdId() {	//This is different to ModGen implementation, which seems to randomly distribution nbhds for adults, then assign children to the nbhd of their parents.  Our method ensures even distribution across all nbhds at start of simulation.			
-		nbhdId = ((int)(key.getId() % Parameters.getSimulatedNeighborhoods()));
-		nbhd = model.getNbhd(nbhdId);
+	//The draws of configureInitialSimPropertiesAndSchedule(), once the nbhd is set, from the given generators rather than the context's (for InitialPopulationBuilder, which draws the Sims in parallel)
+	void drawInitialProperties(Random random, Normal standardNormal) {
+		drawAge(random);				//Returns a random number representing the birthday (if 0, it corresponds to January 1st).
+		drawInitialHealthIndex();
+		drawYearsInEducation(random);
+		drawIncomeBase(random);			//Requires yearsInEducation to be set previously, as addSim() needs to know whether to add Sim to adultResidents and workerResidents lists
+		drawIncome(standardNormal);
+	}
+
+	//Sets the properties of a Sim of the initial population loaded by InitialPopulationLoader, in place of the draws of configureInitialSimPropertiesAndSchedule().  A NaN cumulative income or health index is estimated as those draws do.
+	void setInitialProperties(int nbhdId, int age, double birthTimestamp, int yearsInEducation, double incomeBase, double income, double cumulativeIncome, double healthIndex, double cumulativeHealthIndex) {
+		setNbhdId(nbhdId);
+		setAge(age);
+		setBirthTimestamp(birthTimestamp);
+		setYearsInEducation(yearsInEducation);
+		setIncomeBase(incomeBase);
+		setIncome(income);
+		setCumulativeIncome(Double.isNaN(cumulativeIncome) ? getInitialCumulativeIncome() : cumulativeIncome);
+		setHealthIndex(healthIndex);
+		setCumulativeHealthIndex(Double.isNaN(cumulativeHealthIndex) ? getInitialCumulativeHealthIndex() : cumulativeHealthIndex);
+	}
+
+	void drawInitialNbhdId() {	//This is different to ModGen implementation, which seems to randomly distribution nbhds for adults, then assign children to the nbhd of their parents.  Our method ensures even distribution across all nbhds at start of simulation.			
+		setNbhdId((int)(id % parameters.getSimulatedNeighborhoods()));
 	}
 
-	private void drawAge() {
+	private void drawAge(Random random) {
 		//  A random draw from the distribution of ages produced from the input mortality rates, with the assumption of a stable population size  
-		age = RegressionUtils.event(Parameters.getInitialPopAgeDistEvents(), Parameters.getInitialPopAgeDistProbs(), SimulationEngine.getRnd());
-		birthTimestamp = SimulationEngine.getRnd().nextDouble();
+		setAge(RegressionUtils.event(Parameters.getInitialPopAgeDistEvents(), Parameters.getInitialPopAgeDistProbs(), random));
+		setBirthTimestamp(random.nextDouble());
 	}
 
 	private void drawInitialHealthIndex() {
-		healthIndex = model.getMaxHealthIndex();			// Can control via the GUI, the initial healthIndex.  Note, ModGen version has initial population sims starting with healthIndex = 1.  "Some day -- develop a better distribution" (taken from ModGen code).
-		cumulativeHealthIndex = age * (model.getMaxHealthIndex() + healthIndex) / 2.;			//Take mid-point between maximum health index (assumed at birth) and health index on initialization.  Currently, health index is initialised to max health index, but in case this is changed in future, this equation will still be valid as a mid-point proxy.
+		double healthIndex = parameters.getMaxHealthIndex();			// Can control via the GUI, the initial healthIndex.  Note, ModGen version has initial population sims starting with healthIndex = 1.  "Some day -- develop a better distribution" (taken from ModGen code).
+		setHealthIndex(healthIndex);
+		setCumulativeHealthIndex(getInitialCumulativeHealthIndex());
+	}
+
+	private double getInitialCumulativeHealthIndex() {
+		return getAge() * (parameters.getMaxHealthIndex() + getHealthIndex()) / 2.;			//Take mid-point between maximum health index (assumed at birth) and health index on initialization.  Currently, health index is initialised to max health index, but in case this is changed in future, this equation will still be valid as a mid-point proxy.
 	}
 	
-	private void drawYearsInEducation() {
+	private void drawYearsInEducation(Random random) {
 		// As implemented in ModGen version of model, yearsInEducation is drawn from a uniform distribution bounded by min/maxYearsOfEducation model parameters.
-		yearsInEducation = model.getMinYearsOfEducation() + SimulationEngine.getRnd().nextInt(1+ model.getMaxYearsOfEducation() - model.getMinYearsOfEducation());
+		setYearsInEducation(parameters.getMinYearsOfEducation() + random.nextInt(1+ parameters.getMaxYearsOfEducation() - parameters.getMinYearsOfEducation()));
 	}
 
-	private void drawIncomeBase() {			//Requires yearsInEducation to have been set prior to calling this method
-		double incomeBaseRand = RegressionUtils.eventPiecewiseConstant(Parameters.getIncomeBaseDistEvents(), Parameters.getIncomeBaseDistProbs(), SimulationEngine.getRnd());
-		incomeBase = Math.exp(incomeBaseRand);
-		if(incomeBase > model.getMaxBaseIncome()) {
-			incomeBase = model.getMaxBaseIncome();
+	private void drawIncomeBase(Random random) {			//Requires yearsInEducation to have been set prior to calling this method
+		double incomeBaseRand = RegressionUtils.eventPiecewiseConstant(parameters.getIncomeBaseDistEvents(), parameters.getIncomeBaseDistProbs(), random);
+		double incomeBase = Math.exp(incomeBaseRand);
+		if(incomeBase > parameters.getMaxBaseIncome()) {
+			incomeBase = parameters.getMaxBaseIncome();
 		}
-		else if (incomeBase < model.getMinBaseIncome()) {
-			incomeBase = model.getMinBaseIncome();
+		else if (incomeBase < parameters.getMinBaseIncome()) {
+			incomeBase = parameters.getMinBaseIncome();
 		}
+		setIncomeBase(incomeBase);
 	}
 	
-	private void drawIncome() {
+	private void drawIncome(Normal standardNormal) {
+		int age = getAge();
+		int yearsInEducation = getYearsInEducation();
 		if(age >= yearsInEducation) {
-			income = incomeBase * 
-					Parameters.getAgeIncomeProfile()[age] * 
+			double incomeBase = getIncomeBase();
+			double income = incomeBase * 
+					parameters.getAgeIncomeProfile()[age] * 
 //					Math.exp(Parameters.getStandardNormal().nextDouble() * Math.sqrt(Parameters.getYSigma()));
-					Math.exp(Parameters.getStandardNormal().nextDouble() * Parameters.getYSigma());
+					Math.exp(standardNormal.nextDouble() * parameters.getYSigma());
 			if(income <= 0) {
 				throw new RuntimeException("Income is not positive!");
 			}
-			
-			for(int ageBeforeStartOfSimulation = yearsInEducation; ageBeforeStartOfSimulation <= age; ageBeforeStartOfSimulation++) {
-				cumulativeIncome = Parameters.getAgeIncomeProfile()[ageBeforeStartOfSimulation];			//Assume no noise in process (just use average income for age, adjusted for income base below) for the Sims' earning years before the simulation starts
-			}
-			cumulativeIncome *= incomeBase;			//No need to multiply incomeBase factor within the loop above as can do so here.
+			setIncome(income);
+			setCumulativeIncome(getInitialCumulativeIncome());
+		}
+	}
+
+	private double getInitialCumulativeIncome() {
+		double cumulativeIncome = 0.;
+		for(int ageBeforeStartOfSimulation = getYearsInEducation(); ageBeforeStartOfSimulation <= getAge(); ageBeforeStartOfSimulation++) {
+			cumulativeIncome = parameters.getAgeIncomeProfile()[ageBeforeStartOfSimulation];			//Assume no noise in process (just use average income for age, adjusted for income base below) for the Sims' earning years before the simulation starts
 		}
+		cumulativeIncome *= getIncomeBase();			//No need to multiply incomeBase factor within the loop above as can do so here.
+		return cumulativeIncome;
 	}	
 
 
@@ -346,7 +421,7 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 	// Newborn Sim field initializations
 	//////////////////////////////////////////////////////////////
 	
-	private int calculateYearsInEducation(Sim parent) {
+	private static int calculateYearsInEducation(Sim parent, SimContext context) {
 		double parentIncomeRelativeToCityAverage = 1.;		//Set initially as if it equals the average (see below the comment for the if condition)
 		double nbhdAdultIncomeRelativeToCityAverage = 1.;		//Set initially as if it equals the average (see below the comment for the if condition)
 		double cityAvgAdultIncome = model.getStats().getAvgAdultIncome();
@@ -355,24 +430,24 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 			nbhdAdultIncomeRelativeToCityAverage = parent.getNbhd().getNbhdAdultIncomeRelativeToCityAvg();
 		}
   
-		int years = (int)(Parameters.getEMean() + 
-				(Parameters.getEBetaIncPar() * Math.log(parentIncomeRelativeToCityAverage)) +
-				(nbhdAdultIncomeRelativeToCityAverage <= 0.? 0. : Parameters.getEBetaIncNbhd() * Math.log(nbhdAdultIncomeRelativeToCityAverage) ) +		//It's possible for Sim to reach minAgeToReproduce and have a baby in the same calendar year, whilst also starting work but the nbhd average income hasn't yet been updated, so is 0.  In this case, nbhdIncomeRelativeToCityAverage = 0, and log(0) -> -Infinity, so in this case we ignore this factor.
+		int years = (int)(parameters.getEMean() + 
+				(parameters.getEBetaIncPar() * logOfParentIncomeRelativeToCityAverage(parent, parentIncomeRelativeToCityAverage)) +
+				(nbhdAdultIncomeRelativeToCityAverage <= 0.? 0. : parameters.getEBetaIncNbhd() * logOfNbhdIncomeRelativeToCityAverage(parent, nbhdAdultIncomeRelativeToCityAverage) ) +		//It's possible for Sim to reach minAgeToReproduce and have a baby in the same calendar year, whilst also starting work but the nbhd average income hasn't yet been updated, so is 0.  In this case, nbhdIncomeRelativeToCityAverage = 0, and log(0) -> -Infinity, so in this case we ignore this factor.
 //				Parameters.getStandardNormal().nextDouble() * Math.sqrt(Parameters.getESigma()));			//Incorrectly specified in THIM paper compared to usage in ModGen version.  Paper defines Normal distribution as N(0, ESigma) whereas common usage is N(mean, variance).  Also incorrect definition of ESigma in ModGen - has comment "//EN Variance of education" but uses it as standard deviation in equations.
-				(Parameters.getStandardNormal().nextDouble() * Parameters.getESigma()));
+				(context.getStandardNormal().nextDouble() * parameters.getESigma()));
 				
-		if(years > model.getMaxYearsOfEducation()) {					//Truncate to ensure yearsInEducation is within the bounds [MinYearsOfEducation, MaxYearsOfEduction]
-			return model.getMaxYearsOfEducation();
+		if(years > parameters.getMaxYearsOfEducation()) {					//Truncate to ensure yearsInEducation is within the bounds [MinYearsOfEducation, MaxYearsOfEduction]
+			return parameters.getMaxYearsOfEducation();
 		}
-		else if (years < model.getMinYearsOfEducation()) {
-			return model.getMinYearsOfEducation();
+		else if (years < parameters.getMinYearsOfEducation()) {
+			return parameters.getMinYearsOfEducation();
 		}
 		else return years;
 	}
 
-	private double calculateIncomeBase(int yearsInEducation, Sim parent) {
+	private static double calculateIncomeBase(int yearsInEducation, Sim parent, SimContext context) {
 
-		double incomeBaseRand = Math.exp(RegressionUtils.eventPiecewiseConstant(Parameters.getIncomeBaseDistEvents(), Parameters.getIncomeBaseDistProbs(), SimulationEngine.getRnd()));		
+		double incomeBaseRand = Math.exp(RegressionUtils.eventPiecewiseConstant(parameters.getIncomeBaseDistEvents(), parameters.getIncomeBaseDistProbs(), context.getRandom()));		
 		double parentIncomeRelativeToCityAverage = 1.;		//Set initially as if it equals the average (see below the comment for the if condition)
 		double nbhdIncomeRelativeToCityAverage = 1.;		//Set initially as if it equals the average (see below the comment for the if condition)
 		double cityAvgAdultIncome = model.getStats().getAvgAdultIncome();
@@ -381,18 +456,18 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 			nbhdIncomeRelativeToCityAverage = parent.getNbhd().getNbhdAdultIncomeRelativeToCityAvg();
 		}
 		
-		double cityAvgEd = Parameters.getEMean();	//model.getAvgCityEducation();
+		double cityAvgEd = parameters.getEMean();	//model.getAvgCityEducation();
 		
 		double yBase = incomeBaseRand +		 
-				(cityAvgEd <= 0.? 0. : Parameters.getYBetaEduc() * Math.log(((double)yearsInEducation) / cityAvgEd)) +
-				(Parameters.getYBetaIncPar() * Math.log(parentIncomeRelativeToCityAverage)) +
-				(nbhdIncomeRelativeToCityAverage <= 0.? 0. : Parameters.getYBetaIncNbhd() * Math.log(nbhdIncomeRelativeToCityAverage));		//Only add this if AvgNbhdIncome > 0.  If AvgNbhdIncome = 0, this is likely to be because the parent of this Sim has just moved to a Nbhd where it is the only Sim earning an income (when Sims are sparsely distributed across nbhds).  Therefore, there should be no effect from AvgNbhdIncome in this calculation of YBase.
+				(cityAvgEd <= 0.? 0. : parameters.getYBetaEduc() * Math.log(((double)yearsInEducation) / cityAvgEd)) +
+				(parameters.getYBetaIncPar() * logOfParentIncomeRelativeToCityAverage(parent, parentIncomeRelativeToCityAverage)) +
+				(nbhdIncomeRelativeToCityAverage <= 0.? 0. : parameters.getYBetaIncNbhd() * logOfNbhdIncomeRelativeToCityAverage(parent, nbhdIncomeRelativeToCityAverage));		//Only add this if AvgNbhdIncome > 0.  If AvgNbhdIncome = 0, this is likely to be because the parent of this Sim has just moved to a Nbhd where it is the only Sim earning an income (when Sims are sparsely distributed across nbhds).  Therefore, there should be no effect from AvgNbhdIncome in this calculation of YBase.
 		
-		if(yBase > model.getMaxBaseIncome()) {
-			return model.getMaxBaseIncome();
+		if(yBase > parameters.getMaxBaseIncome()) {
+			return parameters.getMaxBaseIncome();
 		}
-		else if(yBase < model.getMinBaseIncome()) {
-			return model.getMinBaseIncome();
+		else if(yBase < parameters.getMinBaseIncome()) {
+			return parameters.getMinBaseIncome();
 		}
 		else return yBase;
 
@@ -404,92 +479,125 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 	//////////////////////////////////////////////////////////
 	
 		
+	//In the log-domain math modes, the logs of the income ratios of calculateYearsInEducation and calculateIncomeBase are differences of cached logs
+	private static double logOfParentIncomeRelativeToCityAverage(Sim parent, double parentIncomeRelativeToCityAverage) {
+		if(!parameters.isLogDomain() || !(model.getStats().getAvgAdultIncome() > 0.)) {
+			return Math.log(parentIncomeRelativeToCityAverage);
+		}
+		return parent.logIncome - model.getStats().getLogAvgAdultIncome();
+	}
+
+	private static double logOfNbhdIncomeRelativeToCityAverage(Sim parent, double nbhdIncomeRelativeToCityAverage) {
+		if(!parameters.isLogDomain() || !(model.getStats().getAvgAdultIncome() > 0.)) {
+			return Math.log(nbhdIncomeRelativeToCityAverage);
+		}
+		return parent.getNbhd().getLogNbhdAdultIncomeRelativeToCityAvg();
+	}
+
+	protected static double logOf(double x) {		//The log of per-Sim values in the log-domain math modes
+		return parameters.isFastLog() ? FastLog.log(x) : Math.log(x);
+	}
+
+	protected static double getLogEffect(double beta, double logRatio) {		//log(ratio^beta), which is 0 when beta is 0 even if the ratio is 0, as with Math.pow
+		return beta == 0. ? 0. : beta * logRatio;
+	}
+
 	protected void ageing() {
-			age++;
+			setAge(getAge() + 1);
 	}
 	
 	protected void stopFollowingParent() {		//Break parent-child link
 
-		if((parent != null)) {					//There is no need to check for age as this is scheduled when a Sim is born.
-			parent.getChildSims().remove(this);
-			parent = null;				//Need this, as null pointer if parentId not set to null as if parent dies first, then this Sim dies, in death() there is a call to access the parent to remove this from the childSims list.
+		if(parentSlot >= 0) {					//There is no need to check for age as this is scheduled when a Sim is born.
+			getContext().getPopulation().get(parentSlot).removeChild(this);
+			parentSlot = -1;				//Need this, as if parent dies first and its slot is reused, then when this Sim dies, death() would otherwise remove this Sim from the children of whichever Sim now holds the slot.
 		}
 
 	}
 
 	protected void updateIncome() { 
-		if(age >= yearsInEducation) {
-			double avgIncomeForAge = Parameters.getAgeIncomeProfile()[age];
-			income = incomeBase * avgIncomeForAge * 
+		int age = getAge();
+		if(age >= getYearsInEducation()) {
+			getContext().startRandomStream(this, RandomStreams.Income);
+			double avgIncomeForAge = parameters.getAgeIncomeProfile()[age];
+			double income = getIncomeBase() * avgIncomeForAge * 
 //					Math.exp(Parameters.getStandardNormal().nextDouble() * Math.sqrt(Parameters.getYSigma()));		//Incorrectly specified in THIM paper compared to usage in ModGen version.  Paper defines Normal distribution as N(0, YSigma) whereas common usage is N(mean, variance).  YSigma in ModGen has comment "//EN Standard deviation of perturbation term in annual income change equation" and uses it as such in equations.
-					Math.exp(Parameters.getStandardNormal().nextDouble() * Parameters.getYSigma());
+					Math.exp(getContext().getStandardNormal().nextDouble() * parameters.getYSigma());
 			if(income <= 0) {
 				throw new RuntimeException("Income is not positive!");
 			}
-			cumulativeIncome += income;
+			setIncome(income);
+			setCumulativeIncome(getCumulativeIncome() + income);
 		}
 	}
 
 	protected void updateHealth() {
 
+		getContext().startRandomStream(this, RandomStreams.Health);
 //		double hDeltaRand = (RegressionUtils.event(Parameters.getHealthDeltaEvents(), Parameters.getHealthDeltaProbs(), SimulationEngine.getRnd())).doubleValue();		//Assuming a discrete probability mass histogram
-		double hDeltaRand = RegressionUtils.eventPiecewiseConstant(Parameters.getHealthDeltaEvents(), Parameters.getHealthDeltaProbs(), SimulationEngine.getRnd());			//Assuming a piecewise constant probability density, where the domain is continuous (compact?)
+		double hDeltaRand = RegressionUtils.eventPiecewiseConstant(parameters.getHealthDeltaEvents(), parameters.getHealthDeltaProbs(), getContext().getRandom());			//Assuming a piecewise constant probability density, where the domain is continuous (compact?)
 		double hDeltaIncome = 0;
-		if((income > 0) && (age >= (model.getMinAgeToReproduce() - model.getAgeBand()))) {		//avgIncomeNearAge not specified for ages below MinAgeToReproduce - AgeBand.
+		int age = getAge();
+		double income = getIncome();
+		if((income > 0) && (age >= parameters.getMinAgeForIncomeEffect())) {		//avgIncomeNearAge not specified for ages below MinAgeToReproduce - AgeBand.
 			double avgAdultIncomeNearAge = model.getStats().getAvgAdultIncomeNearAge(age);				
 
 			if(avgAdultIncomeNearAge > 0.) {			//Could be zero if no-one is earning because they are still in education, though this is unlikely to be true for all Sims, if there is a sizeable Sim population 
-				hDeltaIncome = Parameters.getHIncParm() * Math.log(income / avgAdultIncomeNearAge);
+				hDeltaIncome = parameters.getHIncParm() * (parameters.isLogDomain() ? logIncome - model.getStats().getLogAvgAdultIncomeNearAge(age) : Math.log(income / avgAdultIncomeNearAge));
 			}   
 		}
 
+		double healthIndex = getHealthIndex();
 		healthIndex += ( hDeltaIncome + hDeltaRand ) * 
-				(age / (double)Parameters.getMaxAge());
-		if(healthIndex > model.getMaxHealthIndex()) {								//Check healthIndex remains within bounds (paper has min = 0, max = 1).
-			healthIndex = model.getMaxHealthIndex();
+				(age / (double)parameters.getMaxAge());
+		if(healthIndex > parameters.getMaxHealthIndex()) {								//Check healthIndex remains within bounds (paper has min = 0, max = 1).
+			healthIndex = parameters.getMaxHealthIndex();
 		}
-		else if(healthIndex < model.getMinHealthIndex()) {
-			healthIndex = model.getMinHealthIndex();
+		else if(healthIndex < parameters.getMinHealthIndex()) {
+			healthIndex = parameters.getMinHealthIndex();
 		}
-		cumulativeHealthIndex += healthIndex;
+		setHealthIndex(healthIndex);
+		setCumulativeHealthIndex(getCumulativeHealthIndex() + healthIndex);
 
 	}
 
+	protected void setYearlyState(int age, double income, double logIncome, double cumulativeIncome, double healthIndex, double cumulativeHealthIndex) {		//The results of ageing, updateIncome and updateHealth, calculated by YearlyEventsBatch (with the log of the income in the log-domain math modes)
+		setAge(age);
+		putIncome(income);
+		this.logIncome = logIncome;
+		setCumulativeIncome(cumulativeIncome);
+		setHealthIndex(healthIndex);
+		setCumulativeHealthIndex(cumulativeHealthIndex);
+	}
+
 	protected void considerLocation() {
  
-		if(age >= yearsInEducation) {
+		if(getAge() >= getYearsInEducation()) {
 
+			Nbhd nbhd = model.getNbhd(getNbhdId());
+			double income = getIncome();
 			double incomeDifference = 0.;
 			double avgNbhdInc = nbhd.getAvgNbhdAdultIncome();
 			if(avgNbhdInc > 0) {			//Could be the case that all Sims in a neighbourhood are not receiving an income as they have ages < their yearsInEducation (except for this Sim, who has just reached the age to receive)
 				incomeDifference = Math.abs(income - avgNbhdInc) / avgNbhdInc;	//Note, income has been updated in schedule AFTER avgNbhdInc has been calculated.  So, it is possible for a nbhd with only 1 Sim to have a non-zero incomeDifference, as the avgNbhdInc was calculated at the start of the day.  This is so that all Sims have the same avg statistics to use when making their decisions, so the ordering of the Sims who share the same birthday (and hence update their income and consider their location at the same time-step) does not matter. 
 			} 
 				
-			double propensityToMove = 0.;
+			double propensityToMove = parameters.getPropensityToMove(incomeDifference);
 			
-			try {
-				propensityToMove = Parameters.getPropensityToMoveFunction().value(incomeDifference);
-			} catch (ArgumentOutsideDomainException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			
-			if ( RegressionUtils.event(propensityToMove) ) {		//Where propensityToMove is the probability of success of a Bernoulli random variable
+			getContext().startRandomStream(this, RandomStreams.Location);
+			if ( getContext().event(propensityToMove) ) {		//Where propensityToMove is the probability of success of a Bernoulli random variable
 				// Attempt move (if there is space and a nbhd with less income discrepancy
 				
-				List<Nbhd> potentialNbhds = new ArrayList<Nbhd>();			//Potential neighbourhoods that have space for the Sim to move to
-				
-				for(Nbhd otherNbhd : model.getNbhds()) {
-					if(!otherNbhd.equals(nbhd)) {			//Note that the condition below is measured at the start of the year, before Sims have moved.  The current Sim does not take into account whether other Sims have already moved earlier in the year (this removes bias in the ordering of Sims' birthTimestamps, though it may mean in borderline cases that the sim will move into a nbhd which has reached maximum occupancy earlier in the year).
-						if(otherNbhd.getNumWorkingResidents() < (model.getMaxOccupancyFactor() * (double)model.getStats().getNumWorkingSims() / (double)Parameters.getSimulatedNeighborhoods())) { 
-							potentialNbhds.add(otherNbhd);		//TODO: The criterion above appears in the ModGen code as 'MaxAdultsInNeighborhood = (int) ( MaxOccupancyFactor * StationaryAdultPopulationSize / SimulatedNeighborhoods );'.  Check if this is updated in the code, otherwise the implementation in our code is different, as it uses the latest number of Sims who have finished their education (getSimsAfterEducation(), which represents the number of adults).
-						}						
-					}		
-				}
+				double maxWorkingResidents = parameters.getMaxOccupancyFactor() * (double)model.getStats().getNumWorkingSims() / (double)parameters.getSimulatedNeighborhoods();		//TODO: This criterion appears in the ModGen code as 'MaxAdultsInNeighborhood = (int) ( MaxOccupancyFactor * StationaryAdultPopulationSize / SimulatedNeighborhoods );'.  Check if this is updated in the code, otherwise the implementation in our code is different, as it uses the latest number of Sims who have finished their education (getSimsAfterEducation(), which represents the number of adults).
 				
 				double bestIncomeDifference = incomeDifference;
 				Nbhd bestNbhd = nbhd;							//Initialize to current nbhd
-				for(Nbhd tryNbhd : potentialNbhds) {
+				List<Nbhd> nbhds = model.getNbhds();
+				for(int n = 0; n < nbhds.size(); n++) {			//A single pass over the nbhds by index, so that considering a move allocates no list of potential nbhds nor iterator
+					Nbhd tryNbhd = nbhds.get(n);
+					if(tryNbhd == nbhd || tryNbhd.getNumWorkingResidents() >= maxWorkingResidents) {		//Only potential neighbourhoods that have space for the Sim to move to.  Note that the condition is measured at the start of the year, before Sims have moved.  The current Sim does not take into account whether other Sims have already moved earlier in the year (this removes bias in the ordering of Sims' birthTimestamps, though it may mean in borderline cases that the sim will move into a nbhd which has reached maximum occupancy earlier in the year).
+						continue;
+					}
 					double avgPotentialNbhdIncome = tryNbhd.getAvgNbhdAdultIncome();
 					double potentialIncomeDiff = bestIncomeDifference;
 					if(avgPotentialNbhdIncome > 0.) {
@@ -500,30 +608,103 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 						bestNbhd = tryNbhd;
 					}
 				}
-				if(bestNbhd != nbhd) {
-					moveNbhd(bestNbhd);					//If no other nbhd had a smaller income discrepancy, then nbhdId will remain the same (don't move)
-					for(Sim child : childSims) {		//When Sim moves, need their children (if they are a parent) to follow to new nbhd.  When child reaches age where they finish education and start earning an income, they remove themselves from the parent's childSim list so that they no longer follow the parent around.
-						child.moveNbhd(bestNbhd);
-					}					
+				if(bestNbhd != nbhd) {					//If no other nbhd had a smaller income discrepancy, then nbhdId will remain the same (don't move)
+					SimContext context = getContext();
+					if(model.getContext((int) bestNbhd.getKey().getId()) == context) {
+						int oldNbhdId = getNbhdId();
+						moveNbhd(bestNbhd);
+						SimPopulation population = context.getPopulation();
+						for(int c = firstChildSlot; c >= 0; ) {		//When Sim moves, need their children (if they are a parent) to follow to new nbhd.  When child reaches age where they finish education and start earning an income, they remove themselves from the parent's children so that they no longer follow the parent around.
+							Sim child = population.get(c);
+							child.moveNbhd(bestNbhd);
+							c = child.nextSiblingSlot;
+						}
+						if(numberOfCohortChildren > 0) {
+							context.getChildCohorts().moveChildren(this, oldNbhdId, getNbhdId(), context.getChildCohorts());
+						}
+					}
+					else ((ShardSimContext) context).addMigrant(this, bestNbhd);		//Nbhd in another shard (only the Sharded mode has more than one context), so the move (with the children) is made at the end of the year
 				}
 			}
 		}
 	}
 	
 	private void moveNbhd(Nbhd newNbhd) {
-		nbhd = newNbhd;
-		nbhdId = (int) nbhd.getKey().getId();		
+		setNbhdId((int) newNbhd.getKey().getId());		
+	}
+
+	protected void migrate(SimPopulation from, SimPopulation to, Nbhd newNbhd) {		//Moves the Sim and the children following it to the population of another shard, relinking them by their new slots
+		from.remove(this);
+		to.add(this);
+		moveNbhd(newNbhd);
+		int c = firstChildSlot;
+		firstChildSlot = -1;
+		numberOfChildren = 0;
+		while(c >= 0) {
+			Sim child = from.get(c);
+			c = child.nextSiblingSlot;
+			from.remove(child);
+			to.add(child);
+			child.moveNbhd(newNbhd);
+			linkChild(child, to);
+		}
+	}
+
+	//Writes the state needed to continue simulating the Sim in another process, with its parent as a slot in its current population
+	protected void writeState(DataOutput out) throws IOException {
+		out.writeLong(id);
+		out.writeInt(getAge());
+		out.writeDouble(getBirthTimestamp());
+		out.writeInt(getYearsInEducation());
+		out.writeDouble(getIncomeBase());
+		out.writeDouble(getIncome());
+		out.writeDouble(getHealthIndex());
+		out.writeDouble(getCumulativeIncome());
+		out.writeDouble(getCumulativeHealthIndex());
+		out.writeInt(getNbhdId());
+		out.writeInt(getYearOfNextYearlyEvents());
+		out.writeLong(randomStreamKey);
+		out.writeInt(parentSlot);			//The children are relinked from their own parent slots
+	}
+
+	//Reads a Sim written by writeState().  Its parent is still a slot in the population of the writing process until remapSlots() is called.
+	protected static Sim readState(DataInput in) throws IOException {
+		Sim sim = SimFactory.create();
+		sim.id = in.readLong();
+		sim.initialiseState();
+		sim.setAge(in.readInt());
+		sim.setBirthTimestamp(in.readDouble());
+		sim.setYearsInEducation(in.readInt());
+		sim.setIncomeBase(in.readDouble());
+		sim.setIncome(in.readDouble());
+		sim.setHealthIndex(in.readDouble());
+		sim.setCumulativeIncome(in.readDouble());
+		sim.setCumulativeHealthIndex(in.readDouble());
+		sim.setNbhdId(in.readInt());
+		sim.setYearOfNextYearlyEvents(in.readInt());
+		sim.randomStreamKey = in.readLong();
+		sim.parentSlot = in.readInt();
+		return sim;
+	}
+
+	protected void remapSlots(Map<Integer, Sim> simsBySlot) {		//Relinks the Sim to its parent, if read in the same batch, which rebuilds the children of every parent read
+		Sim parent = (parentSlot >= 0) ? simsBySlot.get(parentSlot) : null;
+		parentSlot = -1;
+		if(parent != null) {
+			parent.linkChild(this, getContext().getPopulation());
+		}
 	}
 
 	protected void considerBirth() {   
 		
 		if(!isDead) {					//If Sim has already died, no need to add any future events
 			//Calculate time until giving birth, timeUntilBirth 
-			double timeUntilBirth = -Math.log( SimulationEngine.getRnd().nextDouble() ) / model.getFertilityHazard();
+			getContext().startRandomStream(this, RandomStreams.Fertility);
+			double timeUntilBirth = getContext().nextExponential() / model.getFertilityHazard();
 
 			//Schedule birth event if Sim will have age less than maxAgeToReproduce when the birth is due to occur 
-			if(age + (int)timeUntilBirth < model.getMaxAgeToReproduce()) {
-				model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.GiveBirth), SimulationEngine.getInstance().getTime() + timeUntilBirth, 10);		//Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
+			if(getAge() + (int)timeUntilBirth < parameters.getMaxAgeToReproduce()) {
+				getContext().scheduleOnce(this, Processes.GiveBirth, getContext().getTime() + timeUntilBirth, 10);		//Note that considerBirth is only rescheduled within the birth() method, i.e. only if/when a Sim gives birth to its first child sim, will it schedule another considerBirth.
 			}			
 		}
 	}
@@ -531,35 +712,56 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 	protected void giveBirth() {
 
 		if(!isDead) {					//If Sim has already died, cannot give birth, nor re-call considerBirth()
-			Sim newborn = new Sim(this);
-			double currentTime = SimulationEngine.getInstance().getTime();
-			newborn.setBirthTimestamp(currentTime - (long)currentTime);
-			if(!model.getSims().add(newborn)) {
-				throw new RuntimeException("Model failed to add newborn sim " + newborn.getKey().getId() + " to the set of sims");
+			SimContext context = getContext();
+			if(context.getChildCohorts() != null) {		//The hybrid mode: the newborn joins a cohort, drawing its yearsInEducation and incomeBase as SimFactory#newborn() does
+				context.startRandomStream(CommonRandomNumbers.getNewbornStreamKey(randomStreamKey, context.getTime()), RandomStreams.Newborn);
+				int yearsInEducation = calculateYearsInEducation(this, context);
+				if(yearsInEducation > 0) {			//Otherwise the newborn stops following its parent at birth, so it is a Sim from the start
+					context.getChildCohorts().addNewborn(this, yearsInEducation, calculateIncomeBase(yearsInEducation, this, context));
+					considerBirth();
+					return;
+				}
 			}
-			if(!childSims.add(newborn)) {			//Add child Sim to parent's list of childSims, so that children can be informed of moving nbhd when parent moves.
-				throw new RuntimeException("Model failed to add newborn sim " + newborn.getKey().getId() + " to the set of child sims of parent sim " + key.getId());
+			Sim newborn = context.getSimFactory().newborn(this);
+			double currentTime = context.getTime();
+			newborn.setBirthTimestamp(currentTime - (long)currentTime);
+			if(!context.getPopulation().add(newborn)) {
+				throw new RuntimeException("Model failed to add newborn sim " + newborn.getId() + " to the set of sims");
 			}
+			addChild(newborn);			//Add child Sim to parent's children (needs the newborn's slot, so only once it is in the population), so that children can be informed of moving nbhd when parent moves.
 			considerBirth();			//Now consider possibility of giving birth to next child in the future and schedule as necessary, as long as the Sim's age is less than the maximum age to reproduce.
 		}
 	}
 	
 	protected void considerDeath() {	//Yearly Event
 		double timeUntilDeath = 0.;
+		double healthIndex = getHealthIndex();
 		if(healthIndex > 0) {			//When healthIhdex = 0, timeUntilDeath = 0
+			int age = getAge();
+			double income = getIncome();
 
-			double mortalityHazard = Parameters.getAvgMortalityHazards()[age];
+			double mortalityHazard = parameters.getAvgMortalityHazards()[age];
 			if(!Double.isInfinite(mortalityHazard)) {			//Infinite mortalityHazard when mortalityRate = 1 (the case for Sims aged 100).  The infinity messes up the arithmetic below, so must handle this case separately (by keeping timeUntilDeath = 0, so the Sim with infinite mortalityHazard is immediately removed from the simulation).
-				double incomeEffect = 1.;
-				//If income is zero, ignore this component of the mortality hazard, as Sims who have ages below their yearsInEducation have no income yet.  However, they should not have an increased mortalityHazard due to their youth!
-				if((income > 0) && (age >= (model.getMinAgeToReproduce() - model.getAgeBand()))) {			//The second condition is necessary, as if Sim has e.g. yearsInEducation = 1, they will have income > 0 when they are 1 year old and above, however avgIncomeNearAge is only defined for ages >= minAgeToReproduce - ageBand.  So if minAgeToReproduce = 20 and ageBand = 10, avgIncomeNearAge will be undefined for ages less than 10, so this income effect should not be applied for sims aged less than 10. 
-					incomeEffect = Math.pow( model.getStats().getAvgAdultIncomeNearAge(age) / income, Parameters.getMBetaIncNear());
+				if(parameters.isLogDomain()) {		//The same effects as below, as the exp of a sum of cached logs
+					double logEffects = getLogEffect(parameters.getMBetaH(), model.getStats().getLogAvgHealth() - logOf(healthIndex));
+					if((income > 0) && (age >= parameters.getMinAgeForIncomeEffect())) {
+						logEffects += getLogEffect(parameters.getMBetaIncNear(), model.getStats().getLogAvgAdultIncomeNearAge(age) - logIncome);
+					}
+					mortalityHazard *= Math.exp(logEffects);
+				}
+				else {
+					double incomeEffect = 1.;
+					//If income is zero, ignore this component of the mortality hazard, as Sims who have ages below their yearsInEducation have no income yet.  However, they should not have an increased mortalityHazard due to their youth!
+					if((income > 0) && (age >= parameters.getMinAgeForIncomeEffect())) {			//The second condition is necessary, as if Sim has e.g. yearsInEducation = 1, they will have income > 0 when they are 1 year old and above, however avgIncomeNearAge is only defined for ages >= minAgeToReproduce - ageBand.  So if minAgeToReproduce = 20 and ageBand = 10, avgIncomeNearAge will be undefined for ages less than 10, so this income effect should not be applied for sims aged less than 10. 
+						incomeEffect = Math.pow( model.getStats().getAvgAdultIncomeNearAge(age) / income, parameters.getMBetaIncNear());
+					}
+					mortalityHazard *= incomeEffect *
+							Math.pow( model.getStats().getAvgHealth() / healthIndex , parameters.getMBetaH());			//If healthIndex reaches zero, mortalityHazard should tend to a positive large number, so that timeToDeath tends to 0. TODO: Careful - check when avgCityHealth is calculated.  It should have a value accurate just before this Sim's birthday...
 				}
-				mortalityHazard *= incomeEffect *
-						Math.pow( model.getStats().getAvgHealth() / healthIndex , Parameters.getMBetaH());			//If healthIndex reaches zero, mortalityHazard should tend to a positive large number, so that timeToDeath tends to 0. TODO: Careful - check when avgCityHealth is calculated.  It should have a value accurate just before this Sim's birthday...
 
 				if(mortalityHazard > 0.) {
-					timeUntilDeath = -Math.log( SimulationEngine.getRnd().nextDouble() ) / mortalityHazard;	
+					getContext().startRandomStream(this, RandomStreams.Mortality);
+					timeUntilDeath = getContext().nextExponential() / mortalityHazard;	
 				}
 				else if(mortalityHazard == 0.) {		//For newborn Sims, the intput parameters from the paper specify mortality rate = 0, which leads to a mortalityHazard = 0, which would lead to timeUntilDeath = Infinity, which is not well specified.  
 					timeUntilDeath = Double.MAX_VALUE;		//Designed so that the Sims with mortalityHazard = 0 do not die (until they are scheduled to considerDeath again at an age where their mortalityHazard (and mortality rate) is no longer 0.   
@@ -570,34 +772,44 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 			}
 		}
 		if(timeUntilDeath < 1.) {
-			model.getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.Death), SimulationEngine.getInstance().getTime() + timeUntilDeath, 9);
+			getContext().scheduleOnce(this, Processes.Death, getContext().getTime() + timeUntilDeath, 9);
 		}		
 	}
 	
 	protected void death() {
-		model.getEngine().getEventQueue().unschedule(simYearlyEvents);		//Remove yearly events of this sim from the schedule
+		SimContext context = getContext();
+		context.unscheduleYearly(this);		//Remove yearly events of this sim from the schedule
 		
 		stopFollowingParent();		//If still following parent, Sim removes itself from parent's childSims list so that parent does make this Sim move nbhd in future, as this Sim is about to die.
-		for(Sim child : childSims) {		//(If they have childSims)
-			child.setParent(null);		//Break link between child and parent, so that child doesn't need to remove themselves from the childSim list when they finish their education (in the ageing() method)
+		SimPopulation population = context.getPopulation();
+		for(int c = firstChildSlot; c >= 0; ) {		//(If they have children)
+			Sim child = population.get(c);
+			c = child.nextSiblingSlot;
+			child.parentSlot = -1;		//Break link between child and parent, so that child doesn't need to remove themselves from the parent's children when they finish their education (in the stopFollowingParent() method)
+			child.nextSiblingSlot = -1;
+			child.previousSiblingSlot = -1;
 		}
+		firstChildSlot = -1;
+		numberOfChildren = 0;
+		numberOfCohortChildren = 0;			//The children in cohorts stay in the nbhd.  cohortChildren is kept for the newborn that reuses this object (see SimFactory)
 		
 		//For output data tables (not necessary for model evolution)
-		double currentTimeInYear = SimulationEngine.getInstance().getTime() - (long)SimulationEngine.getInstance().getTime();
-		double fractionOfYearSinceLastBirthday = currentTimeInYear - birthTimestamp; 
+		double currentTimeInYear = context.getTime() - (long)context.getTime();
+		double fractionOfYearSinceLastBirthday = currentTimeInYear - getBirthTimestamp(); 
 		if(fractionOfYearSinceLastBirthday < 0) {
 			fractionOfYearSinceLastBirthday  += 1.;		//birth'day' (birthTimestamp + current year) has not happened in this calendar year, so need to increment by 1 to represent the time since the birth'day' last year 
 		}
-		double ageAtDeath = (double)age + fractionOfYearSinceLastBirthday;
-		cumulativeIncome -= income * (1. - fractionOfYearSinceLastBirthday);				//Deduct income not received as Sim has died before the full birth year has been completed
-		cumulativeHealthIndex -= healthIndex * (1. - fractionOfYearSinceLastBirthday);		//Reduce healthIndex as Sim has died before the full birth year has been completed
-		model.getStats().recordStatisticsAtDeath(cumulativeHealthIndex, cumulativeIncome, ageAtDeath);		
+		double ageAtDeath = (double)getAge() + fractionOfYearSinceLastBirthday;
+		double cumulativeIncome = getCumulativeIncome() - getIncome() * (1. - fractionOfYearSinceLastBirthday);				//Deduct income not received as Sim has died before the full birth year has been completed
+		double cumulativeHealthIndex = getCumulativeHealthIndex() - getHealthIndex() * (1. - fractionOfYearSinceLastBirthday);		//Reduce healthIndex as Sim has died before the full birth year has been completed
+		context.recordDeath(cumulativeHealthIndex, cumulativeIncome, ageAtDeath);		
 		
 		isDead = true;							//This prevents methods like considerBirth and giveBirth having any effect on population grow after the sim has died.
 		if(!model.removeSim(this)) {			//Sets the sim reference to null
-			throw new RuntimeException("Sim " + key.getId() + " not removed from either THIMModel.sims!");
+			throw new RuntimeException("Sim " + id + " not removed from either THIMModel.sims!");
 		}
-
+		releaseRecord();						//In the OffHeap and MemoryMapped modes, the state of a dead Sim can no longer be read, as its record is reused by newborns
+		//The object itself is released to the SimFactory of the context once this Death event, and any others still scheduled for it, have been dropped (see removeReference())
 	}
 
 	
@@ -608,53 +820,145 @@ public class Sim implements EventListener, IDoubleSource, IIntSource {
 	
 
 
-	public PanelEntityKey getKey() {
-		return key;
+	public long getId() {
+		return id;
 	}
-	public int getYearsInEducation() {
-		return yearsInEducation;
+	public abstract int getYearsInEducation();
+	protected abstract void setYearsInEducation(int yearsInEducation);
+	public abstract double getIncome();
+	protected abstract void putIncome(double income);		//Sets the income alone, without its log
+	private void setIncome(double income) {
+		putIncome(income);
+		if(parameters.isLogDomain()) {
+			logIncome = logOf(income);
+		}
 	}
-	public double getIncome() {
-		return income;
+	public abstract double getIncomeBase();
+	protected abstract void setIncomeBase(double incomeBase);
+	public abstract int getAge();
+	protected abstract void setAge(int age);
+	public Sim getParent() {
+		return parentSlot >= 0 ? getContext().getPopulation().get(parentSlot) : null;
 	}
-	public int getAge() {
-		return age;
+	public void setParent(Sim parent) {		//The parent must be in the population
+		this.parentSlot = (parent != null) ? parent.getSlot() : -1;
 	}
-	public Sim getParent() {
-		return parent;
+	protected void addChild(Sim child) {		//The child must be in the population
+		linkChild(child, getContext().getPopulation());
 	}
-	public void setParent(Sim parent) {
-		this.parent = parent;
+	private void linkChild(Sim child, SimPopulation population) {		//Adds the child at the head of the children, both Sims being in population
+		child.parentSlot = slot;
+		child.previousSiblingSlot = -1;
+		child.nextSiblingSlot = firstChildSlot;
+		if(firstChildSlot >= 0) {
+			population.get(firstChildSlot).previousSiblingSlot = child.slot;
+		}
+		firstChildSlot = child.slot;
+		numberOfChildren++;
 	}
-	public List<Sim> getChildSims() {
-		return childSims;
+	protected void removeChild(Sim child) {		//The child must be following this Sim
+		SimPopulation population = getContext().getPopulation();
+		if(child.previousSiblingSlot >= 0) {
+			population.get(child.previousSiblingSlot).nextSiblingSlot = child.nextSiblingSlot;
+		}
+		else firstChildSlot = child.nextSiblingSlot;
+		if(child.nextSiblingSlot >= 0) {
+			population.get(child.nextSiblingSlot).previousSiblingSlot = child.previousSiblingSlot;
+		}
+		child.nextSiblingSlot = -1;
+		child.previousSiblingSlot = -1;
+		numberOfChildren--;
+	}
+	public int getNumberOfChildren() {
+		return numberOfChildren;
+	}
+	protected void addCohortChild(int birthYear, int yearsInEducation) {
+		if(cohortChildren == null) {
+			cohortChildren = new int[2];
+		}
+		else if(numberOfCohortChildren == cohortChildren.length) {
+			cohortChildren = Arrays.copyOf(cohortChildren, numberOfCohortChildren << 1);
+		}
+		cohortChildren[numberOfCohortChildren++] = birthYear << 7 | yearsInEducation;
+	}
+	protected int getNumberOfCohortChildren() {
+		return numberOfCohortChildren;
+	}
+	protected void setNumberOfCohortChildren(int numberOfCohortChildren) {		//Only to be called by ChildCohorts
+		this.numberOfCohortChildren = numberOfCohortChildren;
+	}
+	protected int getCohortChild(int index) {
+		return cohortChildren[index];
+	}
+	protected void setCohortChild(int index, int cohortChild) {
+		cohortChildren[index] = cohortChild;
+	}
+	public Sim getFirstChild() {			//The children following this Sim are reached through getNextSibling()
+		return firstChildSlot >= 0 ? getContext().getPopulation().get(firstChildSlot) : null;
+	}
+	public Sim getNextSibling() {
+		return nextSiblingSlot >= 0 ? getContext().getPopulation().get(nextSiblingSlot) : null;
+	}
+	public int getSlot() {
+		return slot;
+	}
+	protected void setSlot(int slot) {				//Only to be called by SimPopulation
+		this.slot = slot;
 	}
 	public THIMModel getModel() {			//Used in filter classes
 		return model;
 	}
+	protected static void setModel(THIMModel model) {
+		Sim.model = model;
+		Sim.parameters = model.getCompiledParameters();
+	}
+	protected abstract void initialiseState();		//Zeroes the state of a new or reused Sim
+	protected abstract void releaseRecord();		//Returns the record of a Sim that has died or left this process to the store, if it has one
+	protected long getRandomStreamKey() {
+		return randomStreamKey;
+	}
 	public Nbhd getNbhd() {
-		return nbhd;
+		return model.getNbhd(getNbhdId());
+	}
+	public SimContext getContext() {			//Where the Sim is scheduled and draws its random numbers from, determined by its nbhd
+		return model.getContext(getNbhdId());
+	}
+	protected void addReference() {			//Only to be called by the contexts, for every event scheduled for this Sim and move pending
+		references++;
+	}
+	protected boolean removeReference() {		//Returns whether the Sim is dead and no longer referenced, in which case the caller releases it to the SimFactory of its context
+		return --references == 0 && isDead;
 	}
-	public double getBirthTimestamp() {
-		return birthTimestamp;
+	protected Event getYearlyEvents() {
+		return simYearlyEvents;
 	}
-	public void setBirthTimestamp(double birthTimestamp) {
-		this.birthTimestamp = birthTimestamp;
+	protected void setYearlyEvents(Event simYearlyEvents) {
+		this.simYearlyEvents = simYearlyEvents;
 	}
+	public abstract double getBirthTimestamp();
+	public abstract void setBirthTimestamp(double birthTimestamp);
 	public boolean isDead() {		//TODO: Can we remove this?
 		return isDead;
 	}
 
-	public int getNbhdId() {
-		return nbhdId;
-	}
+	public abstract int getNbhdId();
 
-	public void setNbhdId(int nbhdId) {
-		this.nbhdId = nbhdId;
-	}
+	protected abstract int getYearOfNextYearlyEvents();		//In the Annual engine mode, where the yearly events are not held in an event queue
 
-	public double getHealthIndex() {
-		return healthIndex;
-	}
+	protected abstract void setYearOfNextYearlyEvents(int year);
+
+	public abstract void setNbhdId(int nbhdId);
+
+	public abstract double getHealthIndex();
+
+	protected abstract void setHealthIndex(double healthIndex);
+
+	public abstract double getCumulativeIncome();
+
+	protected abstract void setCumulativeIncome(double cumulativeIncome);
+
+	public abstract double getCumulativeHealthIndex();
+
+	protected abstract void setCumulativeHealthIndex(double cumulativeHealthIndex);
 
 }
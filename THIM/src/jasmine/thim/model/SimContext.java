@@ -0,0 +1,46 @@
+package jasmine.thim.model;
+
+import java.util.Random;
+
+import cern.jet.random.Normal;
+
+/**
+ *
+ * Where a Sim's events are scheduled and fired, and where it draws its random numbers from.  Every nbhd belongs to
+ * one context, and a Sim uses the context of its nbhd (see THIMModel#getContext(int)).  In the EventQueue engine 
+ * mode there is a single context backed by the JAS-mine engine; in the Sharded mode each shard of nbhds has its own.
+ *
+ */
+public interface SimContext {
+
+	double getTime();
+
+	void scheduleOnce(Sim sim, Sim.Processes process, double time, int ordering);
+
+	void scheduleYearly(Sim sim, double time);			//YearlyEvents, repeated every year from time
+
+	void unscheduleYearly(Sim sim);
+
+	Random getRandom();
+
+	Normal getStandardNormal();
+
+	double nextExponential();					//Standard exponential draw, for waiting times
+
+	boolean event(double probability);			//Bernoulli trial
+
+	void startRandomStream(Sim sim, Sim.RandomStreams stream);		//Only has an effect when using common random numbers, see CommonRandomNumbers
+
+	void startRandomStream(long streamKey, Sim.RandomStreams stream);		//For draws made before the Sim they are for exists
+
+	long nextSimId();
+
+	SimPopulation getPopulation();				//The Sims living in the nbhds of this context
+
+	SimFactory getSimFactory();					//Creates the newborns of this context, reusing the dead Sims that it no longer references
+
+	void recordDeath(double cumulativeHealthIndex, double cumulativeIncome, double ageAtDeath);
+
+	ChildCohorts getChildCohorts();				//The children of the nbhds of this context that are held in cohorts, or null unless in the hybrid mode
+
+}
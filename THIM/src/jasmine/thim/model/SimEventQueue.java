@@ -0,0 +1,215 @@
+package jasmine.thim.model;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Binary min-heap of Sim events held in parallel primitive arrays, so that scheduling an event allocates no event
+ * object.  Events are ordered by time, then by ordering (lower first, as in the JAS-mine event queue), then by the
+ * order in which they were scheduled.
+ *
+ */
+public class SimEventQueue {
+
+	private static final Sim.Processes[] processes = Sim.Processes.values();
+
+	private double[] times;
+
+	private int[] orderings;
+
+	private long[] sequence;
+
+	private Sim[] sims;
+
+	private byte[] processOrdinals;
+
+	private int size = 0;
+
+	private long nextSequence = 0;
+
+	private boolean ordered = true;			//Whether add() keeps the heap ordered, see suspendOrder()
+
+	public SimEventQueue(int initialCapacity) {
+		int capacity = Math.max(16, initialCapacity);
+		times = new double[capacity];
+		orderings = new int[capacity];
+		sequence = new long[capacity];
+		sims = new Sim[capacity];
+		processOrdinals = new byte[capacity];
+	}
+
+	public void add(Sim sim, Sim.Processes process, double time, int ordering) {
+		if(size == times.length) {
+			grow();
+		}
+		int i = size++;
+		set(i, time, ordering, nextSequence++, sim, (byte) process.ordinal());
+		if(ordered) {
+			siftUp(i);
+		}
+	}
+
+	//While the initial population is built, events are appended without ordering them, and restoreOrder() then builds
+	//the heap in a single pass.  As events are ordered by their sequence last, the queue then fires them in the same order.
+	protected void suspendOrder() {
+		ordered = false;
+	}
+
+	protected void restoreOrder() {
+		ordered = true;
+		heapify();
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double peekTime() {		//Time of the next event; the queue must not be empty
+		return times[0];
+	}
+
+	public Sim peekSim() {
+		return sims[0];
+	}
+
+	public Sim.Processes peekProcess() {
+		return processes[processOrdinals[0]];
+	}
+
+	public int peekOrdering() {
+		return orderings[0];
+	}
+
+	//Access to the i-th event in heap (not time) order, 0 <= i < size(), for copying the queue
+	public Sim getSim(int i) {
+		return sims[i];
+	}
+
+	public Sim.Processes getProcess(int i) {
+		return processes[processOrdinals[i]];
+	}
+
+	public double getTime(int i) {
+		return times[i];
+	}
+
+	public int getOrdering(int i) {
+		return orderings[i];
+	}
+
+	public void clear() {
+		Arrays.fill(sims, 0, size, null);
+		size = 0;
+	}
+
+	public void removeFirst() {
+		int last = --size;
+		if(last > 0) {
+			set(0, times[last], orderings[last], sequence[last], sims[last], processOrdinals[last]);
+		}
+		sims[last] = null;
+		if(last > 1) {
+			siftDown(0);
+		}
+	}
+
+	/**
+	 *
+	 * Moves every event whose Sim is no longer in the nbhds of owner to the queue of the Sim's current context,
+	 * keeping their relative order.  A single pass over the queue, followed by rebuilding the heap.  The events of
+	 * dead Sims, which have no nbhd any more, stay with owner, which releases the Sims once they have been dropped.
+	 *
+	 */
+	public void transferMigrants(ShardSimContext owner, THIMModel model) {
+		int kept = 0;
+		for(int i = 0; i < size; i++) {
+			SimContext context = sims[i].isDead() ? owner : model.getContext(sims[i].getNbhdId());
+			if(context == owner) {
+				if(kept != i) {
+					set(kept, times[i], orderings[i], sequence[i], sims[i], processOrdinals[i]);
+				}
+				kept++;
+			}
+			else {
+				((ShardSimContext) context).getQueue().add(sims[i], processes[processOrdinals[i]], times[i], orderings[i]);
+			}
+		}
+		Arrays.fill(sims, kept, size, null);
+		size = kept;
+		heapify();
+	}
+
+	private void heapify() {
+		for(int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	private void set(int i, double time, int ordering, long seq, Sim sim, byte process) {
+		times[i] = time;
+		orderings[i] = ordering;
+		sequence[i] = seq;
+		sims[i] = sim;
+		processOrdinals[i] = process;
+	}
+
+	private boolean before(int i, int j) {
+		if(times[i] != times[j]) {
+			return times[i] < times[j];
+		}
+		if(orderings[i] != orderings[j]) {
+			return orderings[i] < orderings[j];
+		}
+		return sequence[i] < sequence[j];
+	}
+
+	private void swap(int i, int j) {
+		double time = times[i]; times[i] = times[j]; times[j] = time;
+		int ordering = orderings[i]; orderings[i] = orderings[j]; orderings[j] = ordering;
+		long seq = sequence[i]; sequence[i] = sequence[j]; sequence[j] = seq;
+		Sim sim = sims[i]; sims[i] = sims[j]; sims[j] = sim;
+		byte process = processOrdinals[i]; processOrdinals[i] = processOrdinals[j]; processOrdinals[j] = process;
+	}
+
+	private void siftUp(int i) {
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(!before(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while(true) {
+			int child = (i << 1) + 1;
+			if(child >= size) {
+				break;
+			}
+			if(child + 1 < size && before(child + 1, child)) {
+				child++;
+			}
+			if(!before(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void grow() {
+		int capacity = times.length + (times.length >> 1);
+		times = Arrays.copyOf(times, capacity);
+		orderings = Arrays.copyOf(orderings, capacity);
+		sequence = Arrays.copyOf(sequence, capacity);
+		sims = Arrays.copyOf(sims, capacity);
+		processOrdinals = Arrays.copyOf(processOrdinals, capacity);
+	}
+
+}
@@ -0,0 +1,71 @@
+package jasmine.thim.model;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Creates the Sims of a context, reusing the objects of Sims that have died.  A dead Sim is only handed back (by its
+ * context, see Sim#removeReference()) once no event of the queue and no pending move references it, so a stale event
+ * can never fire for the newborn that reuses the object.  The Sim's record in the SimStore and its population slot
+ * are freed as before when it dies; the object keeps its array of cohort children, so a reused Sim allocates nothing.
+ *
+ * Each context has its own factory, so the shards of the Sharded engine mode create and release Sims without locking.
+ * The objects are HeapSims, holding their state in fields, or in the OffHeap and MemoryMapped modes, StoredSims holding
+ * only their record in the SimStore (see create()).
+ *
+ */
+public class SimFactory {
+
+	private final SimContext context;
+
+	private Sim[] freeSims = new Sim[64];
+
+	private int numberOfFreeSims = 0;
+
+	protected SimFactory(SimContext context) {
+		this.context = context;
+	}
+
+	//A new, uninitialised Sim object of the class for the SimStorage of the model
+	protected static Sim create() {
+		return StoredSim.getStore() == null ? new HeapSim() : new StoredSim();
+	}
+
+	//A Sim with the given id and its state zeroed
+	public Sim newSim(long idNumber) {
+		Sim sim;
+		if(numberOfFreeSims > 0) {
+			sim = freeSims[--numberOfFreeSims];
+			freeSims[numberOfFreeSims] = null;
+		}
+		else sim = create();
+		sim.initialise(idNumber);
+		return sim;
+	}
+
+	//A Sim of the initial population with the given id, created outside any context (as in the parallel build of InitialPopulationBuilder)
+	protected static Sim newInitialSim(long idNumber) {
+		Sim sim = create();
+		sim.initialise(idNumber);
+		return sim;
+	}
+
+	//A newborn of the parent, initialised and scheduled in the parent's context
+	public Sim newborn(Sim parent) {
+		Sim sim = newSim(context.nextSimId());
+		sim.initialiseNewborn(parent, context);
+		return sim;
+	}
+
+	protected void release(Sim sim) {		//Only for a dead Sim that nothing references any more
+		if(numberOfFreeSims == freeSims.length) {
+			freeSims = Arrays.copyOf(freeSims, numberOfFreeSims << 1);
+		}
+		freeSims[numberOfFreeSims++] = sim;
+	}
+
+	public int getNumberOfFreeSims() {
+		return numberOfFreeSims;
+	}
+
+}
@@ -0,0 +1,112 @@
+package jasmine.thim.model;
+
+import jasmine.thim.model.enums.EngineMode;
+import jasmine.thim.model.enums.SimStorage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import microsim.event.SingleTargetEvent;
+
+/**
+ *
+ * Bytes of heap per Sim, by component, for the population just built.  The components are estimated from the
+ * declared fields, assuming the HotSpot object layout (12-byte object headers and 4-byte references when
+ * compressed references are in use, which is the default for heaps under 32GB).  The measured heap increase over
+ * the build is reported alongside, as it also covers what is not attributed to a single Sim, such as the one-off
+ * events in the schedule.
+ *
+ */
+public class SimMemoryReport {
+
+	private final int populationSize;
+
+	private final int referenceSize;
+
+	private final int objectHeaderSize;
+
+	private final long simBytes;
+
+	private final long yearlyEventBytes;
+
+	private final long populationSlotsBytes;
+
+	private final long measuredBytes;		//Total over the population
+
+	private final SimStorage simStorage;
+
+	public SimMemoryReport(THIMModel model, long heapBeforeBuild) {
+		populationSize = model.getSims().size();
+		boolean is64Bit = !"32".equals(System.getProperty("sun.arch.data.model"));
+		boolean compressedReferences = is64Bit && Runtime.getRuntime().maxMemory() < (32L << 30);
+		referenceSize = (is64Bit && !compressedReferences) ? 8 : 4;
+		objectHeaderSize = is64Bit ? (compressedReferences ? 12 : 16) : 8;
+
+		simStorage = model.getSimStorage();
+		simBytes = getShallowSize(simStorage == SimStorage.Heap ? HeapSim.class : StoredSim.class);
+		yearlyEventBytes = model.getEngineMode() == EngineMode.EventQueue ? getShallowSize(SingleTargetEvent.class) : 0L;		//The Sharded and Annual engine modes hold events in the arrays of their queues instead
+		long populationSlots = 0;
+		for(SimPopulation population : model.getPopulations()) {
+			populationSlots += population.getSlotBytes(referenceSize);
+		}
+		populationSlotsBytes = populationSlots;
+		measuredBytes = getUsedHeapAfterGc() - heapBeforeBuild;
+	}
+
+	private long getShallowSize(Class<?> type) {
+		long size = objectHeaderSize;
+		for(Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for(Field field : c.getDeclaredFields()) {
+				if(Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				Class<?> fieldType = field.getType();
+				if(fieldType == long.class || fieldType == double.class) {
+					size += 8;
+				}
+				else if(fieldType == int.class || fieldType == float.class) {
+					size += 4;
+				}
+				else if(fieldType == short.class || fieldType == char.class) {
+					size += 2;
+				}
+				else if(fieldType == byte.class || fieldType == boolean.class) {
+					size += 1;
+				}
+				else size += referenceSize;
+			}
+		}
+		return align(size);
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	public static long getUsedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {		//A single request is not guaranteed to collect everything that is unreachable
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Override
+	public String toString() {
+		double n = Math.max(1, populationSize);
+		double total = simBytes + yearlyEventBytes + populationSlotsBytes / n;		//The children are linked through fields of the Sim object
+		StringBuilder report = new StringBuilder();
+		report.append("Memory per Sim for a population of ").append(populationSize).append(", estimated for a ")
+			.append(referenceSize == 4 && objectHeaderSize > 8 ? "64-bit JVM with compressed references" : (referenceSize == 8 ? "64-bit JVM" : "32-bit JVM")).append(":\n");
+		report.append(String.format("  Sim object                %8.1f bytes%n", (double)simBytes));
+		if(simStorage != SimStorage.Heap) {		//Otherwise the state is in the fields of the Sim object.  Records held outside the heap are not in the measured heap increase.
+			report.append(String.format("  %-24s%8.1f bytes (not on heap)%n", "state record (" + simStorage + ")", (double)SimStore.RECORD_BYTES));
+		}
+		report.append(String.format("  yearly event              %8.1f bytes%n", (double)yearlyEventBytes));
+		report.append(String.format("  population slots          %8.1f bytes%n", populationSlotsBytes / n));
+		report.append(String.format("  total estimated on heap   %8.1f bytes%n", total));
+		report.append(String.format("  measured heap increase    %8.1f bytes (also includes one-off events in the schedule, nbhds and statistics)", measuredBytes / n));
+		return report.toString();
+	}
+
+}
@@ -0,0 +1,168 @@
+package jasmine.thim.model;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * The population of living Sims, held in an array of slots.  Each Sim knows its own slot, so that adding and
+ * removing are constant time without hashing, and Sims can refer to each other (parent and children) by slot index
+ * instead of by reference.  The slots of dead Sims are reused by newborns, via a free list.
+ *
+ * A slot index only identifies a Sim while it is alive, so links by slot must be cleared when the linked Sim
+ * dies (as Sim#death() does for its parent and children).
+ *
+ */
+public class SimPopulation extends AbstractCollection<Sim> {
+
+	private Sim[] slots;
+
+	private int[] freeSlots;		//Stack of slots below highestSlot whose Sims have died
+
+	private int numberOfFreeSlots = 0;
+
+	private int highestSlot = 0;	//Slots at or above this index have never been used
+
+	private int size = 0;
+
+	private int modCount = 0;
+
+	public SimPopulation(int initialCapacity) {
+		slots = new Sim[Math.max(16, initialCapacity)];
+		freeSlots = new int[16];
+	}
+
+	@Override
+	public boolean add(Sim sim) {
+		if(sim.getSlot() >= 0) {
+			return false;		//Already in a population
+		}
+		int slot;
+		if(numberOfFreeSlots > 0) {
+			slot = freeSlots[--numberOfFreeSlots];
+		}
+		else {
+			if(highestSlot == slots.length) {
+				slots = Arrays.copyOf(slots, slots.length + (slots.length >> 1));
+			}
+			slot = highestSlot++;
+		}
+		slots[slot] = sim;
+		sim.setSlot(slot);
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if(!(o instanceof Sim)) {
+			return false;
+		}
+		Sim sim = (Sim) o;
+		int slot = sim.getSlot();
+		if(slot < 0 || slot >= highestSlot || slots[slot] != sim) {
+			return false;
+		}
+		slots[slot] = null;
+		sim.setSlot(-1);
+		if(numberOfFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeSlots.length << 1);
+		}
+		freeSlots[numberOfFreeSlots++] = slot;
+		size--;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if(!(o instanceof Sim)) {
+			return false;
+		}
+		int slot = ((Sim) o).getSlot();
+		return slot >= 0 && slot < highestSlot && slots[slot] == o;
+	}
+
+	public Sim get(int slot) {		//Returns null if the slot is free
+		return slots[slot];
+	}
+
+	public int getSlotLimit() {		//Every Sim has a slot below this, so a sweep over the slots up to it sees every Sim (and the free slots)
+		return highestSlot;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		for(int slot = 0; slot < highestSlot; slot++) {
+			if(slots[slot] != null) {
+				slots[slot].setSlot(-1);
+				slots[slot] = null;
+			}
+		}
+		highestSlot = 0;
+		numberOfFreeSlots = 0;
+		size = 0;
+		modCount++;
+	}
+
+	//Iterates in slot order, skipping free slots
+	@Override
+	public Iterator<Sim> iterator() {
+		return new Iterator<Sim>() {
+
+			private int nextSlot = findNext(0);
+			private int lastSlot = -1;
+			private int expectedModCount = modCount;
+
+			private int findNext(int slot) {
+				while(slot < highestSlot && slots[slot] == null) {
+					slot++;
+				}
+				return slot;
+			}
+
+			public boolean hasNext() {
+				return nextSlot < highestSlot;
+			}
+
+			public Sim next() {
+				if(modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if(nextSlot >= highestSlot) {
+					throw new NoSuchElementException();
+				}
+				lastSlot = nextSlot;
+				nextSlot = findNext(nextSlot + 1);
+				return slots[lastSlot];
+			}
+
+			public void remove() {
+				if(lastSlot < 0) {
+					throw new IllegalStateException();
+				}
+				if(modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				SimPopulation.this.remove(slots[lastSlot]);
+				lastSlot = -1;
+				expectedModCount = modCount;
+			}
+		};
+	}
+
+	//For memory accounting, the number of bytes held by the slot array and free list
+	protected long getSlotBytes(int referenceSize) {
+		return (long)slots.length * referenceSize + (long)freeSlots.length * 4;
+	}
+
+}
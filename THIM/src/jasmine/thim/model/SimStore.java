@@ -0,0 +1,166 @@
+package jasmine.thim.model;
+
+import jasmine.thim.model.enums.SimStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ *
+ * The numeric state of every Sim (age, income, health etc.), held in fixed-size records in chunks of ByteBuffers
+ * rather than in the Sim objects, so that the state of a large population can be kept outside the Java heap (and
+ * its garbage collection) or in a memory-mapped file.  A StoredSim reads and writes its record through its accessors,
+ * so Statistics and the Sim processes are the same for every SimStorage.  In the default SimStorage.Heap mode there is
+ * no store, and the state is held in plain fields of HeapSims, which are cheaper to access.
+ * 
+ * Records of dead Sims are reused via a free list.  Allocation is synchronized as shards allocate records for
+ * newborns concurrently.  Chunks never move once allocated, so a record can be read and written without locking.
+ *
+ */
+public class SimStore {
+
+	//Record layout, in bytes
+	protected static final int AGE = 0;
+	protected static final int YEARS_IN_EDUCATION = 4;
+	protected static final int NBHD_ID = 8;
+	protected static final int YEAR_OF_NEXT_YEARLY_EVENTS = 12;		//Only used by the Annual engine mode
+	protected static final int BIRTH_TIMESTAMP = 16;		//Doubles aligned to 8 bytes
+	protected static final int INCOME_BASE = 24;
+	protected static final int INCOME = 32;
+	protected static final int HEALTH_INDEX = 40;
+	protected static final int CUMULATIVE_INCOME = 48;
+	protected static final int CUMULATIVE_HEALTH_INDEX = 56;
+
+	public static final int RECORD_BYTES = 64;
+
+	private static final int RECORD_SHIFT = 6;				//log2(RECORD_BYTES)
+
+	private static final int CHUNK_SHIFT = 16;				//2^16 records (4MB) per chunk
+
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	private static final long CHUNK_BYTES = (long)RECORD_BYTES << CHUNK_SHIFT;
+
+	private final SimStorage storage;
+
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+	private int[] freeRecords = new int[16];		//Stack of records below highestRecord whose Sims have died
+
+	private int numberOfFreeRecords = 0;
+
+	private int highestRecord = 0;				//Records at or above this index have never been used
+
+	private File file;							//Only for SimStorage.MemoryMapped
+
+	private RandomAccessFile randomAccessFile;
+
+	public SimStore(SimStorage storage, int initialCapacity) throws IOException {
+		if(storage == SimStorage.Heap) {
+			throw new IllegalArgumentException("Sim state is held in the Sim objects, not a store, in the " + storage + " mode");
+		}
+		this.storage = storage;
+		if(storage == SimStorage.MemoryMapped) {
+			file = File.createTempFile("thim-sims", ".dat");
+			file.deleteOnExit();
+			randomAccessFile = new RandomAccessFile(file, "rw");
+		}
+		while(((long)chunks.length << CHUNK_SHIFT) < initialCapacity) {
+			addChunk();
+		}
+	}
+
+	public synchronized int allocate() {
+		int record;
+		if(numberOfFreeRecords > 0) {
+			record = freeRecords[--numberOfFreeRecords];
+		}
+		else {
+			if(highestRecord == ((long)chunks.length << CHUNK_SHIFT)) {
+				try {
+					addChunk();
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to extend the Sim store", e);
+				}
+			}
+			record = highestRecord++;
+		}
+		ByteBuffer chunk = chunks[record >>> CHUNK_SHIFT];
+		for(int i = offset(record, 0); i < offset(record, RECORD_BYTES); i += 8) {			//New records start zeroed, like the fields of a new object
+			chunk.putLong(i, 0L);
+		}
+		return record;
+	}
+
+	public synchronized void free(int record) {
+		if(numberOfFreeRecords == freeRecords.length) {
+			freeRecords = Arrays.copyOf(freeRecords, freeRecords.length << 1);
+		}
+		freeRecords[numberOfFreeRecords++] = record;
+	}
+
+	//The chunk array is replaced rather than modified, so threads still holding the old one read the same chunks.  A record is only used by the thread that allocated it until the next yearly barrier.
+	private void addChunk() throws IOException {
+		ByteBuffer chunk;
+		if(storage == SimStorage.MemoryMapped) {
+			chunk = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, chunks.length * CHUNK_BYTES, CHUNK_BYTES);
+		}
+		else chunk = ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+		chunk.order(ByteOrder.nativeOrder());
+		ByteBuffer[] extended = Arrays.copyOf(chunks, chunks.length + 1);
+		extended[chunks.length] = chunk;
+		chunks = extended;
+	}
+
+	public void close() throws IOException {		//Mapped chunks are only unmapped once garbage collected, so the file is also deleted on exit
+		if(randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+			file.delete();
+		}
+		chunks = new ByteBuffer[0];
+	}
+
+	public SimStorage getStorage() {
+		return storage;
+	}
+
+	public int size() {							//Number of records in use
+		return highestRecord - numberOfFreeRecords;
+	}
+
+	public long getCapacityBytes() {
+		return chunks.length * CHUNK_BYTES;
+	}
+
+	private static int offset(int record, int field) {
+		return ((record & CHUNK_MASK) << RECORD_SHIFT) + field;
+	}
+
+	//The record of a dead Sim is -1, which would otherwise read the last record of the last chunk
+	protected int getInt(int record, int field) {
+		assert record >= 0 : "Sim state read after the Sim died";
+		return chunks[record >>> CHUNK_SHIFT].getInt(offset(record, field));
+	}
+
+	protected void putInt(int record, int field, int value) {
+		assert record >= 0 : "Sim state written after the Sim died";
+		chunks[record >>> CHUNK_SHIFT].putInt(offset(record, field), value);
+	}
+
+	protected double getDouble(int record, int field) {
+		assert record >= 0 : "Sim state read after the Sim died";
+		return chunks[record >>> CHUNK_SHIFT].getDouble(offset(record, field));
+	}
+
+	protected void putDouble(int record, int field, double value) {
+		assert record >= 0 : "Sim state written after the Sim died";
+		chunks[record >>> CHUNK_SHIFT].putDouble(offset(record, field), value);
+	}
+
+}
@@ -0,0 +1,71 @@
+package jasmine.thim.model;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ *
+ * Writes one line per year with an order-independent digest of the state of every Sim (identity, age, nbhdId,
+ * income and healthIndex), followed by the key aggregates of the Statistics, so that an optimised engine can be
+ * checked against the reference by comparing the files of two runs with StateDigestComparator.
+ *
+ * A Sim is identified by its random stream key (see CommonRandomNumbers) rather than its id, as the ids of newborns
+ * depend on the contexts that the engine mode creates them in.  The key is derived from the run seed and id of a Sim
+ * of the initial population, or from the parent's key and the time of birth of a newborn, so it is the same for the
+ * same Sim in every engine mode, whether or not common random numbers are used.  The digest of each field is the sum
+ * (modulo 2^64) of a hash of every Sim's key and value, so it does not depend on the order in which the Sims are
+ * visited, but a value moving from one Sim to another changes it.  Doubles are hashed by their bits, so the Sims must
+ * match exactly.  In distributed runs, each worker only digests its own Sims, and StateDigestComparator adds up the
+ * digests of the workers' files to those of the whole population.
+ *
+ */
+public class StateDigest {
+
+	public static final String HEADER = "year,population,streamKey,age,nbhdId,income,healthIndex,avgAdultIncome,avgHealth,numWorkingSims,numberOfAdultSims";
+
+	private final PrintWriter out;
+
+	private int population;
+
+	private long keyDigest, ageDigest, nbhdIdDigest, incomeDigest, healthIndexDigest;
+
+	public StateDigest(File file) throws IOException {
+		out = new PrintWriter(new FileWriter(file));
+		out.println(HEADER);
+	}
+
+	protected void add(Sim sim) {		//Called for every Sim by Statistics#accumulateStatistics()
+		long keyHash = mix(sim.getRandomStreamKey());
+		population++;
+		keyDigest += keyHash;
+		ageDigest += mix(keyHash + sim.getAge());
+		nbhdIdDigest += mix(keyHash ^ mix(sim.getNbhdId()));
+		incomeDigest += mix(keyHash ^ Double.doubleToLongBits(sim.getIncome()));
+		healthIndexDigest += mix(keyHash - Double.doubleToLongBits(sim.getHealthIndex()));
+	}
+
+	protected void write(long year, Statistics stats) {		//Writes the line for the year and resets the digests
+		out.println(year + "," + population + "," + hex(keyDigest) + "," + hex(ageDigest) + "," + hex(nbhdIdDigest) + "," + hex(incomeDigest) + "," + hex(healthIndexDigest) + ","
+				+ stats.getAvgAdultIncome() + "," + stats.getAvgHealth() + "," + stats.getNumWorkingSims() + "," + stats.getNumberOfAdultSims());
+		out.flush();
+		population = 0;
+		keyDigest = ageDigest = nbhdIdDigest = incomeDigest = healthIndexDigest = 0L;
+	}
+
+	public void close() {
+		out.close();
+	}
+
+	private static String hex(long digest) {
+		return String.format("%016x", digest);
+	}
+
+	private static long mix(long z) {		//The finaliser of SplitMix64, so that nearby values hash to unrelated ones
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
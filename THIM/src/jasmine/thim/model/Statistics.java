@@ -5,6 +5,7 @@ import microsim.data.db.PanelEntityKey;
 import microsim.engine.SimulationEngine;
 import jasmine.thim.algorithms.LifetimeEarningsHealthSearch;
 import jasmine.thim.data.Parameters;
+import jasmine.thim.model.enums.MathMode;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -41,6 +42,15 @@ public class Statistics {
 	@Transient
 	private double[] avgAdultIncomeNearAge = new double[Parameters.getMaxAge() + 1];	//avg income of sims with age in [array index - model.getAgeBand(), array index + model.getAgeBand()], so it sums up the relevant ages in avgAdultIncomeForAge[] 
 	
+	@Transient
+	private double[] logAvgAdultIncomeNearAge = new double[Parameters.getMaxAge() + 1];	//Logs of the averages above, -Infinity where there is no adult income near the age, for the log-domain math modes (see THIMModel#mathMode)
+	
+	@Transient
+	private double logAvgHealth;
+	
+	@Transient
+	private double logAvgAdultIncome;
+	
 	@Transient
 	private int[] numAdultSimsNearAge = new int[Parameters.getMaxAge() + 1];		//number of sims with age in [array index - model.getAgeBand(), array index + model.getAgeBand()], so it sums up the relevant ages of numAdultSimsForAge[]
 			
@@ -64,6 +74,13 @@ public class Statistics {
 	@Column(name="avg_years_in_education")
 	private double avgYearsInEducation = 0.;	//Not needed for model evolution, only for outputting data to tables
 	
+	//Yearly aggregates for the Observer charts, filled during the updateStatistics() pass so that the charts do not need to iterate through the sims again (not necessary for simulation)
+	@Transient
+	private double avgAge = 0.;
+	
+	@Transient
+	private int populationSize = 0;
+	
 	@Transient
 	private double[] averageAgeAtDeath;  
 	
@@ -119,6 +136,12 @@ public class Statistics {
 	@Transient
 	int countAverageUpdates = 0;
 	
+	@Transient
+	private double longRunSumOfAgeAtDeath = 0.;		//Over the deaths since recordDataAfterYear, for the life expectancy of a run
+	
+	@Transient
+	private long longRunNumberOfDeaths = 0;
+	
 	//For NbhdAvgs Table
 	@Transient
 	private double[] normalisedAvgNbhdAdultIncome = new double[Parameters.getSimulatedNeighborhoods()];
@@ -164,26 +187,20 @@ public class Statistics {
 	
 	//Statistics without using JAS functionality - as can do it by only iterating through all Sims once, which is faster when large number of Sims are being simulated  
 	protected void updateStatistics() {			//Is it worth having an if else test to check whether simulation time is in the record data to output table mode?  If it's before this time-period, could run with a simplified updateStatistics  
+		accumulateStatistics();
+		deriveStatistics();
+	}
+	
+	//Sums over the Sims held by this process.  In distributed runs, the sums are all-reduced between workers (see getReducibleSums()) before deriveStatistics() is called.
+	protected void accumulateStatistics() {
 		
-		int populationSize = model.getSims().size();
-		if(populationSize == 0) {								//If no more sims, terminate simulation.  (Statistics will no longer exist with zero population.)
-			long timeToComplete = System.currentTimeMillis() - model.getElapsedTime();
-			THIMModel.getLog().info("Model complete - no more Sims exist.  Time since THIMModel#buildSchedule() called is " + timeToComplete + "ms.");			
-			System.out.println("Model complete - no more Sims exist.  Time since THIMModel#buildSchedule() called is " + timeToComplete + "ms.");
-
-			model.getEngine().pause();
-		}
-				
 		int numberOfNbhds = Parameters.getSimulatedNeighborhoods();
 		int maxAge = Parameters.getMaxAge();
 		double ageBinInterval = model.getAgeBinInterval();		//For output tables with age_bins
+		int weight = model.getRepresentationWeight();			//Every Sim counts as this many persons in the sums and counts below
 		
 		//Reset at start of calculation
-		avgAdultIncome = 0.;
-		avgHealth = 0.;
-		avgYearsInEducation = 0.;
-		numWorkingSims = 0;	
-		numberOfAdultSims = 0;
+		this.populationSize = model.getSims().size() * weight;
 		for(int i = 0; i < numberOfNbhds; i++) {
 			//For model evolution
 			numberOfWorkersInNbhd[i] = 0;
@@ -205,13 +222,17 @@ public class Statistics {
 		}
 	
 		//Accumulate data from sims
+		StateDigest digest = model.getStateDigest();
 		for(Sim sim: model.getSims()) {
+			if(digest != null) {
+				digest.add(sim);
+			}
 			int nbhdId = sim.getNbhdId();
 			int age = sim.getAge();
 			double simEducation = sim.getYearsInEducation();			
 			double simHealth = sim.getHealthIndex();
 			
-			avgNbhdHealthIndex[nbhdId] += simHealth;		//Used to calculate avgHealth, which is necessary for death() process (so not just for output tables)
+			avgNbhdHealthIndex[nbhdId] += weight * simHealth;		//Used to calculate avgHealth, which is necessary for death() process (so not just for output tables)
 
 			//For output tables//////////////////////////////////////////////////////////////////////////////////////
 			int age_bin = (int)(sim.getAge() / ageBinInterval);		//This is designed on purpose to trunctate data by casting to integer.  This is subsequently used as an array index.		
@@ -220,40 +241,81 @@ public class Statistics {
 			//Workers only
 			if(age >= simEducation) {		//If true, Sim has finished education and is therefore receiving an income
 				
-				numberOfWorkersInNbhd[nbhdId]++;
+				numberOfWorkersInNbhd[nbhdId] += weight;
 				
 				double simIncome = sim.getIncome();				
 				//Adults only
 				if(age >= model.getMinAgeToReproduce()) {			//Sim is defined as an adult if true
 					
-					numberOfAdultsInNbhd[nbhdId]++;
-					avgAdultIncomeInNbhd[nbhdId] += simIncome;
+					numberOfAdultsInNbhd[nbhdId] += weight;
+					avgAdultIncomeInNbhd[nbhdId] += weight * simIncome;
 					
 					int lowestAgeBin = Math.max(0, age - model.getAgeBand());			//Only includes adults in this calculation
 					int highestAgeBin = Math.min(maxAge, age + model.getAgeBand());
 					for(int ageIndex = lowestAgeBin; ageIndex <= highestAgeBin; ageIndex++) {
-						avgAdultIncomeNearAge[ageIndex] += simIncome;
-						numAdultSimsNearAge[ageIndex]++;
+						avgAdultIncomeNearAge[ageIndex] += weight * simIncome;
+						numAdultSimsNearAge[ageIndex] += weight;
 					}
 				} 
 				//For output tables//////////////////////////////////////////////////////////////////////////////////
-				else numberOfChildrenInNbhd[nbhdId]++;		//For output tables
+				else numberOfChildrenInNbhd[nbhdId] += weight;		//For output tables
 				/////////////////////////////////////////////////////////////////////////////////////////////////////
 			} 
 			//For output tables//////////////////////////////////////////////////////////////////////////////////////
-			else numberOfChildrenInNbhd[nbhdId]++;		//For output tables
+			else numberOfChildrenInNbhd[nbhdId] += weight;		//For output tables
 
-			avgNbhdAge[nbhdId] += age;		//For output tables
-			avgNbhdEducation[nbhdId] += simEducation;		//For output tables
+			avgNbhdAge[nbhdId] += weight * age;		//For output tables
+			avgNbhdEducation[nbhdId] += weight * simEducation;		//For output tables
 			
 //			age_bin statistics			
-			numSimsByAge[age_bin]++;		//For output tables with age_bins
-			averageHealthByAge[age_bin] += simHealth;		//For output tables with age_bins
-			averageIncomeByAge[age_bin] += sim.getIncome();		//For output tables with age_bins
+			numSimsByAge[age_bin] += weight;		//For output tables with age_bins
+			averageHealthByAge[age_bin] += weight * simHealth;		//For output tables with age_bins
+			averageIncomeByAge[age_bin] += weight * sim.getIncome();		//For output tables with age_bins
 			/////////////////////////////////////////////////////////////////////////////////////////////////////////
 			
 		}
 		
+		if(model.getHybridChildCohorts()) {
+			int year = (int) SimulationEngine.getInstance().getTime();
+			for(SimContext context : model.getContexts()) {
+				context.getChildCohorts().accumulate(this, year);
+			}
+		}
+		
+	}
+	
+	//Adds count children of a cohort (see ChildCohorts), who are neither workers nor adults, as the loop over the Sims above does
+	protected void addChildren(int nbhdId, int age, int yearsInEducation, int count, double sumOfHealth) {
+		int weight = model.getRepresentationWeight();
+		int persons = weight * count;
+		populationSize += persons;
+		avgNbhdHealthIndex[nbhdId] += weight * sumOfHealth;
+		numberOfChildrenInNbhd[nbhdId] += persons;
+		avgNbhdAge[nbhdId] += (double)persons * age;
+		avgNbhdEducation[nbhdId] += (double)persons * yearsInEducation;
+		int age_bin = (int)(age / model.getAgeBinInterval());
+		numSimsByAge[age_bin] += persons;
+		averageHealthByAge[age_bin] += weight * sumOfHealth;
+	}
+	
+	protected void deriveStatistics() {
+		
+		if(populationSize == 0) {								//If no more sims, terminate simulation.  (Statistics will no longer exist with zero population.)
+			long timeToComplete = System.currentTimeMillis() - model.getElapsedTime();
+			THIMModel.getLog().info("Model complete - no more Sims exist.  Time since THIMModel#buildSchedule() called is " + timeToComplete + "ms.");			
+			System.out.println("Model complete - no more Sims exist.  Time since THIMModel#buildSchedule() called is " + timeToComplete + "ms.");
+
+			model.getEngine().pause();
+		}
+		
+		int maxAge = Parameters.getMaxAge();
+		avgAdultIncome = 0.;
+		avgHealth = 0.;
+		avgYearsInEducation = 0.;
+		avgAge = 0.;
+		numWorkingSims = 0;	
+		numberOfAdultSims = 0;
+		
 		//Now process information accumulated from all sims
 		
 		for(int age = 0; age <= maxAge; age++) {
@@ -278,6 +340,7 @@ public class Statistics {
 			
 			//For output tables///////////////////////////////////////////////////////////////////////
 			avgYearsInEducation += avgNbhdEducation[nbhdId];
+			avgAge += avgNbhdAge[nbhdId];			//For Observer charts
 			//////////////////////////////////////////////////////////////////////////////////////////
 		}
 		
@@ -289,9 +352,18 @@ public class Statistics {
 		
 		//For output tables////////////////////////////////////////////////////////////////////////////
 		avgYearsInEducation /= (double)populationSize;		//Already checked populationSize != 0 at beginning of updateStatistics()
+		avgAge /= (double)populationSize;
 		numberOfChildSims = populationSize - numberOfAdultSims;		
 		///////////////////////////////////////////////////////////////////////////////////////////////
 		
+		if(model.getMathMode() != MathMode.Exact) {		//Once a year here, rather than by every Sim that needs them
+			for(int age = 0; age <= maxAge; age++) {
+				logAvgAdultIncomeNearAge[age] = Math.log(avgAdultIncomeNearAge[age]);
+			}
+			logAvgHealth = Math.log(avgHealth);
+			logAvgAdultIncome = Math.log(avgAdultIncome);
+		}
+		
 		for(Nbhd nbhd : model.getNbhds()) {
 			int nbhdId = (int) nbhd.getKey().getId();
 			
@@ -330,9 +402,96 @@ public class Statistics {
 			/////////////////////////////////////////////////////////////////////////////////////////////
 			
 		}
+		
+		if(model.getStateDigest() != null) {
+			model.getStateDigest().write((long) SimulationEngine.getInstance().getTime(), this);
+		}
 				
 	}
 	
+	//The sums from accumulateStatistics() that the Sims' processes depend on, with the population size first.  The sums for the output tables are reduced once at the end of a distributed run instead (see getOutputTableSums()).
+	protected double[] getReducibleSums() {
+		int numberOfNbhds = numberOfWorkersInNbhd.length;
+		int numberOfAges = avgAdultIncomeNearAge.length;
+		double[] sums = new double[1 + 7 * numberOfNbhds + 2 * numberOfAges];
+		int i = 0;
+		sums[i++] = populationSize;
+		for(int nbhdId = 0; nbhdId < numberOfNbhds; nbhdId++) {
+			sums[i++] = numberOfWorkersInNbhd[nbhdId];
+			sums[i++] = numberOfAdultsInNbhd[nbhdId];
+			sums[i++] = avgAdultIncomeInNbhd[nbhdId];
+			sums[i++] = avgNbhdHealthIndex[nbhdId];
+			sums[i++] = avgNbhdEducation[nbhdId];
+			sums[i++] = numberOfChildrenInNbhd[nbhdId];
+			sums[i++] = avgNbhdAge[nbhdId];
+		}
+		for(int age = 0; age < numberOfAges; age++) {
+			sums[i++] = avgAdultIncomeNearAge[age];
+			sums[i++] = numAdultSimsNearAge[age];
+		}
+		return sums;
+	}
+	
+	protected void setReducibleSums(double[] sums) {
+		int numberOfNbhds = numberOfWorkersInNbhd.length;
+		int numberOfAges = avgAdultIncomeNearAge.length;
+		int i = 0;
+		populationSize = (int) sums[i++];
+		for(int nbhdId = 0; nbhdId < numberOfNbhds; nbhdId++) {
+			numberOfWorkersInNbhd[nbhdId] = (int) sums[i++];
+			numberOfAdultsInNbhd[nbhdId] = (int) sums[i++];
+			avgAdultIncomeInNbhd[nbhdId] = sums[i++];
+			avgNbhdHealthIndex[nbhdId] = sums[i++];
+			avgNbhdEducation[nbhdId] = sums[i++];
+			numberOfChildrenInNbhd[nbhdId] = (int) sums[i++];
+			avgNbhdAge[nbhdId] = sums[i++];
+		}
+		for(int age = 0; age < numberOfAges; age++) {
+			avgAdultIncomeNearAge[age] = sums[i++];
+			numAdultSimsNearAge[age] = (int) sums[i++];
+		}
+	}
+	
+	//The sums behind the output tables that are recorded per Sim, so that in distributed runs each worker only holds those of its own Sims: by age bin, at death and the lifetime income and health histogram (in the iteration order of its keys, which is the same on every worker as they all load the same histogram).  The long-run city and nbhd averages are not included, as they are incremented from the derived statistics, which are the same on every worker.
+	protected double[] getOutputTableSums() {
+		int numberOfAgeBins = numSimsByAge.length;
+		double[] sums = new double[5 * numberOfAgeBins + 2 + lifetimeIncomeLifetimeHealthHistogram.size()];
+		int i = 0;
+		for(int age_bin = 0; age_bin < numberOfAgeBins; age_bin++) {
+			sums[i++] = averageAgeAtDeath[age_bin];
+			sums[i++] = numSimsAgeAtDeath[age_bin];
+			sums[i++] = averageHealthByAge[age_bin];
+			sums[i++] = averageIncomeByAge[age_bin];
+			sums[i++] = numSimsByAge[age_bin];
+		}
+		sums[i++] = longRunSumOfAgeAtDeath;
+		sums[i++] = longRunNumberOfDeaths;
+		for(Object multiKey : lifetimeIncomeLifetimeHealthHistogram.keySet()) {
+			sums[i++] = ((Number) lifetimeIncomeLifetimeHealthHistogram.get((MultiKey) multiKey)).doubleValue();
+		}
+		return sums;
+	}
+	
+	protected void setOutputTableSums(double[] sums) {
+		int numberOfAgeBins = numSimsByAge.length;
+		int i = 0;
+		for(int age_bin = 0; age_bin < numberOfAgeBins; age_bin++) {
+			averageAgeAtDeath[age_bin] = sums[i++];
+			numSimsAgeAtDeath[age_bin] = (int) sums[i++];
+			averageHealthByAge[age_bin] = sums[i++];
+			averageIncomeByAge[age_bin] = sums[i++];
+			numSimsByAge[age_bin] = (int) sums[i++];
+		}
+		longRunSumOfAgeAtDeath = sums[i++];
+		longRunNumberOfDeaths = (long) sums[i++];
+		for(Object multiKey : lifetimeIncomeLifetimeHealthHistogram.keySet()) {
+			int count = (int) sums[i++];
+			if(count != 0) {			//Bins that no death has been counted in keep the 0. they were initialised with, as in a single JVM
+				lifetimeIncomeLifetimeHealthHistogram.put((MultiKey) multiKey, count);
+			}
+		}
+	}
+	
 	public void incrementCityAndNbhdAverages() {
 				
 		longRunAvgYearsInEducation += avgYearsInEducation;
@@ -383,12 +542,22 @@ public class Statistics {
 	public void recordStatisticsAtDeath(			//Can be called at any time-step
 			double cumulativeHealthIndex, double cumulativeIncome,
 			double ageAtDeath) {
+		recordStatisticsAtDeath(SimulationEngine.getInstance().getTime(), cumulativeHealthIndex, cumulativeIncome, ageAtDeath);
+	}
+
+	public void recordStatisticsAtDeath(			//For deaths recorded after the time of death, as in the Sharded engine mode
+			double timeOfDeath, double cumulativeHealthIndex, double cumulativeIncome,
+			double ageAtDeath) {
+
+		int weight = model.getRepresentationWeight();
 
 		//For output tables
-		if(SimulationEngine.getInstance().getTime() >= model.getRecordDataAfterYear()) {
+		if(timeOfDeath >= model.getRecordDataAfterYear()) {
 			int age_bin = (int) (ageAtDeath / model.getAgeBinInterval());
-			averageAgeAtDeath[age_bin] += ageAtDeath;
-			numSimsAgeAtDeath[age_bin]++;
+			averageAgeAtDeath[age_bin] += weight * ageAtDeath;
+			numSimsAgeAtDeath[age_bin] += weight;
+			longRunSumOfAgeAtDeath += weight * ageAtDeath;
+			longRunNumberOfDeaths += weight;
 			
 			final double epsilon = 1.e-15;
 			double lifetimeAverageHealthIndex = cumulativeHealthIndex / ageAtDeath;
@@ -401,12 +570,12 @@ public class Statistics {
 			}
 			double lifetimeAverageEarnings = cumulativeIncome / ageAtDeath;		
 
-			LifetimeEarningsHealthSearch.incrementValue(lifetimeIncomeLifetimeHealthHistogram, lifetimeAverageEarnings, lifetimeAverageHealthIndex);
+			LifetimeEarningsHealthSearch.incrementValue(lifetimeIncomeLifetimeHealthHistogram, lifetimeAverageEarnings, lifetimeAverageHealthIndex, weight);
 			
 		}
 		
-		cumulativeAgeAtDeath += ageAtDeath;		
-		numSimsWhoDiedThisYear++;
+		cumulativeAgeAtDeath += weight * ageAtDeath;		
+		numSimsWhoDiedThisYear += weight;
 		
 	}
 		
@@ -427,6 +596,8 @@ public class Statistics {
 		longRunAvgAdultPopulation = 0.;
 		longRunAvgChildPopulation = 0.;
 		countAverageUpdates = 0;
+		longRunSumOfAgeAtDeath = 0.;
+		longRunNumberOfDeaths = 0;
 
 		//For NbhdAvgs table
 		for(int nbhdId = 0; nbhdId < Parameters.getSimulatedNeighborhoods(); nbhdId++) {
@@ -521,9 +692,33 @@ public class Statistics {
 	public int getNumWorkingSims() {
 		return numWorkingSims;
 	}
+	public int getNumberOfAdultSims() {
+		return numberOfAdultSims;
+	}
+	public int getNumberOfChildSims() {
+		return numberOfChildSims;
+	}
+	public double getAvgYearsInEducation() {
+		return avgYearsInEducation;
+	}
+	public double getAvgAge() {
+		return avgAge;
+	}
+	public int getPopulationSize() {
+		return populationSize;
+	}
 	public double getAvgAdultIncomeNearAge(int age) {
 		return avgAdultIncomeNearAge[age];			
 	}
+	public double getLogAvgAdultIncomeNearAge(int age) {		//Only in the log-domain math modes
+		return logAvgAdultIncomeNearAge[age];
+	}
+	public double getLogAvgHealth() {
+		return logAvgHealth;
+	}
+	public double getLogAvgAdultIncome() {
+		return logAvgAdultIncome;
+	}
 
 	public double[] getAverageAgeAtDeath() {
 		return averageAgeAtDeath;
@@ -557,6 +752,10 @@ public class Statistics {
 		return longRunAvgAdultIncome;
 	}
 
+	public double getLongRunLifeExpectancy() {		//Average age at death since recordDataAfterYear
+		return longRunSumOfAgeAtDeath / (double)longRunNumberOfDeaths;
+	}
+
 	public double getLongRunAvgHealth() {
 		return longRunAvgHealth;
 	}
@@ -0,0 +1,101 @@
+package jasmine.thim.model;
+
+/**
+ *
+ * A Sim holding its numeric state in a record of the SimStore, in the OffHeap and MemoryMapped modes, so that the
+ * object itself has no state fields beyond those of Sim.  The record is allocated when the Sim is initialised and
+ * freed when it dies or leaves this process.
+ *
+ */
+public class StoredSim extends Sim {
+
+	private static SimStore store;		//Of the model being run, or null in the SimStorage.Heap mode
+
+	private int record = -1;			//In the SimStore, or -1 once the Sim has died
+
+	protected StoredSim() {		//Only to be called by SimFactory
+		super();
+	}
+
+	@Override
+	protected void initialiseState() {
+		record = store.allocate();
+	}
+
+	@Override
+	protected void releaseRecord() {
+		if(record >= 0) {
+			store.free(record);
+			record = -1;
+		}
+	}
+
+	protected static void setStore(SimStore store) {
+		StoredSim.store = store;
+	}
+	protected static SimStore getStore() {
+		return store;
+	}
+
+	public int getYearsInEducation() {
+		return store.getInt(record, SimStore.YEARS_IN_EDUCATION);
+	}
+	protected void setYearsInEducation(int yearsInEducation) {
+		store.putInt(record, SimStore.YEARS_IN_EDUCATION, yearsInEducation);
+	}
+	public double getIncome() {
+		return store.getDouble(record, SimStore.INCOME);
+	}
+	protected void putIncome(double income) {
+		store.putDouble(record, SimStore.INCOME, income);
+	}
+	public double getIncomeBase() {
+		return store.getDouble(record, SimStore.INCOME_BASE);
+	}
+	protected void setIncomeBase(double incomeBase) {
+		store.putDouble(record, SimStore.INCOME_BASE, incomeBase);
+	}
+	public int getAge() {
+		return store.getInt(record, SimStore.AGE);
+	}
+	protected void setAge(int age) {
+		store.putInt(record, SimStore.AGE, age);
+	}
+	public double getBirthTimestamp() {
+		return store.getDouble(record, SimStore.BIRTH_TIMESTAMP);
+	}
+	public void setBirthTimestamp(double birthTimestamp) {
+		store.putDouble(record, SimStore.BIRTH_TIMESTAMP, birthTimestamp);
+	}
+	public int getNbhdId() {
+		return store.getInt(record, SimStore.NBHD_ID);
+	}
+	public void setNbhdId(int nbhdId) {
+		store.putInt(record, SimStore.NBHD_ID, nbhdId);
+	}
+	protected int getYearOfNextYearlyEvents() {
+		return store.getInt(record, SimStore.YEAR_OF_NEXT_YEARLY_EVENTS);
+	}
+	protected void setYearOfNextYearlyEvents(int year) {
+		store.putInt(record, SimStore.YEAR_OF_NEXT_YEARLY_EVENTS, year);
+	}
+	public double getHealthIndex() {
+		return store.getDouble(record, SimStore.HEALTH_INDEX);
+	}
+	protected void setHealthIndex(double healthIndex) {
+		store.putDouble(record, SimStore.HEALTH_INDEX, healthIndex);
+	}
+	public double getCumulativeIncome() {
+		return store.getDouble(record, SimStore.CUMULATIVE_INCOME);
+	}
+	protected void setCumulativeIncome(double cumulativeIncome) {
+		store.putDouble(record, SimStore.CUMULATIVE_INCOME, cumulativeIncome);
+	}
+	public double getCumulativeHealthIndex() {
+		return store.getDouble(record, SimStore.CUMULATIVE_HEALTH_INDEX);
+	}
+	protected void setCumulativeHealthIndex(double cumulativeHealthIndex) {
+		store.putDouble(record, SimStore.CUMULATIVE_HEALTH_INDEX, cumulativeHealthIndex);
+	}
+
+}
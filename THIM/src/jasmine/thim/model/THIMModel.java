@@ -6,17 +6,33 @@ import microsim.engine.SimulationEngine;
 import microsim.event.EventListener;
 import microsim.event.Order;
 import microsim.event.SingleTargetEvent;
-import microsim.statistics.regression.RegressionUtils;
 import jasmine.thim.data.Parameters;
 import jasmine.thim.experiment.THIMStart;
 import jasmine.thim.model.enums.CityType;
+import jasmine.thim.model.enums.EngineMode;
 import jasmine.thim.model.enums.IncomeBaseGiniCoefficient;
+import jasmine.thim.model.enums.MathMode;
+import jasmine.thim.model.enums.SimStorage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
@@ -45,13 +61,18 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	@GUIparameter(description="Number of years to run simulation")
 	private Integer endYear = 500;			//In the paper and ModGen, the simulation spans 500 years.
 
-//	//TODO: loadInitialPopulationFromDatabase not ready yet!
-////	@GUIparameter(description="Toggle to choose whether to load initial population from database or generate within the model")
-//	private Boolean loadInitialPopulationFromDatabase = false;
+	@GUIparameter(description="File to load the initial population from (a .csv file, or a binary file as exported by THIMCollector), instead of generating it within the model.  Leave empty to generate it")
+	private String initialPopulationFile = THIMStart.getInitialPopulationFile();		//See InitialPopulationLoader for the columns of the file
 
 	@GUIparameter(description="Initial population size")
 	private Integer startingPopulationSize = THIMStart.getInitialPopulationSize();			//In paper and ModGen, around 50,000 Sims were used.  A reasonable starting value in our implementation (in terms of speed) is 10,000.
 	
+	@GUIparameter(description="Number of persons each Sim represents.  The model simulates startingPopulationSize / representationWeight Sims, and weights them in all statistics, so runtime scales with the number of Sims rather than the population represented")
+	private Integer representationWeight = 1;		//The statistics the Sims respond to are averages and ratios, which the weight does not change, so the weight only coarsens the sample: the standard errors of the outputs grow as the square root of the weight (see README)
+	
+	@GUIparameter(description="Hybrid mode: hold children born during the run in cohorts of counts by nbhd, birth year and years in education, with histograms of health and income base, and only create their Sims when they finish their education")
+	private Boolean hybridChildCohorts = false;
+	
 	@GUIparameter(description="Minimum age to give birth (should be greater or equal to maxYearsOfEducation)")
 	private Integer minAgeToReproduce = 20;		//This value is used as an example in the paper.												
 	
@@ -85,6 +106,18 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	
 	@GUIparameter(description="Choose whether to fix the Random Number seed")
 	private Integer randomSeedIfFixed = 0;
+	
+	@GUIparameter(description="Draw each Sim's random numbers from streams keyed by the Sim and what they are drawn for, so that runs of two scenarios with the same seed use common random numbers, and their differences are much less noisy")
+	private Boolean commonRandomNumbers = false;
+	
+	@GUIparameter(description="Exact evaluates the income and health effects on health and mortality with Math.pow and Math.log.  LogDomain adds logs cached once a year by Statistics and by each Sim when its income is set, and takes one exp per Sim.  FastLogDomain also evaluates the per-Sim logs with FastLog")
+	@Enumerated(EnumType.STRING)
+	private MathMode mathMode = MathMode.Exact;
+	
+	@GUIparameter(description="Draw the normal and exponential random numbers of the Sims (income and education noise, times until birth and death) with ziggurat samplers, instead of the Colt Normal and -log(U)")
+	private Boolean zigguratSampling = false;
+	
+	private long runSeed;			//The seed of this run, whether fixed or not
 
 	//Bonus parameters - not specified in the THIM document
 	@GUIparameter(description="Minimum possible healthIndex value")			//Could make into model parameter that can be specified in the GUI if desired
@@ -101,6 +134,29 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	@GUIparameter(description="number of age bins")
 	private Integer numAgeBinsInTables = 20;			
 	
+	@GUIparameter(description="print an estimate of the memory used per Sim, by component, when the model is built")
+	private Boolean printMemoryReport = false;
+	
+	@GUIparameter(description="write a digest of the state of every Sim and the key statistics each year to JASmine_THIM_Results, for comparing runs with StateDigestComparator")
+	private Boolean writeStateDigest = false;
+	
+	@GUIparameter(description="EventQueue schedules every Sim event in the JAS-mine engine.  Sharded splits the nbhds into shards that are simulated in parallel, one year at a time.  Annual is Sharded with the yearly Sim events processed in a sweep over the population, for faster exploratory runs")
+	@Enumerated(EnumType.STRING)
+	private EngineMode engineMode = EngineMode.EventQueue;
+	
+	@GUIparameter(description="In the Annual engine mode, update the ages, incomes and health of the Sims in batches over primitive arrays, with the random numbers of each batch drawn first")
+	private Boolean batchYearlyEvents = false;
+	
+	@GUIparameter(description="number of shards (and threads) in the Sharded and Annual engine modes, at most the number of nbhds")
+	private Integer numberOfShards = Runtime.getRuntime().availableProcessors();
+	
+	@GUIparameter(description="Build the initial population in parallel, drawing the Sims in chunks with random number streams split from the seed (so the population differs from the serial build, unless using common random numbers)")
+	private Boolean parallelBuild = false;
+	
+	@GUIparameter(description="Where the numeric state of the Sims is held: Heap (fields of the Sims), OffHeap (direct memory, outside the garbage-collected heap) or MemoryMapped (a temporary file, for populations larger than memory)")
+	@Enumerated(EnumType.STRING)
+	private SimStorage simStorage = SimStorage.Heap;
+	
 	private double ageBinInterval;				//The number of years of age range each bin contains (== max age / numAgeBinsInTables)
 	
 	public boolean microsimShellUse;			//Flag effects the way the simulation terminates to allow for batch mode and MultiRun mode. 
@@ -111,45 +167,82 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	//-----------------------------------------------------------------------------------------------------
 	
 	
-	private Set<Sim> sims;
+	private Collection<Sim> sims;			//All living Sims, over the populations of every context
+	
+	private SimPopulation[] populations;	//One per context
+	
+	private SimContext[] contextOfNbhd;		//Indexed by nbhdId
+	
+	private SimContext[] contexts;			//Each context once, in shard order
+	
+	private ShardSimContext[] shards;		//Only in the Sharded and Annual engine modes
+	
+	private ExecutorService shardExecutor;
+	
+	private WorkerExchange workerExchange;		//Only for a worker process of a distributed run, which simulates its own shards only
+	
+	private StateDigest stateDigest;			//Only if writeStateDigest is set
 	
 	private List<Nbhd> nbhds;			//TODO: Consider removing and replace by arrays of info in model class 
 	
 	private Statistics stats;		//Create a Statistics class to hold the aggregate statistics (and we can persist these in the database)
 	
+	private CompiledParameters compiledParameters;		//The parameters read by the Sim processes, compiled once they have been checked
+	
 	private double fertilityHazard;			//Calculated once initial population has been created
 	
 	private long elapsedTime;// = System.currentTimeMillis();		//For measuring real-time to between for model to build and to complete the simulation.
 	
+	private long timeToCompleteBuild;		//Real-time (ms) taken to build the model, recorded so that it can be reported by experiments as well as printed
+	
+	private long timeToCompleteRun;			//Real-time (ms) taken to run the simulation, set when the Stop event is fired
+	
+	private long[] simEventCounts;			//Number of Sim events fired, indexed by the ordinal of Sim.Processes
+	
 	/////////////////////////////////////////////////////////////////////////
 	// Manager
 	/////////////////////////////////////////////////////////////////////////
 	
 	public void buildObjects() {
 		
+		long heapBeforeBuild = printMemoryReport ? SimMemoryReport.getUsedHeapAfterGc() : 0L;		//Before the timer starts, as it forces garbage collection
 		elapsedTime = System.currentTimeMillis();		//For measuring real-time to between for model to build and to complete the simulation.
+		simEventCounts = new long[Sim.Processes.values().length];
 		
-		System.out.println("\nInitial population size is " + startingPopulationSize);
+		if(!isLoadingInitialPopulation()) {
+			System.out.println("\nInitial population size is " + startingPopulationSize + (representationWeight > 1 ? ", represented by " + getNumberOfAgents() + " Sims of weight " + representationWeight : ""));
+		}
 		
 			
 		///////////////////////////////Initialization and Parameters/////////////////////////////////////////
 		//Done here so that the Model Parameters from the GUI will correctly set the other parameters and initial capacities of collections		
 		if(fixRandomSeed) {
-			SimulationEngine.getRnd().setSeed(randomSeedIfFixed);			
+			runSeed = randomSeedIfFixed;
+			SimulationEngine.getRnd().setSeed(runSeed);			
 		}
 		else {
-			SimulationEngine.getRnd().setSeed(System.currentTimeMillis());			//Use current time as seed for random number generator (the default for java.util.Random by default initialized to System.currentTimeMillis()) 
+			runSeed = System.currentTimeMillis();
+			SimulationEngine.getRnd().setSeed(runSeed);			//Use current time as seed for random number generator (the default for java.util.Random by default initialized to System.currentTimeMillis()) 
 		}
 
 		Parameters.loadExternalParameters(cityType, incomeBaseGiniCoeff);
 		checkParameters();				//Ensure bounded parameters are consistent (see page 10 of extended THIM paper)
+		compiledParameters = new CompiledParameters(this);
 		
 		//Initialise parameters here after model parameters have been set, so that GUI can properly influence the initial capacity of collections like ArrayLists and HashMaps, and the value of other parameters
 		
 		stats = new Statistics();		//Create a Statistics class to hold the aggregate statistics (and we can persist these in the database)
+		openStateDigest();
 		
-		sims = new HashSet<Sim>((int)(startingPopulationSize.doubleValue() / 0.75));		//Default load factor is 0.75, so set initial capacity to size / load factor TODO: check if necessary to improve Hash performance
-//		sims = new LinkedHashSet<Sim>((int)(startingPopulationSize.doubleValue() / 0.75));		//Default load factor is 0.75, so set initial capacity to size / load factor TODO: check if necessary to improve Hash performance
+		Sim.setModel(this);
+		closeSimStore();				//When the model is rebuilt
+		try {
+			if(simStorage != SimStorage.Heap) {			//Otherwise the state is held in the fields of HeapSims
+				StoredSim.setStore(new SimStore(simStorage, (int)(getNumberOfAgents() * 1.1)));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to create the " + simStorage + " store of Sim state", e);
+		}
 		
 		int numberOfNbhds = Parameters.getSimulatedNeighborhoods();
 		nbhds = new ArrayList<Nbhd>(numberOfNbhds);
@@ -160,76 +253,44 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 			nbhds.add(new Nbhd((Nbhd.nbhdIdCounter)++));
 		}
 		
-		//Create sims and associate with neighbourhoods
-//		if(loadInitialPopulationFromDatabase) {
-//			System.out.println("Loading initial population from database.  Note that the 'Starting population size' model parameter will have no effect!");
-//			ArrayList<Sim> simsArrayList = (ArrayList<Sim>) DatabaseUtils.loadTable(Sim.class);			//For when there is an input database of data to load in.  Note, still need to assign nbhds after loading in, as we cannot know a priori how many nbhds there are.
-//			sims = new HashSet<Sim>(simsArrayList);			//Need to convert ArrayList to LinkedList for faster simulation speed
-//		}
-//		else {				
-			//When there is no input database of data to load in.
+		buildContexts(numberOfNbhds);
 		
-		//For establishing parent-child links:
-			double proportionOfChildSims = 0.;		//Will be larger than the proportion of child sims looking for parents if we restrict the latter to those still in education (i.e. age < yearsInEducation <= minAgeToReproduce)
-			for(int age = 0; age < minAgeToReproduce; age++) {
-				proportionOfChildSims += Parameters.getInitialPopAgeDistProbs()[age];
+		//Create starting population and establish parent-child links
+		if(shards != null) {
+			for(ShardSimContext shard : shards) {
+				shard.getQueue().suspendOrder();			//The initial events are ordered in one pass once they are all scheduled
 			}
-			double expectedInitialNumberOfAdultSims = (1. - proportionOfChildSims) * startingPopulationSize.doubleValue();
-			List<Sim> childSimsLookingForAParent = new ArrayList<Sim>((int)(startingPopulationSize.doubleValue() * proportionOfChildSims / 0.9));		// Divide by 0.9 to allow a larger capacity than expected 
-
-			List<ArrayList<ArrayList<Sim>>> potentialParents = new ArrayList<ArrayList<ArrayList<Sim>>>(numberOfNbhds);		//First index is by nbhdId, second index is child sims age (we need to filter out parents whose age > maxAgeToReproduce + child.age; they can be parents for older children, but perhaps not for the younger children).  The result is an arraylist of all potential parent sims for the specific child in question.
-			for(int nbhdId = 0; nbhdId < numberOfNbhds; nbhdId++) {
-				potentialParents.add(new ArrayList<ArrayList<Sim>>(maxYearsOfEducation));
-				for(int potentialChildAge = 0; potentialChildAge < maxYearsOfEducation; potentialChildAge++) {
-					potentialParents.get(nbhdId).add(new ArrayList<Sim>((int)(expectedInitialNumberOfAdultSims / (double)numberOfNbhds)));		//No need to include default load factor in denominator here, as the number of parent sims will be substantially less than the adult population size due to older sims being unable to still have parent-child links (i.e. any sims they gave birth to are now adults).  
-				}
-			}
-			
-			int maxParentAge = maxAgeToReproduce + maxYearsOfEducation - 1;		//If maxAgeToReproduce = 40 and maxYearsOfEducation = 20, then maxParentAge = 59 (at age 60, the child-parent link should have been broken as child has broken the links when they finish education at some age up to maxYearsOfEducation)
-			HashMap<Integer, Integer> minPotentialChildAge = new HashMap<Integer, Integer>(maxParentAge + 1 - minAgeToReproduce);
-			HashMap<Integer, Integer> maxPotentialChildAge = new HashMap<Integer, Integer>(maxParentAge + 1 - minAgeToReproduce);
-			for(int parentAge = minAgeToReproduce; parentAge <= maxParentAge; parentAge++) {
-				minPotentialChildAge.put(parentAge, Math.max(0, parentAge - maxAgeToReproduce));			//Bounded as parent is too old for any children younger than this		
-				maxPotentialChildAge.put(parentAge, Math.min(maxYearsOfEducation - 1, parentAge - minAgeToReproduce));		//Bounded as parent is too young for any children older than this 
+		}
+		if(isLoadingInitialPopulation()) {
+			File file = new File(initialPopulationFile.trim());
+			System.out.println("Loading initial population from " + file + ".  Note that the 'Starting population size' model parameter will have no effect!");
+			try {
+				int numberOfSims = new InitialPopulationLoader(this).load(file, getNumberOfAgents());
+				System.out.println("Loaded " + numberOfSims + " Sims" + (representationWeight > 1 ? " of weight " + representationWeight : ""));
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to load the initial population from " + file, e);
 			}
-			
-		//Create starting population
-			for(int i=0; i < startingPopulationSize; i++) {
-				Sim initialSim = new Sim((Sim.simIdCounter)++);			 
-				initialSim.configureInitialSimPropertiesAndSchedule();			//Birth'day's (birthTimestamps) are randomly uniformly distributed across year
-				sims.add(initialSim);
-				int initialSimAge = initialSim.getAge();
-				int initialSimNbhdId = initialSim.getNbhdId();
-				//The THIM paper specifies to find parents for all sims aged < minAgeToReproduce, however this is inconsistent with the idea that Sims can move nbhd and earn an income when their age reaches yearsInEducation.  The only impact child-parent links have is to force the child to move when the parent moves, so why maintain child-parent links that would not be maintained during the simulation?  Surely it is better to only look for child-parent links for sims that are still in education!  This is our approach here.  
-				if(initialSimAge < initialSim.getYearsInEducation()) {		//If true, initial Sim is a child, so need to establish link with a parent (TODO: do we restrict this to only Sims in the same nbhd, or force the child sim to move to the nbhd where a parent is found?).
-					childSimsLookingForAParent.add(initialSim);
-				}
-				else if( (initialSimAge <= maxParentAge) && (initialSimAge >= minAgeToReproduce) )	{	//A candidate parent - note that it is possible for a parent to have child-parent links up to (and including) the age of maxYearsOfEducation + maxAgeToReproduce - 1, as the sim could be at maxAgeToReproduce when they give birth to a Sim whose yearsInEducation = maxYearsOfEducation 
-					
-					for(int potentialChildAge = minPotentialChildAge.get(initialSimAge); potentialChildAge <= maxPotentialChildAge.get(initialSimAge); potentialChildAge++) {
-						potentialParents.get(initialSimNbhdId).get(potentialChildAge).add(initialSim);
-					}
-				}
+		}
+		else new InitialPopulationBuilder(this).build(getNumberOfAgents(), parallelBuild || workerExchange != null);		//A worker builds the Sims of its own nbhds only, which needs the parallel build
+		if(shards != null) {
+			for(ShardSimContext shard : shards) {
+				shard.getQueue().restoreOrder();
 			}
-			
-		//Establish parent-child links - there are two differences from example suggested in THIM paper:
-			//1) Allows for parent to have more than one child born in same year (just like in the simulation - so no inconsistency!)
-			//2) It is possible (though unlikely for sizable populations) that there is no potential parent in the same nbhd of an appropriate age for the child.  In this case, we assume the parent has already died and the child is an orphan - which is possible during the simulation, though precluded in the model initialisation implementation suggested in the THIM paper.
-			for(Sim child : childSimsLookingForAParent) {	
-				if(!potentialParents.get(child.getNbhdId()).get(child.getAge()).isEmpty()) {
-					Sim parent = RegressionUtils.event(potentialParents.get(child.getNbhdId()).get(child.getAge()), SimulationEngine.getRnd());		//Randomly samples a parent over the space of all possible parents in the same nbhd as the child sim and of an appropriate age (i.e. minAgeToReproduce <= parent age - child age < maxAgeToReproduce).  If no potential parents exist, the child is an orphan.
-					child.setParent(parent);
-					parent.getChildSims().add(child);
-				}
-//				else System.out.println("Child " + child.getId().getId() + " in nbhd ," + child.getNbhdId() + ", with age, " + child.getAge() + ", is an orphan!");
-			}		
-//		}
+		}
 			
 		calculateFertilityHazard();		//Need to calculate Fertility rate once mortality rates have been loaded in
 
 		//For output tables
 		ageBinInterval = (double)Parameters.getMaxAge() / numAgeBinsInTables.doubleValue();		//For output tables, to calculate the size of the age bins
 		stats.initialiseStatisticsArrays();			//Set elements in arrays in statistics class to zero
+		
+		if(printMemoryReport) {
+			long reportStartTime = System.currentTimeMillis();
+			String memoryReport = new SimMemoryReport(this, heapBeforeBuild).toString();
+			log.info(memoryReport);
+			System.out.println(memoryReport);
+			elapsedTime += System.currentTimeMillis() - reportStartTime;			//Exclude the report's garbage collections from the build time
+		}
 				
 	}
 
@@ -237,12 +298,23 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		
 		getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.ResetTimer), 0., Order.BEFORE_ALL.getOrdering());			//Start timer 
 		
-		stats.updateStatistics(); 			//Call now before start of simulation so that the statistics exist for inital agent initialisation and process scheduling.
+		if(workerExchange != null) {			//Each worker only holds the Sims of its own shards
+			stats.accumulateStatistics();
+			exchangeWithOtherWorkers();
+			stats.deriveStatistics();
+		}
+		else stats.updateStatistics(); 			//Call now before start of simulation so that the statistics exist for inital agent initialisation and process scheduling.
 		getEngine().getEventQueue().scheduleRepeat(new SingleTargetEvent(this, Processes.UpdateStatistics), 1., Order.BEFORE_ALL.getOrdering(), 1.);  //Events repeated every year just before the start of the New Year
 
 		getEngine().getEventQueue().scheduleOnce(new SingleTargetEvent(this, Processes.Stop), endYear, Order.AFTER_ALL.getOrdering());
 		
-		long timeToCompleteBuild = System.currentTimeMillis() - elapsedTime;
+		if(shards != null) {
+			for(ShardSimContext shard : shards) {
+				shard.startParallelRun(SimulationEngine.getRnd().nextLong());		//Seeds drawn in shard order, so that runs are reproducible for a fixed seed and number of shards
+			}
+		}
+		
+		timeToCompleteBuild = System.currentTimeMillis() - elapsedTime;
 		log.info("Build completed.  Time taken is " + timeToCompleteBuild + "ms.");
 		System.out.println("Build completed.  Time taken is " + timeToCompleteBuild + "ms.");
 
@@ -262,15 +334,43 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		switch ((Processes) type) {
 		
 		case UpdateStatistics:
-			stats.updateStatistics();
+			if(shards != null) {
+				runShards(getEngine().getTime());		//Simulate the year that has just ended before updating the statistics for the next one
+			}
+			if(workerExchange != null) {
+				stats.accumulateStatistics();
+				exchangeWithOtherWorkers();
+				stats.deriveStatistics();
+			}
+			else stats.updateStatistics();
+			if(hybridChildCohorts) {
+				for(SimContext context : contexts) {
+					context.getChildCohorts().advance(getEngine().getTime());		//After the statistics, which count the children at their ages at the start of the year
+				}
+			}
 			break;
 		case ResetTimer:
 			elapsedTime = System.currentTimeMillis();		//Update elapsedTime.
 			break;
 		case Stop:
-			long timeToComplete = System.currentTimeMillis() - elapsedTime;
-			log.info("Model completed.  Time taken to run simulation is " + timeToComplete + "ms.");
-			System.out.println("Model completed.  Time taken to run simulation is " + timeToComplete + "ms.");
+			timeToCompleteRun = System.currentTimeMillis() - elapsedTime;
+			if(shardExecutor != null) {
+				shardExecutor.shutdown();
+				shardExecutor = null;
+			}
+			if(stateDigest != null) {
+				stateDigest.close();
+				stateDigest = null;
+			}
+			if(workerExchange != null) {
+				try {
+					workerExchange.close();
+				} catch (IOException e) {
+					log.warn("Failed to close the connection to the coordinator", e);
+				}
+			}
+			log.info("Model completed.  Time taken to run simulation is " + timeToCompleteRun + "ms.");
+			System.out.println("Model completed.  Time taken to run simulation is " + timeToCompleteRun + "ms.");
 
 			if(microsimShellUse) {
 //				getEngine().pause();
@@ -314,6 +414,9 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		else if (minHealthIndex < 0) {
 			abortSimulation();				//Sims cannot have negative healthIndex
 		}
+		else if (representationWeight < 1) {
+			abortSimulation();
+		}
 	}
 	
 	private void abortSimulation() {
@@ -349,13 +452,259 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	}
 	
 	public boolean removeSim(Sim sim) {		
-		return sims.remove(sim);
+		return sim.getContext().getPopulation().remove(sim);
+	}
+
+	private void openStateDigest() {
+		if(stateDigest != null) {
+			stateDigest.close();		//When the model is rebuilt
+			stateDigest = null;
+		}
+		if(writeStateDigest) {
+			File directory = new File("JASmine_THIM_Results");
+			directory.mkdirs();
+			String suffix = workerExchange != null ? "_worker" + workerExchange.getWorkerIndex() + "_" : "";
+			int version = 1;
+			File file = new File(directory, "StateDigest" + suffix + version + ".csv");
+			while(file.exists()) {
+				version++;
+				file = new File(directory, "StateDigest" + suffix + version + ".csv");
+			}
+			try {
+				stateDigest = new StateDigest(file);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to create the state digest file " + file.getPath(), e);
+			}
+			System.out.println("Writing state digests to " + file.getPath());
+		}
+	}
+
+	private void closeSimStore() {
+		if(StoredSim.getStore() != null) {
+			try {
+				StoredSim.getStore().close();
+			} catch (IOException e) {
+				log.warn("Failed to close the store of Sim state", e);
+			}
+			StoredSim.setStore(null);
+		}
+	}
+
+	public SimContext getContext(int nbhdId) {
+		return contextOfNbhd[nbhdId];
+	}
+
+	private void buildContexts(int numberOfNbhds) {
+		int populationCapacity = (int)(getNumberOfAgents() * 1.1);		//Population size fluctuates around the starting size, so allow some headroom before the slot arrays have to grow
+		contextOfNbhd = new SimContext[numberOfNbhds];
+		if(shardExecutor != null) {
+			shardExecutor.shutdownNow();
+			shardExecutor = null;
+		}
+		if(workerExchange != null && engineMode == EngineMode.EventQueue) {
+			throw new IllegalArgumentException("Distributed runs require the Sharded or Annual engine mode");
+		}
+		if(workerExchange != null && hybridChildCohorts) {
+			throw new IllegalArgumentException("Distributed runs do not support the hybrid mode, as child cohorts are not exchanged between workers");
+		}
+		if(engineMode != EngineMode.EventQueue) {
+			int n = Math.max(1, Math.min(numberOfShards, numberOfNbhds));
+			if(workerExchange != null && n < workerExchange.getNumberOfWorkers()) {
+				throw new IllegalArgumentException("Distributed runs need at least one shard per worker, but there are " + n + " shards for " + workerExchange.getNumberOfWorkers() + " workers");
+			}
+			populations = new SimPopulation[n];
+			shards = new ShardSimContext[n];
+			for(int s = 0; s < n; s++) {
+				populations[s] = new SimPopulation(populationCapacity / n);
+				shards[s] = new ShardSimContext(this, s, n, populations[s], 3 * populationCapacity / n, engineMode == EngineMode.Annual);		//Each Sim has a yearly event (except in the Annual engine mode) and usually one or two one-off events scheduled
+			}
+			for(int nbhdId = 0; nbhdId < numberOfNbhds; nbhdId++) {
+				contextOfNbhd[nbhdId] = shards[(int)((long)nbhdId * n / numberOfNbhds)];		//Contiguous ranges of nbhds
+			}
+			shardExecutor = Executors.newFixedThreadPool(n, new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "THIM shard");
+					thread.setDaemon(true);		//So that an unfinished run does not prevent the JVM from exiting
+					return thread;
+				}
+			});
+			sims = new AllSims(populations);
+			contexts = shards;
+		}
+		else {
+			populations = new SimPopulation[] { new SimPopulation(populationCapacity) };
+			shards = null;
+			Arrays.fill(contextOfNbhd, new EngineSimContext(this, populations[0]));
+			sims = populations[0];
+			contexts = new SimContext[] { contextOfNbhd[0] };
+		}
+	}
+
+	private void runShards(final double endTime) {		//Runs every shard up to endTime in parallel, then applies the interactions between shards in shard order
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(shards.length);
+		for(final ShardSimContext shard : shards) {
+			if(isLocal(shard)) {
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						shard.runUntil(endTime);
+						return null;
+					}
+				});
+			}
+		}
+		try {
+			for(Future<Void> result : shardExecutor.invokeAll(tasks)) {
+				result.get();			//Rethrows any exception thrown by a shard
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while running the shards up to time " + endTime, e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Shard failed before time " + endTime, e.getCause());
+		}
+		
+		boolean[] hasEmigrants = new boolean[shards.length];
+		for(int s = 0; s < shards.length; s++) {
+			shards[s].flushDeaths(stats);
+			shards[s].flushEventCounts(simEventCounts);
+		}
+		for(int s = 0; s < shards.length; s++) {
+			hasEmigrants[s] = shards[s].applyMigrations();
+		}
+		for(int s = 0; s < shards.length; s++) {
+			if(hasEmigrants[s]) {
+				shards[s].getQueue().transferMigrants(shards[s], this);		//Events of the Sims that have left follow them to their new shard
+			}
+		}
+	}
+
+	private boolean isLocal(ShardSimContext shard) {
+		return workerExchange == null || getWorkerOfShard(shard.getShardIndex()) == workerExchange.getWorkerIndex();
+	}
+
+	protected boolean isLocalNbhd(int nbhdId) {		//Whether the Sims of the nbhd are simulated by this process
+		return workerExchange == null || isLocal((ShardSimContext) contextOfNbhd[nbhdId]);
+	}
+
+	private int getWorkerOfShard(int shardIndex) {		//Contiguous ranges of shards
+		return (int)((long)shardIndex * workerExchange.getNumberOfWorkers() / shards.length);
+	}
+
+	//All-reduces the statistics sums between workers, and moves the Sims that moved to shards of other workers this year to their new workers
+	private void exchangeWithOtherWorkers() {
+		int numberOfWorkers = workerExchange.getNumberOfWorkers();
+		try {
+			ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[numberOfWorkers];
+			DataOutputStream[] outs = new DataOutputStream[numberOfWorkers];
+			for(ShardSimContext shard : shards) {
+				if(!isLocal(shard) && !shard.getPopulation().isEmpty()) {
+					int worker = getWorkerOfShard(shard.getShardIndex());
+					if(outs[worker] == null) {
+						buffers[worker] = new ByteArrayOutputStream();
+						outs[worker] = new DataOutputStream(buffers[worker]);
+					}
+					shard.writeEmigrants(outs[worker]);
+				}
+			}
+			byte[][] emigrants = new byte[numberOfWorkers][];
+			for(int worker = 0; worker < numberOfWorkers; worker++) {
+				if(outs[worker] != null) {
+					outs[worker].flush();
+					emigrants[worker] = buffers[worker].toByteArray();
+				}
+				else emigrants[worker] = new byte[0];
+			}
+			
+			double[] sums = stats.getReducibleSums();
+			byte[][] immigrants = workerExchange.exchange(sums, emigrants);
+			stats.setReducibleSums(sums);
+			
+			for(byte[] batch : immigrants) {			//In worker order, so that every run with the same seed and number of workers is the same
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+				while(in.available() > 0) {
+					shards[in.readInt()].readImmigrants(in);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Exchange with the other workers failed at time " + getEngine().getTime(), e);
+		}
+	}
+
+	//Adds up the sums behind the output tables over the workers in a last round of the exchange, so that every worker then holds those of the whole population (see Statistics#getOutputTableSums())
+	public void reduceOutputTableSums() {
+		double[] sums = stats.getOutputTableSums();
+		try {
+			workerExchange.exchange(sums, new byte[workerExchange.getNumberOfWorkers()][0]);
+		} catch (IOException e) {
+			throw new RuntimeException("Reducing the output table sums with the other workers failed", e);
+		}
+		stats.setOutputTableSums(sums);
+	}
+
+	//Read-only view of the Sims over the populations of every shard, in shard order
+	private static class AllSims extends AbstractCollection<Sim> {
+
+		private final SimPopulation[] populations;
+
+		AllSims(SimPopulation[] populations) {
+			this.populations = populations;
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for(SimPopulation population : populations) {
+				size += population.size();
+			}
+			return size;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			for(SimPopulation population : populations) {
+				if(population.contains(o)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Iterator<Sim> iterator() {
+			return new Iterator<Sim>() {
+
+				private int population = 0;
+				private Iterator<Sim> current = populations[0].iterator();
+
+				public boolean hasNext() {
+					while(!current.hasNext() && population + 1 < populations.length) {
+						current = populations[++population].iterator();
+					}
+					return current.hasNext();
+				}
+
+				public Sim next() {
+					if(!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return current.next();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("Sims are removed from the population of their context");
+				}
+			};
+		}
 	}
 
 	public Nbhd getNbhd(int nbhdId) {			
 		return nbhds.get(nbhdId);
 	}
 
+	protected void countSimEvent(Sim.Processes type) {		//Called by every Sim event, so kept to an array increment
+		simEventCounts[type.ordinal()]++;
+	}
+
 	
 
 	///////////////////////////////////////////////////////////////
@@ -363,9 +712,15 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 	///////////////////////////////////////////////////////////////
 
 
-	public Set<Sim> getSims() {
+	public Collection<Sim> getSims() {
 		return sims;
 	}
+	protected SimPopulation[] getPopulations() {
+		return populations;
+	}
+	protected SimContext[] getContexts() {
+		return contexts;
+	}
 	public List<Nbhd> getNbhds() {
 		return nbhds;
 	}
@@ -410,6 +765,10 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		return stats;
 	}
 
+	public CompiledParameters getCompiledParameters() {
+		return compiledParameters;
+	}
+
 	public CityType getCityType() {
 		return cityType;
 	}
@@ -422,6 +781,18 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		return startingPopulationSize;
 	}
 
+	public Integer getRepresentationWeight() {
+		return representationWeight;
+	}
+
+	public void setRepresentationWeight(Integer representationWeight) {
+		this.representationWeight = representationWeight;
+	}
+
+	public int getNumberOfAgents() {			//The number of Sims in the initial population
+		return Math.max(1, (int) Math.round(startingPopulationSize.doubleValue() / representationWeight.doubleValue()));
+	}
+
 	public Boolean getFixRandomSeed() {
 		return fixRandomSeed;
 	}
@@ -442,14 +813,17 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		this.endYear = endYear;
 	}
 
-//	public Boolean getLoadInitialPopulationFromDatabase() {
-//		return loadInitialPopulationFromDatabase;
-//	}
-//	
-//	public void setLoadInitialPopulationFromDatabase(
-//			Boolean loadInitialPopulationFromDatabase) {
-//		this.loadInitialPopulationFromDatabase = loadInitialPopulationFromDatabase;
-//	}
+	public String getInitialPopulationFile() {
+		return initialPopulationFile;
+	}
+
+	public void setInitialPopulationFile(String initialPopulationFile) {
+		this.initialPopulationFile = initialPopulationFile;
+	}
+
+	public boolean isLoadingInitialPopulation() {
+		return initialPopulationFile != null && !initialPopulationFile.trim().isEmpty();
+	}
 
 	public void setStartingPopulationSize(Integer startingPopulationSize) {
 		this.startingPopulationSize = startingPopulationSize;
@@ -507,6 +881,18 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		return elapsedTime;
 	}
 
+	public long getTimeToCompleteBuild() {
+		return timeToCompleteBuild;
+	}
+
+	public long getTimeToCompleteRun() {
+		return timeToCompleteRun;
+	}
+
+	public long[] getSimEventCounts() {
+		return simEventCounts;
+	}
+
 	public static Logger getLog() {
 		return log;
 	}
@@ -527,6 +913,110 @@ public class THIMModel extends AbstractSimulationManager implements EventListene
 		this.numAgeBinsInTables = numAgeBinsInTables;
 	}
 
+	public Boolean getPrintMemoryReport() {
+		return printMemoryReport;
+	}
+
+	public void setPrintMemoryReport(Boolean printMemoryReport) {
+		this.printMemoryReport = printMemoryReport;
+	}
+
+	public Boolean getHybridChildCohorts() {
+		return hybridChildCohorts;
+	}
+
+	public void setHybridChildCohorts(Boolean hybridChildCohorts) {
+		this.hybridChildCohorts = hybridChildCohorts;
+	}
+
+	public MathMode getMathMode() {
+		return mathMode;
+	}
+
+	public void setMathMode(MathMode mathMode) {
+		this.mathMode = mathMode;
+	}
+
+	public Boolean getZigguratSampling() {
+		return zigguratSampling;
+	}
+
+	public void setZigguratSampling(Boolean zigguratSampling) {
+		this.zigguratSampling = zigguratSampling;
+	}
+
+	public Boolean getCommonRandomNumbers() {
+		return commonRandomNumbers;
+	}
+
+	public void setCommonRandomNumbers(Boolean commonRandomNumbers) {
+		this.commonRandomNumbers = commonRandomNumbers;
+	}
+
+	public long getRunSeed() {
+		return runSeed;
+	}
+
+	public StateDigest getStateDigest() {
+		return stateDigest;
+	}
+
+	public Boolean getWriteStateDigest() {
+		return writeStateDigest;
+	}
+
+	public void setWriteStateDigest(Boolean writeStateDigest) {
+		this.writeStateDigest = writeStateDigest;
+	}
+
+	public WorkerExchange getWorkerExchange() {
+		return workerExchange;
+	}
+
+	public void setWorkerExchange(WorkerExchange workerExchange) {		//To be set before the model is built
+		this.workerExchange = workerExchange;
+	}
+
+	public EngineMode getEngineMode() {
+		return engineMode;
+	}
+
+	public void setEngineMode(EngineMode engineMode) {
+		this.engineMode = engineMode;
+	}
+
+	public Boolean getBatchYearlyEvents() {
+		return batchYearlyEvents;
+	}
+
+	public void setBatchYearlyEvents(Boolean batchYearlyEvents) {
+		this.batchYearlyEvents = batchYearlyEvents;
+	}
+
+	public SimStorage getSimStorage() {
+		return simStorage;
+	}
+
+	public void setSimStorage(SimStorage simStorage) {
+		this.simStorage = simStorage;
+	}
+
+	public Integer getNumberOfShards() {
+		return numberOfShards;
+	}
+
+	public void setNumberOfShards(Integer numberOfShards) {
+		this.numberOfShards = numberOfShards;
+	}
+
+	public Boolean getParallelBuild() {
+		return parallelBuild;
+	}
+
+	public void setParallelBuild(Boolean parallelBuild) {
+		this.parallelBuild = parallelBuild;
+	}
+
 	public double getAgeBinInterval() {
 		return ageBinInterval;
 	}
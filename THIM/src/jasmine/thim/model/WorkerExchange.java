@@ -0,0 +1,31 @@
+package jasmine.thim.model;
+
+import java.io.IOException;
+
+/**
+ * 
+ * The link from a worker process to the coordinator of a distributed run, in which each worker simulates the Sims of
+ * its own shards (see THIMModel#setWorkerExchange(WorkerExchange)).  Called once a year, at the UpdateStatistics
+ * barrier.
+ *
+ */
+public interface WorkerExchange {
+
+	int getWorkerIndex();
+
+	int getNumberOfWorkers();
+
+	/**
+	 * 
+	 * Sends this worker's statistics sums and emigrants, and waits for the other workers.  On return, sums holds the
+	 * element-wise total over all workers, and the returned array holds the emigrants sent to this worker by each
+	 * worker (empty for this worker itself).
+	 * 
+	 * @param sums - see Statistics#getReducibleSums()
+	 * @param emigrants - indexed by destination worker
+	 */
+	byte[][] exchange(double[] sums, byte[][] emigrants) throws IOException;
+
+	void close() throws IOException;
+
+}
@@ -0,0 +1,168 @@
+package jasmine.thim.model;
+
+import jasmine.thim.algorithms.ZigguratSampler;
+import microsim.statistics.regression.RegressionUtils;
+
+/**
+ *
+ * The yearly events of a batch of Sims, for the sweep of the Annual engine mode (see THIMModel#batchYearlyEvents).
+ * The state that ageing, updateIncome and updateHealth read is gathered from the Sims into primitive arrays, and the
+ * random numbers of the whole batch are drawn first, so the updates themselves are loops of plain arithmetic over the
+ * arrays: no calls, field lookups or branches other than selects, which the JIT compiler can unroll and vectorise.
+ * The results are then written back, and considerDeath and considerLocation, which schedule events and move Sims,
+ * are called one Sim at a time as before.
+ *
+ * Each Sim's draws come from the same streams as in Sim#updateIncome and Sim#updateHealth, so with common random
+ * numbers a Sim draws the same numbers as when its yearly events are fired one at a time.  Otherwise the draws of the
+ * batch are interleaved differently with the mortality and location draws, so results are statistically equivalent.
+ *
+ */
+public class YearlyEventsBatch {
+
+	protected static final int CAPACITY = 1024;		//The arrays of a batch (about 100 bytes per Sim) stay in the L2 cache
+
+	private final ShardSimContext context;
+
+	private final Sim[] sims = new Sim[CAPACITY];
+
+	private final double[] times = new double[CAPACITY];
+
+	private final int[] ages = new int[CAPACITY];
+
+	private final int[] yearsInEducation = new int[CAPACITY];
+
+	private final double[] incomeBases = new double[CAPACITY];
+
+	private final double[] incomeProfiles = new double[CAPACITY];		//The avgIncomeForAge of each Sim's new age
+
+	private final double[] incomes = new double[CAPACITY];
+
+	private final double[] cumulativeIncomes = new double[CAPACITY];
+
+	private final double[] healthIndices = new double[CAPACITY];
+
+	private final double[] cumulativeHealthIndices = new double[CAPACITY];
+
+	private final double[] normals = new double[CAPACITY];			//Standard normal draws of updateIncome, not used for Sims in education
+
+	private final double[] healthDeltas = new double[CAPACITY];		//hDeltaRand of updateHealth
+
+	private final double[] logIncomes = new double[CAPACITY];		//Only in the log-domain math modes
+
+	private final double[] logIncomeRatios = new double[CAPACITY];		//log(income / avgAdultIncomeNearAge), or zero where updateHealth ignores income
+
+	private int size = 0;
+
+	protected YearlyEventsBatch(ShardSimContext context) {
+		this.context = context;
+	}
+
+	//Returns whether the batch is full and must be processed before more Sims are added
+	protected boolean add(Sim sim, double time) {
+		sims[size] = sim;
+		times[size] = time;
+		size++;
+		return size == CAPACITY;
+	}
+
+	protected void process(THIMModel model) {
+		if(size == 0) {
+			return;
+		}
+		CompiledParameters parameters = model.getCompiledParameters();
+		gather(parameters);
+		drawRandomNumbers(model, parameters);
+		updateIncome(size, ages, yearsInEducation, incomeBases, incomeProfiles, normals, parameters.getYSigma(), incomes, cumulativeIncomes);
+		for(int i = 0; i < size; i++) {
+			if(incomes[i] <= 0 && ages[i] >= yearsInEducation[i]) {
+				throw new RuntimeException("Income is not positive!");
+			}
+		}
+		calculateLogIncomeRatios(model.getStats(), parameters);
+		updateHealth(size, ages, healthDeltas, logIncomeRatios, parameters.getHIncParm(), parameters.getMaxAge(), parameters.getMinHealthIndex(), parameters.getMaxHealthIndex(), healthIndices, cumulativeHealthIndices);
+		for(int i = 0; i < size; i++) {
+			sims[i].setYearlyState(ages[i], incomes[i], logIncomes[i], cumulativeIncomes[i], healthIndices[i], cumulativeHealthIndices[i]);
+		}
+		for(int i = 0; i < size; i++) {
+			context.setTime(times[i]);
+			sims[i].considerDeath();
+			sims[i].considerLocation();
+			sims[i] = null;
+		}
+		size = 0;
+	}
+
+	private void gather(CompiledParameters parameters) {
+		double[] ageIncomeProfile = parameters.getAgeIncomeProfile();
+		for(int i = 0; i < size; i++) {
+			Sim sim = sims[i];
+			ages[i] = sim.getAge() + 1;				//Ageing
+			yearsInEducation[i] = sim.getYearsInEducation();
+			incomeBases[i] = sim.getIncomeBase();
+			incomeProfiles[i] = ageIncomeProfile[ages[i]];
+			incomes[i] = sim.getIncome();
+			cumulativeIncomes[i] = sim.getCumulativeIncome();
+			healthIndices[i] = sim.getHealthIndex();
+			cumulativeHealthIndices[i] = sim.getCumulativeHealthIndex();
+		}
+	}
+
+	private void drawRandomNumbers(THIMModel model, CompiledParameters parameters) {			//In the order of Sim#updateIncome and Sim#updateHealth
+		boolean bulkNormals = model.getZigguratSampling() && !model.getCommonRandomNumbers();
+		if(bulkNormals) {
+			ZigguratSampler.fillGaussian(context.getRandom(), normals, size);		//Also for the Sims in education, whose draws updateIncome ignores
+		}
+		for(int i = 0; i < size; i++) {
+			context.setTime(times[i]);
+			if(!bulkNormals) {
+				if(ages[i] >= yearsInEducation[i]) {
+					context.startRandomStream(sims[i], Sim.RandomStreams.Income);
+					normals[i] = context.getStandardNormal().nextDouble();
+				}
+				else normals[i] = 0.;
+			}
+			context.startRandomStream(sims[i], Sim.RandomStreams.Health);
+			healthDeltas[i] = RegressionUtils.eventPiecewiseConstant(parameters.getHealthDeltaEvents(), parameters.getHealthDeltaProbs(), context.getRandom());
+		}
+	}
+
+	private void calculateLogIncomeRatios(Statistics stats, CompiledParameters parameters) {
+		int minAgeForIncomeEffect = parameters.getMinAgeForIncomeEffect();		//As in Sim#updateHealth
+		boolean logDomain = parameters.isLogDomain();
+		for(int i = 0; i < size; i++) {
+			if(logDomain) {
+				logIncomes[i] = Sim.logOf(incomes[i]);
+			}
+			logIncomeRatios[i] = 0.;
+			if(incomes[i] > 0 && ages[i] >= minAgeForIncomeEffect) {
+				double avgAdultIncomeNearAge = stats.getAvgAdultIncomeNearAge(ages[i]);
+				if(avgAdultIncomeNearAge > 0.) {
+					logIncomeRatios[i] = logDomain ? logIncomes[i] - stats.getLogAvgAdultIncomeNearAge(ages[i]) : Math.log(incomes[i] / avgAdultIncomeNearAge);
+				}
+			}
+		}
+	}
+
+	//Sim#updateIncome for n Sims, once ageing has incremented their ages
+	protected static void updateIncome(int n, int[] ages, int[] yearsInEducation, double[] incomeBases, double[] incomeProfiles, double[] normals, double ySigma,
+			double[] incomes, double[] cumulativeIncomes) {
+		for(int i = 0; i < n; i++) {
+			double income = incomeBases[i] * incomeProfiles[i] * Math.exp(normals[i] * ySigma);
+			boolean earning = ages[i] >= yearsInEducation[i];
+			incomes[i] = earning ? income : incomes[i];
+			cumulativeIncomes[i] += earning ? income : 0.;
+		}
+	}
+
+	//Sim#updateHealth for n Sims, given their draws of hDeltaRand and log(income / avgAdultIncomeNearAge)
+	protected static void updateHealth(int n, int[] ages, double[] healthDeltas, double[] logIncomeRatios, double hIncParm, int maxAge, double minHealthIndex, double maxHealthIndex,
+			double[] healthIndices, double[] cumulativeHealthIndices) {
+		for(int i = 0; i < n; i++) {
+			double healthIndex = healthIndices[i] + (hIncParm * logIncomeRatios[i] + healthDeltas[i]) * (ages[i] / (double)maxAge);
+			healthIndex = healthIndex > maxHealthIndex ? maxHealthIndex : (healthIndex < minHealthIndex ? minHealthIndex : healthIndex);
+			healthIndices[i] = healthIndex;
+			cumulativeHealthIndices[i] += healthIndex;
+		}
+	}
+
+}
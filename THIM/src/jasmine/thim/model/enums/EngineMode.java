@@ -0,0 +1,7 @@
+package jasmine.thim.model.enums;
+
+public enum EngineMode {
+	EventQueue,					//All Sim events are scheduled in the JAS-mine engine's event queue (the reference implementation)
+	Sharded,					//Nbhds are partitioned into shards, each with its own event queue and worker thread, synchronised once a year
+	Annual,						//As Sharded, but the yearly events of the Sims are processed in a sweep over each shard's population, so only one-off events go through the event queues
+}
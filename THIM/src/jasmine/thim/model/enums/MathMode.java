@@ -0,0 +1,7 @@
+package jasmine.thim.model.enums;
+
+public enum MathMode {
+	Exact,						//The income and health effects are evaluated with Math.pow and Math.log, as in the reference implementation
+	LogDomain,					//The effects are sums of logs cached by Statistics and by each Sim when its income is set, with one exp per Sim in place of the pow calls
+	FastLogDomain,				//As LogDomain, with the per-Sim logs evaluated by FastLog, whose error is within one ulp of Math.log
+}
@@ -0,0 +1,7 @@
+package jasmine.thim.model.enums;
+
+public enum SimStorage {
+	Heap,						//Sim state in the fields of the Sim objects, on the Java heap
+	OffHeap,					//Sim state records in direct buffers, outside the Java heap
+	MemoryMapped,				//Sim state records in a memory-mapped temporary file, so the population can exceed physical memory
+}
@@ -0,0 +1,52 @@
+package jasmine.thim.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests FastLog#log against Math.log on NUMBER_OF_VALUES random arguments from a fixed seed, spread over the whole range of
+ * normal doubles, and on as many arguments close to 1, where the result is small.  The error must be within the bound
+ * documented in FastLog (one ulp of the result plus 1e-15).
+ */
+public class FastLogTest {
+
+	private static final int NUMBER_OF_VALUES = 1000000;
+
+	private static final long SEED = 1;
+
+	@Test
+	public void allNormalArguments() {
+		Random random = new Random(SEED);
+		for(int i = 0; i < NUMBER_OF_VALUES; i++) {
+			assertWithinBound(Math.exp((random.nextDouble() * 2. - 1.) * 708.));
+		}
+	}
+
+	@Test
+	public void argumentsNearOne() {
+		Random random = new Random(SEED);
+		for(int i = 0; i < NUMBER_OF_VALUES; i++) {
+			assertWithinBound(1. + (random.nextDouble() - 0.5) * 1e-3);
+		}
+	}
+
+	@Test
+	public void specialArguments() {
+		for(double x : new double[]{0., -1., Double.MIN_VALUE, Double.POSITIVE_INFINITY, Double.NaN}) {
+			assertEquals("log(" + x + ")", Math.log(x), FastLog.log(x), 0.);
+		}
+	}
+
+	private static void assertWithinBound(double x) {
+		double exact = Math.log(x);
+		double error = Math.abs(FastLog.log(x) - exact);
+		if(error > Math.ulp(exact) + 1e-15) {
+			fail("log(" + x + ") = " + FastLog.log(x) + " instead of " + exact);
+		}
+	}
+
+}
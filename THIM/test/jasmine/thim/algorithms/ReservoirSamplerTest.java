@@ -0,0 +1,155 @@
+package jasmine.thim.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the panel-consistent samples of ReservoirSampler, where members are reused for new members of the population
+ * as Sims are by SimFactory.
+ */
+public class ReservoirSamplerTest {
+
+	private static final int POPULATION_SIZE = 1000;
+
+	private static final int SAMPLE_SIZE = 100;
+
+	private static class Member {
+
+		private long id;
+
+		private boolean isDead = false;
+
+		private Member(long id) {
+			this.id = id;
+		}
+
+	}
+
+	private static final ToLongFunction<Member> memberId = new ToLongFunction<Member>() {
+		public long applyAsLong(Member member) {
+			return member.id;
+		}
+	};
+
+	private static final Predicate<Member> memberIsAlive = new Predicate<Member>() {
+		public boolean test(Member member) {
+			return !member.isDead;
+		}
+	};
+
+	private List<Member> population;
+
+	private long nextId;
+
+	@Before
+	public void createPopulation() {
+		population = new ArrayList<Member>();
+		for(nextId = 1; nextId <= POPULATION_SIZE; nextId++) {
+			population.add(new Member(nextId));
+		}
+	}
+
+	@Test
+	public void panelKeepsRetainedMembers() {
+		ReservoirSampler<Member> sampler = new ReservoirSampler<Member>(true, new Random(1), memberId);
+		Set<Long> firstIds = getIds(sampler.sample(population, SAMPLE_SIZE, memberIsAlive));
+		assertEquals(SAMPLE_SIZE, firstIds.size());
+		assertEquals(firstIds, getIds(sampler.sample(population, SAMPLE_SIZE, memberIsAlive)));
+	}
+
+	@Test
+	public void panelDropsMembersReusedWithNewIds() {
+		ReservoirSampler<Member> sampler = new ReservoirSampler<Member>(true, new Random(1), memberId);
+		List<Member> first = new ArrayList<Member>(sampler.sample(population, SAMPLE_SIZE, memberIsAlive));
+		Set<Long> firstIds = getIds(first);
+		Member reused = first.get(0);			//Dies and its object is reused for a newborn, so is alive again when sampled next
+		long oldId = reused.id;
+		reused.id = nextId++;
+
+		List<Member> second = sampler.sample(population, SAMPLE_SIZE, memberIsAlive);
+		Set<Long> secondIds = getIds(second);
+		assertEquals(SAMPLE_SIZE, secondIds.size());
+		assertFalse("A member reused with a new id stays in the panel", second.contains(reused));		//It could be drawn again as a new member, but is not with this seed
+		firstIds.remove(oldId);
+		assertTrue("A retained member left the panel", secondIds.containsAll(firstIds));
+		for(Member member : second) {
+			assertTrue("The sample is not drawn from the population", population.contains(member));
+		}
+	}
+
+	@Test
+	public void panelReplacesDeadMembers() {
+		ReservoirSampler<Member> sampler = new ReservoirSampler<Member>(true, new Random(1), memberId);
+		List<Member> first = new ArrayList<Member>(sampler.sample(population, SAMPLE_SIZE, memberIsAlive));
+		Member dead = first.get(0);
+		dead.isDead = true;
+		population.remove(dead);
+
+		Set<Long> secondIds = getIds(sampler.sample(population, SAMPLE_SIZE, memberIsAlive));
+		assertEquals(SAMPLE_SIZE, secondIds.size());
+		assertFalse(secondIds.contains(dead.id));
+	}
+
+	@Test
+	public void inclusionProbabilitiesOfSimpleRandomSample() {
+		ReservoirSampler<Member> sampler = new ReservoirSampler<Member>(false, new Random(1), memberId);
+		List<Member> sample = sampler.sample(population, SAMPLE_SIZE, memberIsAlive);
+		for(int i = 0; i < sample.size(); i++) {
+			assertEquals(SAMPLE_SIZE / (double) POPULATION_SIZE, sampler.getInclusionProbability(i), 1e-15);
+		}
+	}
+
+	@Test
+	public void inclusionProbabilitiesOfPanel() {
+		ReservoirSampler<Member> sampler = new ReservoirSampler<Member>(true, new Random(1), memberId);
+		List<Member> first = new ArrayList<Member>(sampler.sample(population, SAMPLE_SIZE, memberIsAlive));
+		int numberOfDeaths = 10;
+		for(int d = 0; d < numberOfDeaths; d++) {
+			Member dead = first.get(d);
+			dead.isDead = true;
+			population.remove(dead);
+		}
+
+		List<Member> second = sampler.sample(population, SAMPLE_SIZE, memberIsAlive);
+		int retained = SAMPLE_SIZE - numberOfDeaths;
+		for(int i = 0; i < second.size(); i++) {
+			double expected = first.contains(second.get(i)) ? SAMPLE_SIZE / (double) POPULATION_SIZE		//At the original draw
+					: numberOfDeaths / (double) (population.size() - retained);			//Topping up from the population outside the panel
+			assertEquals(expected, sampler.getInclusionProbability(i), 1e-15);
+		}
+
+		double[] secondProbabilities = new double[second.size()];
+		List<Member> secondMembers = new ArrayList<Member>(second);
+		for(int i = 0; i < second.size(); i++) {
+			secondProbabilities[i] = sampler.getInclusionProbability(i);
+		}
+		List<Member> third = sampler.sample(population, SAMPLE_SIZE / 2, memberIsAlive);		//Trimmed at random, keeping each member with probability 1/2
+		assertEquals(SAMPLE_SIZE / 2, third.size());
+		for(int i = 0; i < third.size(); i++) {
+			int j = secondMembers.indexOf(third.get(i));
+			assertTrue(j >= 0);
+			assertEquals(secondProbabilities[j] / 2., sampler.getInclusionProbability(i), 1e-15);
+		}
+	}
+
+	private static Set<Long> getIds(List<Member> sample) {
+		Set<Long> ids = new HashSet<Long>();
+		for(Member member : sample) {
+			assertTrue("Member " + member.id + " is sampled twice", ids.add(member.id));
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,188 @@
+package jasmine.thim.algorithms;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
+import org.apache.commons.math.distribution.NormalDistributionImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Statistical tests of the draws of ZigguratSampler.  For the normal and the exponential sampler, NUMBER_OF_DRAWS draws
+ * from a fixed seed are tested for their moments, a chi-square test over equiprobable bins, a Kolmogorov-Smirnov test,
+ * the frequency of draws from the tail beyond the base layer (which takes a separate code path) and lag-1 serial
+ * correlation.  Each test fails if its p-value is below THRESHOLD.
+ */
+public class ZigguratSamplerTest {
+
+	private static final int NUMBER_OF_DRAWS = 1000000;
+
+	private static final long SEED = 1;
+
+	private static final double THRESHOLD = 1e-4;
+
+	private static final int NUMBER_OF_BINS = 1000;
+
+	private static final NormalDistributionImpl standardNormal = new NormalDistributionImpl(0., 1.);
+
+	private static double[] normalDraws;
+
+	private static double[] exponentialDraws;
+
+	@BeforeClass
+	public static void draw() {
+		Random random = new Random(SEED);
+		normalDraws = new double[NUMBER_OF_DRAWS];
+		ZigguratSampler.fillGaussian(random, normalDraws, NUMBER_OF_DRAWS);
+		exponentialDraws = new double[NUMBER_OF_DRAWS];
+		ZigguratSampler.fillExponential(random, exponentialDraws, NUMBER_OF_DRAWS);
+	}
+
+	@Test
+	public void normalMoments() throws MathException {
+		double[] moments = getMoments(normalDraws, 0.);
+		assertPValue("mean", getTwoSidedPValue(moments[0] * Math.sqrt(NUMBER_OF_DRAWS)));
+		assertPValue("variance", getTwoSidedPValue((moments[1] - 1.) / Math.sqrt(2. / NUMBER_OF_DRAWS)));
+		assertPValue("skewness", getTwoSidedPValue(moments[2] / Math.sqrt(6. / NUMBER_OF_DRAWS)));
+		assertPValue("kurtosis", getTwoSidedPValue((moments[3] - 3.) / Math.sqrt(24. / NUMBER_OF_DRAWS)));
+	}
+
+	@Test
+	public void normalDistribution() throws MathException {
+		double[] probabilities = new double[NUMBER_OF_DRAWS];
+		for(int i = 0; i < NUMBER_OF_DRAWS; i++) {
+			probabilities[i] = standardNormal.cumulativeProbability(normalDraws[i]);
+		}
+		assertUniform(probabilities);
+	}
+
+	@Test
+	public void normalTail() throws MathException {
+		int tailDraws = 0;
+		for(double draw : normalDraws) {
+			if(Math.abs(draw) > 3.442619855899) {
+				tailDraws++;
+			}
+		}
+		assertFrequency("tail beyond 3.4426", tailDraws, 2. * standardNormal.cumulativeProbability(-3.442619855899));
+	}
+
+	@Test
+	public void normalSerialCorrelation() throws MathException {
+		assertSerialCorrelation(normalDraws);
+	}
+
+	@Test
+	public void exponentialMoments() throws MathException {
+		double[] moments = getMoments(exponentialDraws, 1.);
+		assertPValue("mean", getTwoSidedPValue((moments[0] - 1.) * Math.sqrt(NUMBER_OF_DRAWS)));
+		assertPValue("variance", getTwoSidedPValue((moments[1] - 1.) / Math.sqrt(8. / NUMBER_OF_DRAWS)));		//The fourth central moment of the standard exponential is 9
+	}
+
+	@Test
+	public void exponentialDistribution() throws MathException {
+		double[] probabilities = new double[NUMBER_OF_DRAWS];
+		for(int i = 0; i < NUMBER_OF_DRAWS; i++) {
+			probabilities[i] = -Math.expm1(-exponentialDraws[i]);
+		}
+		assertUniform(probabilities);
+	}
+
+	@Test
+	public void exponentialTail() throws MathException {
+		int tailDraws = 0;
+		for(double draw : exponentialDraws) {
+			if(draw > 7.69711747013104972) {
+				tailDraws++;
+			}
+		}
+		assertFrequency("tail beyond 7.6971", tailDraws, Math.exp(-7.69711747013104972));
+	}
+
+	@Test
+	public void exponentialSerialCorrelation() throws MathException {
+		assertSerialCorrelation(exponentialDraws);
+	}
+
+	//Mean, then variance, skewness and kurtosis about the expected mean
+	private static double[] getMoments(double[] draws, double expectedMean) {
+		double sum = 0., sum2 = 0., sum3 = 0., sum4 = 0.;
+		for(double draw : draws) {
+			double d = draw - expectedMean;
+			double d2 = d * d;
+			sum += draw;
+			sum2 += d2;
+			sum3 += d2 * d;
+			sum4 += d2 * d2;
+		}
+		int n = draws.length;
+		double variance = sum2 / n;
+		return new double[]{sum / n, variance, (sum3 / n) / Math.pow(variance, 1.5), (sum4 / n) / (variance * variance)};
+	}
+
+	//The draws transformed by the exact CDF, which are uniform if the draws have the right distribution
+	private static void assertUniform(double[] probabilities) throws MathException {
+		long[] counts = new long[NUMBER_OF_BINS];
+		for(double probability : probabilities) {
+			counts[Math.min(NUMBER_OF_BINS - 1, (int)(probability * NUMBER_OF_BINS))]++;
+		}
+		double expected = probabilities.length / (double) NUMBER_OF_BINS;
+		double chiSquare = 0.;
+		for(long count : counts) {
+			chiSquare += (count - expected) * (count - expected) / expected;
+		}
+		assertPValue("chi-square over " + NUMBER_OF_BINS + " bins", 1. - new ChiSquaredDistributionImpl(NUMBER_OF_BINS - 1).cumulativeProbability(chiSquare));
+
+		double[] sorted = probabilities.clone();
+		Arrays.sort(sorted);
+		int n = sorted.length;
+		double d = 0.;
+		for(int i = 0; i < n; i++) {
+			d = Math.max(d, Math.max(sorted[i] - i / (double) n, (i + 1) / (double) n - sorted[i]));
+		}
+		assertPValue("Kolmogorov-Smirnov", getKolmogorovPValue(Math.sqrt(n) * d));
+	}
+
+	private static void assertFrequency(String name, int count, double probability) throws MathException {
+		double expected = NUMBER_OF_DRAWS * probability;
+		assertPValue(name, getTwoSidedPValue((count - expected) / Math.sqrt(expected * (1. - probability))));
+	}
+
+	private static void assertSerialCorrelation(double[] draws) throws MathException {
+		double mean = 0.;
+		for(double draw : draws) {
+			mean += draw;
+		}
+		mean /= draws.length;
+		double covariance = 0., variance = 0.;
+		for(int i = 0; i < draws.length; i++) {
+			double d = draws[i] - mean;
+			variance += d * d;
+			if(i > 0) {
+				covariance += d * (draws[i-1] - mean);
+			}
+		}
+		assertPValue("lag-1 correlation", getTwoSidedPValue(covariance / variance * Math.sqrt(draws.length)));
+	}
+
+	private static double getTwoSidedPValue(double z) throws MathException {
+		return 2. * standardNormal.cumulativeProbability(-Math.abs(z));
+	}
+
+	private static double getKolmogorovPValue(double x) {		//Asymptotic distribution of sqrt(n) times the KS statistic
+		double p = 0.;
+		for(int k = 1; k <= 100; k++) {
+			p += 2. * ((k % 2 == 1) ? 1. : -1.) * Math.exp(-2. * k * k * x * x);
+		}
+		return Math.max(0., Math.min(1., p));
+	}
+
+	private static void assertPValue(String test, double pValue) {
+		assertTrue(test + ": p = " + pValue + " is below " + THRESHOLD, pValue >= THRESHOLD);
+	}
+
+}
@@ -0,0 +1,109 @@
+package jasmine.thim.data.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the doubles written by CsvRowSink parse back to the same doubles, with Double.parseDouble() and with
+ * CsvRowSource, and that short values are written in the notation of Double.toString().
+ */
+public class CsvRowSinkTest {
+
+	private static final int NUMBER_OF_VALUES = 200000;
+
+	private static final long SEED = 1;
+
+	@Test
+	public void randomDoublesRoundTrip() throws IOException {
+		Random random = new Random(SEED);
+		double[] values = new double[NUMBER_OF_VALUES];
+		for(int i = 0; i < NUMBER_OF_VALUES; i++) {
+			switch(i % 4) {
+			case 0:
+				values[i] = Double.longBitsToDouble(random.nextLong());			//Over the whole range, including subnormal numbers, infinities and NaN
+				break;
+			case 1:
+				values[i] = random.nextDouble();
+				break;
+			case 2:
+				values[i] = Math.exp(random.nextGaussian() * 3. + 10.);			//Like incomes
+				break;
+			default:
+				values[i] = random.nextInt(1000) / 8.;				//Values with few digits
+			}
+		}
+		assertRoundTrip(values);
+	}
+
+	@Test
+	public void specialDoublesRoundTrip() throws IOException {
+		assertRoundTrip(new double[]{0., -0., 1., -1., 0.1, 0.1 + 0.2, 1. / 3., 2. / 3., Math.PI, 1e7, 9999999.999999998, 1e-3, 0.0009999999999999998,
+				1e22, 1e23, 1e-22, 1e-23, 9007199254740991., 9007199254740993., Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN});
+	}
+
+	@Test
+	public void shortDoublesInTheNotationOfDoubleToString() throws IOException {
+		double[] values = new double[]{0., -0., 1., 0.1, -2.5, 1234.5, 0.001, 0.000123, 1e7, 1.25e8, 6.02214076e23, 1e-5};
+		File file = write(values);
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			reader.readLine();
+			for(double value : values) {
+				assertEquals(Double.toString(value), reader.readLine());
+			}
+		} finally {
+			reader.close();
+			file.delete();
+		}
+	}
+
+	private static void assertRoundTrip(double[] values) throws IOException {
+		File file = write(values);
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				reader.readLine();
+				for(double value : values) {
+					String line = reader.readLine();
+					assertEquals(line, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(line)));
+				}
+			} finally {
+				reader.close();
+			}
+			CsvRowSource source = new CsvRowSource(file);
+			source.open();
+			try {
+				for(double value : values) {
+					source.nextRow();
+					assertEquals(Double.toString(value), Double.doubleToLongBits(value), Double.doubleToLongBits(source.getDouble(0)));
+				}
+			} finally {
+				source.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static File write(double[] values) throws IOException {
+		File file = File.createTempFile("thim-csv", ".csv");
+		CsvRowSink sink = new CsvRowSink(file);
+		sink.open("values", new String[]{"value"}, new ColumnType[]{ColumnType.DOUBLE});
+		for(double value : values) {
+			sink.beginRow();
+			sink.writeDouble(value);
+			sink.endRow();
+		}
+		sink.close();
+		return file;
+	}
+
+}
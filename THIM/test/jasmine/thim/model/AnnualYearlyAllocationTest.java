@@ -0,0 +1,20 @@
+package jasmine.thim.model;
+
+import jasmine.thim.model.enums.EngineMode;
+
+/**
+ * YearlyAllocationTest in the Annual engine mode, with the yearly events batched.
+ */
+public class AnnualYearlyAllocationTest extends YearlyAllocationTest {
+
+	@Override
+	protected EngineMode getEngineMode() {
+		return EngineMode.Annual;
+	}
+
+	@Override
+	protected boolean getBatchYearlyEvents() {
+		return true;
+	}
+
+}
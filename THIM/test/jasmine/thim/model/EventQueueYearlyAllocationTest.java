@@ -0,0 +1,20 @@
+package jasmine.thim.model;
+
+import jasmine.thim.model.enums.EngineMode;
+
+/**
+ * YearlyAllocationTest in the EventQueue engine mode.
+ */
+public class EventQueueYearlyAllocationTest extends YearlyAllocationTest {
+
+	@Override
+	protected EngineMode getEngineMode() {
+		return EngineMode.EventQueue;
+	}
+
+	@Override
+	protected boolean getBatchYearlyEvents() {
+		return false;
+	}
+
+}
@@ -0,0 +1,20 @@
+package jasmine.thim.model;
+
+import jasmine.thim.model.enums.EngineMode;
+
+/**
+ * YearlyAllocationTest in the Sharded engine mode.
+ */
+public class ShardedYearlyAllocationTest extends YearlyAllocationTest {
+
+	@Override
+	protected EngineMode getEngineMode() {
+		return EngineMode.Sharded;
+	}
+
+	@Override
+	protected boolean getBatchYearlyEvents() {
+		return false;
+	}
+
+}
@@ -0,0 +1,110 @@
+package jasmine.thim.model;
+
+import static org.junit.Assert.assertTrue;
+
+import jasmine.thim.model.enums.EngineMode;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import microsim.engine.SimulationEngine;
+import microsim.event.EventQueue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the yearly path of the Sims allocates (next to) nothing in steady state, in the engine mode of each subclass.
+ * A population of POPULATION_SIZE Sims is built from the real input/*.xls files and simulated for WARM_UP_YEARS, so that
+ * the event queues, slot arrays and pools have grown and the hot methods are compiled, then for MEASURED_YEARS, over
+ * which the bytes allocated by every thread (from the allocation counters of com.sun.management.ThreadMXBean) are
+ * divided by the number of Sim-years simulated.  The test fails if this is more than MAX_BYTES_PER_SIM_YEAR.  The bytes
+ * and births per Sim-year are printed whether it passes or not.
+ *
+ * What remains is a few objects per year for running the shards and updating the statistics, plus the newborns for
+ * which their context's SimFactory has no dead Sim to reuse, which happens while the population grows.
+ * recordDataAfterYear is set beyond the years measured, as the deaths recorded for the output tables box their counts
+ * in the lifetime income and health histogram.
+ *
+ * Each engine mode is a separate test class, which Maven runs in its own JVM (reuseForks is false), as the model is
+ * built on the SimulationEngine singleton and the allocation of one mode must not be measured on a JVM warmed up by
+ * another.  The input paths are relative, so the test runs from the THIM project directory, as Maven does.
+ */
+public abstract class YearlyAllocationTest {
+
+	private static final int POPULATION_SIZE = 50000;
+
+	private static final int WARM_UP_YEARS = 20;
+
+	private static final int MEASURED_YEARS = 10;
+
+	private static final double MAX_BYTES_PER_SIM_YEAR = 4.;
+
+	private static final int RANDOM_SEED = 0;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	@BeforeClass
+	public static void enableAllocationCounters() {
+		File cityParameters = new File("input", "city_parameters.xls");
+		assertTrue("Cannot find " + cityParameters.getAbsolutePath() + ", so the test is not running from the THIM project directory", cityParameters.isFile());
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assertTrue("This JVM does not count the bytes allocated by each thread", threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		SimulationEngine.getInstance().setTurnOffDatabaseConnection(true);
+	}
+
+	protected abstract EngineMode getEngineMode();
+
+	protected abstract boolean getBatchYearlyEvents();
+
+	@Test
+	public void yearlyAllocation() {
+		SimulationEngine engine = SimulationEngine.getInstance();
+		THIMModel model = new THIMModel();
+		engine.addSimulationManager(model);
+		model.setStartingPopulationSize(POPULATION_SIZE);
+		model.setFixRandomSeed(true);
+		model.setRandomSeedIfFixed(RANDOM_SEED);
+		model.setEngineMode(getEngineMode());
+		model.setBatchYearlyEvents(getBatchYearlyEvents());
+		model.setEndYear(WARM_UP_YEARS + MEASURED_YEARS + 1);		//The Stop event would reset the engine
+		model.setRecordDataAfterYear(WARM_UP_YEARS + MEASURED_YEARS + 1);
+		model.buildObjects();
+		model.buildSchedule();
+		EventQueue eventQueue = engine.getEventQueue();
+
+		runUntil(eventQueue, WARM_UP_YEARS);
+
+		long simYears = 0;
+		long births = -model.getSimEventCounts()[Sim.Processes.GiveBirth.ordinal()];
+		long allocatedBytes = -getAllocatedBytes();
+		for(int year = WARM_UP_YEARS + 1; year <= WARM_UP_YEARS + MEASURED_YEARS; year++) {
+			simYears += model.getSims().size();			//The population at the start of the year
+			runUntil(eventQueue, year);
+		}
+		allocatedBytes += getAllocatedBytes();
+		births += model.getSimEventCounts()[Sim.Processes.GiveBirth.ordinal()];
+
+		double bytesPerSimYear = allocatedBytes / (double) simYears;
+		String result = getEngineMode() + " engine mode" + (getBatchYearlyEvents() ? " with batched yearly events" : "") + ": " + bytesPerSimYear + " bytes allocated per Sim-year, with " + births / (double) simYears + " births per Sim-year";
+		System.out.println(result);
+		assertTrue(result, bytesPerSimYear <= MAX_BYTES_PER_SIM_YEAR);
+	}
+
+	//Fires the events of the engine up to and including the first one at the given time, which is the UpdateStatistics event that ends the year before (and runs the shards in the Sharded and Annual engine modes)
+	private static void runUntil(EventQueue eventQueue, double time) {
+		while(eventQueue.getTime() < time) {
+			eventQueue.step();
+		}
+	}
+
+	private static long getAllocatedBytes() {
+		long bytes = 0;
+		for(long threadBytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			bytes += Math.max(0, threadBytes);			//-1 for a thread that has ended
+		}
+		return bytes;
+	}
+
+}